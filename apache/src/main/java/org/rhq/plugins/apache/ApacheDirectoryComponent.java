@@ -77,7 +77,7 @@ public class ApacheDirectoryComponent implements ResourceComponent<ApacheVirtual
 
         AugeasComponent comp = getAugeas();
         try {
-            AugeasTree tree = comp.getAugeasTree(ApacheServerComponent.AUGEAS_HTTP_MODULE_NAME);
+            AugeasTree tree = comp.getCachedAugeasTree(ApacheServerComponent.AUGEAS_HTTP_MODULE_NAME);
             ConfigurationDefinition resourceConfigDef =
                 resourceContext.getResourceType().getResourceConfigurationDefinition();
 
@@ -68,7 +68,7 @@ public class ApacheDirectoryDiscoveryComponent implements ResourceDiscoveryCompo
         AugeasTree tree = null;
 
         try {
-            tree = comp.getAugeasTree(ApacheServerComponent.AUGEAS_HTTP_MODULE_NAME);
+            tree = comp.getCachedAugeasTree(ApacheServerComponent.AUGEAS_HTTP_MODULE_NAME);
         } catch (AugeasException e) {
             //we depend on Augeas to do anything useful with directories.
             //give up, if Augeas isn't there.            
@@ -72,7 +72,7 @@ public class ApacheIfModuleComponent implements ResourceComponent<ApacheVirtualH
         AugeasComponent comp = null;
         try {
             comp = parentComponent.getAugeas();
-            AugeasTree tree = comp.getAugeasTree(ApacheServerComponent.AUGEAS_HTTP_MODULE_NAME);
+            AugeasTree tree = comp.getCachedAugeasTree(ApacheServerComponent.AUGEAS_HTTP_MODULE_NAME);
             ConfigurationDefinition resourceConfigDef = context.getResourceType().getResourceConfigurationDefinition();
 
             AugeasNode virtualHostNode = parentComponent.getNode(tree);
@@ -71,7 +71,7 @@ public class ApacheIfModuleDirectoryComponent implements ResourceComponent<Apach
         AugeasComponent comp = parentComponent.getAugeas();
         AugeasTree tree = null;
         try {
-            tree = comp.getAugeasTree(ApacheServerComponent.AUGEAS_HTTP_MODULE_NAME);
+            tree = comp.getCachedAugeasTree(ApacheServerComponent.AUGEAS_HTTP_MODULE_NAME);
             AugeasNode directoryNode = parentComponent.getNode(tree);
 
             ApacheAugeasMapping mapping = new ApacheAugeasMapping(tree);
@@ -55,7 +55,7 @@ public class ApacheIfModuleDirectoryDiscoveryComponent implements ResourceDiscov
         AugeasComponent comp = directory.getAugeas();
         AugeasTree tree = null;
         try {
-            tree = comp.getAugeasTree(ApacheServerComponent.AUGEAS_HTTP_MODULE_NAME);
+            tree = comp.getCachedAugeasTree(ApacheServerComponent.AUGEAS_HTTP_MODULE_NAME);
 
             parentNode = directory.getNode(tree);
 
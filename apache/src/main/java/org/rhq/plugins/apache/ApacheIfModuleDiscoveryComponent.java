@@ -57,7 +57,7 @@ public class ApacheIfModuleDiscoveryComponent implements ResourceDiscoveryCompon
         AugeasTree tree = null;
         try {
 
-            tree = comp.getAugeasTree(ApacheServerComponent.AUGEAS_HTTP_MODULE_NAME);
+            tree = comp.getCachedAugeasTree(ApacheServerComponent.AUGEAS_HTTP_MODULE_NAME);
 
             parentNode = virtualHost.getNode(tree);
 
@@ -22,6 +22,8 @@ import java.io.File;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -85,12 +87,14 @@ import org.rhq.plugins.apache.parser.ApacheDirective;
 import org.rhq.plugins.apache.parser.ApacheDirectiveTree;
 import org.rhq.plugins.apache.util.ApacheBinaryInfo;
 import org.rhq.plugins.apache.util.ConfigurationTimestamp;
+import org.rhq.plugins.apache.util.ConfigurationWatcher;
 import org.rhq.plugins.apache.util.HttpdAddressUtility;
 import org.rhq.plugins.apache.util.PluginUtility;
 import org.rhq.plugins.platform.PlatformComponent;
 import org.rhq.plugins.www.snmp.SNMPClient;
 import org.rhq.plugins.www.snmp.SNMPException;
 import org.rhq.plugins.www.snmp.SNMPSession;
+import org.rhq.plugins.www.snmp.SNMPTableSnapshot;
 import org.rhq.plugins.www.snmp.SNMPValue;
 import org.rhq.plugins.www.util.WWWUtils;
 import org.rhq.rhqtransform.AugeasRHQComponent;
@@ -144,6 +148,13 @@ public class ApacheServerComponent implements AugeasRHQComponent, ResourceCompon
     private static final long DEFAULT_SNMP_REQUEST_TIMEOUT = 2000L;
     private static final int DEFAULT_SNMP_REQUEST_RETRIES = 1;
 
+    /**
+     * The system property with the minimum number of milliseconds between two checks of the configuration files
+     * for modifications.
+     */
+    public static final String CONFIG_CHECK_INTERVAL_SYSPROP = "rhq.apache.config-check-interval";
+    private static final long DEFAULT_CONFIG_CHECK_INTERVAL = 30 * 1000L;
+
     public static final String AUXILIARY_INDEX_PROP = "_index";
 
     public static final String SERVER_BUILT_TRAIT = "serverBuilt";
@@ -163,6 +174,15 @@ public class ApacheServerComponent implements AugeasRHQComponent, ResourceCompon
     private ResourceContext<PlatformComponent> resourceContext;
     private EventContext eventContext;
     private SNMPClient snmpClient;
+    private final SNMPTableSnapshot snmpSnapshot = new SNMPTableSnapshot();
+    private ConfigurationWatcher configurationWatcher;
+    private ConfigurationTimestamp wwwServiceIndexesTimestamp;
+    private Map<String, Integer> wwwServiceIndexes;
+    private final Object runtimeConfigurationLock = new Object();
+    private ApacheDirectiveTree runtimeConfiguration;
+    private ConfigurationTimestamp runtimeConfigurationTimestamp;
+    private List<String> runtimeConfigurationCommandLine;
+    private boolean runtimeConfigurationWarned;
     private URL url;
     private ApacheBinaryInfo binaryInfo;
     private long availPingTime = -1;
@@ -180,6 +200,15 @@ public class ApacheServerComponent implements AugeasRHQComponent, ResourceCompon
         this.resourceContext = resourceContext;
         this.eventContext = resourceContext.getEventContext();
         this.snmpClient = new SNMPClient();
+        this.configurationWatcher = new ConfigurationWatcher(getConfigurationCheckInterval()) {
+            @Override
+            protected List<File> resolveConfigurationFiles() {
+                AugeasConfigurationApache config =
+                    new AugeasConfigurationApache(ApacheServerComponent.this.resourceContext.getTemporaryDirectory()
+                        .getAbsolutePath(), ApacheServerComponent.this.resourceContext.getPluginConfiguration());
+                return config.getAllConfigurationFiles();
+            }
+        };
 
         try {
             boolean configured = false;
@@ -270,6 +299,7 @@ public class ApacheServerComponent implements AugeasRHQComponent, ResourceCompon
     public void stop() {
         this.url = null;
         stopEventPollers();
+        this.snmpSnapshot.clear();
         if (this.snmpClient != null) {
             this.snmpClient.close();
         }
@@ -314,7 +344,7 @@ public class ApacheServerComponent implements AugeasRHQComponent, ResourceCompon
 
     public void getValues(MeasurementReport report, Set<MeasurementScheduleRequest> schedules) throws Exception {
         SNMPSession snmpSession = getSNMPSession();
-        boolean snmpPresent = snmpSession.ping();
+        boolean snmpPresent = this.snmpSnapshot.ping(snmpSession);
 
         for (MeasurementScheduleRequest schedule : schedules) {
             String metricName = schedule.getName();
@@ -334,13 +364,12 @@ public class ApacheServerComponent implements AugeasRHQComponent, ResourceCompon
                 try {
                     //noinspection UnnecessaryLocalVariable
                     String mibName = metricName;
-                    List<SNMPValue> snmpValues = snmpSession.getColumn(mibName);
-                    if (snmpValues.isEmpty()) {
+                    SNMPValue snmpValue = this.snmpSnapshot.getValue(snmpSession, mibName, 1);
+                    if (snmpValue == null) {
                         log.error("No values found for MIB name [" + mibName + "].");
                         continue;
                     }
 
-                    SNMPValue snmpValue = snmpValues.get(0);
                     boolean valueIsTimestamp = isValueTimestamp(mibName);
 
                     log.debug("Collected SNMP metric [" + mibName + "], value = " + snmpValue);
@@ -373,7 +402,7 @@ public class ApacheServerComponent implements AugeasRHQComponent, ResourceCompon
             ConfigurationDefinition resourceConfigDef =
                 resourceContext.getResourceType().getResourceConfigurationDefinition();
 
-            AugeasTree tree = comp.getAugeasTree(AUGEAS_HTTP_MODULE_NAME);
+            AugeasTree tree = comp.getCachedAugeasTree(AUGEAS_HTTP_MODULE_NAME);
             ApacheAugeasMapping mapping = new ApacheAugeasMapping(tree);
             return mapping.updateConfiguration(tree.getRootNode(), resourceConfigDef);
         } catch (Exception e) {
@@ -614,6 +643,17 @@ public class ApacheServerComponent implements AugeasRHQComponent, ResourceCompon
         return ApacheServerComponent.getSNMPSession(this.snmpClient, this.resourceContext.getPluginConfiguration());
     }
 
+    /**
+     * Returns the snapshot of the SNMP tables of this server's SNMP agent. The server and all its virtual hosts read
+     * their metrics from it so that each SNMP column is walked only once per collection window.
+     *
+     * @return the SNMP snapshot shared by this server and its children
+     */
+    @NotNull
+    public SNMPTableSnapshot getSNMPSnapshot() {
+        return this.snmpSnapshot;
+    }
+
     @NotNull
     public static SNMPSession getSNMPSession(SNMPClient snmpClient, Configuration pluginConfig) throws Exception {
         SNMPSession snmpSession;
@@ -792,12 +832,51 @@ public class ApacheServerComponent implements AugeasRHQComponent, ResourceCompon
         return controlScriptFile;
     }
 
+    /**
+     * Returns the timestamp of the configuration files of this server. The files are checked for modifications
+     * at most once per configuration check interval (see {@link #CONFIG_CHECK_INTERVAL_SYSPROP}).
+     *
+     * @return the configuration timestamp
+     */
     @NotNull
     public ConfigurationTimestamp getConfigurationTimestamp() {
-        AugeasConfigurationApache config =
-            new AugeasConfigurationApache(resourceContext.getTemporaryDirectory().getAbsolutePath(),
-                resourceContext.getPluginConfiguration());
-        return new ConfigurationTimestamp(config.getAllConfigurationFiles());
+        return configurationWatcher.getTimestamp();
+    }
+
+    /**
+     * Returns the index under which the SNMP module reports the virtual host with given resource key.
+     * The indices of all the virtual hosts are computed at once and remembered until the configuration files change.
+     *
+     * @param vhostResourceKey the resource key of the virtual host
+     * @return the SNMP index of the virtual host or -1 if the virtual host is not present in the configuration
+     */
+    public int getWwwServiceIndex(String vhostResourceKey) {
+        ConfigurationTimestamp currentTimestamp = getConfigurationTimestamp();
+        synchronized (configurationWatcher) {
+            if (wwwServiceIndexes == null || !currentTimestamp.equals(wwwServiceIndexesTimestamp)) {
+                //don't go through this configuration again even if we fail further below.. we'd fail again.
+                wwwServiceIndexesTimestamp = currentTimestamp;
+                wwwServiceIndexes = Collections.emptyMap();
+
+                //configuration has changed. re-read the service indices of the virtual hosts
+                wwwServiceIndexes = ApacheVirtualHostServiceComponent.getWwwServiceIndexes(this);
+            }
+
+            return ApacheVirtualHostServiceComponent.getWwwServiceIndex(wwwServiceIndexes, vhostResourceKey);
+        }
+    }
+
+    private long getConfigurationCheckInterval() {
+        String value = System.getProperty(CONFIG_CHECK_INTERVAL_SYSPROP);
+        if (value != null) {
+            try {
+                return Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                log.warn("Invalid value of the " + CONFIG_CHECK_INTERVAL_SYSPROP + " system property: " + value);
+            }
+        }
+
+        return DEFAULT_CONFIG_CHECK_INTERVAL;
     }
 
     /**
@@ -809,6 +888,7 @@ public class ApacheServerComponent implements AugeasRHQComponent, ResourceCompon
      * @param report the report is updated with the error message and status is set to failure if the restart fails.
      */
     public void finishConfigurationUpdate(ConfigurationUpdateReport report) {
+        configurationWatcher.invalidate();
         try {
             conditionalRestart();
         } catch (Exception e) {
@@ -824,6 +904,7 @@ public class ApacheServerComponent implements AugeasRHQComponent, ResourceCompon
      * @param report the report is updated with the error message and status is set to failure if the restart fails.
      */
     public void finishChildResourceCreate(CreateResourceReport report) {
+        configurationWatcher.invalidate();
         try {
             conditionalRestart();
         } catch (Exception e) {
@@ -1009,12 +1090,53 @@ public class ApacheServerComponent implements AugeasRHQComponent, ResourceCompon
         return ApacheServerDiscoveryComponent.parseFullConfiguration(httpdConfPath, binaryInfo.getRoot());
     }
 
+    /**
+     * Parses the runtime configuration of this server. The parsed tree is remembered until the configuration files
+     * (as reported by {@link #getConfigurationTimestamp()}) or the command line of the httpd process change, so the
+     * callers get a copy of it. If the remembered tree was parsed with the warnings about unknown modules suppressed,
+     * a caller not suppressing them gets the configuration parsed again so that the warnings are logged.
+     *
+     * @param suppressUnknownModuleWarnings true if the warnings about unknown modules should be suppressed
+     * @return the runtime configuration tree
+     */
     public ApacheDirectiveTree parseRuntimeConfiguration(boolean suppressUnknownModuleWarnings) {
         String httpdConfPath = getHttpdConfFile().getAbsolutePath();
         ProcessInfo processInfo = resourceContext.getNativeProcess();
 
-        return ApacheServerDiscoveryComponent.parseRuntimeConfiguration(httpdConfPath, processInfo, binaryInfo,
-            getModuleNames(), suppressUnknownModuleWarnings);
+        ConfigurationTimestamp timestamp;
+        try {
+            timestamp = getConfigurationTimestamp();
+        } catch (Exception e) {
+            log.debug("Failed to determine the configuration timestamp. The runtime configuration will not be cached.",
+                e);
+            return ApacheServerDiscoveryComponent.parseRuntimeConfiguration(httpdConfPath, processInfo, binaryInfo,
+                getModuleNames(), suppressUnknownModuleWarnings);
+        }
+
+        List<String> commandLine = null;
+        if (processInfo != null && processInfo.getCommandLine() != null) {
+            commandLine = Arrays.asList(processInfo.getCommandLine());
+        }
+
+        synchronized (runtimeConfigurationLock) {
+            boolean commandLineChanged =
+                commandLine == null ? runtimeConfigurationCommandLine != null : !commandLine
+                    .equals(runtimeConfigurationCommandLine);
+
+            if (runtimeConfiguration == null || commandLineChanged
+                || !timestamp.equals(runtimeConfigurationTimestamp)
+                || (!suppressUnknownModuleWarnings && !runtimeConfigurationWarned)) {
+
+                runtimeConfiguration =
+                    ApacheServerDiscoveryComponent.parseRuntimeConfiguration(httpdConfPath, processInfo, binaryInfo,
+                        getModuleNames(), suppressUnknownModuleWarnings);
+                runtimeConfigurationTimestamp = timestamp;
+                runtimeConfigurationCommandLine = commandLine;
+                runtimeConfigurationWarned = !suppressUnknownModuleWarnings;
+            }
+
+            return runtimeConfiguration.clone();
+        }
     }
 
     public boolean isAugeasEnabled() {
@@ -22,6 +22,9 @@ import java.io.File;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -58,11 +61,11 @@ import org.rhq.plugins.apache.parser.ApacheDirective;
 import org.rhq.plugins.apache.parser.ApacheDirectiveTree;
 import org.rhq.plugins.apache.util.AugeasNodeSearch;
 import org.rhq.plugins.apache.util.AugeasNodeValueUtil;
-import org.rhq.plugins.apache.util.ConfigurationTimestamp;
 import org.rhq.plugins.apache.util.PluginUtility;
 import org.rhq.plugins.apache.util.RuntimeApacheConfiguration;
 import org.rhq.plugins.www.snmp.SNMPException;
 import org.rhq.plugins.www.snmp.SNMPSession;
+import org.rhq.plugins.www.snmp.SNMPTableSnapshot;
 import org.rhq.plugins.www.snmp.SNMPValue;
 import org.rhq.plugins.www.util.WWWUtils;
 
@@ -95,9 +98,6 @@ public class ApacheVirtualHostServiceComponent implements ResourceComponent<Apac
     private URL url;
     private ResponseTimeLogParser logParser;
 
-    private ConfigurationTimestamp lastConfigurationTimeStamp = new ConfigurationTimestamp();
-    private int snmpWwwServiceIndex = -1;
-
     public static final String RESOURCE_TYPE_NAME = "Apache Virtual Host";
 
     public void start(ResourceContext<ApacheServerComponent> resourceContext) throws Exception {
@@ -169,7 +169,7 @@ public class ApacheVirtualHostServiceComponent implements ResourceComponent<Apac
 
         AugeasComponent comp = getAugeas();
         try {
-            AugeasTree tree = comp.getAugeasTree(ApacheServerComponent.AUGEAS_HTTP_MODULE_NAME);
+            AugeasTree tree = comp.getCachedAugeasTree(ApacheServerComponent.AUGEAS_HTTP_MODULE_NAME);
             ConfigurationDefinition resourceConfigDef =
                 resourceContext.getResourceType().getResourceConfigurationDefinition();
 
@@ -256,9 +256,11 @@ public class ApacheVirtualHostServiceComponent implements ResourceComponent<Apac
             return;
 
         log.debug("Collecting metrics for VirtualHost service #" + primaryIndex + "...");
-        SNMPSession snmpSession = this.resourceContext.getParentResourceComponent().getSNMPSession();
+        ApacheServerComponent parent = this.resourceContext.getParentResourceComponent();
+        SNMPSession snmpSession = parent.getSNMPSession();
+        SNMPTableSnapshot snmpSnapshot = parent.getSNMPSnapshot();
 
-        if (!snmpSession.ping()) {
+        if (!snmpSnapshot.ping(snmpSession)) {
             log.debug("Failed to connect to SNMP agent at " + snmpSession + " - aborting metric collection...");
             return;
         }
@@ -283,7 +285,7 @@ public class ApacheVirtualHostServiceComponent implements ResourceComponent<Apac
             } else {
                 // Assume anything else is an SNMP metric.
                 try {
-                    collectSnmpMetric(report, primaryIndex, snmpSession, schedule);
+                    collectSnmpMetric(report, primaryIndex, snmpSession, snmpSnapshot, schedule);
                 } catch (SNMPException e) {
                     log.error("An error occurred while attempting to collect an SNMP metric.", e);
                 }
@@ -472,7 +474,7 @@ public class ApacheVirtualHostServiceComponent implements ResourceComponent<Apac
     }
 
     private void collectSnmpMetric(MeasurementReport report, int primaryIndex, SNMPSession snmpSession,
-        MeasurementScheduleRequest schedule) throws SNMPException {
+        SNMPTableSnapshot snmpSnapshot, MeasurementScheduleRequest schedule) throws SNMPException {
         SNMPValue snmpValue = null;
         String metricName = schedule.getName();
         int dotIndex = metricName.indexOf('.');
@@ -480,10 +482,13 @@ public class ApacheVirtualHostServiceComponent implements ResourceComponent<Apac
         if (dotIndex == -1) {
             // it's a service metric (e.g. "wwwServiceName") or a summary metric (e.g. "wwwSummaryInRequests")
             mibName = metricName;
-            List<SNMPValue> snmpValues = snmpSession.getColumn(mibName);
 
             // NOTE: We assume SNMPValue's are returned in index-order.
-            snmpValue = snmpValues.get(primaryIndex - 1);
+            snmpValue = snmpSnapshot.getValue(snmpSession, mibName, primaryIndex);
+            if (snmpValue == null) {
+                log.error("No value found for " + mibName + "[" + primaryIndex + "].");
+                return;
+            }
         } else {
             // it's a request or response metric (e.g. "wwwRequestInRequests.GET" or "wwwResponseOutResponses.200")
             mibName = metricName.substring(0, dotIndex);
@@ -498,12 +503,10 @@ public class ApacheVirtualHostServiceComponent implements ResourceComponent<Apac
             }
 
             boolean found = false;
-            Map<String, SNMPValue> table = snmpSession.getTable(mibName, primaryIndex);
-            if (table != null) {
-                snmpValue = table.get(oid);
-                if (snmpValue != null) {
-                    found = true;
-                }
+            Map<String, SNMPValue> table = snmpSnapshot.getTable(snmpSession, mibName, primaryIndex);
+            snmpValue = table.get(oid);
+            if (snmpValue != null) {
+                found = true;
             }
 
             if (!found) {
@@ -532,7 +535,53 @@ public class ApacheVirtualHostServiceComponent implements ResourceComponent<Apac
         return oid;
     }
 
-    public static int getWwwServiceIndex(ApacheServerComponent parent, String resourceKey) {
+    /**
+     * Computes the SNMP indices of all the virtual hosts defined in the runtime configuration of given server.
+     * The returned map is to be queried using the {@link #getWwwServiceIndex(Map, String)} method.
+     *
+     * @param parent the apache server
+     * @return the map of SNMP indices of the virtual hosts
+     */
+    static Map<String, Integer> getWwwServiceIndexes(ApacheServerComponent parent) {
+        ApacheDirectiveTree tree = parent.parseRuntimeConfiguration(false);
+
+        List<ApacheDirective> vhosts = tree.search("/<VirtualHost");
+        Map<String, Integer> indexes = new HashMap<String, Integer>(vhosts.size());
+
+        for (int i = 0; i < vhosts.size(); ++i) {
+            ApacheDirective vhost = vhosts.get(i);
+            List<ApacheDirective> serverNames = vhost.getChildByName("ServerName");
+            String serverName = serverNames.size() > 0 ? serverNames.get(0).getValuesAsString() : null;
+
+            String key = getWwwServiceIndexKey(serverName, vhost.getValues());
+
+            //the first definition of the vhost wins
+            if (!indexes.containsKey(key)) {
+                //httpd vhosts are internally (in httpd internal data structures) ordered like this:
+                //1) the main server entry is always first
+                //2) all the vhosts are ordered from the last to appear in the joined config files to the first one
+
+                //i is an index to the list of the vhosts in the order they are defined.
+                //so let's swap it over.
+                //just subtracting from the size will give us the "room" for the first index
+                //being the main host. In another words the below subtraction is correct even though
+                //you might think there's a 1-off bug there.
+                //the snmp indices are 1-based, hence the +1.
+                indexes.put(key, vhosts.size() - i + 1);
+            }
+        }
+
+        return indexes;
+    }
+
+    /**
+     * Looks up the SNMP index of the virtual host with given resource key.
+     *
+     * @param indexes the indices as computed by {@link #getWwwServiceIndexes(ApacheServerComponent)}
+     * @param resourceKey the resource key of the virtual host
+     * @return the SNMP index or -1 if the virtual host is no longer present in the configuration
+     */
+    static int getWwwServiceIndex(Map<String, Integer> indexes, String resourceKey) {
         //figure out the servername and addresses of this virtual host
         //from the resource key.
         String vhostServerName = null;
@@ -546,82 +595,39 @@ public class ApacheVirtualHostServiceComponent implements ResourceComponent<Apac
         }
         vhostAddressStrings = resourceKey.substring(pipeIdx + 1).split(" ");
 
-        int foundIdx = 0;
-
-        //only look for the vhost entry if the vhost we're looking for isn't the main server
-        if (!MAIN_SERVER_RESOURCE_KEY.equals(vhostAddressStrings[0])) {
-            ApacheDirectiveTree tree = parent.parseRuntimeConfiguration(false);
-
-            //find the vhost entry the resource key represents
-            List<ApacheDirective> vhosts = tree.search("/<VirtualHost");
-            for (ApacheDirective vhost : vhosts) {
-                List<ApacheDirective> serverNames = vhost.getChildByName("ServerName");
-                String serverName = serverNames.size() > 0 ? serverNames.get(0).getValuesAsString() : null;
-
-                List<String> addrs = vhost.getValues();
-
-                boolean serverNamesMatch =
-                    (serverName == null && vhostServerName == null)
-                        || (serverName != null && serverName.equals(vhostServerName));
-                boolean addrsMatch = true;
-
-                if (addrs.size() != vhostAddressStrings.length) {
-                    addrsMatch = false;
-                } else {
-                    for (int i = 0; i < vhostAddressStrings.length; ++i) {
-                        if (!addrs.contains(vhostAddressStrings[i])) {
-                            addrsMatch = false;
-                            break;
-                        }
-                    }
-                }
+        //the main server is always the first one
+        if (MAIN_SERVER_RESOURCE_KEY.equals(vhostAddressStrings[0])) {
+            return 1;
+        }
 
-                if (serverNamesMatch && addrsMatch) {
-                    break;
-                }
+        Integer index = indexes.get(getWwwServiceIndexKey(vhostServerName, Arrays.asList(vhostAddressStrings)));
+        if (index == null) {
+            log.debug("The virtual host with resource key [" + resourceKey
+                + "] doesn't seem to be present in the apache configuration anymore.");
+            return -1;
+        }
 
-                ++foundIdx;
-            }
+        return index;
+    }
 
-            if (foundIdx == vhosts.size()) {
-                log.debug("The virtual host with resource key [" + resourceKey
-                    + "] doesn't seem to be present in the apache configuration anymore.");
-                return -1;
-            } else {
-                //httpd vhosts are internally (in httpd internal data structures) ordered like this:
-                //1) the main server entry is always first
-                //2) all the vhosts are ordered from the last to appear in the joined config files to the first one
+    private static String getWwwServiceIndexKey(String serverName, List<String> addresses) {
+        List<String> sortedAddresses = new ArrayList<String>(addresses);
+        Collections.sort(sortedAddresses);
 
-                //we now have an index to the list of the vhosts in the order they are defined.
-                //so let's swap it over.
-                //just subtracting from the size will give us the "room" for the first index
-                //being the main host. In another words the below subtraction is correct even though
-                //you might think there's a 1-off bug there.
-                foundIdx = vhosts.size() - foundIdx;
-            }
+        StringBuilder bld = new StringBuilder();
+        bld.append(serverName == null ? "-" : "+" + serverName);
+        for (String address : sortedAddresses) {
+            bld.append('|').append(address);
         }
 
-        //the snmp indices are 1-based
-        return foundIdx + 1;
+        return bld.toString();
     }
 
     /**
      * @return the index of the virtual host that identifies it in SNMP
-     * @throws Exception on SNMP error
      */
     private int getWwwServiceIndex() {
-        ConfigurationTimestamp currentTimestamp =
-            resourceContext.getParentResourceComponent().getConfigurationTimestamp();
-        if (!lastConfigurationTimeStamp.equals(currentTimestamp)) {
-            snmpWwwServiceIndex = -1;
-            //don't go through this configuration again even if we fail further below.. we'd fail again.
-            lastConfigurationTimeStamp = currentTimestamp;
-
-            //configuration has changed. re-read the service index of this virtual host            
-            snmpWwwServiceIndex =
-                getWwwServiceIndex(resourceContext.getParentResourceComponent(), resourceContext.getResourceKey());
-        }
-        return snmpWwwServiceIndex;
+        return resourceContext.getParentResourceComponent().getWwwServiceIndex(resourceContext.getResourceKey());
     }
 
     private ResourceType getDirectoryResourceType() {
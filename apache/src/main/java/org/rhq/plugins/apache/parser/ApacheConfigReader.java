@@ -3,7 +3,12 @@ package org.rhq.plugins.apache.parser;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -15,6 +20,22 @@ public class ApacheConfigReader {
     private static final Pattern emptyLinePattern = Pattern.compile(EMPTY_LINE);
     private static final Log log = LogFactory.getLog(ApacheConfigReader.class);
 
+    private static final int MAX_PARSED_FILES = 5000;
+
+    /**
+     * The directives of the files parsed so far, keyed by the path of the file. The entries are invalidated when
+     * the size or modification time of the file changes.
+     */
+    private static final Map<String, ParsedFile> PARSED_FILES = new LinkedHashMap<String, ParsedFile>(16, 0.75f,
+        true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ParsedFile> eldest) {
+            return size() > MAX_PARSED_FILES;
+        }
+    };
+
     public static void buildTree(String path, ApacheParser parser) {
         searchFile(path, parser);
     }
@@ -26,38 +47,87 @@ public class ApacheConfigReader {
             throw new ApacheParserException("Apache configuration file " + path + " was not found.");
         }
 
-        BufferedReader br = null;
+        try {
+            for (ApacheDirective dir : readDirectives(configFile, path)) {
+                String name = dir.getName();
+                if (name.startsWith("</"))
+                    parser.endNestedDirective(dir);
+                else if (name.startsWith("<"))
+                    parser.startNestedDirective(dir);
+                else
+                    parser.addDirective(dir);
+            }
+        } catch (ApacheParserException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ApacheParserException(e);
+        }
+    }
+
+    /**
+     * Returns fresh copies of the (non-comment) directives in the file. The directives are read from the disk
+     * only if the file changed since it was last read, otherwise they are copied from the cache.
+     */
+    private static List<ApacheDirective> readDirectives(File configFile, String path) throws IOException {
+        long length = configFile.length();
+        long lastModified = configFile.lastModified();
+
+        ParsedFile parsed;
+        synchronized (PARSED_FILES) {
+            parsed = PARSED_FILES.get(path);
+        }
+
+        if (parsed == null || parsed.length != length || parsed.lastModified != lastModified) {
+            parsed = new ParsedFile(length, lastModified, parseFile(configFile));
+            synchronized (PARSED_FILES) {
+                PARSED_FILES.put(path, parsed);
+            }
+        }
+
+        List<ApacheDirective> ret = new ArrayList<ApacheDirective>(parsed.directives.length);
+        for (ApacheDirective cached : parsed.directives) {
+            ApacheDirective dir = new ApacheDirective();
+            dir.setName(cached.getName());
+            dir.setValues(new ArrayList<String>(cached.getValues()));
+            dir.setFile(path);
+            ret.add(dir);
+        }
+
+        return ret;
+    }
+
+    private static ApacheDirective[] parseFile(File configFile) throws IOException {
+        List<ApacheDirective> directives = new ArrayList<ApacheDirective>();
 
+        BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(configFile)));
         try {
-            FileInputStream fstream = new FileInputStream(configFile);
-            br = new BufferedReader(new InputStreamReader(fstream));
             String strLine;
 
             while ((strLine = br.readLine()) != null) {
                 Matcher matcher = emptyLinePattern.matcher(strLine);
                 if (!matcher.matches()) {
                     ApacheDirective dir = new ApacheDirective(strLine);
-                    dir.setFile(path);
-                    String name = dir.getName();
-                    if (!name.equals("#")) {
-                        if (name.startsWith("</"))
-                            parser.endNestedDirective(dir);
-                        else if (name.startsWith("<"))
-                            parser.startNestedDirective(dir);
-                        else
-                            parser.addDirective(dir);
+                    if (!dir.getName().equals("#")) {
+                        directives.add(dir);
                     }
                 }
             }
+        } finally {
             br.close();
+        }
 
-        } catch (Exception e) {
-            try {
-                if (br != null)
-                    br.close();
-            } catch (Exception ee) {
-            }
-            throw new ApacheParserException(e);
+        return directives.toArray(new ApacheDirective[directives.size()]);
+    }
+
+    private static class ParsedFile {
+        final long length;
+        final long lastModified;
+        final ApacheDirective[] directives;
+
+        ParsedFile(long length, long lastModified, ApacheDirective[] directives) {
+            this.length = length;
+            this.lastModified = lastModified;
+            this.directives = directives;
         }
     }
 }
@@ -0,0 +1,125 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2012 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package org.rhq.plugins.apache.util;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps track of the set of configuration files and their {@link ConfigurationTimestamp}.
+ * <p>
+ * Resolving the set of files is expensive (all the include globs have to be expanded), so it is only done
+ * when one of the known files or one of the directories containing them changes (a file being added to or removed
+ * from a directory changes the modification time of the directory). The known files are checked at most once per
+ * check interval and a full resolution is forced every {@link #RESOLVE_INTERVAL_CHECKS} checks to catch includes
+ * of directories that contained no configuration file before.
+ */
+public abstract class ConfigurationWatcher {
+
+    public static final int RESOLVE_INTERVAL_CHECKS = 10;
+
+    private final long checkInterval;
+
+    private ConfigurationTimestamp timestamp;
+    private Map<File, Long> watchedFiles = new HashMap<File, Long>();
+    private long lastCheck;
+    private int checksSinceResolve;
+
+    public ConfigurationWatcher(long checkInterval) {
+        this.checkInterval = checkInterval;
+    }
+
+    /**
+     * Resolves the full list of the configuration files.
+     *
+     * @return the configuration files
+     */
+    protected abstract List<File> resolveConfigurationFiles();
+
+    /**
+     * Returns the timestamp of the configuration files as of the last check, checking the files first if the check
+     * interval has elapsed.
+     *
+     * @return the configuration timestamp
+     */
+    public synchronized ConfigurationTimestamp getTimestamp() {
+        long now = System.currentTimeMillis();
+        if (timestamp != null && now >= lastCheck && now - lastCheck < checkInterval) {
+            return timestamp;
+        }
+
+        lastCheck = now;
+
+        if (timestamp == null || ++checksSinceResolve >= RESOLVE_INTERVAL_CHECKS || isChanged()) {
+            resolve();
+        }
+
+        return timestamp;
+    }
+
+    /**
+     * Makes the next call to {@link #getTimestamp()} resolve the configuration files again. This should be called
+     * whenever the configuration is known to have been modified.
+     */
+    public synchronized void invalidate() {
+        timestamp = null;
+    }
+
+    private boolean isChanged() {
+        for (Map.Entry<File, Long> entry : watchedFiles.entrySet()) {
+            if (entry.getKey().lastModified() != entry.getValue()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private void resolve() {
+        List<File> files = resolveConfigurationFiles();
+
+        Map<File, Long> watched = new HashMap<File, Long>();
+        for (File f : files) {
+            File absolute = f.getAbsoluteFile();
+            watched.put(absolute, absolute.lastModified());
+
+            File dir = absolute.getParentFile();
+            if (dir != null && !watched.containsKey(dir)) {
+                watched.put(dir, dir.lastModified());
+            }
+        }
+
+        ConfigurationTimestamp newTimestamp = new ConfigurationTimestamp(files);
+
+        //keep the old instance if nothing changed so that callers can cheaply compare
+        if (!newTimestamp.equals(timestamp)) {
+            timestamp = newTimestamp;
+        }
+
+        watchedFiles = watched;
+        checksSinceResolve = 0;
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2012 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.plugins.www.snmp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jetbrains.annotations.Nullable;
+import org.snmp4j.smi.OID;
+
+/**
+ * A snapshot of the SNMP tables of a single agent, shared by all the components that collect metrics from that agent.
+ * Each column (or table) is walked at most once per collection window, and the rows are kept in an array so that every
+ * row of the column can be served from the one walk. The agent is likewise pinged at most once per window.
+ */
+public class SNMPTableSnapshot {
+
+    private static final Log log = LogFactory.getLog(SNMPTableSnapshot.class);
+
+    private static final String WINDOW_SYSPROP = "rhq.apache.snmp-snapshot-window";
+    private static final long DEFAULT_WINDOW = 15 * 1000L; //15 seconds
+
+    private final long window;
+
+    private long pingTimestamp;
+    private boolean pingResult;
+
+    private final Map<String, Column> columns = new HashMap<String, Column>();
+    private final Map<String, Table> tables = new HashMap<String, Table>();
+
+    public SNMPTableSnapshot() {
+        this(getDefaultWindow());
+    }
+
+    public SNMPTableSnapshot(long window) {
+        this.window = window;
+    }
+
+    /**
+     * Pings the agent unless it has already been pinged in the current collection window.
+     *
+     * @param session the session to the agent
+     * @return the result of the most recent ping
+     */
+    public synchronized boolean ping(SNMPSession session) {
+        long now = System.currentTimeMillis();
+        if (isExpired(pingTimestamp, now)) {
+            pingResult = session.ping();
+            pingTimestamp = now;
+        }
+
+        return pingResult;
+    }
+
+    /**
+     * Returns the value in given row of a column. The rows are numbered from 1 in the order in which the agent returns
+     * them.
+     *
+     * @param session the session to the agent
+     * @param mibName the MIB name of the column
+     * @param row the 1-based row number
+     * @return the value or null if the column doesn't have such row
+     * @throws SNMPException if an error occurs communicating with the SNMP agent
+     */
+    @Nullable
+    public synchronized SNMPValue getValue(SNMPSession session, String mibName, int row) throws SNMPException {
+        long now = System.currentTimeMillis();
+        Column column = columns.get(mibName);
+        if (column == null || isExpired(column.timestamp, now)) {
+            List<SNMPValue> values = session.getColumn(mibName);
+            column = new Column(now, values.toArray(new SNMPValue[values.size()]));
+            columns.put(mibName, column);
+        }
+
+        if (row < 1 || row > column.rows.length) {
+            return null;
+        }
+
+        return column.rows[row - 1];
+    }
+
+    /**
+     * Returns the entries of the table rooted at given MIB name that belong to given index. This is equivalent to
+     * {@link SNMPSession#getTable(String, int)} but the whole table is walked only once for all the indices.
+     *
+     * @param session the session to the agent
+     * @param mibName the MIB name of the table
+     * @param index the index of the entries
+     * @return the entries keyed by the remainder of their OIDs, never null
+     * @throws SNMPException if an error occurs communicating with the SNMP agent
+     */
+    public synchronized Map<String, SNMPValue> getTable(SNMPSession session, String mibName, int index)
+        throws SNMPException {
+        long now = System.currentTimeMillis();
+        Table table = tables.get(mibName);
+        if (table == null || isExpired(table.timestamp, now)) {
+            table = new Table(now, splitTable(SNMPClient.getMibOID(mibName), session.getColumn(mibName)));
+            tables.put(mibName, table);
+        }
+
+        if (index < 0 || index >= table.rows.length || table.rows[index] == null) {
+            return Collections.emptyMap();
+        }
+
+        return table.rows[index];
+    }
+
+    /**
+     * Forgets all the collected data so that the next request goes to the agent.
+     */
+    public synchronized void clear() {
+        pingTimestamp = 0;
+        columns.clear();
+        tables.clear();
+    }
+
+    private boolean isExpired(long timestamp, long now) {
+        return timestamp == 0 || now - timestamp >= window || now < timestamp;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, SNMPValue>[] splitTable(OID rootOid, List<SNMPValue> values) {
+        List<Map<String, SNMPValue>> rows = new ArrayList<Map<String, SNMPValue>>();
+        int rootSize = rootOid.size();
+        for (SNMPValue value : values) {
+            OID leafOid = new OID(value.getOID());
+            if (leafOid.size() <= rootSize + 1 || !leafOid.startsWith(rootOid)) {
+                continue;
+            }
+
+            int index = leafOid.get(rootSize);
+            if (index < 0) {
+                continue;
+            }
+
+            while (rows.size() <= index) {
+                rows.add(null);
+            }
+
+            Map<String, SNMPValue> row = rows.get(index);
+            if (row == null) {
+                row = new LinkedHashMap<String, SNMPValue>();
+                rows.set(index, row);
+            }
+
+            OID suffixOid = new OID(leafOid.getValue(), rootSize + 1, leafOid.size() - rootSize - 1);
+            row.put(suffixOid.toString(), value);
+        }
+
+        return rows.toArray(new Map[rows.size()]);
+    }
+
+    private static long getDefaultWindow() {
+        String value = System.getProperty(WINDOW_SYSPROP);
+        if (value != null) {
+            try {
+                return Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                log.warn("Invalid value of the " + WINDOW_SYSPROP + " system property: " + value);
+            }
+        }
+
+        return DEFAULT_WINDOW;
+    }
+
+    private static class Column {
+        final long timestamp;
+        final SNMPValue[] rows;
+
+        Column(long timestamp, SNMPValue[] rows) {
+            this.timestamp = timestamp;
+            this.rows = rows;
+        }
+    }
+
+    private static class Table {
+        final long timestamp;
+        final Map<String, SNMPValue>[] rows;
+
+        Table(long timestamp, Map<String, SNMPValue>[] rows) {
+            this.timestamp = timestamp;
+            this.rows = rows;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2012 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package org.rhq.plugins.apache.parser;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.List;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.rhq.core.util.file.FileUtil;
+
+@Test
+public class ApacheConfigReaderTest {
+
+    private File tmpDir;
+
+    @BeforeMethod
+    public void createTmpDir() throws Exception {
+        tmpDir = FileUtil.createTempDirectory("apache-config-reader-tests", null, null);
+    }
+
+    @AfterMethod
+    public void deleteTmpDir() {
+        FileUtil.purge(tmpDir, true);
+    }
+
+    public void testIncludedFilesReparsedOnlyWhenChanged() throws Exception {
+        File vhosts = new File(tmpDir, "vhosts.conf");
+        File httpdConf = new File(tmpDir, "httpd.conf");
+
+        write(httpdConf, "Include " + vhosts.getAbsolutePath() + "\n");
+        write(vhosts, "<VirtualHost 127.0.0.1:80>\nServerName first\n</VirtualHost>\n");
+
+        ApacheDirectiveTree first = parse(httpdConf);
+        ApacheDirectiveTree second = parse(httpdConf);
+
+        List<ApacheDirective> firstVhosts = first.search("/<VirtualHost");
+        List<ApacheDirective> secondVhosts = second.search("/<VirtualHost");
+        assertEquals(firstVhosts.size(), 1);
+        assertEquals(secondVhosts.size(), 1);
+        assertNotSame(firstVhosts.get(0), secondVhosts.get(0), "Cached directives must not be shared between trees");
+        assertEquals(secondVhosts.get(0).getFile(), vhosts.getAbsolutePath());
+
+        write(vhosts, "<VirtualHost 127.0.0.1:80>\nServerName first\n</VirtualHost>\n"
+            + "<VirtualHost 127.0.0.1:81>\nServerName second\n</VirtualHost>\n");
+        vhosts.setLastModified(vhosts.lastModified() + 10000);
+
+        List<ApacheDirective> changedVhosts = parse(httpdConf).search("/<VirtualHost");
+        assertEquals(changedVhosts.size(), 2);
+        assertEquals(changedVhosts.get(1).getChildByName("ServerName").get(0).getValuesAsString(), "second");
+    }
+
+    private ApacheDirectiveTree parse(File httpdConf) {
+        ApacheDirectiveTree tree = new ApacheDirectiveTree();
+        ApacheConfigReader.buildTree(httpdConf.getAbsolutePath(), new ApacheParserImpl(tree, tmpDir
+            .getAbsolutePath(), null));
+        return tree;
+    }
+
+    private static void write(File file, String contents) throws IOException {
+        FileWriter wrt = new FileWriter(file);
+        try {
+            wrt.write(contents);
+        } finally {
+            wrt.close();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2012 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package org.rhq.plugins.apache.util;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.rhq.core.util.file.FileUtil;
+
+@Test
+public class ConfigurationWatcherTest {
+
+    private File tmpDir;
+    private File confFile;
+
+    @BeforeMethod
+    public void createFiles() throws Exception {
+        tmpDir = FileUtil.createTempDirectory("apache-configuration-watcher-tests", null, null);
+        confFile = new File(tmpDir, "httpd.conf");
+        confFile.createNewFile();
+    }
+
+    @AfterMethod
+    public void deleteFiles() {
+        FileUtil.purge(tmpDir, true);
+    }
+
+    public void testUnchangedFilesNotResolvedAgain() throws Exception {
+        CountingWatcher watcher = new CountingWatcher(0);
+
+        ConfigurationTimestamp first = watcher.getTimestamp();
+        assertSame(watcher.getTimestamp(), first);
+        assertEquals(watcher.resolutions, 1);
+
+        watcher.invalidate();
+        watcher.getTimestamp();
+        assertEquals(watcher.resolutions, 2);
+    }
+
+    public void testModificationDetected() throws Exception {
+        CountingWatcher watcher = new CountingWatcher(0);
+
+        ConfigurationTimestamp first = watcher.getTimestamp();
+        confFile.setLastModified(confFile.lastModified() - 10000);
+
+        assertFalse(first.equals(watcher.getTimestamp()));
+        assertEquals(watcher.resolutions, 2);
+    }
+
+    public void testChecksRateLimited() throws Exception {
+        CountingWatcher watcher = new CountingWatcher(60 * 1000L);
+
+        ConfigurationTimestamp first = watcher.getTimestamp();
+        confFile.setLastModified(confFile.lastModified() - 10000);
+
+        assertSame(watcher.getTimestamp(), first);
+        assertEquals(watcher.resolutions, 1);
+    }
+
+    private class CountingWatcher extends ConfigurationWatcher {
+        int resolutions;
+
+        CountingWatcher(long checkInterval) {
+            super(checkInterval);
+        }
+
+        @Override
+        protected List<File> resolveConfigurationFiles() {
+            resolutions++;
+            return Arrays.asList(confFile);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2012 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.plugins.www.snmp;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.snmp4j.smi.Integer32;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.VariableBinding;
+import org.testng.annotations.Test;
+
+@Test
+public class SNMPTableSnapshotTest {
+
+    private static final String COLUMN = "1.3.6.1.2.1.65.1.1.1.1.5";
+    private static final String TABLE = "1.3.6.1.2.1.65.1.2.2.1.2";
+
+    public void testColumnWalkedOncePerWindow() throws Exception {
+        CountingSession session = new CountingSession();
+        session.values.add(value(COLUMN + ".1", 10));
+        session.values.add(value(COLUMN + ".2", 20));
+        session.values.add(value(COLUMN + ".3", 30));
+
+        SNMPTableSnapshot snapshot = new SNMPTableSnapshot(60 * 1000L);
+
+        assertTrue(snapshot.ping(session));
+        assertTrue(snapshot.ping(session));
+        assertEquals(session.pings, 1);
+
+        assertEquals(snapshot.getValue(session, COLUMN, 1).toLong(), 10);
+        assertEquals(snapshot.getValue(session, COLUMN, 3).toLong(), 30);
+        assertNull(snapshot.getValue(session, COLUMN, 4));
+        assertEquals(session.walks, 1);
+
+        snapshot.clear();
+        assertEquals(snapshot.getValue(session, COLUMN, 2).toLong(), 20);
+        assertEquals(session.walks, 2);
+    }
+
+    public void testTableSplitByIndex() throws Exception {
+        CountingSession session = new CountingSession();
+        session.values.add(value(TABLE + ".1.3.71.69.84", 5));
+        session.values.add(value(TABLE + ".1.4.80.79.83.84", 6));
+        session.values.add(value(TABLE + ".3.3.71.69.84", 7));
+
+        SNMPTableSnapshot snapshot = new SNMPTableSnapshot(60 * 1000L);
+
+        Map<String, SNMPValue> first = snapshot.getTable(session, TABLE, 1);
+        assertEquals(first.size(), 2);
+        assertEquals(first.get("3.71.69.84").toLong(), 5);
+        assertEquals(first.get("4.80.79.83.84").toLong(), 6);
+
+        assertTrue(snapshot.getTable(session, TABLE, 2).isEmpty());
+        assertEquals(snapshot.getTable(session, TABLE, 3).get("3.71.69.84").toLong(), 7);
+        assertTrue(snapshot.getTable(session, TABLE, 4).isEmpty());
+
+        assertEquals(session.walks, 1);
+    }
+
+    private static SNMPValue value(String oid, int value) {
+        return new SNMPValue(new VariableBinding(new OID(oid), new Integer32(value)));
+    }
+
+    private static class CountingSession implements SNMPSession {
+        final List<SNMPValue> values = new ArrayList<SNMPValue>();
+        int walks;
+        int pings;
+
+        public SNMPValue getSingleValue(String mibName) throws SNMPException {
+            throw new UnsupportedOperationException();
+        }
+
+        public SNMPValue getNextValue(String mibName) throws SNMPException {
+            throw new UnsupportedOperationException();
+        }
+
+        public List<SNMPValue> getColumn(String mibName) throws SNMPException {
+            walks++;
+            return new ArrayList<SNMPValue>(values);
+        }
+
+        public Map<String, SNMPValue> getTable(String mibName, int index) throws SNMPException {
+            throw new UnsupportedOperationException();
+        }
+
+        public List<SNMPValue> getBulk(String mibName) throws SNMPException {
+            throw new UnsupportedOperationException();
+        }
+
+        public boolean ping() {
+            pings++;
+            return true;
+        }
+
+        public void close() {
+        }
+    }
+}
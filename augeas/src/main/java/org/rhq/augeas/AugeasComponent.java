@@ -1,9 +1,14 @@
 package org.rhq.augeas;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import org.rhq.augeas.config.AugeasConfiguration;
+import org.rhq.augeas.config.AugeasModuleConfig;
 import org.rhq.augeas.tree.AugeasTree;
 import org.rhq.augeas.tree.AugeasTreeBuilder;
 
@@ -11,6 +16,7 @@ public abstract class AugeasComponent {
 
     AugeasProxy augeasProxy;
     boolean isClosed = true;
+    AugeasTreeCache.Handle<CachedTree> cachedTree;
     private final Log log = LogFactory.getLog(this.getClass());
 
     public abstract AugeasConfiguration initConfiguration();
@@ -31,8 +37,67 @@ public abstract class AugeasComponent {
         return augeasProxy.getAugeasTree(moduleName, true);
     }
 
+    /**
+     * Returns the tree from the {@link AugeasTreeCache}, loading it only if any of the configuration files changed
+     * since it was cached. The returned tree must not be modified. Use {@link #getAugeasTree(String)} to obtain
+     * a tree that can be updated and saved.
+     * <p/>
+     * The tree is handed back to the cache by calling {@link #close()}.
+     *
+     * @param moduleName the name of the module to load
+     * @return the cached tree
+     */
+    public AugeasTree getCachedAugeasTree(final String moduleName) {
+        if (!isClosed)
+            close();
+
+        final AugeasConfiguration config = initConfiguration();
+        final AugeasTreeBuilder builder = initTreeBuilder();
+        config.loadFiles();
+
+        StringBuilder key = new StringBuilder();
+        key.append(builder.getClass().getName()).append('|').append(moduleName).append('|')
+            .append(config.getRootPath()).append('|').append(config.getLoadPath()).append('|')
+            .append(config.getMode());
+        List<File> files = new ArrayList<File>();
+        for (AugeasModuleConfig module : config.getModules()) {
+            key.append('|').append(module.getModuletName()).append(':').append(module.getLensPath()).append(':')
+                .append(module.getIncludedGlobs()).append(':').append(module.getExcludedGlobs());
+            for (String file : module.getConfigFiles()) {
+                files.add(new File(file));
+            }
+        }
+
+        cachedTree = AugeasTreeCache.acquire(key.toString(), files, new AugeasTreeCache.Loader<CachedTree>() {
+            public CachedTree load() {
+                AugeasProxy proxy = new AugeasProxy(config, builder);
+                proxy.load();
+                try {
+                    return new CachedTree(proxy, proxy.getAugeasTree(moduleName, true));
+                } catch (RuntimeException e) {
+                    proxy.close();
+                    throw e;
+                }
+            }
+
+            public void close(CachedTree value) {
+                value.proxy.close();
+            }
+        });
+
+        augeasProxy = cachedTree.get().proxy;
+        isClosed = false;
+        return cachedTree.get().tree;
+    }
+
     public void close() {
         isClosed = true;
+        if (cachedTree != null) {
+            //the proxy is owned by the cache
+            cachedTree.release();
+            cachedTree = null;
+            augeasProxy = null;
+        }
         if (augeasProxy != null) {
             try {
                 augeasProxy.close();
@@ -49,4 +114,13 @@ public abstract class AugeasComponent {
         return augeasProxy.getConfiguration();
     }
 
+    static class CachedTree {
+        final AugeasProxy proxy;
+        final AugeasTree tree;
+
+        CachedTree(AugeasProxy proxy, AugeasTree tree) {
+            this.proxy = proxy;
+            this.tree = tree;
+        }
+    }
 }
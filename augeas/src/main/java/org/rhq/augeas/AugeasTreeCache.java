@@ -0,0 +1,311 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2012 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package org.rhq.augeas;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A size bounded cache of loaded Augeas trees (or native Augeas handles) shared by all the components
+ * reading the same configuration.
+ * <p/>
+ * Loading a tree means parsing all the configuration files with the lens, which is expensive. The cache keeps
+ * the loaded trees keyed by a caller supplied key describing the configuration (the module, lens, include
+ * and exclude globs, ...) and remembers the path, size and modification time of each of the files the tree
+ * was loaded from. A tree is only loaded again once one of its files changes or it has been invalidated. As the
+ * modification times of the files may not change within a second, whoever saves the configuration must invalidate
+ * the trees loaded from it.
+ * <p/>
+ * Neither the native Augeas handles nor the trees built on top of them are thread-safe, so a cached tree is
+ * handed out to a single caller at a time. Callers asking for a tree that is currently in use get a private
+ * copy that is not cached. The handles are reference counted and a tree that has been evicted or invalidated
+ * while in use is only closed once it has been released.
+ * <p/>
+ * The cached trees must only be read. Callers that modify the configuration must load their own tree.
+ */
+public final class AugeasTreeCache {
+
+    private static final Log LOG = LogFactory.getLog(AugeasTreeCache.class);
+
+    private static final String MAX_SIZE_SYSPROP = "rhq.augeas.tree-cache-size";
+
+    static final int MAX_SIZE = Integer.getInteger(MAX_SIZE_SYSPROP, 16);
+
+    private static final Map<String, Entry<?>> ENTRIES = new LinkedHashMap<String, Entry<?>>(16, 0.75f, true);
+
+    private AugeasTreeCache() {
+    }
+
+    /**
+     * Loads and closes the cached values.
+     *
+     * @param <T> the type of the cached value
+     */
+    public interface Loader<T> {
+        /**
+         * Loads the value. Called outside of any lock.
+         */
+        T load();
+
+        /**
+         * Closes the value once it has been evicted from the cache and no longer used.
+         */
+        void close(T value);
+    }
+
+    /**
+     * A reference to a value obtained from the cache. Must be released once the caller is done with the value.
+     *
+     * @param <T> the type of the cached value
+     */
+    public static final class Handle<T> {
+        private final Entry<T> entry;
+        private boolean released;
+
+        private Handle(Entry<T> entry) {
+            this.entry = entry;
+        }
+
+        public T get() {
+            return entry.value;
+        }
+
+        /**
+         * Returns the value to the cache.
+         */
+        public void release() {
+            synchronized (ENTRIES) {
+                if (released) {
+                    return;
+                }
+                released = true;
+                entry.refCount--;
+            }
+            entry.closeIfUnused();
+        }
+
+        /**
+         * Releases the value and removes it from the cache, e.g. because it could have been modified.
+         */
+        public void invalidate() {
+            synchronized (ENTRIES) {
+                if (ENTRIES.get(entry.key) == entry) {
+                    ENTRIES.remove(entry.key);
+                }
+                entry.evicted = true;
+            }
+            release();
+        }
+    }
+
+    private static final class Entry<T> {
+        final String key;
+        final String fingerprint;
+        final Set<String> paths;
+        final T value;
+        final Loader<T> loader;
+        int refCount;
+        boolean evicted;
+        boolean closed;
+
+        Entry(String key, String fingerprint, Set<String> paths, T value, Loader<T> loader) {
+            this.key = key;
+            this.fingerprint = fingerprint;
+            this.paths = paths;
+            this.value = value;
+            this.loader = loader;
+        }
+
+        void closeIfUnused() {
+            synchronized (ENTRIES) {
+                if (!evicted || refCount > 0 || closed) {
+                    return;
+                }
+                closed = true;
+            }
+
+            try {
+                loader.close(value);
+            } catch (Exception e) {
+                LOG.error("Could not close the cached Augeas tree " + key, e);
+            }
+        }
+    }
+
+    /**
+     * Returns the value cached under the key if none of the files changed since it was loaded and it is not
+     * in use. Otherwise loads the value using the loader.
+     *
+     * @param key the description of what the value was loaded from
+     * @param files the files the value is loaded from
+     * @param loader the loader to load the value with
+     * @return the handle to the value
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> Handle<T> acquire(String key, Collection<File> files, Loader<T> loader) {
+        Set<String> paths = paths(files);
+        String fingerprint = fingerprint(paths);
+        List<Entry<?>> toClose = new ArrayList<Entry<?>>();
+        boolean privateCopy = false;
+
+        try {
+            synchronized (ENTRIES) {
+                Entry<T> entry = (Entry<T>) ENTRIES.get(key);
+                if (entry != null) {
+                    if (!entry.fingerprint.equals(fingerprint)) {
+                        ENTRIES.remove(key);
+                        entry.evicted = true;
+                        toClose.add(entry);
+                    } else if (entry.refCount == 0) {
+                        entry.refCount++;
+                        return new Handle<T>(entry);
+                    } else {
+                        //in use by someone else, load a private copy
+                        privateCopy = true;
+                    }
+                }
+            }
+
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Loading Augeas tree " + key);
+            }
+
+            Entry<T> entry = new Entry<T>(key, fingerprint, paths, loader.load(), loader);
+            entry.refCount++;
+
+            synchronized (ENTRIES) {
+                if (privateCopy || ENTRIES.containsKey(key)) {
+                    //someone else has or loaded it in the meantime, keep ours private
+                    entry.evicted = true;
+                } else {
+                    ENTRIES.put(key, entry);
+                    if (ENTRIES.size() > MAX_SIZE) {
+                        Iterator<Entry<?>> it = ENTRIES.values().iterator();
+                        Entry<?> eldest = it.next();
+                        it.remove();
+                        eldest.evicted = true;
+                        toClose.add(eldest);
+                    }
+                }
+            }
+
+            return new Handle<T>(entry);
+        } finally {
+            for (Entry<?> e : toClose) {
+                e.closeIfUnused();
+            }
+        }
+    }
+
+    /**
+     * Evicts the value cached under the key. A value in use is closed once it is released.
+     *
+     * @param key the description of what the value was loaded from
+     */
+    public static void invalidate(String key) {
+        Entry<?> entry;
+        synchronized (ENTRIES) {
+            entry = ENTRIES.remove(key);
+            if (entry == null) {
+                return;
+            }
+            entry.evicted = true;
+        }
+
+        entry.closeIfUnused();
+    }
+
+    /**
+     * Evicts all the values loaded from any of the files, e.g. because they have been saved. The values in use are
+     * closed once they are released.
+     *
+     * @param files the files
+     */
+    public static void invalidateFiles(Collection<File> files) {
+        Set<String> paths = paths(files);
+        List<Entry<?>> toClose = new ArrayList<Entry<?>>();
+        synchronized (ENTRIES) {
+            Iterator<Entry<?>> it = ENTRIES.values().iterator();
+            while (it.hasNext()) {
+                Entry<?> e = it.next();
+                if (!Collections.disjoint(e.paths, paths)) {
+                    it.remove();
+                    e.evicted = true;
+                    toClose.add(e);
+                }
+            }
+        }
+
+        for (Entry<?> e : toClose) {
+            e.closeIfUnused();
+        }
+    }
+
+    /**
+     * Evicts all the cached values. The values in use are closed once they are released.
+     */
+    public static void clear() {
+        List<Entry<?>> entries;
+        synchronized (ENTRIES) {
+            entries = new ArrayList<Entry<?>>(ENTRIES.values());
+            ENTRIES.clear();
+            for (Entry<?> e : entries) {
+                e.evicted = true;
+            }
+        }
+
+        for (Entry<?> e : entries) {
+            e.closeIfUnused();
+        }
+    }
+
+    private static Set<String> paths(Collection<File> files) {
+        Set<String> paths = new TreeSet<String>();
+        for (File f : files) {
+            paths.add(f.getAbsolutePath());
+        }
+        return paths;
+    }
+
+    private static String fingerprint(Set<String> paths) {
+        StringBuilder bld = new StringBuilder();
+        for (String path : paths) {
+            File f = new File(path);
+            bld.append(path).append(':').append(f.length()).append(':').append(f.lastModified()).append('\n');
+        }
+
+        return bld.toString();
+    }
+}
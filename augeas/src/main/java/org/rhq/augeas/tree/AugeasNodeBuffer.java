@@ -23,8 +23,9 @@
 
 package org.rhq.augeas.tree;
 
-import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -35,112 +36,204 @@ import org.rhq.augeas.node.AugeasNode;
  * Stores a buffer of already loaded augeas nodes.
  * This can be used in the {@link AugeasTree} implementations
  * to check whether certain nodes have already been loaded.
+ * <p/>
+ * The nodes are indexed by the segments of their paths so that looking up a node
+ * only walks the depth of the tree and renumbering the siblings of a removed node only
+ * touches the subtrees of those siblings instead of the whole buffer.
  * 
  * @author Filip Drabek
  *
  */
 public class AugeasNodeBuffer {
 
-    private Map<String, AugeasNode> buffer;
+    private final Entry root;
 
     public AugeasNodeBuffer() {
-        buffer = new HashMap<String, AugeasNode>();
+        root = new Entry(null, "");
+    }
+
+    /**
+     * A segment of a path. Holds the node on the path if it has been loaded.
+     */
+    private static class Entry {
+        private Entry parent;
+        private String segment;
+        private AugeasNode node;
+        private Map<String, Entry> children;
+
+        Entry(Entry parent, String segment) {
+            this.parent = parent;
+            this.segment = segment;
+        }
+
+        Entry getChild(String segment) {
+            return children == null ? null : children.get(segment);
+        }
+
+        Entry getOrCreateChild(String segment) {
+            Entry child = getChild(segment);
+            if (child == null) {
+                if (children == null) {
+                    children = new HashMap<String, Entry>();
+                }
+                child = new Entry(this, segment);
+                children.put(segment, child);
+            }
+            return child;
+        }
+
+        boolean isEmpty() {
+            return node == null && (children == null || children.isEmpty());
+        }
     }
 
     public boolean isNodeLoaded(String name) {
-        return buffer.containsKey(name);
+        return getNode(name) != null;
     }
 
     public AugeasNode getNode(String name) {
-        return buffer.get(name);
+        Entry entry = find(name);
+        return entry == null ? null : entry.node;
     }
 
     public void addNode(AugeasNode node) {
-        if (!isNodeLoaded(node.getFullPath()))
-            buffer.put(node.getFullPath(), node);
+        Entry entry = root;
+        for (String segment : split(node.getFullPath())) {
+            entry = entry.getOrCreateChild(segment);
+        }
+
+        if (entry.node == null)
+            entry.node = node;
     }
 
+    /**
+     * Removes the node together with all the nodes below it.
+     * 
+     * @param node the node to remove
+     * @param updateSeq whether to renumber the following siblings with the same label
+     * @param lazy true if the paths of the renumbered nodes should be updated in the buffer,
+     * false if the tree already updated them
+     */
     public void removeNode(AugeasNode node, boolean updateSeq, boolean lazy) {
-        if (buffer.containsKey(node.getFullPath()))
-            buffer.remove(node.getFullPath());
+        Entry entry = find(node.getFullPath());
+        if (entry == null || entry == root)
+            return;
+
+        Entry parent = entry.parent;
+        parent.children.remove(entry.segment);
 
         if (updateSeq)
-            if (lazy)
-                reloadLazy(node);
-            else
-                reload(node);
+            renumber(parent, node.getLabel(), node.getSeq(), lazy);
+
+        prune(parent);
     }
 
-    public void reload(AugeasNode nodes) {
-        for (String key : buffer.keySet()) {
-            AugeasNode nd = buffer.get(key);
-            if (!key.equals(nd.getFullPath())) {
-                buffer.remove(key);
-                buffer.put(nd.getFullPath(), nd);
+    /**
+     * Decrements the sequence numbers of the children of the parent with given label
+     * that follow the removed one.
+     */
+    private void renumber(Entry parent, String label, int removedSeq, boolean lazy) {
+        if (parent.children == null)
+            return;
+
+        List<Entry> following = new ArrayList<Entry>();
+        for (Entry child : parent.children.values()) {
+            int bracket = child.segment.indexOf('[');
+            if (bracket == label.length() && child.segment.startsWith(label) && getSeq(child.segment) > removedSeq)
+                following.add(child);
+        }
+
+        //lower numbers first so that a renumbered sibling never replaces one not yet renumbered
+        Collections.sort(following, new Comparator<Entry>() {
+            public int compare(Entry o1, Entry o2) {
+                return getSeq(o1.segment) - getSeq(o2.segment);
+            }
+        });
+
+        for (Entry child : following) {
+            parent.children.remove(child.segment);
+            child.segment = label + "[" + (getSeq(child.segment) - 1) + "]";
+            parent.children.put(child.segment, child);
+
+            if (lazy) {
+                if (child.node != null)
+                    child.node.setSeq(child.node.getSeq() - 1);
+                updatePaths(child, getFullPath(child) + AugeasTree.PATH_SEPARATOR);
             }
         }
     }
 
-    public void reloadLazy(AugeasNode node) {
-        Map<String, String> nodesToChange = new HashMap<String, String>();
-        List<String> nodesToChangeSeq = new ArrayList<String>();
-
-        AugeasNode parentNode = node.getParentNode();
-        for (String key : buffer.keySet()) {
-
-            int index = key.indexOf(parentNode.getFullPath());
-            if ((index == 0) && (key.length() > parentNode.getFullPath().length())) {
-                String localPath = key.substring(parentNode.getFullPath().length());
-                int endOfLabel = localPath.indexOf(File.separatorChar);
-                String label;
-                String restOfPath;
-
-                if (endOfLabel != -1) {
-                    label = localPath.substring(0, endOfLabel);
-                    restOfPath = localPath.substring(endOfLabel + 1, localPath.length() - 1);
-                } else {
-                    label = localPath.substring(0, localPath.length() - 1);
-                    restOfPath = "";
-                }
-                int startOfSeq = label.indexOf('[');
-                if (startOfSeq != -1) {
-                    String labelName = label.substring(0, startOfSeq);
-                    if (labelName.equals(node.getLabel())) {
-                        int endOfSeq = label.indexOf(']');
-                        String seqNr = label.substring(startOfSeq, endOfSeq - 1);
-                        int seq = Integer.valueOf(seqNr).intValue();
-                        if (seq > node.getSeq()) {
-                            if (restOfPath.equals(""))
-                                nodesToChangeSeq.add(key);
-                            else {
-                                String newPath = parentNode.getFullPath() + File.separator + labelName + "["
-                                    + String.valueOf(seq - 1) + "]"
-                                    + (restOfPath.equals("") ? File.separator + restOfPath : "");
-
-                                nodesToChange.put(key, newPath);
-                            }
-                        }
-                    }
+    /**
+     * Updates the paths of the nodes below the entry after its segment changed.
+     */
+    private void updatePaths(Entry entry, String path) {
+        if (entry.children == null)
+            return;
+
+        for (Entry child : entry.children.values()) {
+            if (child.node != null) {
+                try {
+                    child.node.setPath(path);
+                } catch (Exception e) {
+                    //Exception is not thrown here because this method is called only for AugeasNodeLazy
                 }
             }
-
+            updatePaths(child, path + child.segment + AugeasTree.PATH_SEPARATOR);
         }
+    }
 
-        try {
+    private void prune(Entry entry) {
+        while (entry != root && entry.isEmpty()) {
+            entry.parent.children.remove(entry.segment);
+            entry = entry.parent;
+        }
+    }
 
-            for (String key : nodesToChange.keySet()) {
-                AugeasNode nd = buffer.get(key);
-                nd.setPath((String) nodesToChange.get(key));
-            }
+    private Entry find(String path) {
+        Entry entry = root;
+        for (String segment : split(path)) {
+            entry = entry.getChild(segment);
+            if (entry == null)
+                return null;
+        }
+        return entry;
+    }
 
-            for (String key : nodesToChangeSeq) {
-                AugeasNode nd = buffer.get(key);
-                nd.setSeq(nd.getSeq() - 1);
-            }
+    private String getFullPath(Entry entry) {
+        StringBuilder bld = new StringBuilder();
+        for (Entry e = entry; e != root; e = e.parent) {
+            bld.insert(0, e.segment).insert(0, AugeasTree.PATH_SEPARATOR);
+        }
+        return bld.toString();
+    }
 
-        } catch (Exception e) {
-            //Exception is not thrown here because this method is called only for AugeasNodeLazy
+    private static List<String> split(String path) {
+        List<String> segments = new ArrayList<String>();
+        int start = 0;
+        int length = path.length();
+        while (start <= length) {
+            int end = path.indexOf(AugeasTree.PATH_SEPARATOR, start);
+            if (end == -1)
+                end = length;
+            if (end > start)
+                segments.add(path.substring(start, end));
+            start = end + 1;
         }
+        return segments;
     }
 
+    /**
+     * @return the sequence number of the segment or 0 if it has none
+     */
+    private static int getSeq(String segment) {
+        int start = segment.indexOf('[');
+        int end = segment.indexOf(']', start);
+        if (start == -1 || end == -1)
+            return 0;
+        try {
+            return Integer.parseInt(segment.substring(start + 1, end));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
 }
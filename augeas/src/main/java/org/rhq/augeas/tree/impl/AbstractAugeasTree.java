@@ -29,6 +29,7 @@ import java.util.List;
 
 import net.augeas.Augeas;
 
+import org.rhq.augeas.AugeasTreeCache;
 import org.rhq.augeas.config.AugeasModuleConfig;
 import org.rhq.augeas.node.AugeasNode;
 import org.rhq.augeas.tree.AugeasNodeBuffer;
@@ -153,6 +154,13 @@ public abstract class AbstractAugeasTree implements AugeasTree {
 
     public void save() {
         augeas.save();
+
+        //the trees loaded before the save are stale, even if the modification times of the files did not change
+        List<File> files = new ArrayList<File>();
+        for (String path : moduleConfig.getConfigFiles()) {
+            files.add(new File(path));
+        }
+        AugeasTreeCache.invalidateFiles(files);
     }
 
     public void setRootNode(AugeasNode node) {
@@ -36,6 +36,7 @@ import org.apache.commons.logging.LogFactory;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import org.rhq.augeas.AugeasTreeCache;
 import org.rhq.augeas.util.Glob;
 import org.rhq.core.domain.configuration.AbstractPropertyMap;
 import org.rhq.core.domain.configuration.Configuration;
@@ -86,6 +87,7 @@ public class AugeasConfigurationComponent<T extends ResourceComponent<?>> implem
     private List<String> includeGlobs;
     private List<String> excludeGlobs;
     private Augeas augeas;
+    private AugeasTreeCache.Handle<Augeas> cachedAugeas;
     private AugeasNode resourceConfigRootNode;
     private String augeasRootPath;
     private String augeasLoadPath;
@@ -138,9 +140,8 @@ public class AugeasConfigurationComponent<T extends ResourceComponent<?>> implem
     }
 
     public Configuration loadResourceConfiguration() throws Exception {
-        abortIfAugeasNotAvailable();
-
-        //augeas was initialized in abortIfAugeasNotAvailable();
+        //the configuration is only read, so it can be loaded from the shared cache
+        acquireCachedAugeas();
         try {
             ConfigurationDefinition resourceConfigDef = this.resourceContext.getResourceType()
                 .getResourceConfigurationDefinition();
@@ -261,6 +262,7 @@ public class AugeasConfigurationComponent<T extends ResourceComponent<?>> implem
             Augeas augeas = getAugeas();
             augeas.remove(rootPath);
             augeas.save();
+            invalidateCachedAugeas();
         } finally {
             close();
         }
@@ -659,6 +661,8 @@ public class AugeasConfigurationComponent<T extends ResourceComponent<?>> implem
             this.augeas.save();
         } catch (AugeasException e) {
             throw new RuntimeException(summarizeAugeasError(this.augeas), e);
+        } finally {
+            invalidateCachedAugeas();
         }
     }
 
@@ -711,16 +715,71 @@ public class AugeasConfigurationComponent<T extends ResourceComponent<?>> implem
     }
 
     protected void initAugeas() {
-        if (this.augeas != null) {
-            try {
-                this.augeas.close();
-            } catch (Exception e) {
-            }
-            this.augeas = null;
-        }
+        close();
         this.augeas = createAugeas();
         this.augeas.load();
         checkModuleErrors(this.augeas);
+        initResourceConfigRootNode();
+    }
+
+    /**
+     * Makes the augeas instance of this component one obtained from the {@link AugeasTreeCache}. The cached instance
+     * is only loaded again if any of the configuration files changed since it was cached. The instance must only be
+     * read and is handed back to the cache by {@link #close()}.
+     */
+    private void acquireCachedAugeas() throws Exception {
+        close();
+        if (!isAugeasAvailable()) {
+            abortIfAugeasNotAvailable();
+        }
+
+        String key = getCacheKey();
+        this.cachedAugeas = AugeasTreeCache.acquire(key, getConfigurationFiles(), new AugeasTreeCache.Loader<Augeas>() {
+            public Augeas load() {
+                Augeas augeas = createAugeas();
+                if (augeas == null) {
+                    throw new IllegalStateException("Failed to initialize Augeas Java API.");
+                }
+                try {
+                    augeas.load();
+                    checkModuleErrors(augeas);
+                } catch (RuntimeException e) {
+                    close(augeas);
+                    throw e;
+                }
+                return augeas;
+            }
+
+            public void close(Augeas augeas) {
+                try {
+                    augeas.close();
+                } catch (Exception e) {
+                }
+            }
+        });
+
+        this.augeas = this.cachedAugeas.get();
+        initResourceConfigRootNode();
+    }
+
+    private String getCacheKey() {
+        Configuration pluginConfig = this.resourceContext.getPluginConfiguration();
+        return getClass().getName() + "|" + this.augeasRootPath + "|" + this.augeasLoadPath + "|"
+            + pluginConfig.getSimpleValue(AUGEAS_MODULE_NAME_PROP, null) + "|" + this.includeGlobs + "|"
+            + this.excludeGlobs;
+    }
+
+    /**
+     * Evicts the Augeas instances loaded from the configuration files of this component from the
+     * {@link AugeasTreeCache}. Must be called after saving the configuration files, because their modification
+     * times need not change if they are saved within a second of being loaded.
+     */
+    protected void invalidateCachedAugeas() {
+        AugeasTreeCache.invalidate(getCacheKey());
+        AugeasTreeCache.invalidateFiles(getConfigurationFiles());
+    }
+
+    private void initResourceConfigRootNode() {
         String resourceConfigRootPath = getResourceConfigurationRootPath();
         if (resourceConfigRootPath.indexOf(AugeasNode.SEPARATOR_CHAR) != 0) {
             // root path is relative - make it absolute
@@ -782,6 +841,14 @@ public class AugeasConfigurationComponent<T extends ResourceComponent<?>> implem
     }
 
     public void close() {
+        if (this.cachedAugeas != null) {
+            //the cached instance is closed by the cache
+            if (this.augeas == this.cachedAugeas.get()) {
+                this.augeas = null;
+            }
+            this.cachedAugeas.release();
+            this.cachedAugeas = null;
+        }
         if (this.augeas != null) {
             try {
                 this.augeas.close();
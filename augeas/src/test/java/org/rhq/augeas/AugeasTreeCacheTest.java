@@ -0,0 +1,216 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2012 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package org.rhq.augeas;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests for the reference counting, eviction and invalidation of the {@link AugeasTreeCache}.
+ */
+@Test
+public class AugeasTreeCacheTest {
+
+    private File dir;
+    private File file;
+
+    /**
+     * Hands out a new value on each load and records the values it closed.
+     */
+    private static class FakeLoader implements AugeasTreeCache.Loader<Object> {
+        int loaded;
+        List<Object> closed = new ArrayList<Object>();
+
+        public Object load() {
+            loaded++;
+            return new Object();
+        }
+
+        public void close(Object value) {
+            closed.add(value);
+        }
+    }
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        AugeasTreeCache.clear();
+        file = File.createTempFile("augeas-tree-cache", ".conf");
+        write(file, "a");
+        dir = file.getParentFile();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        AugeasTreeCache.clear();
+        file.delete();
+    }
+
+    public void testReusedAfterRelease() {
+        FakeLoader loader = new FakeLoader();
+
+        AugeasTreeCache.Handle<Object> first = AugeasTreeCache.acquire("key", files(), loader);
+        Object value = first.get();
+        first.release();
+        //releasing twice must not break the reference count
+        first.release();
+
+        AugeasTreeCache.Handle<Object> second = AugeasTreeCache.acquire("key", files(), loader);
+        assertSame(second.get(), value);
+        second.release();
+
+        assertEquals(loader.loaded, 1);
+        assertTrue(loader.closed.isEmpty());
+    }
+
+    public void testPrivateCopyWhileInUse() {
+        FakeLoader loader = new FakeLoader();
+
+        AugeasTreeCache.Handle<Object> first = AugeasTreeCache.acquire("key", files(), loader);
+        AugeasTreeCache.Handle<Object> second = AugeasTreeCache.acquire("key", files(), loader);
+        assertNotSame(second.get(), first.get());
+        assertEquals(loader.loaded, 2);
+
+        //the private copy is closed on release, the cached one stays
+        second.release();
+        assertEquals(loader.closed, Collections.singletonList(second.get()));
+        first.release();
+        assertEquals(loader.closed.size(), 1);
+
+        AugeasTreeCache.Handle<Object> third = AugeasTreeCache.acquire("key", files(), loader);
+        assertSame(third.get(), first.get());
+        third.release();
+    }
+
+    public void testEvictionAboveMaxSize() {
+        FakeLoader loader = new FakeLoader();
+
+        List<Object> values = new ArrayList<Object>();
+        for (int i = 0; i < AugeasTreeCache.MAX_SIZE; ++i) {
+            AugeasTreeCache.Handle<Object> handle = AugeasTreeCache.acquire("key" + i, files(), loader);
+            values.add(handle.get());
+            handle.release();
+        }
+        assertTrue(loader.closed.isEmpty());
+
+        //using the eldest makes key1 the least recently used
+        AugeasTreeCache.acquire("key0", files(), loader).release();
+        AugeasTreeCache.acquire("key" + AugeasTreeCache.MAX_SIZE, files(), loader).release();
+
+        assertEquals(loader.closed, Collections.singletonList(values.get(1)));
+        assertEquals(loader.loaded, AugeasTreeCache.MAX_SIZE + 1);
+
+        AugeasTreeCache.Handle<Object> key0 = AugeasTreeCache.acquire("key0", files(), loader);
+        assertSame(key0.get(), values.get(0));
+        key0.release();
+        assertEquals(loader.loaded, AugeasTreeCache.MAX_SIZE + 1);
+    }
+
+    public void testEvictedWhileInUseClosedOnRelease() {
+        FakeLoader loader = new FakeLoader();
+
+        AugeasTreeCache.Handle<Object> inUse = AugeasTreeCache.acquire("key0", files(), loader);
+        for (int i = 1; i <= AugeasTreeCache.MAX_SIZE; ++i) {
+            AugeasTreeCache.acquire("key" + i, files(), loader).release();
+        }
+        assertTrue(loader.closed.isEmpty());
+
+        inUse.release();
+        assertEquals(loader.closed, Collections.singletonList(inUse.get()));
+    }
+
+    public void testInvalidateByKey() {
+        FakeLoader loader = new FakeLoader();
+
+        AugeasTreeCache.Handle<Object> first = AugeasTreeCache.acquire("key", files(), loader);
+        AugeasTreeCache.invalidate("key");
+        assertTrue(loader.closed.isEmpty());
+        first.release();
+        assertEquals(loader.closed, Collections.singletonList(first.get()));
+
+        AugeasTreeCache.Handle<Object> second = AugeasTreeCache.acquire("key", files(), loader);
+        assertNotSame(second.get(), first.get());
+        second.release();
+        assertEquals(loader.loaded, 2);
+    }
+
+    public void testInvalidateByFiles() throws IOException {
+        FakeLoader loader = new FakeLoader();
+        File other = File.createTempFile("augeas-tree-cache-other", ".conf", dir);
+        try {
+            AugeasTreeCache.acquire("same", files(), loader).release();
+            AugeasTreeCache.acquire("other", Collections.singletonList(other), loader).release();
+
+            //saving within the same second need not change the modification time, the explicit invalidation must
+            //evict the tree anyway
+            AugeasTreeCache.invalidateFiles(Collections.singletonList(new File(file.getPath())));
+            assertEquals(loader.closed.size(), 1);
+
+            AugeasTreeCache.acquire("same", files(), loader).release();
+            AugeasTreeCache.acquire("other", Collections.singletonList(other), loader).release();
+            assertEquals(loader.loaded, 3);
+        } finally {
+            other.delete();
+        }
+    }
+
+    public void testReloadedWhenFileChanges() throws IOException {
+        FakeLoader loader = new FakeLoader();
+
+        AugeasTreeCache.Handle<Object> first = AugeasTreeCache.acquire("key", files(), loader);
+        first.release();
+
+        write(file, "longer");
+        AugeasTreeCache.Handle<Object> second = AugeasTreeCache.acquire("key", files(), loader);
+        assertNotSame(second.get(), first.get());
+        second.release();
+
+        assertEquals(loader.closed, Collections.singletonList(first.get()));
+    }
+
+    private List<File> files() {
+        return Collections.singletonList(file);
+    }
+
+    private static void write(File f, String contents) throws IOException {
+        FileWriter wrt = new FileWriter(f);
+        try {
+            wrt.write(contents);
+        } finally {
+            wrt.close();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2012 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package org.rhq.augeas.tree.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.rhq.augeas.node.AugeasNode;
+import org.rhq.augeas.node.AugeasNodeLazy;
+import org.rhq.augeas.tree.AugeasNodeBuffer;
+
+/**
+ * Builds a buffer of a tree with about 50k nodes shaped like a large Apache configuration, looks all the nodes up
+ * and then removes list entries from it, renumbering their siblings. Not run as part of the test suite, start it
+ * via its main method.
+ */
+public class AugeasNodeBufferBenchmark {
+
+    private static final String CONF = "/files/etc/httpd/conf/httpd.conf";
+
+    private static final int VIRTUAL_HOSTS = 500;
+    private static final int DIRECTORIES = 10;
+    private static final int DIRECTIVES = 9;
+    private static final int ROUNDS = 5;
+
+    private long sink;
+
+    public static void main(String[] args) {
+        AugeasNodeBufferBenchmark benchmark = new AugeasNodeBufferBenchmark();
+        for (int i = 0; i < ROUNDS; i++) {
+            benchmark.run();
+        }
+    }
+
+    private void run() {
+        long start = System.nanoTime();
+        AugeasNodeBuffer buffer = new AugeasNodeBuffer();
+        List<AugeasNode> nodes = new ArrayList<AugeasNode>();
+        for (int v = 1; v <= VIRTUAL_HOSTS; v++) {
+            String vhost = CONF + "/VirtualHost[" + v + "]";
+            nodes.add(add(buffer, vhost));
+            for (int d = 1; d <= DIRECTORIES; d++) {
+                String directory = vhost + "/Directory[" + d + "]";
+                nodes.add(add(buffer, directory));
+                for (int o = 1; o <= DIRECTIVES; o++) {
+                    nodes.add(add(buffer, directory + "/Option[" + o + "]"));
+                }
+            }
+        }
+        long built = System.nanoTime();
+
+        for (AugeasNode node : nodes) {
+            if (buffer.getNode(node.getFullPath()) == node) {
+                sink++;
+            }
+        }
+        long looked = System.nanoTime();
+
+        //remove the first directive of each directory, renumbering the other directives
+        int removed = 0;
+        for (int v = 1; v <= VIRTUAL_HOSTS; v++) {
+            for (int d = 1; d <= DIRECTORIES; d++) {
+                AugeasNode option = buffer.getNode(CONF + "/VirtualHost[" + v + "]/Directory[" + d + "]/Option[1]");
+                buffer.removeNode(option, true, true);
+                removed++;
+            }
+        }
+        long edited = System.nanoTime();
+
+        //remove every other virtual host, renumbering the following hosts together with their subtrees
+        for (int v = 1; v <= VIRTUAL_HOSTS / 2; v++) {
+            AugeasNode vhost = buffer.getNode(CONF + "/VirtualHost[" + v + "]");
+            buffer.removeNode(vhost, true, true);
+            removed++;
+        }
+        long renumbered = System.nanoTime();
+
+        System.out.println(nodes.size() + " nodes: build " + millis(start, built) + " ms, lookup "
+            + millis(built, looked) + " ms, " + (VIRTUAL_HOSTS * DIRECTORIES) + " leaf removals "
+            + millis(looked, edited) + " ms, " + (VIRTUAL_HOSTS / 2) + " subtree removals "
+            + millis(edited, renumbered) + " ms (" + removed + " removed, sink=" + sink + ")");
+    }
+
+    private static AugeasNode add(AugeasNodeBuffer buffer, String path) {
+        AugeasNode node = new AugeasNodeLazy(path, null);
+        buffer.addNode(node);
+        return node;
+    }
+
+    private static long millis(long from, long to) {
+        return (to - from) / 1000000;
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2012 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package org.rhq.augeas.tree.test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+
+import org.testng.annotations.Test;
+
+import org.rhq.augeas.node.AugeasNode;
+import org.rhq.augeas.node.AugeasNodeLazy;
+import org.rhq.augeas.tree.AugeasNodeBuffer;
+
+/**
+ * Tests for the path index of the {@link AugeasNodeBuffer}.
+ */
+@Test
+public class AugeasNodeBufferTest {
+
+    private static final String CONF = "/files/etc/httpd/conf/httpd.conf";
+
+    public void testLookup() {
+        AugeasNodeBuffer buffer = new AugeasNodeBuffer();
+        AugeasNode vhost = add(buffer, CONF + "/VirtualHost[2]");
+        AugeasNode param = add(buffer, CONF + "/VirtualHost[2]/param");
+
+        assertSame(buffer.getNode(CONF + "/VirtualHost[2]"), vhost);
+        assertSame(buffer.getNode(CONF + "/VirtualHost[2]/param"), param);
+        assertNull(buffer.getNode(CONF + "/VirtualHost[1]"));
+        assertNull(buffer.getNode(CONF));
+    }
+
+    public void testRemoveRenumbersFollowingSiblings() {
+        AugeasNodeBuffer buffer = new AugeasNodeBuffer();
+        AugeasNode first = add(buffer, CONF + "/VirtualHost[1]");
+        AugeasNode firstParam = add(buffer, CONF + "/VirtualHost[1]/param");
+        AugeasNode second = add(buffer, CONF + "/VirtualHost[2]");
+        AugeasNode third = add(buffer, CONF + "/VirtualHost[3]");
+        AugeasNode thirdParam = add(buffer, CONF + "/VirtualHost[3]/param[2]");
+        AugeasNode other = add(buffer, CONF + "/Directory[3]");
+
+        buffer.removeNode(first, true, true);
+
+        assertSame(buffer.getNode(CONF + "/VirtualHost[1]"), second);
+        assertSame(buffer.getNode(CONF + "/VirtualHost[2]"), third);
+        assertSame(buffer.getNode(CONF + "/VirtualHost[2]/param[2]"), thirdParam);
+        assertSame(buffer.getNode(CONF + "/Directory[3]"), other);
+        assertNull(buffer.getNode(CONF + "/VirtualHost[3]"));
+        assertNull(buffer.getNode(CONF + "/VirtualHost[1]/param"), "The children of the removed node stayed");
+
+        assertEquals(second.getFullPath(), CONF + "/VirtualHost[1]");
+        assertEquals(thirdParam.getFullPath(), CONF + "/VirtualHost[2]/param[2]");
+        assertEquals(firstParam.getFullPath(), CONF + "/VirtualHost[1]/param");
+    }
+
+    public void testRemoveWithoutRenumbering() {
+        AugeasNodeBuffer buffer = new AugeasNodeBuffer();
+        AugeasNode first = add(buffer, CONF + "/VirtualHost[1]");
+        AugeasNode second = add(buffer, CONF + "/VirtualHost[2]");
+
+        buffer.removeNode(first, false, true);
+
+        assertNull(buffer.getNode(CONF + "/VirtualHost[1]"));
+        assertSame(buffer.getNode(CONF + "/VirtualHost[2]"), second);
+    }
+
+    private static AugeasNode add(AugeasNodeBuffer buffer, String path) {
+        AugeasNode node = new AugeasNodeLazy(path, null);
+        buffer.addNode(node);
+        return node;
+    }
+}
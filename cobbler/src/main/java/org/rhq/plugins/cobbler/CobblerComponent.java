@@ -171,6 +171,7 @@ public class CobblerComponent extends AugeasConfigurationComponent implements Au
     public void persistRawConfiguration(RawConfiguration rawConfiguration) {
         try {
             rawConfigHelper.save(rawConfiguration);
+            invalidateCachedAugeas();
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -215,6 +215,7 @@ public class CronComponent extends AugeasConfigurationComponent<PlatformComponen
             }
 
             augeas.save();
+            invalidateCachedAugeas();
         } catch (AugeasException e) {
             if (augeas != null)
                 throw new RuntimeException(summarizeAugeasError(augeas), e);
@@ -23,6 +23,9 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientConnectionException;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -57,14 +60,16 @@ public class DatabaseQueryUtility {
      */
     public static int executeUpdate(DatabaseComponent databaseComponent, String query, Object... parameters)
         throws SQLException {
+        Connection connection = null;
         PreparedStatement statement = null;
         try {
-            statement = databaseComponent.getConnection().prepareStatement(query);
+            connection = getConnection(databaseComponent);
+            statement = connection.prepareStatement(query);
             bindParameters(statement, parameters);
 
             return statement.executeUpdate();
         } catch (SQLException e) {
-            databaseComponent.removeConnection();
+            handleError(databaseComponent, connection, e);
             throw e;
         } finally {
             close(statement, null);
@@ -77,20 +82,26 @@ public class DatabaseQueryUtility {
      */
     public static Double getSingleNumericQueryValue(DatabaseComponent databaseComponent, String query,
         Object... parameters) {
-        PreparedStatement statement = null;
+        Connection connection = null;
+        StatementCache.CachedStatement statement = null;
         ResultSet resultSet = null;
+        boolean reuse = false;
         try {
-            statement = databaseComponent.getConnection().prepareStatement(query);
-            bindParameters(statement, parameters);
-            resultSet = statement.executeQuery();
+            connection = getConnection(databaseComponent);
+            statement = StatementCache.checkOut(connection, query);
+            bindParameters(statement.getStatement(), parameters);
+            resultSet = statement.getStatement().executeQuery();
 
+            reuse = true;
             if (resultSet.next()) {
                 return resultSet.getDouble(1);
             }
         } catch (SQLException e) {
-            databaseComponent.removeConnection();
+            reuse = false;
+            handleError(databaseComponent, connection, e);
         } finally {
-            close(statement, resultSet);
+            close(null, resultSet);
+            StatementCache.checkIn(connection, statement, reuse);
         }
 
         return Double.NaN;
@@ -109,35 +120,39 @@ public class DatabaseQueryUtility {
      */
     public static Map<String, Double> getNumericQueryValues(DatabaseComponent databaseComponent, String query,
         Object... parameters) {
-        PreparedStatement statement = null;
+        Connection connection = null;
+        StatementCache.CachedStatement statement = null;
         ResultSet resultSet = null;
+        boolean reuse = false;
         try {
-            statement = databaseComponent.getConnection().prepareStatement(query);
-            bindParameters(statement, parameters);
+            connection = getConnection(databaseComponent);
+            statement = StatementCache.checkOut(connection, query);
+            bindParameters(statement.getStatement(), parameters);
 
-            resultSet = statement.executeQuery();
+            resultSet = statement.getStatement().executeQuery();
 
             Map<String, Double> row = new HashMap<String, Double>();
 
-            ResultSetMetaData md = resultSet.getMetaData();
-            String[] names = getColumns(md);
+            String[] names = statement.getColumns(resultSet);
 
             if (resultSet.next()) {
-                for (String name : names) {
+                for (int i = 0; i < names.length; ++i) {
                     try {
-                        row.put(name, resultSet.getDouble(name));
+                        row.put(names[i], resultSet.getDouble(i + 1));
                     } catch (SQLException e) {
                         // Ignore columns that can't be read as doubles
                     }
                 }
             }
 
+            reuse = true;
             return row;
         } catch (SQLException e) {
             LOG.debug("Unable to read value", e);
-            databaseComponent.removeConnection();
+            handleError(databaseComponent, connection, e);
         } finally {
-            close(statement, resultSet);
+            close(null, resultSet);
+            StatementCache.checkIn(connection, statement, reuse);
         }
 
         return Collections.emptyMap();
@@ -154,30 +169,37 @@ public class DatabaseQueryUtility {
      */
     public static List<Map<String, Object>> getGridValues(DatabaseComponent databaseComponent, String query,
         Object... parameters) throws SQLException {
-        PreparedStatement statement = null;
+        Connection connection = getConnection(databaseComponent);
+        StatementCache.CachedStatement statement = null;
         ResultSet resultSet = null;
+        boolean reuse = false;
         List<Map<String, Object>> l = new ArrayList<Map<String, Object>>();
         try {
-            statement = databaseComponent.getConnection().prepareStatement(query);
-            bindParameters(statement, parameters);
+            statement = StatementCache.checkOut(connection, query);
+            bindParameters(statement.getStatement(), parameters);
+
+            resultSet = statement.getStatement().executeQuery();
 
-            resultSet = statement.executeQuery();
+            String[] names = statement.getColumns(resultSet);
 
             while (resultSet.next()) {
-                Map<String, Object> row = new HashMap<String, Object>();
+                Map<String, Object> row = new HashMap<String, Object>(names.length);
                 l.add(row);
 
-                ResultSetMetaData md = resultSet.getMetaData();
-                String[] names = getColumns(md);
-
-                for (String name : names) {
-                    Object o = resultSet.getObject(name);
-                    row.put(name, o);
+                for (int i = 0; i < names.length; ++i) {
+                    row.put(names[i], resultSet.getObject(i + 1));
                 }
             }
 
+            reuse = true;
+        } catch (SQLException e) {
+            if (isConnectionBroken(connection, e)) {
+                StatementCache.clear(connection);
+            }
+            throw e;
         } finally {
-            close(statement, resultSet);
+            close(null, resultSet);
+            StatementCache.checkIn(connection, statement, reuse);
         }
         return l;
 
@@ -195,14 +217,16 @@ public class DatabaseQueryUtility {
      */
     public static Map<String, Double> getNumericQueryValueMap(DatabaseComponent databaseComponent, String query,
         Object... parameters) {
-        PreparedStatement statement = null;
+        Connection connection = null;
+        StatementCache.CachedStatement statement = null;
         ResultSet resultSet = null;
+        boolean reuse = false;
         try {
-            Connection c = databaseComponent.getConnection();
-            statement = c.prepareStatement(query);
-            bindParameters(statement, parameters);
+            connection = getConnection(databaseComponent);
+            statement = StatementCache.checkOut(connection, query);
+            bindParameters(statement.getStatement(), parameters);
 
-            resultSet = statement.executeQuery();
+            resultSet = statement.getStatement().executeQuery();
 
             Map<String, Double> map = new HashMap<String, Double>();
 
@@ -217,21 +241,75 @@ public class DatabaseQueryUtility {
                 }
             }
 
+            reuse = true;
             return map;
         } catch (SQLException e) {
             LOG.info("Unable to read value", e);
-            databaseComponent.removeConnection();
+            handleError(databaseComponent, connection, e);
         } finally {
-            close(statement, resultSet);
+            close(null, resultSet);
+            StatementCache.checkIn(connection, statement, reuse);
         }
 
         return Collections.emptyMap();
     }
 
+    /**
+     * Tells whether the exception means that the connection can no longer be used, as opposed to a failure of
+     * the single statement (a syntax error, a missing table, a constraint violation, ...) after which the connection
+     * can be used further.
+     *
+     * @param connection the connection the statement was executed on, may be null
+     * @param e the exception thrown by the statement
+     * @return true if the connection should be thrown away
+     */
+    public static boolean isConnectionBroken(Connection connection, SQLException e) {
+        if (connection == null || e instanceof SQLRecoverableException
+            || e instanceof SQLNonTransientConnectionException || e instanceof SQLTransientConnectionException) {
+            return true;
+        }
+
+        // the SQL state class 08 is "connection exception"
+        String state = e.getSQLState();
+        if (state != null && state.startsWith("08")) {
+            return true;
+        }
+
+        try {
+            return connection.isClosed();
+        } catch (SQLException ce) {
+            return true;
+        }
+    }
+
+    private static Connection getConnection(DatabaseComponent databaseComponent) throws SQLException {
+        Connection connection = databaseComponent.getConnection();
+        if (connection == null) {
+            throw new SQLException("No connection to the database available.");
+        }
+        return connection;
+    }
+
+    /**
+     * Throws away the connection if the exception means it is broken.
+     */
+    private static void handleError(DatabaseComponent databaseComponent, Connection connection, SQLException e) {
+        if (connection == null) {
+            return;
+        }
+
+        if (isConnectionBroken(connection, e)) {
+            StatementCache.clear(connection);
+            databaseComponent.removeConnection();
+        } else if (LOG.isDebugEnabled()) {
+            LOG.debug("Statement failed, keeping the connection: " + ThrowableUtil.getAllMessages(e));
+        }
+    }
+
     /**
      * Binds arguments to a prepared statement.
      */
-    private static void bindParameters(PreparedStatement statement, Object... parameters) throws SQLException {
+    static void bindParameters(PreparedStatement statement, Object... parameters) throws SQLException {
         int i = 1;
         for (Object p : parameters) {
             if (p instanceof String) {
@@ -256,6 +334,24 @@ public class DatabaseQueryUtility {
         return names;
     }
 
+    /**
+     * Closes the connection and the statements cached for it. Components handing out connections to this utility
+     * must close them using this method, so that the statements cached for them are dropped.
+     *
+     * @param connection the connection, may be null
+     */
+    public static void closeConnection(Connection connection) {
+        if (connection == null) {
+            return;
+        }
+
+        StatementCache.clear(connection);
+        try {
+            connection.close();
+        } catch (SQLException e) {
+        }
+    }
+
     /**
      * Closes statements and result sets.
      */
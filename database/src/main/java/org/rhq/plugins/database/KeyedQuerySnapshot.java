@@ -0,0 +1,230 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2012 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.plugins.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * The result of a query returning the rows of many objects (tables, databases, users, ...), shared by the components
+ * of those objects that would otherwise each run the query for their own rows. The query is executed at most once
+ * per snapshot window and its rows are kept keyed by the value of the key column, the column values keyed by the
+ * column labels.
+ * <p/>
+ * The query is run on the connection of the database component passed in. Subclasses obtaining their connections
+ * in another way override {@link #load(DatabaseComponent)}.
+ */
+public class KeyedQuerySnapshot {
+
+    private static final Log LOG = LogFactory.getLog(KeyedQuerySnapshot.class);
+
+    private final String query;
+    private final String keyColumn;
+    private final long window;
+    private final int fetchSize;
+    private final Object[] parameters;
+
+    private Map<String, List<Map<String, Object>>> rows;
+    private long timestamp;
+
+    /**
+     * @param query the query returning all the rows
+     * @param keyColumn the label of the column identifying the rows
+     * @param window the time in milliseconds the rows are reused for
+     * @param parameters the parameters of the query
+     */
+    public KeyedQuerySnapshot(String query, String keyColumn, long window, Object... parameters) {
+        this(query, keyColumn, window, 0, parameters);
+    }
+
+    /**
+     * @param query the query returning all the rows
+     * @param keyColumn the label of the column identifying the rows
+     * @param window the time in milliseconds the rows are reused for
+     * @param fetchSize the number of rows to fetch per round trip, 0 for the default of the driver
+     * @param parameters the parameters of the query
+     */
+    public KeyedQuerySnapshot(String query, String keyColumn, long window, int fetchSize, Object... parameters) {
+        this.query = query;
+        this.keyColumn = keyColumn;
+        this.window = window;
+        this.fetchSize = fetchSize;
+        this.parameters = parameters;
+    }
+
+    /**
+     * Returns the first row with given key, running the query if the snapshot is older than the window.
+     *
+     * @param databaseComponent the component to run the query on
+     * @param key the value of the key column
+     * @return the column values keyed by the column labels or null if there is no such row
+     * @throws SQLException if the query fails
+     */
+    public Map<String, Object> getRow(DatabaseComponent<?> databaseComponent, String key) throws SQLException {
+        List<Map<String, Object>> ret = getRows(databaseComponent, key);
+        return ret.isEmpty() ? null : ret.get(0);
+    }
+
+    /**
+     * Returns all the rows with given key in the order the query returned them, running the query if the snapshot
+     * is older than the window.
+     *
+     * @param databaseComponent the component to run the query on
+     * @param key the value of the key column
+     * @return the rows, empty if there are none
+     * @throws SQLException if the query fails
+     */
+    public synchronized List<Map<String, Object>> getRows(DatabaseComponent<?> databaseComponent, String key)
+        throws SQLException {
+        long now = System.currentTimeMillis();
+        if (rows == null || now - timestamp >= window || now < timestamp) {
+            rows = null;
+            rows = load(databaseComponent);
+            timestamp = now;
+        }
+
+        List<Map<String, Object>> ret = rows.get(key);
+        return ret == null ? Collections.<Map<String, Object>> emptyList() : ret;
+    }
+
+    /**
+     * Forgets the rows, so that the query is run again on the next read.
+     */
+    public synchronized void clear() {
+        rows = null;
+    }
+
+    /**
+     * Runs the query on the connection of the component and throws the connection away if it turns out broken.
+     *
+     * @param databaseComponent the component passed to {@link #getRows(DatabaseComponent, String)}
+     * @return the rows keyed by the value of the key column
+     * @throws SQLException if the query fails
+     */
+    protected Map<String, List<Map<String, Object>>> load(DatabaseComponent<?> databaseComponent)
+        throws SQLException {
+        Connection connection = databaseComponent.getConnection();
+        if (connection == null) {
+            throw new SQLException("No connection to the database available.");
+        }
+
+        try {
+            return load(connection);
+        } catch (SQLException e) {
+            if (DatabaseQueryUtility.isConnectionBroken(connection, e)) {
+                databaseComponent.removeConnection();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Runs the query on the connection.
+     *
+     * @param connection the connection, left open
+     * @return the rows keyed by the value of the key column
+     * @throws SQLException if the query fails
+     */
+    protected final Map<String, List<Map<String, Object>>> load(Connection connection) throws SQLException {
+        PreparedStatement statement = null;
+        ResultSet resultSet = null;
+        try {
+            statement = connection.prepareStatement(query);
+            if (fetchSize > 0) {
+                statement.setFetchSize(fetchSize);
+            }
+            DatabaseQueryUtility.bindParameters(statement, parameters);
+            resultSet = statement.executeQuery();
+
+            // the labels, as some drivers report aliased columns under their original names
+            ResultSetMetaData md = resultSet.getMetaData();
+            String[] labels = new String[md.getColumnCount()];
+            for (int i = 0; i < labels.length; ++i) {
+                labels[i] = md.getColumnLabel(i + 1);
+            }
+
+            Map<String, List<Map<String, Object>>> ret = new HashMap<String, List<Map<String, Object>>>();
+            while (resultSet.next()) {
+                String key = resultSet.getString(keyColumn);
+                if (key == null) {
+                    continue;
+                }
+
+                Map<String, Object> row = new HashMap<String, Object>(labels.length * 2);
+                for (int i = 0; i < labels.length; ++i) {
+                    row.put(labels[i], resultSet.getObject(i + 1));
+                }
+
+                List<Map<String, Object>> keyRows = ret.get(key);
+                if (keyRows == null) {
+                    keyRows = new ArrayList<Map<String, Object>>(1);
+                    ret.put(key, keyRows);
+                }
+                keyRows.add(row);
+            }
+
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Loaded the rows of " + ret.size() + " keys of [" + query + "]");
+            }
+
+            return ret;
+        } finally {
+            DatabaseQueryUtility.close(statement, resultSet);
+        }
+    }
+
+    /**
+     * Returns the numeric value of the column of the row.
+     *
+     * @return the value or null if the row is null or the column is null or not numeric
+     */
+    public static Double getDouble(Map<String, Object> row, String column) {
+        if (row == null) {
+            return null;
+        }
+
+        Object value = row.get(column);
+        return value instanceof Number ? ((Number) value).doubleValue() : null;
+    }
+
+    /**
+     * Returns the value of the column of the row as a string.
+     *
+     * @return the value or null if the row is null or the column is null
+     */
+    public static String getString(Map<String, Object> row, String column) {
+        if (row == null) {
+            return null;
+        }
+
+        Object value = row.get(column);
+        return value == null ? null : value.toString();
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2012 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.plugins.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A least recently used cache of the prepared statements of the connections handed out by the database components.
+ * <p/>
+ * A statement is checked out of the cache for the duration of its execution so that the threads sharing a connection
+ * never bind parameters to the same statement. The column names of the statement's result set are resolved on its
+ * first execution and kept with the statement.
+ * <p/>
+ * The statements of a connection are dropped when it is closed using
+ * {@link DatabaseQueryUtility#closeConnection(Connection)}, when it turns out to be broken and otherwise, should it
+ * have been closed some other way, the next time a cache is created for another connection.
+ */
+class StatementCache {
+
+    private static final String MAX_SIZE_SYSPROP = "rhq.database.statement-cache-size";
+
+    /**
+     * The number of statements kept open per connection. Each of them holds a cursor on databases like Oracle, whose
+     * sessions are limited to 50 open cursors by default, so this leaves room for the statements of the components
+     * that don't go through the cache.
+     */
+    static final int MAX_SIZE = Integer.getInteger(MAX_SIZE_SYSPROP, 16);
+
+    private static final Map<Connection, StatementCache> CACHES = new IdentityHashMap<Connection, StatementCache>();
+
+    private final Connection connection;
+    private final Map<String, CachedStatement> statements;
+
+    private StatementCache(Connection connection) {
+        this.connection = connection;
+        this.statements = new LinkedHashMap<String, CachedStatement>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+                if (size() > MAX_SIZE) {
+                    eldest.getValue().close();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * A prepared statement together with the column names of its result set.
+     */
+    static class CachedStatement {
+        private final String sql;
+        private final PreparedStatement statement;
+        private String[] columns;
+
+        private CachedStatement(String sql, PreparedStatement statement) {
+            this.sql = sql;
+            this.statement = statement;
+        }
+
+        PreparedStatement getStatement() {
+            return statement;
+        }
+
+        /**
+         * @return the column names of the result set, resolved on the first call
+         */
+        String[] getColumns(ResultSet resultSet) throws SQLException {
+            if (columns == null) {
+                columns = DatabaseQueryUtility.getColumns(resultSet.getMetaData());
+            }
+            return columns;
+        }
+
+        private void close() {
+            DatabaseQueryUtility.close(statement, null);
+        }
+    }
+
+    /**
+     * Checks a statement for the SQL out of the cache of the connection, preparing it if it isn't cached.
+     * The statement must be handed back using {@link #checkIn(Connection, CachedStatement, boolean)}.
+     */
+    static CachedStatement checkOut(Connection connection, String sql) throws SQLException {
+        StatementCache cache;
+        synchronized (CACHES) {
+            cache = CACHES.get(connection);
+            if (cache == null) {
+                purgeClosed();
+                cache = new StatementCache(connection);
+                CACHES.put(connection, cache);
+            }
+        }
+
+        CachedStatement statement;
+        synchronized (cache) {
+            statement = cache.statements.remove(sql);
+        }
+
+        if (statement == null) {
+            statement = new CachedStatement(sql, connection.prepareStatement(sql));
+        } else {
+            statement.statement.clearParameters();
+        }
+
+        return statement;
+    }
+
+    /**
+     * Returns the statement to the cache of the connection.
+     *
+     * @param connection the connection the statement was checked out for
+     * @param statement the statement, may be null
+     * @param reuse false if the statement failed and should be closed instead
+     */
+    static void checkIn(Connection connection, CachedStatement statement, boolean reuse) {
+        if (statement == null) {
+            return;
+        }
+
+        if (reuse) {
+            StatementCache cache;
+            synchronized (CACHES) {
+                cache = CACHES.get(connection);
+            }
+
+            if (cache != null) {
+                synchronized (cache) {
+                    if (!cache.statements.containsKey(statement.sql)) {
+                        cache.statements.put(statement.sql, statement);
+                        return;
+                    }
+                }
+            }
+        }
+
+        statement.close();
+    }
+
+    /**
+     * Closes and forgets all the cached statements of the connection.
+     */
+    static void clear(Connection connection) {
+        StatementCache cache;
+        synchronized (CACHES) {
+            cache = CACHES.remove(connection);
+            purgeClosed();
+        }
+
+        if (cache != null) {
+            cache.closeAll();
+        }
+    }
+
+    private void closeAll() {
+        synchronized (this) {
+            for (CachedStatement statement : statements.values()) {
+                statement.close();
+            }
+            statements.clear();
+        }
+    }
+
+    private static void purgeClosed() {
+        Iterator<StatementCache> it = CACHES.values().iterator();
+        while (it.hasNext()) {
+            StatementCache cache = it.next();
+            boolean closed;
+            try {
+                closed = cache.connection.isClosed();
+            } catch (SQLException e) {
+                closed = true;
+            }
+
+            if (closed) {
+                it.remove();
+                cache.closeAll();
+            }
+        }
+    }
+}
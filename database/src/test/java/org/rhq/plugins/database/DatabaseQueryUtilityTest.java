@@ -0,0 +1,150 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2012 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.plugins.database;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.measurement.AvailabilityType;
+import org.rhq.core.pluginapi.inventory.ResourceComponent;
+import org.rhq.core.pluginapi.inventory.ResourceContext;
+
+@Test
+public class DatabaseQueryUtilityTest {
+
+    private TestDatabase database;
+
+    @BeforeMethod
+    public void createDatabase() throws Exception {
+        Class.forName("org.h2.Driver");
+        database = new TestDatabase();
+        DatabaseQueryUtility.executeUpdate(database, "create table stats (name varchar(10), val int)");
+        DatabaseQueryUtility.executeUpdate(database, "insert into stats values ('a', 1)");
+        DatabaseQueryUtility.executeUpdate(database, "insert into stats values ('b', 2)");
+    }
+
+    @AfterMethod
+    public void dropDatabase() {
+        database.stop();
+    }
+
+    public void testStatementsReused() throws Exception {
+        String query = "select val from stats where name = ?";
+        assertEquals(DatabaseQueryUtility.getSingleNumericQueryValue(database, query, "a"), 1d);
+        assertEquals(DatabaseQueryUtility.getSingleNumericQueryValue(database, query, "b"), 2d);
+
+        StatementCache.CachedStatement first = StatementCache.checkOut(database.getConnection(), query);
+        StatementCache.checkIn(database.getConnection(), first, true);
+        StatementCache.CachedStatement second = StatementCache.checkOut(database.getConnection(), query);
+        StatementCache.checkIn(database.getConnection(), second, true);
+
+        assertTrue(first == second, "The statement should have been cached");
+    }
+
+    public void testGridValuesByColumnIndex() throws Exception {
+        List<Map<String, Object>> rows = DatabaseQueryUtility.getGridValues(database,
+            "select name, val from stats order by name");
+
+        assertEquals(rows.size(), 2);
+        assertEquals(rows.get(1).get("NAME"), "b");
+        assertEquals(((Number) rows.get(1).get("VAL")).intValue(), 2);
+    }
+
+    public void testStatementErrorKeepsConnection() throws Exception {
+        Connection connection = database.getConnection();
+
+        assertTrue(DatabaseQueryUtility.getNumericQueryValues(database, "select * from no_such_table").isEmpty());
+
+        assertEquals(database.removals, 0);
+        assertTrue(connection == database.getConnection());
+    }
+
+    public void testClosedConnectionRemoved() throws Exception {
+        database.getConnection().close();
+
+        assertTrue(DatabaseQueryUtility.getSingleNumericQueryValue(database, "select val from stats").isNaN());
+        assertEquals(database.removals, 1);
+        assertFalse(database.getConnection().isClosed());
+    }
+
+    public void testClosingConnectionClosesCachedStatements() throws Exception {
+        Connection connection = database.getConnection();
+        String query = "select val from stats where name = ?";
+        assertEquals(DatabaseQueryUtility.getSingleNumericQueryValue(database, query, "a"), 1d);
+
+        StatementCache.CachedStatement statement = StatementCache.checkOut(connection, query);
+        StatementCache.checkIn(connection, statement, true);
+        assertFalse(statement.getStatement().isClosed());
+
+        database.removeConnection();
+
+        assertTrue(statement.getStatement().isClosed(), "The cached statement should have been closed");
+        assertTrue(connection.isClosed());
+    }
+
+    private static class TestDatabase implements DatabaseComponent<ResourceComponent<?>> {
+        private Connection connection;
+        private int removals;
+
+        public void start(ResourceContext<ResourceComponent<?>> context) {
+        }
+
+        public void stop() {
+            try {
+                getConnection().createStatement().execute("drop all objects");
+            } catch (SQLException e) {
+                // ignore
+            }
+            removeConnection();
+        }
+
+        public AvailabilityType getAvailability() {
+            return AvailabilityType.UP;
+        }
+
+        public Connection getConnection() {
+            try {
+                if (connection == null) {
+                    connection = DriverManager.getConnection("jdbc:h2:mem:statement-cache-test;DB_CLOSE_DELAY=-1",
+                        "sa", "");
+                }
+            } catch (SQLException e) {
+                return null;
+            }
+            return connection;
+        }
+
+        public void removeConnection() {
+            removals++;
+            DatabaseQueryUtility.closeConnection(connection);
+            connection = null;
+        }
+    }
+}
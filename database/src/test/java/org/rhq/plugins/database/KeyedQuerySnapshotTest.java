@@ -0,0 +1,145 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2012 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.plugins.database;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.measurement.AvailabilityType;
+import org.rhq.core.pluginapi.inventory.ResourceComponent;
+import org.rhq.core.pluginapi.inventory.ResourceContext;
+
+@Test
+public class KeyedQuerySnapshotTest {
+
+    private static final String QUERY = "select name, host, val from stats where grp = ? order by host";
+
+    private TestDatabase database;
+
+    @BeforeMethod
+    public void createDatabase() throws Exception {
+        Class.forName("org.h2.Driver");
+        database = new TestDatabase();
+        DatabaseQueryUtility.executeUpdate(database,
+            "create table stats (grp varchar(10), name varchar(10), host varchar(10), val int)");
+        insert("g", "a", "h1", 1);
+        insert("g", "a", "h2", 2);
+        insert("g", "b", "h1", 3);
+        insert("other", "c", "h1", 4);
+    }
+
+    @AfterMethod
+    public void dropDatabase() {
+        database.stop();
+    }
+
+    public void testRowsByKey() throws Exception {
+        KeyedQuerySnapshot snapshot = new KeyedQuerySnapshot(QUERY, "NAME", 60000L, "g");
+
+        List<Map<String, Object>> rows = snapshot.getRows(database, "a");
+        assertEquals(rows.size(), 2);
+        assertEquals(KeyedQuerySnapshot.getString(rows.get(1), "HOST"), "h2");
+
+        Map<String, Object> row = snapshot.getRow(database, "b");
+        assertEquals(KeyedQuerySnapshot.getDouble(row, "VAL"), 3d);
+
+        //not selected by the parameter
+        assertNull(snapshot.getRow(database, "c"));
+        assertTrue(snapshot.getRows(database, "c").isEmpty());
+    }
+
+    public void testReusedWithinWindow() throws Exception {
+        KeyedQuerySnapshot snapshot = new KeyedQuerySnapshot(QUERY, "NAME", 60000L, "g");
+        assertNull(snapshot.getRow(database, "d"));
+
+        insert("g", "d", "h1", 5);
+        assertNull(snapshot.getRow(database, "d"));
+
+        snapshot.clear();
+        assertEquals(KeyedQuerySnapshot.getDouble(snapshot.getRow(database, "d"), "VAL"), 5d);
+    }
+
+    public void testReloadedAfterWindow() throws Exception {
+        KeyedQuerySnapshot snapshot = new KeyedQuerySnapshot(QUERY, "NAME", 0L, "g");
+        assertNull(snapshot.getRow(database, "d"));
+
+        insert("g", "d", "h1", 5);
+        assertEquals(KeyedQuerySnapshot.getDouble(snapshot.getRow(database, "d"), "VAL"), 5d);
+    }
+
+    public void testLabelsOfAliasedColumns() throws Exception {
+        KeyedQuerySnapshot snapshot = new KeyedQuerySnapshot("select name as \"Name\", val as \"Value\" from stats",
+            "Name", 60000L);
+
+        assertEquals(KeyedQuerySnapshot.getDouble(snapshot.getRow(database, "c"), "Value"), 4d);
+    }
+
+    private void insert(String group, String name, String host, int value) throws SQLException {
+        DatabaseQueryUtility.executeUpdate(database, "insert into stats values (?, ?, ?, ?)", group, name, host,
+            value);
+    }
+
+    private static class TestDatabase implements DatabaseComponent<ResourceComponent<?>> {
+        private Connection connection;
+
+        public void start(ResourceContext<ResourceComponent<?>> context) {
+        }
+
+        public void stop() {
+            try {
+                getConnection().createStatement().execute("drop all objects");
+            } catch (SQLException e) {
+                // ignore
+            }
+            removeConnection();
+        }
+
+        public AvailabilityType getAvailability() {
+            return AvailabilityType.UP;
+        }
+
+        public Connection getConnection() {
+            try {
+                if (connection == null) {
+                    connection = DriverManager.getConnection("jdbc:h2:mem:keyed-query-snapshot-test;DB_CLOSE_DELAY=-1",
+                        "sa", "");
+                }
+            } catch (SQLException e) {
+                return null;
+            }
+            return connection;
+        }
+
+        public void removeConnection() {
+            DatabaseQueryUtility.closeConnection(connection);
+            connection = null;
+        }
+    }
+}
@@ -0,0 +1,361 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2012 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.plugins.iis;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.TimeZone;
+
+/**
+ * Extracts the request URL, status and time taken from the lines of an IIS log and aggregates the times per URL.
+ * <p/>
+ * The lines are tokenized directly in the bytes read from the log into a reused buffer. Nothing is allocated per
+ * line: the times are folded into primitive min/max/total/count slots of a hash table keyed by the bytes of the URL,
+ * and the URL is only copied out of the buffer the first time it is seen since the last {@link #drain(Sink)}.
+ * <p/>
+ * Not thread-safe.
+ */
+class IISLogTokenizer {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int INITIAL_CAPACITY = 256;
+
+    /**
+     * Receives the aggregated times of a URL.
+     */
+    interface Sink {
+        void add(String url, long beginTime, long endTime, long minimum, long maximum, long total, long count);
+    }
+
+    private final int dateField;
+    private final int timeField;
+    private final int urlField;
+    private final int statusField;
+    private final int timeTakenField;
+    private final int lastField;
+    private final boolean isAbsoluteTime;
+
+    private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    // the token boundaries of the current line, indexed by field
+    private final int[] starts;
+    private final int[] ends;
+
+    // the hash table of the URLs and their aggregated times
+    private byte[][] urls;
+    private int[] hashes;
+    private long[] minimums;
+    private long[] maximums;
+    private long[] totals;
+    private long[] counts;
+    private long[] beginTimes;
+    private long[] endTimes;
+    private int size;
+
+    /**
+     * @param dateField the position of the <code>date</code> field in the log format
+     * @param timeField the position of the <code>time</code> field
+     * @param urlField the position of the <code>cs-uri-stem</code> field
+     * @param statusField the position of the <code>sc-status</code> field
+     * @param timeTakenField the position of the <code>time-taken</code> field
+     * @param isAbsoluteTime true if the date and time are logged in UTC
+     */
+    IISLogTokenizer(int dateField, int timeField, int urlField, int statusField, int timeTakenField,
+        boolean isAbsoluteTime) {
+        this.dateField = dateField;
+        this.timeField = timeField;
+        this.urlField = urlField;
+        this.statusField = statusField;
+        this.timeTakenField = timeTakenField;
+        this.lastField = Math.max(Math.max(Math.max(dateField, timeField), Math.max(urlField, statusField)),
+            timeTakenField);
+        this.isAbsoluteTime = isAbsoluteTime;
+        this.starts = new int[lastField + 1];
+        this.ends = new int[lastField + 1];
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Reads and tokenizes the complete lines of the channel between the offsets.
+     *
+     * @return the offset following the last complete line, where the next read should start
+     */
+    long read(FileChannel channel, long from, long to) throws IOException {
+        long position = from;
+        long consumed = from;
+        buffer.clear();
+        while (position < to) {
+            if (!buffer.hasRemaining()) {
+                // a single line doesn't fit, make room for it
+                ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+                buffer.flip();
+                larger.put(buffer);
+                buffer = larger;
+            }
+
+            int limit = (int) Math.min(buffer.remaining(), to - position);
+            ByteBuffer window = buffer.duplicate();
+            window.limit(window.position() + limit);
+            int read = channel.read(window, position);
+            if (read <= 0) {
+                break;
+            }
+            position += read;
+            buffer.position(buffer.position() + read);
+
+            int end = tokenize(buffer.array(), 0, buffer.position());
+            consumed += end;
+            buffer.flip();
+            buffer.position(end);
+            buffer.compact();
+        }
+        return consumed;
+    }
+
+    /**
+     * Tokenizes the complete lines in the given range of the bytes.
+     *
+     * @return the index following the last complete line
+     */
+    int tokenize(byte[] bytes, int from, int to) {
+        int lineStart = from;
+        for (int i = from; i < to; i++) {
+            if (bytes[i] == '\n') {
+                line(bytes, lineStart, i);
+                lineStart = i + 1;
+            }
+        }
+        return lineStart;
+    }
+
+    /**
+     * Hands the aggregated times of all the URLs seen since the last call to the sink and forgets them.
+     */
+    void drain(Sink sink) throws UnsupportedEncodingException {
+        for (int i = 0; i < urls.length; i++) {
+            if (urls[i] != null) {
+                sink.add(new String(urls[i], "UTF-8"), beginTimes[i], endTimes[i], minimums[i], maximums[i],
+                    totals[i], counts[i]);
+            }
+        }
+        allocate(Math.max(INITIAL_CAPACITY, Integer.highestOneBit(Math.max(1, size)) * 2));
+    }
+
+    private void line(byte[] bytes, int from, int to) {
+        if (to > from && bytes[to - 1] == '\r') {
+            to--;
+        }
+        // directives like #Fields
+        if (to == from || bytes[from] == '#') {
+            return;
+        }
+
+        int field = 0;
+        int tokenStart = from;
+        for (int i = from; i <= to && field <= lastField; i++) {
+            if (i == to || bytes[i] == ' ') {
+                starts[field] = tokenStart;
+                ends[field] = i;
+                field++;
+                tokenStart = i + 1;
+            }
+        }
+        if (field <= lastField) {
+            return;
+        }
+
+        long status = parseNumber(bytes, starts[statusField], ends[statusField]);
+        long timeTaken = parseNumber(bytes, starts[timeTakenField], ends[timeTakenField]);
+        // Only collect stats for successful (2xx or 3xx) requests...
+        if (status < 200 || status >= 400 || timeTaken < 0) {
+            return;
+        }
+
+        long startTime = parseDateTime(bytes, starts[dateField], ends[dateField], starts[timeField], ends[timeField]);
+        if (startTime < 0) {
+            return;
+        }
+
+        add(bytes, starts[urlField], ends[urlField], startTime, timeTaken);
+    }
+
+    private void add(byte[] bytes, int from, int to, long startTime, long timeTaken) {
+        int hash = 1;
+        for (int i = from; i < to; i++) {
+            hash = 31 * hash + bytes[i];
+        }
+
+        int slot = find(hash, bytes, from, to);
+        if (urls[slot] == null) {
+            if ((size + 1) * 2 > urls.length) {
+                grow();
+                slot = find(hash, bytes, from, to);
+            }
+            urls[slot] = Arrays.copyOfRange(bytes, from, to);
+            hashes[slot] = hash;
+            minimums[slot] = timeTaken;
+            maximums[slot] = timeTaken;
+            beginTimes[slot] = startTime;
+            endTimes[slot] = startTime;
+            size++;
+        } else {
+            if (timeTaken < minimums[slot]) {
+                minimums[slot] = timeTaken;
+            }
+            if (timeTaken > maximums[slot]) {
+                maximums[slot] = timeTaken;
+            }
+            if (startTime < beginTimes[slot]) {
+                beginTimes[slot] = startTime;
+            }
+            if (startTime > endTimes[slot]) {
+                endTimes[slot] = startTime;
+            }
+        }
+        totals[slot] += timeTaken;
+        counts[slot]++;
+    }
+
+    /**
+     * @return the slot of the URL or the empty slot it should be put in
+     */
+    private int find(int hash, byte[] bytes, int from, int to) {
+        int mask = urls.length - 1;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (urls[slot] != null && (hashes[slot] != hash || !equals(urls[slot], bytes, from, to))) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static boolean equals(byte[] url, byte[] bytes, int from, int to) {
+        if (url.length != to - from) {
+            return false;
+        }
+        for (int i = 0; i < url.length; i++) {
+            if (url[i] != bytes[from + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void allocate(int capacity) {
+        urls = new byte[capacity][];
+        hashes = new int[capacity];
+        minimums = new long[capacity];
+        maximums = new long[capacity];
+        totals = new long[capacity];
+        counts = new long[capacity];
+        beginTimes = new long[capacity];
+        endTimes = new long[capacity];
+        size = 0;
+    }
+
+    private void grow() {
+        byte[][] oldUrls = urls;
+        int[] oldHashes = hashes;
+        long[] oldMinimums = minimums;
+        long[] oldMaximums = maximums;
+        long[] oldTotals = totals;
+        long[] oldCounts = counts;
+        long[] oldBeginTimes = beginTimes;
+        long[] oldEndTimes = endTimes;
+        int oldSize = size;
+
+        allocate(oldUrls.length * 2);
+        for (int i = 0; i < oldUrls.length; i++) {
+            if (oldUrls[i] != null) {
+                int slot = find(oldHashes[i], oldUrls[i], 0, oldUrls[i].length);
+                urls[slot] = oldUrls[i];
+                hashes[slot] = oldHashes[i];
+                minimums[slot] = oldMinimums[i];
+                maximums[slot] = oldMaximums[i];
+                totals[slot] = oldTotals[i];
+                counts[slot] = oldCounts[i];
+                beginTimes[slot] = oldBeginTimes[i];
+                endTimes[slot] = oldEndTimes[i];
+            }
+        }
+        size = oldSize;
+    }
+
+    /**
+     * @return the value of the decimal digits or -1 if there are none or something else
+     */
+    private static long parseNumber(byte[] bytes, int from, int to) {
+        if (from >= to) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * Parses the yyyy-MM-dd date and HH:mm:ss time.
+     *
+     * @return the time in milliseconds or -1 if the date or time are malformed
+     */
+    private long parseDateTime(byte[] bytes, int dateFrom, int dateTo, int timeFrom, int timeTo) {
+        if (dateTo - dateFrom != 10 || timeTo - timeFrom != 8 || bytes[dateFrom + 4] != '-'
+            || bytes[dateFrom + 7] != '-' || bytes[timeFrom + 2] != ':' || bytes[timeFrom + 5] != ':') {
+            return -1;
+        }
+
+        long year = parseNumber(bytes, dateFrom, dateFrom + 4);
+        long month = parseNumber(bytes, dateFrom + 5, dateFrom + 7);
+        long day = parseNumber(bytes, dateFrom + 8, dateFrom + 10);
+        long hour = parseNumber(bytes, timeFrom, timeFrom + 2);
+        long minute = parseNumber(bytes, timeFrom + 3, timeFrom + 5);
+        long second = parseNumber(bytes, timeFrom + 6, timeFrom + 8);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31 || hour < 0 || hour > 23 || minute < 0
+            || minute > 59 || second < 0 || second > 60) {
+            return -1;
+        }
+
+        long millis = ((daysSinceEpoch(year, month, day) * 24 + hour) * 60 + minute) * 60000 + second * 1000;
+        if (!isAbsoluteTime) {
+            // the fields are in local time
+            millis -= TimeZone.getDefault().getOffset(millis);
+        }
+        return millis;
+    }
+
+    /**
+     * @return the number of days between 1970-01-01 and the date of the proleptic Gregorian calendar
+     */
+    static long daysSinceEpoch(long year, long month, long day) {
+        long y = month <= 2 ? year - 1 : year;
+        long era = (y >= 0 ? y : y - 399) / 400;
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+}
@@ -18,25 +18,20 @@
  */
 package org.rhq.plugins.iis;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
+import java.io.RandomAccessFile;
 import java.util.Date;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.TimeZone;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import org.rhq.core.domain.measurement.calltime.CallTimeData;
-import org.rhq.core.domain.measurement.calltime.CallTimeDataValue;
 import org.rhq.core.pluginapi.util.ResponseTimeConfiguration;
 import org.rhq.core.pluginapi.util.ResponseTimeLogParser;
 
@@ -87,6 +82,7 @@ public class IISResponseTimeDelegate {
     private boolean isAbsoluteTime;
     private ResponseTimeConfiguration responseTimeConfiguration;
     private Map<LogFormatToken, Integer> logTokenPositions;
+    private IISLogTokenizer tokenizer;
 
     private Log log = LogFactory.getLog(IISResponseTimeDelegate.class);
 
@@ -130,6 +126,11 @@ public class IISResponseTimeDelegate {
         }
         if (!foundTokens.containsAll(EnumSet.allOf(LogFormatToken.class))) {
             log.error("Log format '" + logFormat + "' needs to include: " + LogFormatToken.getRequiredTokenString());
+        } else {
+            this.tokenizer = new IISLogTokenizer(logTokenPositions.get(LogFormatToken.DATE),
+                logTokenPositions.get(LogFormatToken.TIME), logTokenPositions.get(LogFormatToken.CS_URI_STEM),
+                logTokenPositions.get(LogFormatToken.SC_STATUS), logTokenPositions.get(LogFormatToken.TIME_TAKEN),
+                this.isAbsoluteTime);
         }
     }
 
@@ -185,127 +186,71 @@ public class IISResponseTimeDelegate {
 
     private class IISResponseTimeLogParser extends ResponseTimeLogParser {
 
-        private DateFormat dateParser = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-
         public IISResponseTimeLogParser(File logFile) {
             super(logFile);
             setExcludes(IISResponseTimeDelegate.this.responseTimeConfiguration.getExcludes());
             setTransforms(IISResponseTimeDelegate.this.responseTimeConfiguration.getTransforms());
         }
 
-        public synchronized void parseLog(CallTimeData callTimeData) throws IOException {
-            log.info("Parsing response-time log file " + this.logFile + "...");
-            BufferedReader in;
-            long newOffset = 0;
-            try {
-                in = new BufferedReader(new FileReader(this.logFile));
+        public synchronized void parseLog(final CallTimeData callTimeData) throws IOException {
+            if (tokenizer == null) {
+                // the log format lacks some of the required tokens, which has been logged already
+                return;
+            }
 
-                // record the length now, incase there are more log lines written while
-                // we are parsing the ones in the file since the last time we checked it
-                newOffset = this.logFile.length();
+            log.debug("Parsing response-time log file " + this.logFile + "...");
+            RandomAccessFile in;
+            try {
+                in = new RandomAccessFile(this.logFile, "r");
             } catch (FileNotFoundException e) {
                 log.info("Response-time log file '" + this.logFile + "' does not exist.");
                 return;
             }
 
-            log.info("Filesize " + newOffset);
-            log.info("Skipping " + previousOffset);
-            in.skip(IISResponseTimeDelegate.this.previousOffset);
-            IISResponseTimeDelegate.this.previousOffset = newOffset;
-
-            String currentLine;
-            while ((currentLine = in.readLine()) != null) {
-                LogEntry logEntry;
-                log.info("Parsing line: " + currentLine);
-                try {
-                    logEntry = parseLine(currentLine);
-                } catch (Exception e) {
-                    log.info("Problem parsing line [" + currentLine + "] - cause: " + e);
-                    continue;
-                }
-
-                String url = logEntry.getUrl();
-
-                // The URL should always begin with a slash. If it doesn't, log an error and skip the entry,
-                // so we don't end up with bogus data in the DB.
-                if (url.charAt(0) != '/') {
-                    String truncatedUrl = url.substring(0, Math.min(url.length(), 120));
-                    if (url.length() > 120) {
-                        truncatedUrl += "...";
-                    }
-                    log.info("URL ('" + truncatedUrl
-                        + "') parsed from response-time log file does not begin with '/'. " + "Line being parsed is ["
-                        + currentLine + "].");
-                    continue;
-                }
-
-                if (isExcluded(url)) {
-                    log.info("URL was excluded");
-                    continue;
-                }
-
-                // Only collect stats for successful (2xx or 3xx) requests...
-                if ((logEntry.getStatusCode() != null)
-                    && ((logEntry.getStatusCode() < 200) || (logEntry.getStatusCode() >= 400))) {
-                    log.info("Status code was invalid: " + logEntry.getStatusCode());
-                    continue;
-                }
-
-                String transformedUrl = applyTransforms(url);
-                log.info("Original URL: " + url);
-                log.info("Transformed: " + transformedUrl);
-                try {
-                    callTimeData.addCallData(transformedUrl, new Date(logEntry.getStartTime()), logEntry.getDuration());
-                } catch (IllegalArgumentException iae) {
-                    // if any issue with the data, log them and continue processing the rest of the report
-                    log.error(iae);
+            try {
+                // record the length now, incase there are more log lines written while
+                // we are parsing the ones in the file since the last time we checked it
+                long newOffset = in.length();
+                if (IISResponseTimeDelegate.this.previousOffset > newOffset) {
+                    // truncated
+                    IISResponseTimeDelegate.this.previousOffset = 0;
                 }
-            }
 
-            log.info("Results...");
-            for (Map.Entry<String, CallTimeDataValue> callTime : callTimeData.getValues().entrySet()) {
-                String url = callTime.getKey();
-                CallTimeDataValue value = callTime.getValue();
-                log.info("Calltime URL: " + url);
-                log.info("Calltime Data: " + value);
+                IISResponseTimeDelegate.this.previousOffset = tokenizer.read(in.getChannel(),
+                    IISResponseTimeDelegate.this.previousOffset, newOffset);
+            } finally {
+                in.close();
             }
 
-            in.close();
-        }
-
-        // E.g. format
-        // 2008-04-18 19:56:18 127.0.0.1 GET /favicon.ico 404 0
-        protected LogEntry parseLine(String line) throws Exception {
-            LogEntry logEntry;
-            try {
-                String[] logEntryTokens = line.split(" ");
-
-                String date = logEntryTokens[logTokenPositions.get(LogFormatToken.DATE)];
-                String time = logEntryTokens[logTokenPositions.get(LogFormatToken.TIME)];
-                String ipAddress = logEntryTokens[logTokenPositions.get(LogFormatToken.C_IP)];
-                String url = logEntryTokens[logTokenPositions.get(LogFormatToken.CS_URI_STEM)];
+            tokenizer.drain(new IISLogTokenizer.Sink() {
+                public void add(String url, long beginTime, long endTime, long minimum, long maximum, long total,
+                    long count) {
+                    // The URL should always begin with a slash. If it doesn't, log an error and skip the entry,
+                    // so we don't end up with bogus data in the DB.
+                    if (url.length() == 0 || url.charAt(0) != '/') {
+                        String truncatedUrl = url.substring(0, Math.min(url.length(), 120));
+                        if (url.length() > 120) {
+                            truncatedUrl += "...";
+                        }
+                        log.info("URL ('" + truncatedUrl
+                            + "') parsed from response-time log file does not begin with '/'.");
+                        return;
+                    }
 
-                int httpStatus = Integer.parseInt(logEntryTokens[logTokenPositions.get(LogFormatToken.SC_STATUS)]);
-                long duration = Long.parseLong(logEntryTokens[logTokenPositions.get(LogFormatToken.TIME_TAKEN)]);
+                    if (isExcluded(url)) {
+                        return;
+                    }
 
-                long startTime = dateParser.parse(date.trim() + " " + time.trim()).getTime();
-                if (isAbsoluteTime) {
-                    /* if we determine that IIS is recording log files in UTC, we need to 
-                     * translate values into agent-local times; get the local start time by 
-                     * adding the DST-based local offset from the UTC parsed time
-                     */
-                    int tzOffset = TimeZone.getDefault().getOffset(startTime);
-                    startTime += tzOffset;
+                    String transformedUrl = applyTransforms(url);
+                    try {
+                        callTimeData.addAggregatedCallData(transformedUrl, new Date(beginTime), new Date(endTime),
+                            minimum, maximum, total, count);
+                    } catch (IllegalArgumentException iae) {
+                        // if any issue with the data, log them and continue processing the rest of the report
+                        log.error(iae);
+                    }
                 }
-
-                logEntry = new LogEntry(url, startTime, duration, httpStatus, ipAddress);
-            } catch (RuntimeException e) {
-                //default fields: time c-ip cs-method cs-uri-stem sc-status (also need 'date' and 'time-taken')
-                throw new Exception("Failed to parse response time log file line [" + line + "]. "
-                    + "Expected field format is 'date time c-ip cs-method cs-uri-stem sc-status'", e);
-            }
-
-            return logEntry;
+            });
         }
     }
 }
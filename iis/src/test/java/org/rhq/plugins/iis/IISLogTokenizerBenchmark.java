@@ -0,0 +1,146 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2012 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.plugins.iis;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Compares tokenizing a W3C extended log with {@link IISLogTokenizer} against reading it line by line, splitting
+ * the lines and parsing the dates with a date format. Not run as part of the test suite, start it via its main
+ * method.
+ */
+public class IISLogTokenizerBenchmark {
+
+    private static final int LINES = 500000;
+    private static final int URLS = 200;
+    private static final int ROUNDS = 5;
+
+    private long sink;
+
+    public static void main(String[] args) throws Exception {
+        IISLogTokenizerBenchmark benchmark = new IISLogTokenizerBenchmark();
+        byte[] log = generate();
+        for (int i = 0; i < ROUNDS; i++) {
+            benchmark.run(log);
+        }
+    }
+
+    private static byte[] generate() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StringBuilder bld = new StringBuilder("#Fields: date time c-ip cs-method cs-uri-stem sc-status time-taken\r\n");
+        for (int i = 0; i < LINES; i++) {
+            int second = i % 86400;
+            bld.append("2012-06-15 ");
+            appendTwoDigits(bld, second / 3600).append(':');
+            appendTwoDigits(bld, second / 60 % 60).append(':');
+            appendTwoDigits(bld, second % 60);
+            bld.append(" 10.0.0.").append(i % 250).append(" GET /app/page").append(i % URLS).append(".aspx ");
+            bld.append(i % 50 == 0 ? 404 : 200).append(' ').append(i % 1000).append("\r\n");
+            if (bld.length() > 64 * 1024) {
+                out.write(bld.toString().getBytes("UTF-8"));
+                bld.setLength(0);
+            }
+        }
+        out.write(bld.toString().getBytes("UTF-8"));
+        return out.toByteArray();
+    }
+
+    private static StringBuilder appendTwoDigits(StringBuilder bld, int value) {
+        if (value < 10) {
+            bld.append('0');
+        }
+        return bld.append(value);
+    }
+
+    private void run(byte[] log) throws Exception {
+        long start = System.nanoTime();
+        Map<String, long[]> split = split(log);
+        long splitDone = System.nanoTime();
+
+        IISLogTokenizer tokenizer = new IISLogTokenizer(0, 1, 4, 5, 6, true);
+        tokenizer.tokenize(log, 0, log.length);
+        final Map<String, long[]> tokenized = new HashMap<String, long[]>();
+        tokenizer.drain(new IISLogTokenizer.Sink() {
+            public void add(String url, long beginTime, long endTime, long minimum, long maximum, long total,
+                long count) {
+                tokenized.put(url, new long[] { beginTime, endTime, minimum, maximum, total, count });
+            }
+        });
+        long tokenizeDone = System.nanoTime();
+
+        for (Map.Entry<String, long[]> e : split.entrySet()) {
+            long[] expected = e.getValue();
+            long[] actual = tokenized.get(e.getKey());
+            for (int i = 0; i < expected.length; i++) {
+                if (actual == null || actual[i] != expected[i]) {
+                    throw new IllegalStateException("The results differ for " + e.getKey());
+                }
+            }
+            sink += actual[5];
+        }
+
+        System.out.println("split: " + (splitDone - start) / LINES + "ns/line, tokenizer: "
+            + (tokenizeDone - splitDone) / LINES + "ns/line (" + tokenized.size() + " urls, " + sink + ")");
+    }
+
+    private static Map<String, long[]> split(byte[] log) throws Exception {
+        DateFormat dateParser = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        dateParser.setTimeZone(TimeZone.getTimeZone("GMT"));
+        Map<String, long[]> ret = new HashMap<String, long[]>();
+
+        BufferedReader in = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(log), "UTF-8"));
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.startsWith("#")) {
+                continue;
+            }
+
+            String[] tokens = line.split(" ");
+            int status = Integer.parseInt(tokens[5]);
+            if (status < 200 || status >= 400) {
+                continue;
+            }
+
+            long startTime = dateParser.parse(tokens[0] + " " + tokens[1]).getTime();
+            long duration = Long.parseLong(tokens[6]);
+            long[] stats = ret.get(tokens[4]);
+            if (stats == null) {
+                ret.put(tokens[4], new long[] { startTime, startTime, duration, duration, duration, 1 });
+            } else {
+                stats[0] = Math.min(stats[0], startTime);
+                stats[1] = Math.max(stats[1], startTime);
+                stats[2] = Math.min(stats[2], duration);
+                stats[3] = Math.max(stats[3], duration);
+                stats[4] += duration;
+                stats[5]++;
+            }
+        }
+
+        return ret;
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2012 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.plugins.iis;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TimeZone;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.configuration.Configuration;
+import org.rhq.core.domain.measurement.DataType;
+import org.rhq.core.domain.measurement.MeasurementScheduleRequest;
+import org.rhq.core.domain.measurement.calltime.CallTimeData;
+import org.rhq.core.domain.measurement.calltime.CallTimeDataValue;
+import org.rhq.core.pluginapi.util.ResponseTimeConfiguration;
+
+/**
+ * Tests the tokenizing of W3C extended logs by the {@link IISLogTokenizer}.
+ */
+@Test
+public class IISLogTokenizerTest {
+
+    private static final String FORMAT = "date time c-ip cs-method cs-uri-stem sc-status time-taken";
+
+    private TimeZone defaultTimeZone;
+    private File dir;
+
+    /**
+     * Keeps the begin time, end time, minimum, maximum, total and count of each drained URL.
+     */
+    private static class Times implements IISLogTokenizer.Sink {
+        Map<String, long[]> urls = new HashMap<String, long[]>();
+
+        public void add(String url, long beginTime, long endTime, long minimum, long maximum, long total,
+            long count) {
+            urls.put(url, new long[] { beginTime, endTime, minimum, maximum, total, count });
+        }
+    }
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        defaultTimeZone = TimeZone.getDefault();
+        //a zone with an offset from UTC, so that the local time is not accidentally right
+        TimeZone.setDefault(TimeZone.getTimeZone("America/New_York"));
+
+        dir = File.createTempFile("iis-log-tokenizer", "");
+        dir.delete();
+        dir.mkdir();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        TimeZone.setDefault(defaultTimeZone);
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    public void testPartialTrailingLine() throws IOException {
+        IISLogTokenizer tokenizer = createTokenizer(true);
+        String first = line("10:00:00", "/a", 200, 10);
+        String second = line("10:00:01", "/b", 200, 20);
+
+        byte[] bytes = (first + second.substring(0, 15)).getBytes("UTF-8");
+        assertEquals(tokenizer.tokenize(bytes, 0, bytes.length), first.length());
+
+        //the partial line is left for the next read once the rest of it is written
+        File log = new File(dir, "ex120615.log");
+        write(log, first + second.substring(0, 15), false);
+        long offset = read(tokenizer, log, 0);
+        assertEquals(offset, first.length());
+
+        write(log, second.substring(15), true);
+        offset = read(tokenizer, log, offset);
+        assertEquals(offset, log.length());
+
+        Times times = drain(tokenizer);
+        assertEquals(times.urls.size(), 2);
+        assertEquals(times.urls.get("/a")[5], 2);
+        assertEquals(times.urls.get("/b")[5], 1);
+        assertEquals(times.urls.get("/b")[4], 20);
+    }
+
+    public void testCrLfLineEndings() throws IOException {
+        IISLogTokenizer tokenizer = createTokenizer(true);
+        byte[] bytes = (crlf(line("10:00:00", "/a", 200, 10)) + crlf(line("10:00:01", "/a", 200, 30)))
+            .getBytes("UTF-8");
+
+        assertEquals(tokenizer.tokenize(bytes, 0, bytes.length), bytes.length);
+
+        long[] a = drain(tokenizer).urls.get("/a");
+        assertNotNull(a);
+        assertEquals(a[2], 10);
+        assertEquals(a[3], 30);
+        assertEquals(a[4], 40);
+        assertEquals(a[5], 2);
+    }
+
+    public void testLineLongerThanBuffer() throws IOException {
+        IISLogTokenizer tokenizer = createTokenizer(true);
+        char[] chars = new char[200 * 1024];
+        Arrays.fill(chars, 'x');
+        chars[0] = '/';
+        String url = new String(chars);
+
+        File log = new File(dir, "ex120615.log");
+        write(log, line("10:00:00", url, 200, 10) + line("10:00:01", "/a", 200, 20), false);
+
+        assertEquals(read(tokenizer, log, 0), log.length());
+
+        Times times = drain(tokenizer);
+        assertEquals(times.urls.get(url)[5], 1);
+        assertEquals(times.urls.get("/a")[5], 1);
+    }
+
+    public void testDirectivesSkipped() throws IOException {
+        IISLogTokenizer tokenizer = createTokenizer(true);
+        byte[] bytes = (crlf("#Software: Microsoft Internet Information Services 6.0") + crlf("#Version: 1.0")
+            + crlf("#Fields: " + FORMAT) + "\r\n" + crlf(line("10:00:00", "/a", 200, 10))).getBytes("UTF-8");
+
+        tokenizer.tokenize(bytes, 0, bytes.length);
+
+        Times times = drain(tokenizer);
+        assertEquals(times.urls.size(), 1);
+        assertEquals(times.urls.get("/a")[5], 1);
+    }
+
+    public void testOnlySuccessfulRequests() throws IOException {
+        IISLogTokenizer tokenizer = createTokenizer(true);
+        byte[] bytes = (line("10:00:00", "/a", 199, 1) + line("10:00:01", "/a", 200, 10)
+            + line("10:00:02", "/a", 304, 30) + line("10:00:03", "/a", 404, 100) + line("10:00:04", "/a", 500, 1000)
+            + line("10:00:05", "/b", 404, 5)).getBytes("UTF-8");
+
+        tokenizer.tokenize(bytes, 0, bytes.length);
+
+        Times times = drain(tokenizer);
+        assertEquals(times.urls.size(), 1);
+        long[] a = times.urls.get("/a");
+        assertEquals(a[2], 10);
+        assertEquals(a[3], 30);
+        assertEquals(a[4], 40);
+        assertEquals(a[5], 2);
+    }
+
+    public void testUtcTime() throws IOException {
+        IISLogTokenizer tokenizer = createTokenizer(true);
+        byte[] bytes = (line("10:20:30", "/a", 200, 10) + line("08:00:00", "/a", 200, 10)).getBytes("UTF-8");
+
+        tokenizer.tokenize(bytes, 0, bytes.length);
+
+        long[] a = drain(tokenizer).urls.get("/a");
+        assertEquals(a[0], time(TimeZone.getTimeZone("UTC"), 8, 0, 0));
+        assertEquals(a[1], time(TimeZone.getTimeZone("UTC"), 10, 20, 30));
+    }
+
+    public void testLocalTime() throws IOException {
+        IISLogTokenizer tokenizer = createTokenizer(false);
+        byte[] bytes = (line("10:20:30", "/a", 200, 10) + line("08:00:00", "/a", 200, 10)).getBytes("UTF-8");
+
+        tokenizer.tokenize(bytes, 0, bytes.length);
+
+        long[] a = drain(tokenizer).urls.get("/a");
+        assertEquals(a[0], time(TimeZone.getDefault(), 8, 0, 0));
+        assertEquals(a[1], time(TimeZone.getDefault(), 10, 20, 30));
+    }
+
+    public void testTruncatedLogReadFromStart() throws IOException {
+        File log = new File(dir, "ex120615.log");
+        write(log, crlf("#Fields: " + FORMAT) + line("09:00:00", "/old", 200, 10), false);
+
+        IISResponseTimeDelegate delegate = new IISResponseTimeDelegate(dir.getPath(), FORMAT,
+            new ResponseTimeConfiguration(new Configuration()));
+        //the lines logged before the first parse are skipped
+        CallTimeData data = parse(delegate);
+        assertTrue(data.getValues().isEmpty(), data.getValues().toString());
+
+        write(log, line("10:00:00", "/a", 200, 10) + line("10:00:01", "/a", 200, 20), true);
+        data = parse(delegate);
+        assertEquals(data.getValues().size(), 1);
+        assertEquals(data.getValues().get("/a").getCount(), 2);
+
+        //rewritten shorter than the offset already read
+        write(log, line("11:00:00", "/b", 200, 5), false);
+        data = parse(delegate);
+        assertEquals(data.getValues().size(), 1);
+        CallTimeDataValue b = data.getValues().get("/b");
+        assertNotNull(b);
+        assertEquals(b.getCount(), 1);
+    }
+
+    private static IISLogTokenizer createTokenizer(boolean isAbsoluteTime) {
+        return new IISLogTokenizer(0, 1, 4, 5, 6, isAbsoluteTime);
+    }
+
+    private static String line(String time, String url, int status, long timeTaken) {
+        return "2012-06-15 " + time + " 127.0.0.1 GET " + url + " " + status + " " + timeTaken + "\n";
+    }
+
+    private static String crlf(String line) {
+        return line.endsWith("\n") ? line.substring(0, line.length() - 1) + "\r\n" : line + "\r\n";
+    }
+
+    private static long time(TimeZone zone, int hour, int minute, int second) {
+        Calendar cal = Calendar.getInstance(zone);
+        cal.clear();
+        cal.set(2012, Calendar.JUNE, 15, hour, minute, second);
+        return cal.getTimeInMillis();
+    }
+
+    private static Times drain(IISLogTokenizer tokenizer) throws IOException {
+        Times times = new Times();
+        tokenizer.drain(times);
+        return times;
+    }
+
+    private static long read(IISLogTokenizer tokenizer, File log, long from) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(log, "r");
+        try {
+            return tokenizer.read(in.getChannel(), from, in.length());
+        } finally {
+            in.close();
+        }
+    }
+
+    private static CallTimeData parse(IISResponseTimeDelegate delegate) {
+        CallTimeData data = new CallTimeData(new MeasurementScheduleRequest(1, "ResponseTime", 60000L, true,
+            DataType.CALLTIME));
+        delegate.parseLogs(data);
+        return data;
+    }
+
+    private static void write(File f, String contents, boolean append) throws IOException {
+        FileOutputStream out = new FileOutputStream(f, append);
+        try {
+            out.write(contents.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+}
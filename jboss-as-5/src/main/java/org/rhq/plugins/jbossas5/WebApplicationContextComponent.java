@@ -22,7 +22,6 @@
  */
 package org.rhq.plugins.jbossas5;
 
-import java.io.File;
 import java.util.Set;
 
 import org.apache.commons.logging.Log;
@@ -41,11 +40,11 @@ import org.rhq.core.domain.measurement.MeasurementScheduleRequest;
 import org.rhq.core.domain.measurement.calltime.CallTimeData;
 import org.rhq.core.pluginapi.inventory.ResourceContext;
 import org.rhq.core.pluginapi.util.ResponseTimeConfiguration;
-import org.rhq.core.pluginapi.util.ResponseTimeLogParser;
 import org.rhq.plugins.jbossas5.helper.MoreKnownComponentTypes;
 import org.rhq.plugins.jbossas5.util.ManagedComponentUtils;
 import org.rhq.plugins.jbossas5.util.RegularExpressionNameMatcher;
 import org.rhq.plugins.jbossas5.util.ResourceComponentUtils;
+import org.rhq.plugins.jmx.util.ResponseTimeLogTailer;
 
 /**
  * A Resource component for web application contexts (e.g. "//localhost/jmx-console").
@@ -80,7 +79,7 @@ public class WebApplicationContextComponent extends ManagedComponentComponent {
     private final Log log = LogFactory.getLog(this.getClass());
 
     private String servletComponentNamesRegex;
-    private ResponseTimeLogParser logParser;
+    private ResponseTimeLogTailer.Subscription responseTimeLog;
 
     private Boolean clustered;
 
@@ -91,12 +90,17 @@ public class WebApplicationContextComponent extends ManagedComponentComponent {
         this.servletComponentNamesRegex = ResourceComponentUtils.replacePropertyExpressionsInTemplate(
             SERVLET_COMPONENT_NAMES_REGEX_TEMPLATE, pluginConfig);
         ResponseTimeConfiguration responseTimeConfig = new ResponseTimeConfiguration(pluginConfig);
-        File logFile = responseTimeConfig.getLogFile();
-        if (logFile != null) {
-            this.logParser = new ResponseTimeLogParser(logFile);
-            this.logParser.setExcludes(responseTimeConfig.getExcludes());
-            this.logParser.setTransforms(responseTimeConfig.getTransforms());
+        this.responseTimeLog = ResponseTimeLogTailer.subscribe(responseTimeConfig,
+            pluginConfig.getSimpleValue(CONTEXT_PATH_PROPERTY, null));
+    }
+
+    @Override
+    public void stop() {
+        if (this.responseTimeLog != null) {
+            this.responseTimeLog.unsubscribe();
+            this.responseTimeLog = null;
         }
+        super.stop();
     }
 
     @Override
@@ -118,10 +122,10 @@ public class WebApplicationContextComponent extends ManagedComponentComponent {
                     MeasurementDataTrait trait = new MeasurementDataTrait(request, virtualHost);
                     report.addData(trait);
                 } else if (metricName.equals(RESPONSE_TIME_METRIC)) {
-                    if (this.logParser != null) {
+                    if (this.responseTimeLog != null) {
                         try {
                             CallTimeData callTimeData = new CallTimeData(request);
-                            this.logParser.parseLog(callTimeData);
+                            this.responseTimeLog.parseLog(callTimeData);
                             report.addData(callTimeData);
                         } catch (Exception e) {
                             log.error("Failed to retrieve HTTP call-time data.", e);
@@ -18,24 +18,26 @@
  */
 package org.rhq.modules.plugins.jbossas7;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.io.StringWriter;
-import java.net.Authenticator;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.SocketTimeoutException;
 import java.net.URL;
 import java.util.StringTokenizer;
 
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpConnectionManager;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
 import org.apache.commons.httpclient.UsernamePasswordCredentials;
+import org.apache.commons.httpclient.auth.AuthScheme;
+import org.apache.commons.httpclient.auth.AuthScope;
+import org.apache.commons.httpclient.methods.ByteArrayRequestEntity;
+import org.apache.commons.httpclient.methods.PostMethod;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.JsonParser;
 import org.codehaus.jackson.map.DeserializationConfig;
 import org.codehaus.jackson.map.ObjectMapper;
 import org.codehaus.jackson.map.SerializationConfig;
@@ -45,6 +47,7 @@ import org.rhq.core.pluginapi.inventory.InvalidPluginConfigurationException;
 import org.rhq.modules.plugins.jbossas7.json.ComplexResult;
 import org.rhq.modules.plugins.jbossas7.json.Operation;
 import org.rhq.modules.plugins.jbossas7.json.Result;
+import org.rhq.modules.plugins.jbossas7.json.StreamingCodec;
 
 /**
  * Provide management connections to an AS7 instance and reading/writing data from/to it.
@@ -55,30 +58,40 @@ import org.rhq.modules.plugins.jbossas7.json.Result;
 public class ASConnection {
 
     public static final String MANAGEMENT = "/management";
-    private static final String FAILURE_DESCRIPTION = "\"failure-description\"";
 
     // This is a variable on purpose, so devs can switch it on in the debugger or in the agent
     public static boolean verbose = false;
     private static final int HTTP_TEMPORARY_REDIRECT = 307;
 
-    private static final String POST_HTTP_METHOD = "POST";
-
-    private static final String CONTENT_LENGTH_HTTP_HEADER = "Content-Length";
     private static final String ACCEPT_HTTP_HEADER = "Accept";
-    private static final String CONTENT_TYPE_HTTP_HEADER = "Content-Type";
 
     private static final String JSON_MIME_TYPE = "application/json";
+    private static final String JSON_CHARSET = "UTF-8";
+
+    // Upper bound of persistent connections kept open to one management interface
+    private static final int MAX_CONNECTIONS_PER_HOST = Integer.getInteger("as7plugin.maxConnectionsPerHost", 5);
+    private static final int SOCKET_CONNECTION_TIMEOUT = 10 * 1000; // 10sec
+    private static final int CONNECTION_POOL_TIMEOUT = 30 * 1000; // 30sec
 
     private final Log log = LogFactory.getLog(ASConnection.class);
 
     private URL url;
     private String urlString;
     private ObjectMapper mapper;
-    private Authenticator passwordAuthenticator;
+    private StreamingCodec codec;
     private String host;
     private int port;
 
     private UsernamePasswordCredentials credentials;
+    private HttpClient httpClient;
+
+    // The last authentication scheme the server challenged the current thread with. It is handed to the next
+    // request of the thread, so that the Authorization header is sent pre-emptively instead of paying a 401 round
+    // trip per request. The schemes are kept per thread, as processing a challenge modifies the scheme (e.g. the
+    // nonce of the digest scheme) and the requests of different threads must not race on it.
+    private final ThreadLocal<AuthScheme> cachedAuthScheme = new ThreadLocal<AuthScheme>();
+
+    private ModelCache modelCache;
 
     /**
      * Construct an ASConnection object. The real "physical" connection is done in {@link #executeRaw(Operation)}.
@@ -89,6 +102,20 @@ public class ASConnection {
      * @param password password needed for authentication
      */
     public ASConnection(String host, int port, String user, String password) {
+        this(host, port, user, password, createConnectionManager());
+    }
+
+    /**
+     * Construct an ASConnection object that talks to the server over the passed connection manager.
+     * This allows to plug in a different transport, e.g. a shared pool or one that is instrumented for tests.
+     *
+     * @param host Host of the DomainController or standalone server
+     * @param port Port of the JSON api.
+     * @param user user needed for authentication
+     * @param password password needed for authentication
+     * @param connectionManager manager that provides the (persistent) http connections to the server
+     */
+    public ASConnection(String host, int port, String user, String password, HttpConnectionManager connectionManager) {
         if (host == null) {
             throw new IllegalArgumentException("Management host cannot be null.");
         }
@@ -105,18 +132,22 @@ public class ASConnection {
             throw new IllegalArgumentException(e.getMessage());
         }
 
-        passwordAuthenticator = new AS7Authenticator(user, password);
-        Authenticator.setDefault(passwordAuthenticator);
-
-        // This will hold a reference to user and password
-        // and will be used in the future when switching this class communication layer to httpclient
         credentials = new UsernamePasswordCredentials(user, password);
 
+        // Credentials are scoped to this server only, so several servers with different users can be
+        // managed from one agent (the old java.net.Authenticator was JVM global)
+        httpClient = new HttpClient(connectionManager);
+        httpClient.getParams().setConnectionManagerTimeout(CONNECTION_POOL_TIMEOUT);
+        httpClient.getState().setCredentials(new AuthScope(host, port, AuthScope.ANY_REALM), credentials);
+
         // read system property "as7plugin.verbose"
         verbose = Boolean.getBoolean("as7plugin.verbose");
 
         mapper = new ObjectMapper();
         mapper.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        codec = new StreamingCodec(mapper.getJsonFactory());
+
+        modelCache = new ModelCache(this);
     }
 
     /**
@@ -152,76 +183,78 @@ public class ASConnection {
      * @see #executeComplex(org.rhq.modules.plugins.jbossas7.json.Operation)
      */
     public JsonNode executeRaw(Operation operation, int timeoutSec) {
+        return executeRequest(operation, timeoutSec, new JsonNodeReader());
+    }
+
+    /**
+     * Send the operation to the server and read the response with the passed reader.
+     * The operation is serialized exactly once and the response is parsed straight from the connection.
+     */
+    private <T> T executeRequest(Operation operation, int timeoutSec, ResponseReader<T> reader) {
         long requestStartTime = System.currentTimeMillis();
 
-        HttpURLConnection conn;
-        OutputStream out;
+        PostMethod method = new PostMethod(urlString);
+        boolean failed = true;
         try {
-            conn = (HttpURLConnection) url.openConnection();
-            conn.setDoOutput(true);
-            conn.setRequestMethod(POST_HTTP_METHOD);
-            conn.addRequestProperty(CONTENT_TYPE_HTTP_HEADER, JSON_MIME_TYPE);
-            conn.addRequestProperty(ACCEPT_HTTP_HEADER, JSON_MIME_TYPE);
-            conn.setInstanceFollowRedirects(false);
-            int timeoutMillis = timeoutSec * 1000;
-            conn.setConnectTimeout(timeoutMillis);
-            conn.setReadTimeout(timeoutMillis);
-            if (conn.getReadTimeout() != timeoutMillis) {
-                log.warn("Read timeout did not get set on HTTP connection - the JRE uses a broken timeout mechanism - nothing we can do.");
-            }
-
-            out = conn.getOutputStream();
-        } catch (IOException e) {
-            // This most likely just means the server is down.
-            if (log.isDebugEnabled()) {
-                log.debug("Failed to open connection to [" + urlString + "] in order to invoke [" + operation + "]: "
-                    + e);
+            if (operation == null) {
+                throw new IllegalArgumentException("Operation must not be null");
             }
-            // TODO (ips): Would it make more sense to return null here, since we didn't even connect?
-            Result failure = new Result();
-            failure.setFailureDescription(e.toString());
-            failure.setOutcome("failure");
-            failure.setRhqThrowable(e);
-            JsonNode ret = mapper.valueToTree(failure);
-            return ret;
-        }
-
-        try {
-            String jsonToSend = mapper.writeValueAsString(operation);
 
             // Check for spaces in the path, which the AS7 server will reject. Log verbose error and
             // generate failure indicator.
-            if ((operation != null) && (operation.getAddress() != null) && operation.getAddress().getPath() != null) {
+            if ((operation.getAddress() != null) && operation.getAddress().getPath() != null) {
                 if (containsSpaces(operation.getAddress().getPath())) {
-                    Result noResult = new Result();
                     String outcome = "- Path '" + operation.getAddress().getPath()
                         + "' is invalid as it contains spaces -";
                     if (verbose) {
                         log.error(outcome);
                     }
-                    noResult.setFailureDescription(outcome);
-                    noResult.setOutcome("failure");
-                    JsonNode invalidPathResult = mapper.valueToTree(noResult);
-                    return invalidPathResult;
+                    return reader.failure(outcome, null);
                 }
             }
 
+            byte[] jsonToSend = codec.writeOperation(operation);
             if (verbose) {
-                log.info("JSON to send: " + jsonToSend);
+                log.info("JSON to send: " + new String(jsonToSend, JSON_CHARSET));
             }
 
-            mapper.writeValue(out, operation);
+            method.addRequestHeader(ACCEPT_HTTP_HEADER, JSON_MIME_TYPE);
+            method.setRequestEntity(new ByteArrayRequestEntity(jsonToSend, JSON_MIME_TYPE + "; charset="
+                + JSON_CHARSET));
+            method.getParams().setSoTimeout(timeoutSec * 1000);
 
-            out.flush();
-            out.close();
+            AuthScheme authScheme = cachedAuthScheme.get();
+            if (authScheme != null) {
+                method.getHostAuthState().setAuthScheme(authScheme);
+            }
+
+            ResponseStatus responseStatus;
+            try {
+                responseStatus = new ResponseStatus(httpClient.executeMethod(method), method.getStatusText());
+            } catch (SocketTimeoutException ste) {
+                throw ste;
+            } catch (IOException e) {
+                // This most likely just means the server is down.
+                if (log.isDebugEnabled()) {
+                    log.debug("Failed to open connection to [" + urlString + "] in order to invoke [" + operation
+                        + "]: " + e);
+                }
+                // TODO (ips): Would it make more sense to return null here, since we didn't even connect?
+                return reader.failure(e.toString(), e);
+            }
 
-            ResponseStatus responseStatus = new ResponseStatus(conn);
             if (isAuthorizationFailureResponse(responseStatus.getResponseCode())) {
+                cachedAuthScheme.remove();
                 handleAuthorizationFailureResponse(operation, responseStatus);
             }
+            if (method.getHostAuthState().getAuthScheme() != null) {
+                cachedAuthScheme.set(method.getHostAuthState().getAuthScheme());
+            }
 
-            String responseBody = getResponseBody(conn);
-            if (responseStatus.getResponseCode() >= 400) {
+            T operationResult = readResponseBody(method, reader);
+            failed = responseStatus.getResponseCode() >= 400;
+            if (failed) {
+                String responseBody = reader.describe(operationResult);
                 if (verbose) {
                     log.debug(operation + " failed with " + responseStatus + " - response body was [" + responseBody
                         + "].");
@@ -239,23 +272,7 @@ public class ASConnection {
                 }
             }
 
-            JsonNode operationResult;
-            if (!responseBody.isEmpty()) {
-                try {
-                    operationResult = mapper.readTree(responseBody);
-                } catch (IOException ioe) {
-                    log.error("Failed to deserialize response to " + operation + " to JsonNode - response status was "
-                        + responseStatus + ", and body was [" + responseBody + "]: " + ioe);
-                    Result result = new Result();
-                    result.setOutcome("failure");
-                    result.setFailureDescription("Failed to deserialize response to " + operation
-                        + " to JsonNode - response status was " + responseStatus + ", and body was [" + responseBody
-                        + "]: " + ioe);
-                    result.setRolledBack(responseBody.contains("rolled-back=true"));
-                    result.setRhqThrowable(ioe);
-                    operationResult = mapper.valueToTree(result);
-                }
-
+            if (operationResult != null) {
                 if (verbose) {
                     ObjectMapper om2 = new ObjectMapper();
                     om2.configure(SerializationConfig.Feature.INDENT_OUTPUT, true);
@@ -267,10 +284,8 @@ public class ASConnection {
                     }
                 }
             } else {
-                Result noResult = new Result();
-                noResult.setOutcome("failure");
-                noResult.setFailureDescription("- empty response body with HTTP status code " + responseStatus + " -");
-                operationResult = mapper.valueToTree(noResult);
+                operationResult = reader.failure("- empty response body with HTTP status code " + responseStatus
+                    + " -", null);
             }
 
             return operationResult;
@@ -278,31 +293,72 @@ public class ASConnection {
             log.error("Illegal argument for input " + operation + ": " + iae.getMessage());
         } catch (SocketTimeoutException ste) {
             log.error(operation + " timed out: " + ste.getMessage());
-            conn.disconnect();
-            Result failure = new Result();
-            failure.setFailureDescription(ste.getMessage());
-            failure.setOutcome("failure");
-            failure.setRhqThrowable(ste);
-            JsonNode ret = mapper.valueToTree(failure);
-            return ret;
+            method.abort();
+            return reader.failure(ste.getMessage(), ste);
         } catch (IOException ioe) {
-            conn.disconnect();
-            Result failure = new Result();
-            failure.setFailureDescription(ioe.getMessage());
-            failure.setOutcome("failure");
-            failure.setRhqThrowable(ioe);
-            JsonNode ret = mapper.valueToTree(failure);
-            return ret;
+            method.abort();
+            return reader.failure(ioe.getMessage(), ioe);
         } finally {
+            // Hands the connection back to the pool, so it can be re-used by the next request
+            method.releaseConnection();
             long requestEndTime = System.currentTimeMillis();
-            PluginStats stats = PluginStats.getInstance();
-            stats.incrementRequestCount();
-            stats.addRequestTime(requestEndTime - requestStartTime);
+            PluginStats.getInstance().recordRequest((operation != null) ? operation.getOperation() : null,
+                requestEndTime - requestStartTime, failed);
         }
 
         return null;
     }
 
+    /**
+     * Parse the response body straight from the connection, without buffering it as text first.
+     * @param method the executed method
+     * @param reader reader that turns the JSON into the wanted representation
+     * @return the parsed response or null if the response had no body
+     */
+    private <T> T readResponseBody(PostMethod method, ResponseReader<T> reader) throws IOException {
+        InputStream inputStream = method.getResponseBodyAsStream();
+        if (inputStream == null) {
+            return null;
+        }
+
+        JsonParser parser = mapper.getJsonFactory().createJsonParser(inputStream);
+        try {
+            if (parser.nextToken() == null) {
+                return null;
+            }
+            return reader.read(parser);
+        } catch (IOException ioe) {
+            log.error("Failed to deserialize response - response status was " + method.getStatusLine() + ": "
+                + ioe);
+            return reader.failure("Failed to deserialize response - response status was "
+                + method.getStatusLine() + ": " + ioe, ioe);
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * Close all pooled connections to the server. The connection must not be used afterwards.
+     */
+    public void shutdown() {
+        modelCache.clear();
+        HttpConnectionManager connectionManager = httpClient.getHttpConnectionManager();
+        if (connectionManager instanceof MultiThreadedHttpConnectionManager) {
+            ((MultiThreadedHttpConnectionManager) connectionManager).shutdown();
+        } else {
+            connectionManager.closeIdleConnections(0);
+        }
+    }
+
+    private static HttpConnectionManager createConnectionManager() {
+        MultiThreadedHttpConnectionManager connectionManager = new MultiThreadedHttpConnectionManager();
+        connectionManager.getParams().setDefaultMaxConnectionsPerHost(MAX_CONNECTIONS_PER_HOST);
+        connectionManager.getParams().setMaxTotalConnections(MAX_CONNECTIONS_PER_HOST);
+        connectionManager.getParams().setConnectionTimeout(SOCKET_CONNECTION_TIMEOUT);
+        connectionManager.getParams().setStaleCheckingEnabled(true);
+        return connectionManager;
+    }
+
     // When no management users have been configured, a 307 (Temporary Redirect) response will be returned, and
     // when authorization has failed due to an invalid username or password, a 401 (Unauthorized) response will be
     // returned.
@@ -407,44 +463,24 @@ public class ASConnection {
      * @return ComplexResult of the execution
      */
     public Result execute(Operation op, boolean isComplex, int timeoutSec) {
-        JsonNode node = executeRaw(op, timeoutSec);
+        Result res = executeRequest(op, timeoutSec, new ResultReader(isComplex));
 
-        if (node == null) {
+        if (res == null) {
             log.warn("Operation [" + op + "] returned null.");
-            Result failure = new Result();
+            Result failure = isComplex ? new ComplexResult() : new Result();
             failure.setFailureDescription("Operation [" + op + "] returned null.");
             return failure;
         }
-        Result res;
-        try {
-            //check for failure-description indicator, otherwise ObjectMapper will try to deserialize as json. Ex.
-            // {"outcome":"failed","failure-description":"JBAS014792: Unknown attribute number-of-timed-out-transactions","rolled-back":true}
-            String as7ResultSerialization = node.toString();
-
-            if (as7ResultSerialization.indexOf(FAILURE_DESCRIPTION) > -1) {
-                if (verbose) {
-                    log.warn("------ Detected 'failure-description' when communicating with server."
-                        + as7ResultSerialization);
-                }
-            }
+        return res;
+    }
 
-            if (isComplex) {
-                res = mapper.readValue(node, ComplexResult.class);
-            } else {
-                res = mapper.readValue(node, Result.class);
-            }
-            return res;
-        } catch (IOException e) {
-            log.error(e.getMessage());
-            if (verbose) {
-                log.error("----------- Operation execution unparsable. Request " + ":[" + op + "] Response:<" + node
-                    + ">");
-            }
-            Result failure = new Result();
-            failure.setFailureDescription("Operation <" + op + "> returned unparsable JSON, <" + node + ">.");
-            return failure;
-            //don't return null.
-        }
+    /**
+     * Return the cache of the management model of the server behind this connection.
+     * Callers that modify the model need to invalidate the affected addresses.
+     * @return the model cache
+     */
+    public ModelCache getModelCache() {
+        return modelCache;
     }
 
     public String getHost() {
@@ -463,56 +499,76 @@ public class ASConnection {
         return credentials.getPassword();
     }
 
-    @NotNull
-    private String getResponseBody(HttpURLConnection connection) {
-        InputStream inputStream;
-        try {
-            inputStream = connection.getInputStream();
-        } catch (IOException e) {
-            // This means the server returned a 4xx (client error) or 5xx (server error) response, e.g.:
-            // "java.io.IOException: Server returned HTTP response code: 500 for URL: http://127.0.0.1:9990/management"
-            // Unfortunately, AS7 incorrectly returns 500 responses for client errors (e.g. invalid resource path,
-            // attribute name, etc.).
-            inputStream = null;
+    /**
+     * Turns a response into the representation the caller wants
+     */
+    private abstract class ResponseReader<T> {
+
+        /** Read the response, the parser is positioned at its first token */
+        abstract T read(JsonParser parser) throws IOException;
+
+        abstract T fromResult(Result result);
+
+        Result createResult() {
+            return new Result();
         }
-        if (inputStream == null) {
-            inputStream = connection.getErrorStream();
+
+        /** Create the representation of a failed request */
+        T failure(String description, Throwable throwable) {
+            Result failure = createResult();
+            failure.setFailureDescription(description);
+            failure.setOutcome("failure");
+            if (throwable != null) {
+                failure.setRhqThrowable(throwable);
+            }
+            return fromResult(failure);
         }
-        if (inputStream == null) {
-            return "";
+
+        /** Textual description of the response for logging */
+        String describe(T response) {
+            return String.valueOf(response);
         }
+    }
 
-        int contentLength = connection.getHeaderFieldInt(CONTENT_LENGTH_HTTP_HEADER, -1);
+    private class JsonNodeReader extends ResponseReader<JsonNode> {
 
-        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
-        StringWriter stringWriter = (contentLength != -1) ? new StringWriter(contentLength) : new StringWriter();
-        BufferedWriter writer = new BufferedWriter(stringWriter);
-        try {
-            long numCharsCopied = 0;
-            char[] buffer = new char[1024];
+        @Override
+        JsonNode read(JsonParser parser) throws IOException {
+            return mapper.readTree(parser);
+        }
 
-            int cnt;
-            while (((contentLength == -1) || (numCharsCopied < contentLength)) && ((cnt = reader.read(buffer)) != -1)) {
-                numCharsCopied += cnt;
-                writer.write(buffer, 0, cnt);
-            }
-        } catch (IOException e) {
-            throw new RuntimeException("Failed to read response.", e);
-        } finally {
-            try {
-                writer.close();
-            } catch (IOException ioe) {
-                log.debug("Failed to close writer.", ioe);
-            }
+        @Override
+        JsonNode fromResult(Result result) {
+            return mapper.valueToTree(result);
+        }
+    }
 
-            try {
-                reader.close();
-            } catch (IOException ioe) {
-                log.debug("Failed to close reader.", ioe);
-            }
+    private class ResultReader extends ResponseReader<Result> {
+        private final boolean complex;
+
+        ResultReader(boolean complex) {
+            this.complex = complex;
+        }
+
+        @Override
+        Result read(JsonParser parser) throws IOException {
+            return codec.readResult(parser, complex);
+        }
+
+        @Override
+        Result fromResult(Result result) {
+            return result;
         }
 
-        return stringWriter.getBuffer().toString();
+        @Override
+        Result createResult() {
+            return complex ? new ComplexResult() : new Result();
+        }
+
+        @Override
+        String describe(Result response) {
+            return (response == null) ? "null" : response.getFailureDescription();
+        }
     }
 
     private class ResponseStatus {
@@ -520,23 +576,12 @@ public class ASConnection {
         private Integer responseCode;
         private String responseMessage;
 
-        ResponseStatus(HttpURLConnection connection) throws IOException {
-            try {
-                responseCode = connection.getResponseCode();
-            } catch (IOException e) {
-                // try one more time
-                responseCode = connection.getResponseCode();
-            }
-
-            try {
-                responseMessage = connection.getResponseMessage();
-            } catch (IOException e) {
-                // try one more time
-                responseMessage = connection.getResponseMessage();
-            }
+        ResponseStatus(int responseCode, String responseMessage) {
+            this.responseCode = responseCode;
+            this.responseMessage = responseMessage;
 
             if (responseMessage == null) {
-                responseMessage = (getResponseCode() == HTTP_TEMPORARY_REDIRECT) ? "Temporary Redirect" : "";
+                this.responseMessage = (getResponseCode() == HTTP_TEMPORARY_REDIRECT) ? "Temporary Redirect" : "";
             }
         }
 
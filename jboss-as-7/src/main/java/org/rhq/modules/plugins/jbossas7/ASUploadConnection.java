@@ -22,12 +22,26 @@ import java.io.BufferedOutputStream;
 import java.io.Closeable;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.ProtocolException;
 import org.apache.commons.httpclient.SimpleHttpConnectionManager;
 import org.apache.commons.httpclient.UsernamePasswordCredentials;
 import org.apache.commons.httpclient.auth.AuthScope;
@@ -36,18 +50,23 @@ import org.apache.commons.httpclient.methods.PostMethod;
 import org.apache.commons.httpclient.methods.multipart.FilePart;
 import org.apache.commons.httpclient.methods.multipart.MultipartRequestEntity;
 import org.apache.commons.httpclient.methods.multipart.Part;
+import org.apache.commons.httpclient.methods.multipart.PartSource;
+import org.apache.commons.httpclient.params.HttpMethodParams;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.codehaus.jackson.JsonNode;
 import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.node.ObjectNode;
 
 import org.rhq.core.util.StringUtil;
+import org.rhq.core.util.stream.StreamUtil;
 import org.rhq.modules.plugins.jbossas7.helper.ServerPluginConfiguration;
 
 /**
  * Connection for uploading of content.
  * 
- * This class needs to cache the content to be uploaded. Users of this class should:
+ * The content is streamed to the server while it is written. Only if the server refuses chunked requests,
+ * this class needs to cache the content to be uploaded. Users of this class should:
  * <ol>
  * <li>Call {@link #getOutputStream()} an write their content to the returned {@link OutputStream}</li>
  * <li>Call {@link #finishUpload()} to actually upload the content</li>
@@ -89,6 +108,23 @@ public class ASUploadConnection {
 
     private static final String JSON_NODE_OUTCOME_VALUE_FAILED = "failed";
 
+    private static final String JSON_NODE_RESULT = "result";
+
+    private static final String JSON_NODE_BYTES_VALUE = "BYTES_VALUE";
+
+    /** Algorithm AS7 uses to address content in its repository */
+    private static final String CONTENT_HASH_ALGORITHM = "SHA-1";
+
+    private static final boolean STREAMING_UPLOAD = !Boolean.getBoolean("as7plugin.disableStreamingUpload");
+
+    private static final int PIPE_BUFFER_SIZE = 64 * 1024;
+
+    private static final int UPLOAD_ATTEMPTS = 3;
+
+    /** host:port of servers which refused a chunked upload; content for them is always cached first */
+    private static final Set<String> CHUNKED_REFUSED = Collections
+        .newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
     private static final Log log = LogFactory.getLog(ASUploadConnection.class);
 
     private String scheme = HTTP_SCHEME;
@@ -107,6 +143,12 @@ public class ASUploadConnection {
 
     private BufferedOutputStream cacheOutputStream;
 
+    private StreamingUpload streamingUpload;
+
+    private MessageDigest contentDigest;
+
+    private DigestOutputStream contentOutputStream;
+
     /**
      * @deprecated as of 4.6. This class is not reusable so there is no reason not to provide the filename to the 
      * constructor. Use {@link #ASUploadConnection(String, int, String, String, String)}  instead.
@@ -200,17 +242,30 @@ public class ASUploadConnection {
     /**
      * Gives an outpustream where callers should write the content which will be uploaded to AS7 
      * when {@link #finishUpload()} will be called.
+     *
+     * Unless the server is known to refuse chunked requests, the content is streamed to the server while it is
+     * written. Otherwise it is cached in a temporary file until {@link #finishUpload()} is called.
      * 
      * @return an {@link OutputStream} or null if it could not be created.
      */
     public OutputStream getOutputStream() {
         try {
-            cacheFile = File.createTempFile(getClass().getSimpleName(), ".cache");
-            cacheOutputStream = new BufferedOutputStream(new FileOutputStream(cacheFile));
-            return cacheOutputStream;
+            OutputStream out;
+            if (STREAMING_UPLOAD && !CHUNKED_REFUSED.contains(getServerKey())) {
+                streamingUpload = new StreamingUpload();
+                out = streamingUpload.start();
+            } else {
+                out = createCacheOutputStream();
+            }
+            contentDigest = MessageDigest.getInstance(CONTENT_HASH_ALGORITHM);
+            contentOutputStream = new DigestOutputStream(out, contentDigest);
+            return contentOutputStream;
         } catch (IOException e) {
             log.error("Could not create outputstream for " + fileName, e);
+        } catch (NoSuchAlgorithmException e) {
+            log.error("Could not create outputstream for " + fileName, e);
         }
+        cancelUpload();
         return null;
     }
 
@@ -220,6 +275,11 @@ public class ASUploadConnection {
      * It's important to call this method if not actually uploading as it frees resources this class helds. 
      */
     public void cancelUpload() {
+        if (streamingUpload != null) {
+            // Abort before closing the stream, so that the server never sees a complete (but truncated) body
+            streamingUpload.cancel();
+        }
+        closeQuietly(contentOutputStream);
         closeQuietly(cacheOutputStream);
         deleteCacheFile();
     }
@@ -227,6 +287,9 @@ public class ASUploadConnection {
     /**
      * Triggers the real upload to the AS7 instance. At this point the caller should have written 
      * the content in the {@link OutputStream} given by {@link #getOutputStream()}.
+     *
+     * When the content has been streamed already, this waits for the server response. If the server refused the
+     * chunked request, the content has been cached meanwhile and is uploaded from the temporary file.
      * 
      * @return a {@link JsonNode} instance read from the upload response body or null if something went wrong.
      */
@@ -237,8 +300,67 @@ public class ASUploadConnection {
             throw new IllegalStateException("Upload fileName is null");
         }
 
-        closeQuietly(cacheOutputStream);
+        try {
+            closeQuietly(contentOutputStream);
+
+            JsonNode result;
+            if (streamingUpload != null) {
+                result = streamingUpload.awaitResult();
+                if (streamingUpload.isRefused()) {
+                    log.info("Server " + getServerKey() + " refused chunked upload of " + fileName
+                        + ", uploading it from the cache file");
+                    result = uploadCacheFile();
+                }
+            } else {
+                closeQuietly(cacheOutputStream);
+                result = uploadCacheFile();
+            }
+            return verifyContentHash(result);
+        } finally {
+            deleteCacheFile();
+        }
+    }
 
+    private OutputStream createCacheOutputStream() throws IOException {
+        cacheFile = File.createTempFile(getClass().getSimpleName(), ".cache");
+        cacheOutputStream = new BufferedOutputStream(new FileOutputStream(cacheFile));
+        return cacheOutputStream;
+    }
+
+    private JsonNode uploadCacheFile() {
+        HttpClient client = createHttpClient();
+        try {
+            triggerAuthentication(client);
+
+            for (int attempt = 1;; attempt++) {
+                PostMethod filePOST = new PostMethod(getUploadURL());
+                try {
+                    // Now upload file with multipart POST request
+                    Part[] parts = { new FilePart(fileName, cacheFile) };
+                    filePOST.setRequestEntity(new MultipartRequestEntity(parts, filePOST.getParams()));
+                    int responseCode = client.executeMethod(filePOST);
+                    return readUploadResponse(filePOST, responseCode);
+                } catch (IOException e) {
+                    // The content is still in the cache file, so it can just be sent again
+                    if (attempt >= UPLOAD_ATTEMPTS) {
+                        log.error(e);
+                        return null;
+                    }
+                    log.warn("Upload attempt " + attempt + " of " + fileName + " failed, retrying: " + e);
+                } catch (Exception e) {
+                    log.error(e);
+                    return null;
+                } finally {
+                    filePOST.releaseConnection();
+                }
+            }
+        } finally {
+            // Force close
+            client.getHttpConnectionManager().closeIdleConnections(0);
+        }
+    }
+
+    private HttpClient createHttpClient() {
         // We will first send a simple get request in order to trigger authentication challenge.
         // This allows to send the potentially big file only once to the server
         // The typical resulting http exchange would be:
@@ -260,7 +382,10 @@ public class ASUploadConnection {
         }
         client.getHttpConnectionManager().getParams().setConnectionTimeout(SOCKET_CONNECTION_TIMEOUT);
         client.getHttpConnectionManager().getParams().setSoTimeout(timeout);
+        return client;
+    }
 
+    private void triggerAuthentication(HttpClient client) {
         String triggerAuthURL = scheme + "://" + host + ":" + port + TRIGGER_AUTH_URL_PATH;
         GetMethod triggerAuthGET = new GetMethod(triggerAuthURL);
         try {
@@ -273,38 +398,60 @@ public class ASUploadConnection {
         } finally {
             triggerAuthGET.releaseConnection();
         }
+    }
 
-        String uploadURL = scheme + "://" + host + ":" + port + UPLOAD_URL_PATH;
-        PostMethod filePOST = new PostMethod(uploadURL);
-        try {
-
-            // Now upload file with multipart POST request
-            Part[] parts = { new FilePart(fileName, cacheFile) };
-            filePOST.setRequestEntity(new MultipartRequestEntity(parts, filePOST.getParams()));
-            int responseCode = client.executeMethod(filePOST);
-            if (responseCode != HttpStatus.SC_OK) {
-                logUploadDoesNotEndWithHttpOkStatus(filePOST, responseCode);
-                return null;
-            }
+    private String getUploadURL() {
+        return scheme + "://" + host + ":" + port + UPLOAD_URL_PATH;
+    }
 
-            ObjectMapper objectMapper = new ObjectMapper();
-            InputStream responseBodyAsStream = filePOST.getResponseBodyAsStream();
-            if (responseBodyAsStream == null) {
-                log.warn("POST request has no response body");
-                return objectMapper.readTree(EMPTY_JSON_TREE);
-            }
-            return objectMapper.readTree(responseBodyAsStream);
+    private String getServerKey() {
+        return host + ":" + port;
+    }
 
-        } catch (Exception e) {
-            log.error(e);
+    private JsonNode readUploadResponse(PostMethod filePOST, int responseCode) throws IOException {
+        if (responseCode != HttpStatus.SC_OK) {
+            logUploadDoesNotEndWithHttpOkStatus(filePOST, responseCode);
             return null;
-        } finally {
-            // First release connection
-            filePOST.releaseConnection();
-            // Then force close
-            httpConnectionManager.closeIdleConnections(0);
-            deleteCacheFile();
         }
+
+        ObjectMapper objectMapper = new ObjectMapper();
+        InputStream responseBodyAsStream = filePOST.getResponseBodyAsStream();
+        if (responseBodyAsStream == null) {
+            log.warn("POST request has no response body");
+            return objectMapper.readTree(EMPTY_JSON_TREE);
+        }
+        return objectMapper.readTree(responseBodyAsStream);
+    }
+
+    /**
+     * Compare the hash the server computed for the uploaded content with the one computed while the content
+     * was written. A mismatch means the content got corrupted on its way and must not be deployed.
+     */
+    private JsonNode verifyContentHash(JsonNode uploadResult) {
+        if (uploadResult == null || isErrorReply(uploadResult) || contentDigest == null) {
+            return uploadResult;
+        }
+        JsonNode resultNode = uploadResult.get(JSON_NODE_RESULT);
+        JsonNode hashNode = (resultNode != null) ? resultNode.get(JSON_NODE_BYTES_VALUE) : null;
+        if (hashNode == null) {
+            return uploadResult;
+        }
+        try {
+            if (Arrays.equals(hashNode.getBinaryValue(), contentDigest.digest())) {
+                return uploadResult;
+            }
+        } catch (IOException e) {
+            log.warn("Could not decode content hash of " + fileName + ": " + e);
+            return uploadResult;
+        }
+
+        String failureDescription = "Content hash of uploaded " + fileName + " does not match the hash computed by "
+            + getServerKey();
+        log.error(failureDescription);
+        ObjectNode failure = new ObjectMapper().createObjectNode();
+        failure.put(JSON_NODE_OUTCOME, JSON_NODE_OUTCOME_VALUE_FAILED);
+        failure.put(JSON_NODE_FAILURE_DESCRIPTION, failureDescription);
+        return failure;
     }
 
     /**
@@ -405,4 +552,169 @@ public class ASUploadConnection {
         this.timeout = timeout;
     }
 
+    /**
+     * Streams the content into a chunked multipart POST while the caller writes it.
+     *
+     * The request is executed by a separate thread which reads the content from a pipe. The request uses
+     * Expect: 100-continue, so a server refusing chunked requests answers before any content has been consumed.
+     * In that case the content is cached to a file as the caller writes it, and {@link #finishUpload()} uploads it
+     * the classic way. Failures that happen before the first content byte has been sent are retried, as the content
+     * is still in the pipe.
+     */
+    private class StreamingUpload implements Callable<JsonNode> {
+
+        private final PipedInputStream pipeIn = new PipedInputStream(PIPE_BUFFER_SIZE);
+        private final FutureTask<JsonNode> task = new FutureTask<JsonNode>(this);
+        private volatile PostMethod currentPOST;
+        private volatile boolean contentStarted;
+        private volatile boolean refused;
+        private volatile boolean cancelled;
+
+        OutputStream start() throws IOException {
+            PipedOutputStream pipeOut = new PipedOutputStream(pipeIn);
+            Thread thread = new Thread(task, "ASUploadConnection-" + fileName);
+            thread.setDaemon(true);
+            thread.start();
+            return pipeOut;
+        }
+
+        boolean isRefused() {
+            return refused;
+        }
+
+        public JsonNode call() throws Exception {
+            HttpClient client = createHttpClient();
+            try {
+                triggerAuthentication(client);
+
+                for (int attempt = 1;; attempt++) {
+                    PostMethod filePOST = new PostMethod(getUploadURL());
+                    currentPOST = filePOST;
+                    try {
+                        if (cancelled) {
+                            return null;
+                        }
+                        Part[] parts = { new FilePart(fileName, new PipePartSource()) };
+                        filePOST.setRequestEntity(new MultipartRequestEntity(parts, filePOST.getParams()) {
+                            @Override
+                            public boolean isRepeatable() {
+                                return false;
+                            }
+                        });
+                        filePOST.setContentChunked(true);
+                        filePOST.getParams().setBooleanParameter(HttpMethodParams.USE_EXPECT_CONTINUE, true);
+
+                        int responseCode = client.executeMethod(filePOST);
+                        if (!contentStarted) {
+                            if (isChunkedRefusal(responseCode)) {
+                                CHUNKED_REFUSED.add(getServerKey());
+                                spoolToCacheFile();
+                                return null;
+                            }
+                            if (responseCode == HttpStatus.SC_UNAUTHORIZED && attempt < UPLOAD_ATTEMPTS) {
+                                continue;
+                            }
+                        }
+                        return readUploadResponse(filePOST, responseCode);
+                    } catch (ProtocolException e) {
+                        if (contentStarted) {
+                            throw e;
+                        }
+                        // e.g. the server talks HTTP/1.0
+                        CHUNKED_REFUSED.add(getServerKey());
+                        spoolToCacheFile();
+                        return null;
+                    } catch (IOException e) {
+                        if (contentStarted || cancelled || attempt >= UPLOAD_ATTEMPTS) {
+                            throw e;
+                        }
+                        log.warn("Upload attempt " + attempt + " of " + fileName + " failed, retrying: " + e);
+                    } finally {
+                        filePOST.releaseConnection();
+                    }
+                }
+            } finally {
+                closeQuietly(pipeIn);
+                client.getHttpConnectionManager().closeIdleConnections(0);
+            }
+        }
+
+        private boolean isChunkedRefusal(int responseCode) {
+            return responseCode == HttpStatus.SC_LENGTH_REQUIRED || responseCode == HttpStatus.SC_EXPECTATION_FAILED
+                || responseCode == HttpStatus.SC_NOT_IMPLEMENTED
+                || responseCode == HttpStatus.SC_HTTP_VERSION_NOT_SUPPORTED;
+        }
+
+        private void spoolToCacheFile() throws IOException {
+            refused = true;
+            OutputStream out = createCacheOutputStream();
+            try {
+                StreamUtil.copy(pipeIn, out, false);
+            } finally {
+                closeQuietly(out);
+            }
+        }
+
+        JsonNode awaitResult() {
+            try {
+                return task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                cancel();
+                return null;
+            } catch (ExecutionException e) {
+                log.error(e.getCause());
+                return null;
+            }
+        }
+
+        void cancel() {
+            cancelled = true;
+            PostMethod filePOST = currentPOST;
+            if (filePOST != null) {
+                filePOST.abort();
+            }
+            closeQuietly(pipeIn);
+        }
+
+        /**
+         * Source of the single file part, reading the content from the pipe. Can only be read once.
+         */
+        private class PipePartSource implements PartSource {
+
+            public long getLength() {
+                // Unknown, which makes the request chunked
+                return -1;
+            }
+
+            public String getFileName() {
+                return fileName;
+            }
+
+            public InputStream createInputStream() throws IOException {
+                if (contentStarted) {
+                    throw new IOException("Content of " + fileName + " has already been sent");
+                }
+                return new FilterInputStream(pipeIn) {
+                    @Override
+                    public int read() throws IOException {
+                        contentStarted = true;
+                        return super.read();
+                    }
+
+                    @Override
+                    public int read(byte[] b, int off, int len) throws IOException {
+                        contentStarted = true;
+                        return super.read(b, off, len);
+                    }
+
+                    @Override
+                    public void close() {
+                        // The pipe is closed when the upload ends
+                    }
+                };
+            }
+        }
+    }
+
 }
@@ -21,6 +21,7 @@ package org.rhq.modules.plugins.jbossas7;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -64,6 +65,7 @@ import org.rhq.core.pluginapi.operation.OperationFacet;
 import org.rhq.core.pluginapi.operation.OperationResult;
 import org.rhq.core.pluginapi.util.StartScriptConfiguration;
 import org.rhq.modules.plugins.jbossas7.json.Address;
+import org.rhq.modules.plugins.jbossas7.json.ComplexResult;
 import org.rhq.modules.plugins.jbossas7.json.CompositeOperation;
 import org.rhq.modules.plugins.jbossas7.json.Operation;
 import org.rhq.modules.plugins.jbossas7.json.PROPERTY_VALUE;
@@ -84,6 +86,8 @@ public class BaseComponent<T extends ResourceComponent<?>> implements AS7Compone
     private static final String INTERNAL = "_internal:";
     private static final int INTERNAL_SIZE = INTERNAL.length();
     public static final String MANAGED_SERVER = "Managed Server";
+    private static final long BATCH_BACKOFF_MIN = 5 * 60 * 1000L;
+    private static final long BATCH_BACKOFF_MAX = 60 * 60 * 1000L;
 
     final Log log = LogFactory.getLog(this.getClass());
 
@@ -97,6 +101,12 @@ public class BaseComponent<T extends ResourceComponent<?>> implements AS7Compone
     boolean includeRuntime;
 
     private boolean verbose = ASConnection.verbose;
+    private boolean batchMetrics = !Boolean.getBoolean("as7plugin.disableMetricBatching");
+    // Backed off per resource when the server rejects a batched read, see #getValuesBatched
+    private Set<String> unbatchedMetrics = new HashSet<String>();
+    private boolean unbatchAll;
+    private long batchRetryTime;
+    private long batchBackoff = BATCH_BACKOFF_MIN;
     private BaseServerComponent serverComponent;
     protected ASConnection testConnection;
 
@@ -162,61 +172,173 @@ public class BaseComponent<T extends ResourceComponent<?>> implements AS7Compone
     @Override
     public void getValues(MeasurementReport report, Set<MeasurementScheduleRequest> metrics) throws Exception {
 
+        List<MeasurementScheduleRequest> serverRequests = new ArrayList<MeasurementScheduleRequest>(metrics.size());
+        LatencyHistogram.Snapshot latency = null;
         for (MeasurementScheduleRequest req : metrics) {
+            if (req.getName().startsWith(INTERNAL)) {
+                // One snapshot per collection, as taking it starts a new interval
+                if (latency == null) {
+                    latency = PluginStats.getInstance().getLatencySnapshot();
+                }
+                processPluginStats(req, report, latency);
+            } else
+                serverRequests.add(req); // Metrics from the application server
+        }
 
-            if (req.getName().startsWith(INTERNAL))
-                processPluginStats(req, report);
-            else {
-                // Metrics from the application server
+        if (serverRequests.isEmpty()) {
+            return;
+        }
 
-                String reqName = req.getName();
+        List<MeasurementScheduleRequest> singleRequests = serverRequests;
+        if (batchMetrics && serverRequests.size() > 1) {
+            singleRequests = getValuesBatched(report, serverRequests);
+        }
 
-                ComplexRequest request = null;
-                Operation op;
-                if (reqName.contains(":")) {
-                    request = ComplexRequest.create(reqName);
-                    op = new ReadAttribute(address, request.getProp());
-                } else {
-                    op = new ReadAttribute(address, reqName); // TODO batching
-                }
+        for (MeasurementScheduleRequest req : singleRequests) {
+            ComplexRequest request = createComplexRequest(req);
+            Operation op = createReadAttribute(req, request);
 
-                Result res = getASConnection().execute(op);
-                if (!res.isSuccess()) {
-                    log.warn("Getting metric [" + req.getName() + "] at [ " + address + "] failed: "
-                        + res.getFailureDescription());
-                    continue;
-                }
+            Result res = getASConnection().execute(op);
+            if (!res.isSuccess()) {
+                log.warn("Getting metric [" + req.getName() + "] at [ " + address + "] failed: "
+                    + res.getFailureDescription());
+                continue;
+            }
 
-                Object val = res.getResult();
-                if (val == null) // One of the AS7 ways of telling "This is not implemented" See also AS7-1454
-                    continue;
-
-                if (req.getDataType() == DataType.MEASUREMENT) {
-                    if (val instanceof String && ((String) val).startsWith("JBAS018003")) // AS7 way of saying "no value available"
-                        continue;
-                    try {
-                        if (request != null) {
-                            HashMap<String, Number> myValues = (HashMap<String, Number>) val;
-                            for (String key : myValues.keySet()) {
-                                String sub = request.getSub();
-                                if (key.equals(sub)) {
-                                    addMetric2Report(report, req, myValues.get(key));
-                                }
-                            }
-                        } else {
-                            addMetric2Report(report, req, val);
-                        }
-                    } catch (NumberFormatException e) {
-                        log.warn("Non numeric input for [" + req.getName() + "] : [" + val + "]");
+            addValue2Report(report, req, request, res.getResult());
+        }
+    }
+
+    /**
+     * Read the passed metrics with one composite operation, so that a resource with many metrics only
+     * costs one round trip to the server. If the server rejects the composite, the metrics of the failed
+     * steps - or all metrics if the server does not tell which step failed - are read one by one until
+     * the batch is retried after a back-off, which doubles each time the batch is rejected again.
+     * @param report report to add the data to
+     * @param requests metrics to read - must not contain internal metrics
+     * @return the metrics that were not read and still need to be read one by one
+     */
+    private List<MeasurementScheduleRequest> getValuesBatched(MeasurementReport report,
+        List<MeasurementScheduleRequest> requests) {
+
+        long now = System.currentTimeMillis();
+        if (now >= batchRetryTime) {
+            unbatchedMetrics.clear();
+            unbatchAll = false;
+        } else if (unbatchAll) {
+            return requests;
+        }
+
+        List<MeasurementScheduleRequest> batched = new ArrayList<MeasurementScheduleRequest>(requests.size());
+        List<MeasurementScheduleRequest> single = new ArrayList<MeasurementScheduleRequest>();
+        for (MeasurementScheduleRequest req : requests) {
+            if (unbatchedMetrics.contains(req.getName())) {
+                single.add(req);
+            } else {
+                batched.add(req);
+            }
+        }
+        if (batched.size() <= 1) {
+            return requests;
+        }
+
+        CompositeOperation cop = new CompositeOperation();
+        ComplexRequest[] complexRequests = new ComplexRequest[batched.size()];
+        for (int i = 0; i < batched.size(); i++) {
+            MeasurementScheduleRequest req = batched.get(i);
+            complexRequests[i] = createComplexRequest(req);
+            cop.addStep(createReadAttribute(req, complexRequests[i]));
+        }
+
+        Result res = getASConnection().execute(cop, true);
+        Map<String, Object> steps = (res instanceof ComplexResult) ? ((ComplexResult) res).getResult() : null;
+        if (!res.isSuccess() || steps == null) {
+            boolean stepFailed = false;
+            if (steps != null) {
+                for (int i = 0; i < batched.size(); i++) {
+                    Object step = steps.get("step-" + (i + 1));
+                    if (step instanceof Map && !Result.SUCCESS.equals(((Map<?, ?>) step).get("outcome"))) {
+                        unbatchedMetrics.add(batched.get(i).getName());
+                        stepFailed = true;
                     }
-                } else if (req.getDataType() == DataType.TRAIT) {
+                }
+            }
+            unbatchAll = !stepFailed;
+            batchRetryTime = now + batchBackoff;
+            batchBackoff = Math.min(batchBackoff * 2, BATCH_BACKOFF_MAX);
+            if (log.isDebugEnabled()) {
+                log.debug("Batched metric collection at [" + address + "] was rejected - reading "
+                    + (unbatchAll ? "all metrics" : "metrics " + unbatchedMetrics) + " one by one for the next "
+                    + (batchRetryTime - now) / 1000 + "s: " + res.getFailureDescription());
+            }
+            return requests;
+        }
+        if (unbatchedMetrics.isEmpty()) {
+            // the whole batch went through again
+            batchBackoff = BATCH_BACKOFF_MIN;
+        }
+
+        for (int i = 0; i < batched.size(); i++) {
+            MeasurementScheduleRequest req = batched.get(i);
+            Object step = steps.get("step-" + (i + 1));
+            if (!(step instanceof Map)) {
+                log.warn("Getting metric [" + req.getName() + "] at [ " + address + "] failed: no result in batch");
+                continue;
+            }
 
-                    String realVal = getStringValue(val);
+            Map<String, Object> stepResult = (Map<String, Object>) step;
+            if (!Result.SUCCESS.equals(stepResult.get("outcome"))) {
+                log.warn("Getting metric [" + req.getName() + "] at [ " + address + "] failed: "
+                    + stepResult.get("failure-description"));
+                continue;
+            }
+
+            addValue2Report(report, req, complexRequests[i], stepResult.get("result"));
+        }
+        return single;
+    }
 
-                    MeasurementDataTrait data = new MeasurementDataTrait(req, realVal);
-                    report.addData(data);
+    private ComplexRequest createComplexRequest(MeasurementScheduleRequest req) {
+        return req.getName().contains(":") ? ComplexRequest.create(req.getName()) : null;
+    }
+
+    private Operation createReadAttribute(MeasurementScheduleRequest req, ComplexRequest request) {
+        if (request != null) {
+            return new ReadAttribute(address, request.getProp());
+        }
+        return new ReadAttribute(address, req.getName());
+    }
+
+    private void addValue2Report(MeasurementReport report, MeasurementScheduleRequest req, ComplexRequest request,
+        Object val) {
+
+        if (val == null) // One of the AS7 ways of telling "This is not implemented" See also AS7-1454
+            return;
+
+        if (req.getDataType() == DataType.MEASUREMENT) {
+            if (val instanceof String && ((String) val).startsWith("JBAS018003")) // AS7 way of saying "no value available"
+                return;
+            try {
+                if (request != null) {
+                    HashMap<String, Number> myValues = (HashMap<String, Number>) val;
+                    for (String key : myValues.keySet()) {
+                        String sub = request.getSub();
+                        if (key.equals(sub)) {
+                            addMetric2Report(report, req, myValues.get(key));
+                        }
+                    }
+                } else {
+                    addMetric2Report(report, req, val);
                 }
+            } catch (NumberFormatException e) {
+                log.warn("Non numeric input for [" + req.getName() + "] : [" + val + "]");
             }
+        } else if (req.getDataType() == DataType.TRAIT) {
+
+            String realVal = getStringValue(val);
+
+            MeasurementDataTrait data = new MeasurementDataTrait(req, realVal);
+            report.addData(data);
         }
     }
 
@@ -239,8 +361,10 @@ public class BaseComponent<T extends ResourceComponent<?>> implements AS7Compone
      * Return internal statistics data
      * @param req Schedule for the requested data
      * @param report report to add th data to.
+     * @param latency request times since the last collection
      */
-    private void processPluginStats(MeasurementScheduleRequest req, MeasurementReport report) {
+    private void processPluginStats(MeasurementScheduleRequest req, MeasurementReport report,
+        LatencyHistogram.Snapshot latency) {
 
         String name = req.getName();
         if (!name.startsWith(INTERNAL))
@@ -255,8 +379,30 @@ public class BaseComponent<T extends ResourceComponent<?>> implements AS7Compone
             val = (double) stats.getRequestCount();
         } else if (name.equals("requestTime")) {
             val = (double) stats.getRequestTime();
+        } else if (name.equals("requestErrors")) {
+            val = (double) stats.getErrorCount();
         } else if (name.equals("maxTime")) {
-            val = (double) stats.getMaxTime();
+            val = (double) latency.getMax();
+        } else if (name.equals("p50Time")) {
+            val = (double) latency.getPercentile(0.50);
+        } else if (name.equals("p95Time")) {
+            val = (double) latency.getPercentile(0.95);
+        } else if (name.equals("p99Time")) {
+            val = (double) latency.getPercentile(0.99);
+        } else if (name.startsWith("opRequests:") || name.startsWith("opRequestTime:")
+            || name.startsWith("opErrors:")) {
+            // Per operation name breakdown, e.g. opRequests:read-attribute
+            int colonPos = name.indexOf(':');
+            PluginStats.OperationStats opStats = stats.getOperationStats(name.substring(colonPos + 1));
+            if (opStats == null) {
+                val = 0d;
+            } else if (name.startsWith("opRequests:")) {
+                val = (double) opStats.getCount();
+            } else if (name.startsWith("opRequestTime:")) {
+                val = (double) opStats.getTime();
+            } else {
+                val = (double) opStats.getErrors();
+            }
         } else
             val = Double.NaN;
 
@@ -329,6 +475,7 @@ public class BaseComponent<T extends ResourceComponent<?>> implements AS7Compone
         }
         Operation op = new Remove(address);
         Result res = getASConnection().execute(op);
+        getASConnection().getModelCache().invalidate(address);
         if (!res.isSuccess()) {
             throw new IllegalArgumentException("Delete for [" + path + "] failed: " + res.getFailureDescription());
         }
@@ -493,6 +640,7 @@ public class BaseComponent<T extends ResourceComponent<?>> implements AS7Compone
 
             result = connection.execute(cop);
             resourceKey = step1.getAddress().getPath();
+            connection.getModelCache().clear();
 
         } else {
 
@@ -512,6 +660,7 @@ public class BaseComponent<T extends ResourceComponent<?>> implements AS7Compone
             }
 
             result = connection.execute(cop);
+            connection.getModelCache().clear();
         }
 
         if ((!result.isSuccess())) {
@@ -625,6 +774,7 @@ public class BaseComponent<T extends ResourceComponent<?>> implements AS7Compone
 
         OperationResult operationResult = new OperationResult();
         Result result = getASConnection().execute(operation);
+        getASConnection().getModelCache().invalidate(operation.getAddress());
 
         if (result == null) {
             operationResult.setErrorMessage("Connection was null - is the server running?");
@@ -619,6 +619,8 @@ public abstract class BaseProcessDiscovery implements ResourceDiscoveryComponent
             } catch (InvalidPluginConfigurationException e) {
                 log.debug("Could not get the product info from [" + hostname + ":" + port
                     + "] - probably a connection failure");
+            } finally {
+                connection.shutdown();
             }
             return this;
         }
@@ -100,6 +100,9 @@ public abstract class BaseServerComponent<T extends ResourceComponent<?>> extend
     public void stop() {
         logFileEventDelegate.stopLogFileEventPollers();
         lastAvail = null;
+        if (connection != null) {
+            connection.shutdown();
+        }
     }
 
     @Override
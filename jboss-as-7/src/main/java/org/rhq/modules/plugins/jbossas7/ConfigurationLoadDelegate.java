@@ -180,7 +180,7 @@ public class ConfigurationLoadDelegate implements ConfigurationFacet {
         if (definitions.size() == 0)
             return;
 
-        Result operationResult = connection.execute(op);
+        Result operationResult = connection.getModelCache().execute(op);
         if (!operationResult.isSuccess()) {
             // check if the definition is needed -- required==true or not. Only complain for required ones
             if (definitions.size()==1 && definitions.get(0).isRequired()==false) {
@@ -103,6 +103,7 @@ public class ConfigurationWriteDelegate implements ConfigurationFacet {
         CompositeOperation cop = updateGenerateOperationFromProperties(conf, address);
 
         Result result = connection.execute(cop);
+        connection.getModelCache().invalidate(address);
         if (!result.isSuccess()) {
             report.setStatus(ConfigurationUpdateStatus.FAILURE);
             report.setErrorMessage(result.getFailureDescription());
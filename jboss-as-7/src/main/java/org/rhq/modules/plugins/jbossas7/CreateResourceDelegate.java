@@ -105,6 +105,7 @@ public class CreateResourceDelegate extends ConfigurationWriteDelegate implement
         }
 
         Result result = this.connection.execute(op);
+        this.connection.getModelCache().invalidate(createAddress);
         if (result.isSuccess()) {
             report.setStatus(CreateResourceStatus.SUCCESS);
             report.setResourceKey(createAddress.getPath());
@@ -133,7 +133,12 @@ public class Domain2Descriptor {
             op.addAdditionalProperty("include-runtime", true);
         }
 
-        ComplexResult res = conn.executeComplex(op);
+        ComplexResult res;
+        try {
+            res = conn.executeComplex(op);
+        } finally {
+            conn.shutdown();
+        }
         if (res == null) {
             System.err.println("Got no result");
             return;
@@ -0,0 +1,317 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2013 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.modules.plugins.jbossas7;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.rhq.modules.plugins.jbossas7.json.Address;
+import org.rhq.modules.plugins.jbossas7.json.Operation;
+import org.rhq.modules.plugins.jbossas7.json.ReadAttribute;
+import org.rhq.modules.plugins.jbossas7.json.ReadChildrenNames;
+import org.rhq.modules.plugins.jbossas7.json.ReadResource;
+import org.rhq.modules.plugins.jbossas7.json.Result;
+
+/**
+ * Caches the management model of one server (or host controller) per {@link ASConnection}, so that
+ * discovery scans and configuration loads don't walk the same parts of the tree over and over again.
+ *
+ * Two kinds of entries are kept:
+ * <ul>
+ *     <li>Subtrees: the result of one recursive read-resource below an address. Child names and existence
+ *     checks for any address inside a subtree are answered from it.</li>
+ *     <li>Read operations: the successful result of a read operation, keyed by address, operation
+ *     name and parameters.</li>
+ * </ul>
+ * Entries expire after a time to live and must be invalidated by callers that modify the model.
+ */
+public class ModelCache {
+
+    private static final long DEFAULT_TTL = Long.getLong("as7plugin.modelCacheTtl", 60) * 1000L;
+    private static final int MAX_ENTRIES = 2000;
+    private static final int SUBTREE_TIMEOUT_SEC = 60;
+
+    private final Log log = LogFactory.getLog(ModelCache.class);
+
+    private final ASConnection connection;
+    private final long ttl;
+
+    private final Map<String, Entry> subtrees = new ConcurrentHashMap<String, Entry>();
+    private final Map<String, Entry> results = new ConcurrentHashMap<String, Entry>();
+
+    public ModelCache(ASConnection connection) {
+        this(connection, DEFAULT_TTL);
+    }
+
+    /**
+     * @param connection connection to run cache misses against
+     * @param ttl time to live of the entries in milliseconds. 0 switches caching off.
+     */
+    public ModelCache(ASConnection connection, long ttl) {
+        this.connection = connection;
+        this.ttl = ttl;
+    }
+
+    /**
+     * Load the subtree below the passed address with one recursive read-resource, unless it is already
+     * covered by a cached subtree. Failures are remembered as well, so that a server rejecting the
+     * recursive read is not asked again before the entry expires. The root of a domain controller is
+     * never loaded, as its subtree contains the configuration of all hosts and server groups.
+     * @param address root of the subtree to load
+     */
+    public void loadSubtree(Address address) {
+        if (ttl <= 0 || findSubtreeNode(address) != null || isValid(subtrees.get(address.getPath()))) {
+            return;
+        }
+        if (address.isEmpty() && !isStandalone()) {
+            return;
+        }
+
+        ReadResource op = new ReadResource(address);
+        op.recursive(true);
+        Result res = connection.execute(op, SUBTREE_TIMEOUT_SEC);
+
+        Object node = null;
+        if (res.isSuccess() && res.getResult() instanceof Map) {
+            node = res.getResult();
+        } else if (log.isDebugEnabled()) {
+            log.debug("Recursive read of [" + address.getPath() + "] failed, not caching it: "
+                + res.getFailureDescription());
+        }
+        put(subtrees, address.getPath(), address.getPath(), node);
+    }
+
+    /**
+     * Read the names of the children of the passed type. This is answered from a cached subtree
+     * if one covers the address and contains the child type, and from the server otherwise. A recursive
+     * read-resource leaves out e.g. runtime only children, so a child type missing in the subtree does
+     * not mean there are no such children.
+     * @param address parent address
+     * @param childType type of the children
+     * @return Result with a list of names
+     */
+    public Result readChildrenNames(Address address, String childType) {
+        Map<String, Object> node = findSubtreeNode(address);
+        if (node == null) {
+            return execute(new ReadChildrenNames(address, childType));
+        }
+
+        if (!node.containsKey(childType)) {
+            return execute(new ReadChildrenNames(address, childType));
+        }
+
+        Object children = node.get(childType);
+        List<String> names;
+        if (children instanceof Map) {
+            names = new ArrayList<String>(((Map<String, Object>) children).keySet());
+        } else {
+            names = Collections.emptyList();
+        }
+        return success(names);
+    }
+
+    /**
+     * Read the resource at the passed address. If the address is covered by a cached subtree, the result
+     * also carries the content of the children of the resource, so this is meant for existence checks
+     * and not for reading attributes.
+     * @param address address of the resource
+     * @return Result of the read
+     */
+    public Result readResource(Address address) {
+        Map<String, Object> node = findSubtreeNode(address);
+        if (node == null) {
+            return execute(new ReadResource(address));
+        }
+        return success(node);
+    }
+
+    /**
+     * Execute the passed read operation or return the result of an identical operation that ran within
+     * the time to live. Only successful results of operations that don't read runtime values are cached.
+     * @param op read operation to run
+     * @return result of the operation
+     */
+    public Result execute(Operation op) {
+        if (ttl <= 0 || !isCacheable(op)) {
+            return connection.execute(op);
+        }
+
+        String key = createKey(op);
+        Entry entry = results.get(key);
+        if (isValid(entry)) {
+            return (Result) entry.value;
+        }
+
+        Result res = connection.execute(op);
+        if (res != null && res.isSuccess()) {
+            put(results, key, op.getAddress().getPath(), res);
+        }
+        return res;
+    }
+
+    /**
+     * Drop all entries that contain data of the passed address. Those are the entries of the address
+     * itself, of everything below it and of its ancestors, whose child lists or subtrees include it.
+     * @param address address that has been modified
+     */
+    public void invalidate(Address address) {
+        String path = address.getPath();
+        invalidate(subtrees, path);
+        invalidate(results, path);
+    }
+
+    /**
+     * Drop all cached entries.
+     */
+    public void clear() {
+        subtrees.clear();
+        results.clear();
+    }
+
+    private void invalidate(Map<String, Entry> entries, String path) {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            String entryPath = iterator.next().path;
+            if (isSameOrBelow(entryPath, path) || isSameOrBelow(path, entryPath)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * @return true if the server reports to be a standalone server, false if it is a host or domain
+     * controller or the launch type can't be read
+     */
+    private boolean isStandalone() {
+        Result res = execute(new ReadAttribute(new Address(), "launch-type"));
+        return res != null && res.isSuccess() && "STANDALONE".equals(res.getResult());
+    }
+
+    private boolean isSameOrBelow(String path, String ancestor) {
+        return ancestor.isEmpty() || path.equals(ancestor) || path.startsWith(ancestor + ",");
+    }
+
+    /**
+     * Find the node of the passed address within a cached subtree of it or one of its ancestors.
+     * @param address address to look for
+     * @return the node or null if no subtree covers the address
+     */
+    private Map<String, Object> findSubtreeNode(Address address) {
+        for (int depth = address.size(); depth >= 0; depth--) {
+            Entry entry = subtrees.get(prefix(address, depth));
+            if (!isValid(entry) || entry.value == null) {
+                continue;
+            }
+
+            Map<String, Object> node = (Map<String, Object>) entry.value;
+            for (int i = depth; i < address.size() && node != null; i++) {
+                String segment = address.get(i);
+                int eqPos = segment.indexOf('=');
+                Object children = node.get(segment.substring(0, eqPos));
+                Object child = (children instanceof Map) ? ((Map<String, Object>) children).get(segment
+                    .substring(eqPos + 1)) : null;
+                node = (child instanceof Map) ? (Map<String, Object>) child : null;
+            }
+            // Not finding the address in the subtree does not mean it does not exist, as e.g. proxied
+            // managed servers are not part of a recursive read of their host - so ask the server then
+            return node;
+        }
+        return null;
+    }
+
+    private String prefix(Address address, int depth) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append(address.get(i));
+        }
+        return builder.toString();
+    }
+
+    private boolean isCacheable(Operation op) {
+        String name = op.getOperation();
+        if (name == null || !name.startsWith("read-")) {
+            return false;
+        }
+        Map<String, Object> props = op.getAdditionalProperties();
+        return props == null || !isTrue(props.get("include-runtime"));
+    }
+
+    private boolean isTrue(Object value) {
+        return value != null && Boolean.parseBoolean(String.valueOf(value));
+    }
+
+    private String createKey(Operation op) {
+        Map<String, Object> props = op.getAdditionalProperties();
+        return op.getAddress().getPath() + ":" + op.getOperation() + "("
+            + (props == null ? "" : new TreeMap<String, Object>(props).toString()) + ")";
+    }
+
+    private Result success(Object value) {
+        Result res = new Result();
+        res.setOutcome(Result.SUCCESS);
+        res.setResult(value);
+        return res;
+    }
+
+    private boolean isValid(Entry entry) {
+        return entry != null && entry.expires > System.currentTimeMillis();
+    }
+
+    private void put(Map<String, Entry> entries, String key, String path, Object value) {
+        if (entries.size() >= MAX_ENTRIES) {
+            purgeExpired(entries);
+            if (entries.size() >= MAX_ENTRIES) {
+                entries.clear();
+            }
+        }
+        entries.put(key, new Entry(path, value, System.currentTimeMillis() + ttl));
+    }
+
+    private void purgeExpired(Map<String, Entry> entries) {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            if (!isValid(iterator.next())) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private static class Entry {
+        private final String path;
+        private final Object value;
+        private final long expires;
+
+        private Entry(String path, Object value, long expires) {
+            this.path = path;
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+}
@@ -1,7 +1,7 @@
 package org.rhq.modules.plugins.jbossas7;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -11,27 +11,43 @@ import java.util.concurrent.atomic.AtomicLong;
 public class PluginStats {
     private static PluginStats ourInstance = new PluginStats();
 
-    AtomicLong requestCount = new AtomicLong();
-    AtomicLong requestTime = new AtomicLong();
-    private static final int FIFO_SIZE = 200; // Initial capacity
-    List<Long> maxTime = new ArrayList<Long>(FIFO_SIZE);
-    final Object lock = new Object();
+    // Operation names are mostly the fixed read-* ones, but invokeOperation passes arbitrary names through
+    private static final int MAX_OPERATION_NAMES = 64;
+    static final String OTHER_OPERATIONS = "other";
 
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong requestTime = new AtomicLong();
+    private final AtomicLong errorCount = new AtomicLong();
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final ConcurrentMap<String, OperationStats> operationStats = new ConcurrentHashMap<String, OperationStats>();
 
     public static PluginStats getInstance() {
         return ourInstance;
     }
 
-    private PluginStats() {
+    PluginStats() {
     }
 
-    public void incrementRequestCount() {
+    /**
+     * Record one request to a management interface
+     * @param operationName name of the operation, e.g. read-attribute
+     * @param time time the request took in milliseconds
+     * @param failed true if the request did not succeed
+     */
+    public void recordRequest(String operationName, long time, boolean failed) {
         requestCount.incrementAndGet();
-    }
+        requestTime.addAndGet(time);
+        if (failed) {
+            errorCount.incrementAndGet();
+        }
+        latency.record(time);
 
-    public void addRequestTime(long l) {
-        requestTime.addAndGet(l);
-        insertTime(l);
+        OperationStats stats = findOperationStats(operationName);
+        stats.count.incrementAndGet();
+        stats.time.addAndGet(time);
+        if (failed) {
+            stats.errors.incrementAndGet();
+        }
     }
 
     public long getRequestCount() {
@@ -42,20 +58,69 @@ public class PluginStats {
         return requestTime.get();
     }
 
+    public long getErrorCount() {
+        return errorCount.get();
+    }
+
+    /**
+     * Return the max request time since the last call of this method or of {@link #getLatencySnapshot()}
+     * @return max time in milliseconds
+     */
     public long getMaxTime() {
-        long max = 0;
-        synchronized (lock) {
-            for (Long i : maxTime)
-                if (i > max )
-                    max = i;
-            maxTime = new ArrayList<Long>();
+        return getLatencySnapshot().getMax();
+    }
+
+    /**
+     * Return the distribution of request times since the last call and start over
+     * @return the request times of the last interval
+     */
+    public LatencyHistogram.Snapshot getLatencySnapshot() {
+        return latency.snapshotAndReset();
+    }
+
+    /**
+     * Return the statistics of one operation
+     * @param operationName name of the operation
+     * @return statistics or null if no such operation has been recorded
+     */
+    public OperationStats getOperationStats(String operationName) {
+        return operationStats.get(operationName);
+    }
+
+    private OperationStats findOperationStats(String operationName) {
+        String name = (operationName == null) ? OTHER_OPERATIONS : operationName;
+        OperationStats stats = operationStats.get(name);
+        if (stats == null) {
+            if (operationStats.size() >= MAX_OPERATION_NAMES) {
+                name = OTHER_OPERATIONS;
+            }
+            stats = new OperationStats();
+            OperationStats existing = operationStats.putIfAbsent(name, stats);
+            if (existing != null) {
+                stats = existing;
+            }
         }
-        return max;
+        return stats;
     }
 
-    private void insertTime(long time) {
-        synchronized (lock) {
-            maxTime.add(time);
+    /**
+     * Counters for one operation name
+     */
+    public static class OperationStats {
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong time = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public long getTime() {
+            return time.get();
+        }
+
+        public long getErrors() {
+            return errors.get();
         }
     }
 }
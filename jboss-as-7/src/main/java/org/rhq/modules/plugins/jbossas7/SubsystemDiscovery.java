@@ -36,8 +36,6 @@ import org.rhq.core.pluginapi.inventory.DiscoveredResourceDetails;
 import org.rhq.core.pluginapi.inventory.ResourceDiscoveryComponent;
 import org.rhq.core.pluginapi.inventory.ResourceDiscoveryContext;
 import org.rhq.modules.plugins.jbossas7.json.Address;
-import org.rhq.modules.plugins.jbossas7.json.ReadChildrenNames;
-import org.rhq.modules.plugins.jbossas7.json.ReadResource;
 import org.rhq.modules.plugins.jbossas7.json.Result;
 
 /**
@@ -71,6 +69,7 @@ public class SubsystemDiscovery implements ResourceDiscoveryComponent<BaseCompon
 
         BaseComponent parentComponent = context.getParentResourceComponent();
         ASConnection connection = parentComponent.getASConnection();
+        ModelCache modelCache = connection.getModelCache();
 
         Configuration config = context.getDefaultPluginConfiguration();
         String confPath = config.getSimpleValue("path", "");
@@ -125,10 +124,14 @@ public class SubsystemDiscovery implements ResourceDiscoveryComponent<BaseCompon
             } else
                 subTypes.add(confPath);
 
+            // Fetch the whole subtree below the parent once, so that the child types of this and the
+            // sibling resource types can be answered without a round trip each
+            Address addr = new Address(parentPath);
+            modelCache.loadSubtree(addr);
+
             for (String cpath : subTypes) {
 
-                Address addr = new Address(parentPath);
-                Result result = connection.execute(new ReadChildrenNames(addr, cpath));
+                Result result = modelCache.readChildrenNames(addr, cpath);
 
                 if (result.isSuccess()) {
 
@@ -169,7 +172,7 @@ public class SubsystemDiscovery implements ResourceDiscoveryComponent<BaseCompon
             path += "," + confPath;
             if (path.startsWith(","))
                 path = path.substring(1);
-            Result result = connection.execute(new ReadResource(new Address(path)));
+            Result result = modelCache.readResource(new Address(path));
             if (result.isSuccess()) {
 
                 String resKey = path;
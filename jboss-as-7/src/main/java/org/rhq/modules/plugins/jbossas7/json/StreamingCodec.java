@@ -0,0 +1,231 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2013 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.modules.plugins.jbossas7.json;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonParseException;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+
+/**
+ * Writes {@link Operation}s and reads {@link Result}s directly with the Jackson streaming API.
+ *
+ * This produces the same JSON as the data binding of the ObjectMapper, but without building an
+ * intermediate JsonNode tree for responses and without looking up the bean properties via reflection.
+ * Values of additional operation properties are handed to the codec of the passed factory,
+ * so that e.g. {@link PROPERTY_VALUE}s keep their custom serialization.
+ */
+public class StreamingCodec {
+
+    private final JsonFactory factory;
+
+    /**
+     * @param factory factory to create parsers and generators with. Should have an ObjectCodec set
+     * (e.g. the one of an ObjectMapper), as arbitrary operation properties are written through it.
+     */
+    public StreamingCodec(JsonFactory factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * Serialize the passed operation to UTF-8 encoded JSON
+     * @param operation Operation to serialize
+     * @return the JSON bytes
+     * @throws IOException if serialization fails
+     */
+    public byte[] writeOperation(Operation operation) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        JsonGenerator generator = factory.createJsonGenerator(out, JsonEncoding.UTF8);
+        try {
+            writeOperation(operation, generator);
+        } finally {
+            generator.close();
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Serialize the passed operation into the passed generator
+     * @param operation Operation to serialize
+     * @param generator Generator to write to
+     * @throws IOException if serialization fails
+     */
+    public void writeOperation(Operation operation, JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("operation", operation.getOperation());
+
+        generator.writeArrayFieldStart("address");
+        for (PROPERTY_VALUE segment : operation.getAddress().path) {
+            generator.writeStartObject();
+            generator.writeStringField(segment.getKey(), segment.getValue());
+            generator.writeEndObject();
+        }
+        generator.writeEndArray();
+
+        if (operation instanceof CompositeOperation) {
+            generator.writeArrayFieldStart("steps");
+            for (Operation step : ((CompositeOperation) operation).steps) {
+                writeOperation(step, generator);
+            }
+            generator.writeEndArray();
+        }
+
+        Map<String, Object> additionalProperties = operation.getAdditionalProperties();
+        if (additionalProperties != null) {
+            for (Map.Entry<String, Object> entry : additionalProperties.entrySet()) {
+                generator.writeFieldName(entry.getKey());
+                writeValue(entry.getValue(), generator);
+            }
+        }
+        generator.writeEndObject();
+    }
+
+    private void writeValue(Object value, JsonGenerator generator) throws IOException {
+        if (value == null) {
+            generator.writeNull();
+        } else if (value instanceof String) {
+            generator.writeString((String) value);
+        } else if (value instanceof Boolean) {
+            generator.writeBoolean((Boolean) value);
+        } else if (value instanceof Integer || value instanceof Long) {
+            generator.writeNumber(((Number) value).longValue());
+        } else {
+            generator.writeObject(value);
+        }
+    }
+
+    /**
+     * Deserialize a result from the passed stream
+     * @param in Stream to read the JSON from
+     * @param complex Should a {@link ComplexResult} be returned?
+     * @return the result or null if the stream was empty
+     * @throws IOException if the content can not be read or is no result object
+     */
+    public Result readResult(InputStream in, boolean complex) throws IOException {
+        JsonParser parser = factory.createJsonParser(in);
+        try {
+            return readResult(parser, complex);
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * Deserialize a result from the passed parser. Unknown fields are skipped.
+     * @param parser Parser positioned before or at the start of the result object
+     * @param complex Should a {@link ComplexResult} be returned?
+     * @return the result or null if the parser has no more content
+     * @throws IOException if the content can not be read or is no result object
+     */
+    public Result readResult(JsonParser parser, boolean complex) throws IOException {
+        JsonToken token = parser.getCurrentToken();
+        if (token == null) {
+            token = parser.nextToken();
+            if (token == null) {
+                return null;
+            }
+        }
+        if (token != JsonToken.START_OBJECT) {
+            throw new JsonParseException("Expected start of a result object, but got " + token,
+                parser.getCurrentLocation());
+        }
+
+        Result result = complex ? new ComplexResult() : new Result();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            if ("outcome".equals(field)) {
+                String outcome = parser.getText();
+                if (parser.getCurrentToken() != JsonToken.VALUE_NULL && outcome != null) {
+                    result.setOutcome(outcome);
+                }
+            } else if ("result".equals(field)) {
+                Object value = readValue(parser);
+                if (complex) {
+                    if (value != null && !(value instanceof Map)) {
+                        throw new JsonParseException("Expected an object as result, but got " + value,
+                            parser.getCurrentLocation());
+                    }
+                    ((ComplexResult) result).setResult((Map<String, Object>) value);
+                } else {
+                    result.setResult(value);
+                }
+            } else if ("failure-description".equals(field)) {
+                result.setFailureDescription(readValue(parser));
+            } else if ("rolled-back".equals(field)) {
+                result.setRolledBack(parser.getCurrentToken() == JsonToken.VALUE_TRUE);
+            } else if ("response-headers".equals(field)) {
+                result.setResponseHeaders(readValue(parser));
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Read the value at the current token into the same untyped representation the ObjectMapper
+     * uses: Maps, Lists, Strings, Numbers, Booleans and null.
+     */
+    private Object readValue(JsonParser parser) throws IOException {
+        switch (parser.getCurrentToken()) {
+        case START_OBJECT:
+            Map<String, Object> map = new LinkedHashMap<String, Object>();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String key = parser.getCurrentName();
+                parser.nextToken();
+                map.put(key, readValue(parser));
+            }
+            return map;
+        case START_ARRAY:
+            List<Object> list = new ArrayList<Object>();
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                list.add(readValue(parser));
+            }
+            return list;
+        case VALUE_STRING:
+            return parser.getText();
+        case VALUE_NUMBER_INT:
+            return parser.getNumberValue();
+        case VALUE_NUMBER_FLOAT:
+            return parser.getDoubleValue();
+        case VALUE_TRUE:
+            return Boolean.TRUE;
+        case VALUE_FALSE:
+            return Boolean.FALSE;
+        case VALUE_EMBEDDED_OBJECT:
+            return parser.getEmbeddedObject();
+        case VALUE_NULL:
+            return null;
+        default:
+            throw new JsonParseException("Unexpected token " + parser.getCurrentToken(),
+                parser.getCurrentLocation());
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2013 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.modules.plugins.jbossas7;
+
+import org.testng.annotations.Test;
+
+/**
+ * Tests for the {@link LatencyHistogram} and the {@link PluginStats} using it.
+ */
+@Test
+public class LatencyHistogramTest {
+
+    public void bucketBoundsContainTheirValues() throws Exception {
+        for (long value = 0; value < 100000; value++) {
+            int index = LatencyHistogram.bucketIndex(value);
+            assert index >= 0 && index < LatencyHistogram.BUCKETS : "Index out of range for " + value;
+            assert LatencyHistogram.bucketUpperBound(index) >= value : "Upper bound too small for " + value;
+            if (index > 0) {
+                assert LatencyHistogram.bucketUpperBound(index - 1) < value : "Wrong bucket for " + value;
+            }
+        }
+        assert LatencyHistogram.bucketIndex(Long.MAX_VALUE) == LatencyHistogram.BUCKETS - 1;
+        assert LatencyHistogram.bucketIndex(-1) == 0;
+    }
+
+    public void percentiles() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshotAndReset();
+        assert snapshot.getCount() == 100 : "Count was " + snapshot.getCount();
+        assert snapshot.getMax() == 100 : "Max was " + snapshot.getMax();
+        assertWithinBucketError(snapshot.getPercentile(0.50), 50);
+        assertWithinBucketError(snapshot.getPercentile(0.95), 95);
+        assertWithinBucketError(snapshot.getPercentile(0.99), 99);
+
+        LatencyHistogram.Snapshot empty = histogram.snapshotAndReset();
+        assert empty.getCount() == 0;
+        assert empty.getMax() == 0;
+        assert empty.getPercentile(0.99) == 0;
+    }
+
+    public void operationBreakdown() throws Exception {
+        PluginStats stats = new PluginStats();
+        stats.recordRequest("read-attribute", 10, false);
+        stats.recordRequest("read-attribute", 20, true);
+        stats.recordRequest("composite", 5, false);
+
+        assert stats.getRequestCount() == 3;
+        assert stats.getRequestTime() == 35;
+        assert stats.getErrorCount() == 1;
+        assert stats.getOperationStats("read-attribute").getCount() == 2;
+        assert stats.getOperationStats("read-attribute").getTime() == 30;
+        assert stats.getOperationStats("read-attribute").getErrors() == 1;
+        assert stats.getOperationStats("composite").getCount() == 1;
+        assert stats.getOperationStats("read-resource") == null;
+        assert stats.getMaxTime() == 20;
+        assert stats.getMaxTime() == 0 : "Max time should be reset after reading it";
+    }
+
+    private void assertWithinBucketError(long actual, long expected) {
+        assert actual >= expected && actual <= expected * 1.125 : "Expected ~" + expected + " but was " + actual;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2013 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.modules.plugins.jbossas7;
+
+import java.io.ByteArrayInputStream;
+import java.io.UnsupportedEncodingException;
+
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.DeserializationConfig;
+import org.codehaus.jackson.map.ObjectMapper;
+
+import org.rhq.modules.plugins.jbossas7.json.Address;
+import org.rhq.modules.plugins.jbossas7.json.ComplexResult;
+import org.rhq.modules.plugins.jbossas7.json.CompositeOperation;
+import org.rhq.modules.plugins.jbossas7.json.ReadAttribute;
+import org.rhq.modules.plugins.jbossas7.json.StreamingCodec;
+
+/**
+ * Compares the old ObjectMapper based request/response handling of the {@link ASConnection} with
+ * the {@link StreamingCodec}. Not run as part of the test suite, start it via its main method.
+ */
+public class StreamingCodecBenchmark {
+
+    private static final int STEPS = 50;
+    private static final int WARMUP = 20000;
+    private static final int ITERATIONS = 100000;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final StreamingCodec codec = new StreamingCodec(mapper.getJsonFactory());
+    private final CompositeOperation operation = new CompositeOperation();
+    private final byte[] response;
+
+    private long sink;
+
+    public static void main(String[] args) throws Exception {
+        StreamingCodecBenchmark benchmark = new StreamingCodecBenchmark();
+        benchmark.run("objectmapper", WARMUP, false);
+        benchmark.run("streaming", WARMUP, true);
+        benchmark.run("objectmapper", ITERATIONS, false);
+        benchmark.run("streaming", ITERATIONS, true);
+    }
+
+    StreamingCodecBenchmark() {
+        mapper.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+        StringBuilder builder = new StringBuilder("{\"outcome\":\"success\",\"result\":{");
+        for (int i = 1; i <= STEPS; i++) {
+            Address address = new Address();
+            address.add("subsystem", "datasources");
+            address.add("data-source", "ds" + i);
+            address.add("statistics", "pool");
+            operation.addStep(new ReadAttribute(address, "ActiveCount"));
+
+            if (i > 1) {
+                builder.append(',');
+            }
+            builder.append("\"step-").append(i).append("\":{\"outcome\":\"success\",\"result\":\"").append(i)
+                .append("\"}");
+        }
+        builder.append("},\"rolled-back\":false}");
+        try {
+            response = builder.toString().getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void run(String name, int iterations, boolean streaming) throws Exception {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink += streaming ? streaming() : objectMapper();
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.println(name + ": " + (elapsed / iterations) + " ns/op (" + iterations + " iterations, sink="
+            + sink + ")");
+    }
+
+    /** What ASConnection did before: String serialization, JsonNode tree, then tree to Result */
+    private int objectMapper() throws Exception {
+        String json = mapper.writeValueAsString(operation);
+        JsonNode node = mapper.readTree(new ByteArrayInputStream(response));
+        ComplexResult result = mapper.readValue(node, ComplexResult.class);
+        return json.length() + result.getResult().size();
+    }
+
+    private int streaming() throws Exception {
+        byte[] json = codec.writeOperation(operation);
+        ComplexResult result = (ComplexResult) codec.readResult(new ByteArrayInputStream(response), true);
+        return json.length + result.getResult().size();
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2013 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.modules.plugins.jbossas7;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import java.util.Map;
+
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.testng.annotations.Test;
+
+import org.rhq.modules.plugins.jbossas7.json.Address;
+import org.rhq.modules.plugins.jbossas7.json.ComplexResult;
+import org.rhq.modules.plugins.jbossas7.json.CompositeOperation;
+import org.rhq.modules.plugins.jbossas7.json.Operation;
+import org.rhq.modules.plugins.jbossas7.json.PROPERTY_VALUE;
+import org.rhq.modules.plugins.jbossas7.json.ReadAttribute;
+import org.rhq.modules.plugins.jbossas7.json.Result;
+import org.rhq.modules.plugins.jbossas7.json.StreamingCodec;
+import org.rhq.modules.plugins.jbossas7.json.WriteAttribute;
+
+/**
+ * Checks that the {@link StreamingCodec} produces and reads the same JSON as the ObjectMapper data binding
+ */
+@Test(groups = "unit")
+public class StreamingCodecTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final StreamingCodec codec = new StreamingCodec(mapper.getJsonFactory());
+
+    public void writeSimpleOperation() throws Exception {
+        Address address = new Address();
+        address.add("subsystem", "web");
+        address.add("connector", "http");
+
+        assertSameJson(new ReadAttribute(address, "bytesSent"));
+        assertSameJson(new WriteAttribute(address, "enabled", true));
+        assertSameJson(new Operation("read-resource", new Address()));
+    }
+
+    public void writeAdditionalProperties() throws Exception {
+        Address address = new Address();
+        address.add("deployment", "test.war");
+        Operation operation = new Operation("add", address);
+        operation.addAdditionalProperty("hash", new PROPERTY_VALUE("BYTES_VALUE", "123"));
+        operation.addAdditionalProperty("name", "test.war");
+        operation.addAdditionalProperty("count", 42);
+        operation.addAdditionalProperty("empty", null);
+
+        assertSameJson(operation);
+    }
+
+    public void writeCompositeOperation() throws Exception {
+        Address address = new Address();
+        address.add("server-group", "main-server-group");
+        address.add("deployment", "test.war");
+
+        CompositeOperation composite = new CompositeOperation();
+        Operation step = new Operation("add", address);
+        step.addAdditionalProperty("enabled", "true");
+        composite.addStep(step);
+        composite.addStep(new Operation("deploy", address));
+
+        assertSameJson(composite);
+    }
+
+    public void readSimpleResult() throws Exception {
+        Result result = read("{\"outcome\":\"success\",\"result\":\"no metrics available\"}", false);
+
+        assert result.isSuccess();
+        assert "no metrics available".equals(result.getResult());
+        assert !result.isRolledBack();
+    }
+
+    public void readFailedResult() throws Exception {
+        Result result = read("{\"outcome\":\"failed\",\"failure-description\":"
+            + "[{\"java.util.NoSuchElementException\":\"No child 'profile' exists\"}],\"rolled-back\":true}", false);
+
+        assert !result.isSuccess();
+        assert result.getResult() == null;
+        assert result.getFailureDescription() != null;
+        assert result.isRolledBack();
+    }
+
+    public void readArrayResult() throws Exception {
+        String json = "{\"outcome\":\"success\",\"result\":[\"standard-sockets\",\"messaging-sockets\"],"
+            + "\"response-headers\":null, \"rolled-back\" : false, \"unknown\" : {\"a\" : [1, 2]}}";
+        Result result = read(json, false);
+        Result expected = mapper.readValue(json.replace(", \"unknown\" : {\"a\" : [1, 2]}", ""), Result.class);
+
+        assert result.isSuccess();
+        assert result.getResult().equals(expected.getResult());
+        List<String> names = (List<String>) result.getResult();
+        assert names.get(1).equals("messaging-sockets");
+    }
+
+    public void readComplexResult() throws Exception {
+        String json = "{\"outcome\" : \"success\", \"result\" : {\"alias\" : [\"example.com\"], "
+            + "\"access-log\" : null, \"max\" : 12, \"ratio\" : 0.5, \"enabled\" : true, "
+            + "\"step-1\" : {\"outcome\" : \"success\", \"result\" : 4}}}";
+        Result result = read(json, true);
+        ComplexResult expected = mapper.readValue(json, ComplexResult.class);
+
+        assert result instanceof ComplexResult;
+        Map<String, Object> values = ((ComplexResult) result).getResult();
+        assert values.equals(expected.getResult()) : values + " != " + expected.getResult();
+        assert values.containsKey("access-log");
+    }
+
+    public void readEmptyStream() throws Exception {
+        assert codec.readResult(new ByteArrayInputStream(new byte[0]), false) == null;
+    }
+
+    private void assertSameJson(Operation operation) throws Exception {
+        JsonNode expected = mapper.readTree(mapper.writeValueAsString(operation));
+        JsonNode actual = mapper.readTree(new ByteArrayInputStream(codec.writeOperation(operation)));
+        assert expected.equals(actual) : "Expected " + expected + " but got " + actual;
+    }
+
+    private Result read(String json, boolean complex) throws Exception {
+        return codec.readResult(new ByteArrayInputStream(json.getBytes("UTF-8")), complex);
+    }
+}
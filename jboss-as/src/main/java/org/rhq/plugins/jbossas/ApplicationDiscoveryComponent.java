@@ -38,6 +38,7 @@ import org.rhq.core.domain.resource.ResourceType;
 import org.rhq.core.pluginapi.inventory.ApplicationServerComponent;
 import org.rhq.core.pluginapi.inventory.DiscoveredResourceDetails;
 import org.rhq.core.pluginapi.inventory.ResourceDiscoveryContext;
+import org.rhq.plugins.jbossas.util.DeploymentIndex;
 import org.rhq.plugins.jbossas.util.DeploymentUtility;
 import org.rhq.plugins.jmx.JMXComponent;
 import org.rhq.plugins.jmx.MBeanResourceDiscoveryComponent;
@@ -65,7 +66,9 @@ public class ApplicationDiscoveryComponent extends MBeanResourceDiscoveryCompone
         for (DiscoveredResourceDetails jmxResource : jmxResources) {
             earNames.add(jmxResource.getResourceName());
         }
-        Map<String, String> pathMap = DeploymentUtility.getEarDeploymentPath(emsConnection, earNames);
+        DeploymentIndex deploymentIndex = (parentComponent instanceof JBossASServerComponent) ?
+            ((JBossASServerComponent<?>) parentComponent).getDeploymentIndex() : new DeploymentIndex();
+        Map<String, String> pathMap = DeploymentUtility.getEarDeploymentPath(emsConnection, deploymentIndex, earNames);
 
         for (DiscoveredResourceDetails jmxResource : jmxResources) {
             Configuration pluginConfiguration = jmxResource.getPluginConfiguration();
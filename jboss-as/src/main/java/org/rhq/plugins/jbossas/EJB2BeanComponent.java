@@ -22,7 +22,6 @@
  */
 package org.rhq.plugins.jbossas;
 
-import java.lang.reflect.Method;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
@@ -38,8 +37,9 @@ import org.rhq.core.domain.measurement.DataType;
 import org.rhq.core.domain.measurement.MeasurementReport;
 import org.rhq.core.domain.measurement.MeasurementScheduleRequest;
 import org.rhq.core.domain.measurement.calltime.CallTimeData;
-import org.rhq.core.domain.measurement.calltime.CallTimeDataValue;
 import org.rhq.plugins.jmx.MBeanResourceComponent;
+import org.rhq.plugins.jmx.util.CallTimeDeltaTracker;
+import org.rhq.plugins.jmx.util.StatisticsAccessor;
 
 /**
  * A plugin component for managing an EJB2 session bean.
@@ -51,7 +51,23 @@ import org.rhq.plugins.jmx.MBeanResourceComponent;
 public class EJB2BeanComponent extends MBeanResourceComponent<JBossASServerComponent<?>> {
     private final Log log = LogFactory.getLog(EJB2BeanComponent.class);
 
-    private Map<Integer, CallTimeData> previousRawCallTimeDatas = new HashMap<Integer, CallTimeData>();
+    // the getters of javax.management.j2ee.statistics.StatelessSessionBeanStats, CountStatistic and TimeStatistic
+    private static final StatisticsAccessor SESSION_BEAN_STATS = StatisticsAccessor.forMethods("getStatistics",
+        "getMethodReadyCount");
+    private static final int STATISTICS = 0;
+    private static final int METHOD_READY_COUNT = 1;
+    private static final StatisticsAccessor COUNT_STATISTIC = StatisticsAccessor.forMethods("getStartTime");
+    private static final StatisticsAccessor TIME_STATISTIC = StatisticsAccessor.forMethods("getName", "getCount",
+        "getMinTime", "getMaxTime", "getTotalTime", "getStartTime", "getLastSampleTime");
+    private static final int NAME = 0;
+    private static final int COUNT = 1;
+    private static final int MIN_TIME = 2;
+    private static final int MAX_TIME = 3;
+    private static final int TOTAL_TIME = 4;
+    private static final int START_TIME = 5;
+    private static final int LAST_SAMPLE_TIME = 6;
+
+    private Map<Integer, CallTimeDeltaTracker> deltaTrackers = new HashMap<Integer, CallTimeDeltaTracker>();
 
     @Override
     public void getValues(MeasurementReport report, Set<MeasurementScheduleRequest> schedules) {
@@ -88,60 +104,24 @@ public class EJB2BeanComponent extends MBeanResourceComponent<JBossASServerCompo
     private CallTimeData createCallTimeData(MeasurementScheduleRequest schedule, Map<String, Stat> stats,
         Date lastResetTime, Date collectionTime) throws Exception {
 
-        CallTimeData previousRawCallTimeData = this.previousRawCallTimeDatas.get(schedule.getScheduleId());
-        CallTimeData rawCallTimeData = new CallTimeData(schedule);
-        this.previousRawCallTimeDatas.put(schedule.getScheduleId(), rawCallTimeData);
+        CallTimeDeltaTracker deltaTracker = this.deltaTrackers.get(schedule.getScheduleId());
+        if (deltaTracker == null) {
+            deltaTracker = new CallTimeDeltaTracker();
+            this.deltaTrackers.put(schedule.getScheduleId(), deltaTracker);
+        }
+        deltaTracker.startCollection();
 
         CallTimeData callTimeData = new CallTimeData(schedule);
         for (String methodName : stats.keySet()) {
             Stat timeStatistic = stats.get(methodName);
 
-            long minTime = timeStatistic.min;
-            long maxTime = timeStatistic.max;
-            long totalTime = timeStatistic.total;
-            long count = timeStatistic.count;
-
             try {
-                rawCallTimeData.addAggregatedCallData(methodName, lastResetTime, collectionTime, minTime, maxTime,
-                    totalTime, count);
+                deltaTracker.add(callTimeData, methodName, lastResetTime.getTime(), collectionTime.getTime(),
+                    timeStatistic.min, timeStatistic.max, timeStatistic.total, timeStatistic.count);
             } catch (IllegalArgumentException iae) {
                 // if any issue with the data, log them and continue processing the rest of the report
                 log.error(iae);
-                continue;
-            }
-
-            // Now compute the adjusted data, which is what we will report back to the server.
-            CallTimeDataValue previousValue = (previousRawCallTimeData != null) ? previousRawCallTimeData.getValues()
-                .get(methodName) : null;
-            boolean supercedesPrevious = ((previousValue != null) && (previousValue.getBeginTime() == lastResetTime
-                .getTime()));
-            Date beginTime = lastResetTime;
-            if (supercedesPrevious) {
-                // The data for this method hasn't been reset since the last time we collected it.
-                long countSincePrevious = count - previousValue.getCount();
-                if (countSincePrevious > 0) {
-                    // There have been new calls since the last time we collected data
-                    // for this method. Adjust the time span to begin at the end of the
-                    // time span from the previous collection.
-                    beginTime = new Date(previousValue.getEndTime());
-
-                    // Adjust the total and count to reflect the adjusted time span;
-                    // do so by subtracting the previous values from the current values.
-                    // NOTE: It isn't possible to figure out the minimum and maximum for
-                    // the adjusted time span, so just leave them be. If they happen
-                    // to have changed since the previous collection, they will be
-                    // accurate; otherwise they will not.
-                    count = countSincePrevious;
-                    totalTime = totalTime - (long) previousValue.getTotal();
-                }
-                // else, the count hasn't changed, so don't bother adjusting the data;
-                // when the server sees the data has the same begin time as
-                // previously persisted data, it will replace the previous data with the
-                // updated data (which will basically have a later end time)
             }
-
-            callTimeData.addAggregatedCallData(methodName, beginTime, collectionTime, minTime, maxTime, totalTime,
-                count);
         }
 
         return callTimeData;
@@ -150,10 +130,8 @@ public class EJB2BeanComponent extends MBeanResourceComponent<JBossASServerCompo
     private Date getLastResetTime(Object statelessSessionBeanStats) throws Exception {
         // XXX we assume no one will ever execute the Jboss MBean's resetStats
         // XXX we look at a count stat's start time and use that as the last reset time
-        Method method = statelessSessionBeanStats.getClass().getMethod("getMethodReadyCount");
-        Object methodReadyCountStat = method.invoke(statelessSessionBeanStats);
-        long time = (Long) methodReadyCountStat.getClass().getMethod("getStartTime").invoke(methodReadyCountStat);
-        return new Date(time);
+        Object methodReadyCountStat = SESSION_BEAN_STATS.get(statelessSessionBeanStats, METHOD_READY_COUNT);
+        return new Date(COUNT_STATISTIC.getLong(methodReadyCountStat, 0));
     }
 
     private Object getStatelessSessionBeanStats() throws Exception {
@@ -188,8 +166,8 @@ public class EJB2BeanComponent extends MBeanResourceComponent<JBossASServerCompo
 
         Map<String, Stat> stats = new HashMap<String, Stat>();
 
-        Method method = statelessSessionBeanStats.getClass().getMethod("getStatistics");
-        Object[] jbossStats = (Object[]) method.invoke(statelessSessionBeanStats); // javax.management.j2ee.statistics.Statistic[]
+        // javax.management.j2ee.statistics.Statistic[]
+        Object[] jbossStats = (Object[]) SESSION_BEAN_STATS.get(statelessSessionBeanStats, STATISTICS);
 
         if (jbossStats != null) {
             for (Object jbossStat : jbossStats) {
@@ -198,13 +176,13 @@ public class EJB2BeanComponent extends MBeanResourceComponent<JBossASServerCompo
                     // there appears to be a bug in Jboss stats - startTime always changes when you get
                     // the values and lastSampleTime is always 0.
                     Stat newStat = new Stat();
-                    newStat.name = (String) clazz.getMethod("getName").invoke(jbossStat);
-                    newStat.count = (Long) clazz.getMethod("getCount").invoke(jbossStat);
-                    newStat.min = (Long) clazz.getMethod("getMinTime").invoke(jbossStat);
-                    newStat.max = (Long) clazz.getMethod("getMaxTime").invoke(jbossStat);
-                    newStat.total = (Long) clazz.getMethod("getTotalTime").invoke(jbossStat);
-                    newStat.startTime = (Long) clazz.getMethod("getStartTime").invoke(jbossStat);
-                    newStat.lastSampleTime = (Long) clazz.getMethod("getLastSampleTime").invoke(jbossStat);
+                    newStat.name = (String) TIME_STATISTIC.get(jbossStat, NAME);
+                    newStat.count = TIME_STATISTIC.getLong(jbossStat, COUNT);
+                    newStat.min = TIME_STATISTIC.getLong(jbossStat, MIN_TIME);
+                    newStat.max = TIME_STATISTIC.getLong(jbossStat, MAX_TIME);
+                    newStat.total = TIME_STATISTIC.getLong(jbossStat, TOTAL_TIME);
+                    newStat.startTime = TIME_STATISTIC.getLong(jbossStat, START_TIME);
+                    newStat.lastSampleTime = TIME_STATISTIC.getLong(jbossStat, LAST_SAMPLE_TIME);
                     stats.put(newStat.name, newStat);
                 }
             }
@@ -22,9 +22,6 @@
  */
 package org.rhq.plugins.jbossas;
 
-import java.lang.reflect.Field;
-import java.lang.reflect.Method;
-import java.util.Date;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.Map;
@@ -42,10 +39,11 @@ import org.rhq.core.domain.measurement.DataType;
 import org.rhq.core.domain.measurement.MeasurementReport;
 import org.rhq.core.domain.measurement.MeasurementScheduleRequest;
 import org.rhq.core.domain.measurement.calltime.CallTimeData;
-import org.rhq.core.domain.measurement.calltime.CallTimeDataValue;
 import org.rhq.core.pluginapi.operation.OperationResult;
 import org.rhq.plugins.jbossas.util.JBossMBeanUtility;
 import org.rhq.plugins.jmx.MBeanResourceComponent;
+import org.rhq.plugins.jmx.util.CallTimeDeltaTracker;
+import org.rhq.plugins.jmx.util.StatisticsAccessor;
 
 /**
  * A plugin component for managing an EJB3 session bean.
@@ -56,7 +54,18 @@ import org.rhq.plugins.jmx.MBeanResourceComponent;
 public class EJB3BeanComponent extends MBeanResourceComponent<JBossASServerComponent<?>> {
     private final Log log = LogFactory.getLog(EJB3BeanComponent.class);
 
-    private Map<Integer, CallTimeData> previousRawCallTimeDatas = new HashMap<Integer, CallTimeData>();
+    // the fields of org.jboss.ejb3.statistics.InvocationStatistics and its nested TimeStatistic
+    private static final StatisticsAccessor INVOCATION_STATISTICS_FIELDS = StatisticsAccessor
+        .forFields("lastResetTime");
+    private static final StatisticsAccessor INVOCATION_STATISTICS_METHODS = StatisticsAccessor.forMethods("getStats");
+    private static final StatisticsAccessor TIME_STATISTIC = StatisticsAccessor.forFields("minTime", "maxTime",
+        "totalTime", "count");
+    private static final int MIN_TIME = 0;
+    private static final int MAX_TIME = 1;
+    private static final int TOTAL_TIME = 2;
+    private static final int COUNT = 3;
+
+    private Map<Integer, CallTimeDeltaTracker> deltaTrackers = new HashMap<Integer, CallTimeDeltaTracker>();
 
     @Override
     public AvailabilityType getAvailability() {
@@ -78,10 +87,10 @@ public class EJB3BeanComponent extends MBeanResourceComponent<JBossASServerCompo
             for (String methodName : stats.keySet()) {
                 Object timeStatistic = stats.get(methodName);
 
-                Long count = (Long) timeStatistic.getClass().getField("count").get(timeStatistic);
-                Long minTime = (Long) timeStatistic.getClass().getField("minTime").get(timeStatistic);
-                Long maxTime = (Long) timeStatistic.getClass().getField("maxTime").get(timeStatistic);
-                Long totalTime = (Long) timeStatistic.getClass().getField("totalTime").get(timeStatistic);
+                long count = TIME_STATISTIC.getLong(timeStatistic, COUNT);
+                long minTime = TIME_STATISTIC.getLong(timeStatistic, MIN_TIME);
+                long maxTime = TIME_STATISTIC.getLong(timeStatistic, MAX_TIME);
+                long totalTime = TIME_STATISTIC.getLong(timeStatistic, TOTAL_TIME);
 
                 PropertyMap method = new PropertyMap("method", new PropertySimple("methodName", methodName),
                     new PropertySimple("count", count), new PropertySimple("minTime", minTime), new PropertySimple(
@@ -115,8 +124,8 @@ public class EJB3BeanComponent extends MBeanResourceComponent<JBossASServerCompo
                     Map<String, Object> stats = getStats(invocationStatistics);
                     long collectionTime = System.currentTimeMillis();
                     if (!stats.isEmpty()) {
-                        CallTimeData callTimeData = createCallTimeData(schedule, stats, new Date(lastResetTime),
-                            new Date(collectionTime));
+                        CallTimeData callTimeData = createCallTimeData(schedule, stats, lastResetTime,
+                            collectionTime);
                         report.addData(callTimeData);
                     }
                 } catch (Exception e) {
@@ -129,60 +138,30 @@ public class EJB3BeanComponent extends MBeanResourceComponent<JBossASServerCompo
     }
 
     private CallTimeData createCallTimeData(MeasurementScheduleRequest schedule, Map<String, Object> stats,
-        Date lastResetTime, Date collectionTime) throws Exception {
-        CallTimeData previousRawCallTimeData = this.previousRawCallTimeDatas.get(schedule.getScheduleId());
-        CallTimeData rawCallTimeData = new CallTimeData(schedule);
-        this.previousRawCallTimeDatas.put(schedule.getScheduleId(), rawCallTimeData);
+        long lastResetTime, long collectionTime) throws Exception {
+        CallTimeDeltaTracker deltaTracker = this.deltaTrackers.get(schedule.getScheduleId());
+        if (deltaTracker == null) {
+            deltaTracker = new CallTimeDeltaTracker();
+            this.deltaTrackers.put(schedule.getScheduleId(), deltaTracker);
+        }
+        deltaTracker.startCollection();
+
         CallTimeData callTimeData = new CallTimeData(schedule);
-        for (String methodName : stats.keySet()) {
-            Object timeStatistic = stats.get(methodName);
+        for (Map.Entry<String, Object> entry : stats.entrySet()) {
+            Object timeStatistic = entry.getValue();
 
-            long minTime = (Long) timeStatistic.getClass().getField("minTime").get(timeStatistic);
-            long maxTime = (Long) timeStatistic.getClass().getField("maxTime").get(timeStatistic);
-            long totalTime = (Long) timeStatistic.getClass().getField("totalTime").get(timeStatistic);
-            long count = (Long) timeStatistic.getClass().getField("count").get(timeStatistic);
+            long minTime = TIME_STATISTIC.getLong(timeStatistic, MIN_TIME);
+            long maxTime = TIME_STATISTIC.getLong(timeStatistic, MAX_TIME);
+            long totalTime = TIME_STATISTIC.getLong(timeStatistic, TOTAL_TIME);
+            long count = TIME_STATISTIC.getLong(timeStatistic, COUNT);
 
             try {
-                rawCallTimeData.addAggregatedCallData(methodName, lastResetTime, collectionTime, minTime, maxTime,
+                deltaTracker.add(callTimeData, entry.getKey(), lastResetTime, collectionTime, minTime, maxTime,
                     totalTime, count);
             } catch (IllegalArgumentException iae) {
                 // if any issue with the data, log them and continue processing the rest of the report
                 log.error(iae);
-                continue;
             }
-
-            // Now compute the adjusted data, which is what we will report back to the server.
-            CallTimeDataValue previousValue = (previousRawCallTimeData != null) ? previousRawCallTimeData.getValues()
-                .get(methodName) : null;
-            boolean supercedesPrevious = ((previousValue != null) && (previousValue.getBeginTime() == lastResetTime
-                .getTime()));
-            Date beginTime = lastResetTime;
-            if (supercedesPrevious) {
-                // The data for this method hasn't been reset since the last time we collected it.
-                long countSincePrevious = count - previousValue.getCount();
-                if (countSincePrevious > 0) {
-                    // There have been new calls since the last time we collected data
-                    // for this method. Adjust the time span to begin at the end of the
-                    // time span from the previous collection.
-                    beginTime = new Date(previousValue.getEndTime());
-
-                    // Adjust the total and count to reflect the adjusted time span;
-                    // do so by subtracting the previous values from the current values.
-                    // NOTE: It isn't possible to figure out the minimum and maximum for
-                    // the adjusted time span, so just leave them be. If they happen
-                    // to have changed since the previous collection, they will be
-                    // accurate; otherwise they will not.
-                    count = countSincePrevious;
-                    totalTime = totalTime - (long) previousValue.getTotal();
-                }
-                // else, the count hasn't changed, so don't bother adjusting the data;
-                // when the JON server sees the data has the same begin time as
-                // previously persisted data, it will replace the previous data with the
-                // updated data (which will basically have a later end time)
-            }
-
-            callTimeData.addAggregatedCallData(methodName, beginTime, collectionTime, minTime, maxTime, totalTime,
-                count);
         }
 
         return callTimeData;
@@ -214,12 +193,10 @@ public class EJB3BeanComponent extends MBeanResourceComponent<JBossASServerCompo
     }
 
     private long getLastResetTime(Object invocationStatistics) throws Exception {
-        Field field = invocationStatistics.getClass().getField("lastResetTime");
-        return (Long) field.get(invocationStatistics);
+        return INVOCATION_STATISTICS_FIELDS.getLong(invocationStatistics, 0);
     }
 
     private Map<String, Object> getStats(Object invocationStatistics) throws Exception {
-        Method method = invocationStatistics.getClass().getMethod("getStats");
-        return (Map<String, Object>) method.invoke(invocationStatistics);
+        return (Map<String, Object>) INVOCATION_STATISTICS_METHODS.get(invocationStatistics, 0);
     }
 }
\ No newline at end of file
@@ -104,6 +104,7 @@ import org.rhq.plugins.jbossas.helper.JavaSystemProperties;
 import org.rhq.plugins.jbossas.helper.MainDeployer;
 import org.rhq.plugins.jbossas.util.ConnectionFactoryConfigurationEditor;
 import org.rhq.plugins.jbossas.util.DatasourceConfigurationEditor;
+import org.rhq.plugins.jbossas.util.DeploymentIndex;
 import org.rhq.plugins.jbossas.util.DeploymentUtility;
 import org.rhq.plugins.jbossas.util.FileContentDelegate;
 import org.rhq.plugins.jbossas.util.FileNameUtility;
@@ -203,6 +204,8 @@ public class JBossASServerComponent<T extends ResourceComponent<?>> implements M
 
     private MainDeployer mainDeployer;
 
+    private final DeploymentIndex deploymentIndex = new DeploymentIndex();
+
     private AvailabilityCollectorRunnable availCollector;
 
     private boolean loggedHijackedJnpUrlError;
@@ -290,6 +293,7 @@ public class JBossASServerComponent<T extends ResourceComponent<?>> implements M
         }
 
         this.logFileEventDelegate.stopLogFileEventPollers();
+        this.deploymentIndex.invalidate();
         if (this.connection != null) {
             try {
                 this.connection.close();
@@ -500,7 +504,14 @@ public class JBossASServerComponent<T extends ResourceComponent<?>> implements M
     }
 
     public File getDeploymentFilePath(String objectName) {
-        return DeploymentUtility.getDescriptorFile(connection, objectName);
+        return DeploymentUtility.getDescriptorFile(connection, this.deploymentIndex, objectName);
+    }
+
+    /**
+     * @return the index of the deployments of this JBoss server, shared by its discovery and resource components
+     */
+    public DeploymentIndex getDeploymentIndex() {
+        return this.deploymentIndex;
     }
 
     public String getConfigurationSet() {
@@ -702,7 +713,11 @@ public class JBossASServerComponent<T extends ResourceComponent<?>> implements M
             throw new IllegalStateException("Unable to deploy " + file + ", because MainDeployer MBean could "
                 + "not be accessed - this should never happen.");
         }
-        this.mainDeployer.deploy(file);
+        try {
+            this.mainDeployer.deploy(file);
+        } finally {
+            this.deploymentIndex.invalidate();
+        }
     }
 
     void redeployFile(File file) throws MainDeployer.DeployerException {
@@ -715,7 +730,11 @@ public class JBossASServerComponent<T extends ResourceComponent<?>> implements M
             throw new IllegalStateException("Unable to redeploy " + file + ", because MainDeployer MBean could "
                 + "not be accessed - this should never happen.");
         }
-        this.mainDeployer.redeploy(file);
+        try {
+            this.mainDeployer.redeploy(file);
+        } finally {
+            this.deploymentIndex.invalidate();
+        }
     }
 
     void undeployFile(File file) throws MainDeployer.DeployerException {
@@ -728,7 +747,11 @@ public class JBossASServerComponent<T extends ResourceComponent<?>> implements M
             throw new IllegalStateException("Unable to undeploy " + file + ", because MainDeployer MBean could "
                 + "not be accessed - this should never happen.");
         }
-        this.mainDeployer.undeploy(file);
+        try {
+            this.mainDeployer.undeploy(file);
+        } finally {
+            this.deploymentIndex.invalidate();
+        }
     }
 
     private String getDuplicateJndiNameErrorMessage(String resourceTypeName, String name) {
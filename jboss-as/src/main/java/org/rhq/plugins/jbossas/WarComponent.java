@@ -22,11 +22,13 @@
  */
 package org.rhq.plugins.jbossas;
 
-import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.commons.logging.Log;
@@ -49,11 +51,11 @@ import org.rhq.core.pluginapi.inventory.ResourceContext;
 import org.rhq.core.pluginapi.operation.OperationFacet;
 import org.rhq.core.pluginapi.operation.OperationResult;
 import org.rhq.core.pluginapi.util.ResponseTimeConfiguration;
-import org.rhq.core.pluginapi.util.ResponseTimeLogParser;
 import org.rhq.plugins.jbossas.util.DeploymentUtility;
 import org.rhq.plugins.jbossas.util.WarDeploymentInformation;
 import org.rhq.plugins.jbossas.util.WarDiscoveryHelper;
 import org.rhq.plugins.jmx.util.ObjectNameQueryUtility;
+import org.rhq.plugins.jmx.util.ResponseTimeLogTailer;
 
 /**
 * A resource component for managing a web application (WAR) deployed to a JBossAS server.
@@ -81,6 +83,8 @@ public class WarComponent extends ApplicationComponent implements OperationFacet
     private static final String NUM_SERVLET_ERRORS = "Servlet.NumErrors";
     private static final String TOTAL_TIME = "Servlet.TotalTime";
     private static final String SERVLET_NAME_BASE_TEMPLATE = "jboss.web:J2EEApplication=none,J2EEServer=none,j2eeType=Servlet,name=%name%";
+    private static final List<String> SERVLET_ATTRIBUTES = Arrays.asList("minTime", "maxTime", "processingTime",
+        "requestCount", "errorCount");
 
     private static final String SESSION_NAME_BASE_TEMPLATE = "jboss.web:host=%HOST%,type=Manager,path=%PATH%";
 
@@ -102,10 +106,18 @@ public class WarComponent extends ApplicationComponent implements OperationFacet
         "sessionIdLength", "SessionIdLength" };
 
     private EmsBean jbossWebMBean;
-    private ResponseTimeLogParser logParser;
+    private ResponseTimeLogTailer.Subscription responseTimeLog;
     private String vhost;
     private String contextRoot;
 
+    /**
+     * The servlet and session MBeans of the WAR, resolved again once the web module has been (re)started
+     */
+    private List<EmsBean> servletMBeans;
+    private List<EmsBean> sessionMBeans;
+    private boolean sessionsClustered;
+    private Object mBeansStartTime;
+
     @Override
     public AvailabilityType getAvailability() {
         AvailabilityType availability;
@@ -139,25 +151,33 @@ public class WarComponent extends ApplicationComponent implements OperationFacet
         this.vhost = pluginConfig.getSimple(VHOST_CONFIG_PROP).getStringValue();
         this.contextRoot = pluginConfig.getSimple(CONTEXT_ROOT_CONFIG_PROP).getStringValue();
         ResponseTimeConfiguration responseTimeConfig = new ResponseTimeConfiguration(pluginConfig);
+        this.responseTimeLog = ResponseTimeLogTailer.subscribe(responseTimeConfig,
+            WarDiscoveryHelper.getContextPath(this.contextRoot));
+    }
 
-        File logFile = responseTimeConfig.getLogFile();
-        if (logFile != null) {
-            this.logParser = new ResponseTimeLogParser(logFile);
-            this.logParser.setExcludes(responseTimeConfig.getExcludes());
-            this.logParser.setTransforms(responseTimeConfig.getTransforms());
+    @Override
+    public void stop() {
+        if (this.responseTimeLog != null) {
+            this.responseTimeLog.unsubscribe();
+            this.responseTimeLog = null;
         }
+        super.stop();
     }
 
     @Override
     public void getValues(MeasurementReport report, Set<MeasurementScheduleRequest> schedules) {
         Set<MeasurementScheduleRequest> remainingSchedules = new LinkedHashSet<MeasurementScheduleRequest>();
+        // all the servlet and session metrics are answered from a single read of the beans
+        ServletStatistics servletStatistics = null;
+        Map<String, EmsAttribute> sessionAttributes = null;
+        boolean redeployChecked = false;
         for (MeasurementScheduleRequest schedule : schedules) {
             String metricName = schedule.getName();
             if (metricName.equals(RESPONSE_TIME_METRIC)) {
-                if (this.logParser != null) {
+                if (this.responseTimeLog != null) {
                     try {
                         CallTimeData callTimeData = new CallTimeData(schedule);
-                        this.logParser.parseLog(callTimeData);
+                        this.responseTimeLog.parseLog(callTimeData);
                         report.addData(callTimeData);
                     } catch (Exception e) {
                         log.error("Failed to retrieve HTTP call-time data.", e);
@@ -172,11 +192,25 @@ public class WarComponent extends ApplicationComponent implements OperationFacet
                 MeasurementDataTrait trait = new MeasurementDataTrait(schedule, contextRoot);
                 report.addData(trait);
             } else if (metricName.startsWith(SERVLET_PREFIX)) {
-                Double value = getServletMetric(metricName);
+                if (!redeployChecked) {
+                    checkRedeployed();
+                    redeployChecked = true;
+                }
+                if (servletStatistics == null) {
+                    servletStatistics = getServletStatistics();
+                }
+                Double value = servletStatistics.getValue(metricName);
                 MeasurementDataNumeric metric = new MeasurementDataNumeric(schedule, value);
                 report.addData(metric);
             } else if (metricName.startsWith(SESSION_PREFIX)) {
-                Double value = getSessionMetric(metricName);
+                if (!redeployChecked) {
+                    checkRedeployed();
+                    redeployChecked = true;
+                }
+                if (sessionAttributes == null) {
+                    sessionAttributes = getSessionAttributes(schedules);
+                }
+                Double value = getSessionMetric(metricName, sessionAttributes);
                 MeasurementDataNumeric metric = new MeasurementDataNumeric(schedule, value);
                 report.addData(metric);
             } else if (metricName.startsWith(VHOST_PREFIX)) {
@@ -200,53 +234,82 @@ public class WarComponent extends ApplicationComponent implements OperationFacet
         super.getValues(report, remainingSchedules);
     }
 
-    private Double getSessionMetric(String metricName) {
-        boolean isClustered = false;
-
-        EmsConnection jmxConnection = getEmsConnection();
-        String servletMBeanNames = SESSION_NAME_BASE_TEMPLATE.replace("%PATH%",
-            WarDiscoveryHelper.getContextPath(this.contextRoot));
-        servletMBeanNames = servletMBeanNames.replace("%HOST%", vhost);
-        ObjectNameQueryUtility queryUtility = new ObjectNameQueryUtility(servletMBeanNames);
-        List<EmsBean> mBeans = jmxConnection.queryBeans(queryUtility.getTranslatedQuery());
+    /**
+     * Reads the attributes of the session MBean needed by the session metrics among the schedules in one go.
+     */
+    private Map<String, EmsAttribute> getSessionAttributes(Set<MeasurementScheduleRequest> schedules) {
+        List<EmsBean> mBeans = getSessionMBeans();
 
-        if (mBeans.size() == 0) {
-            // retry with the cluster manager TODO select the local vs cluster mode on discovery
-            servletMBeanNames = CLUSTER_SESSION_NAME_BASE_TEMPLATE.replace("%PATH%",
-                WarDiscoveryHelper.getContextPath(this.contextRoot));
-            servletMBeanNames = servletMBeanNames.replace("%HOST%", vhost);
-            queryUtility = new ObjectNameQueryUtility(servletMBeanNames);
-            mBeans = jmxConnection.queryBeans(queryUtility.getTranslatedQuery());
-            if (mBeans.size() > 0)
-                isClustered = true;
+        List<String> properties = new ArrayList<String>();
+        for (MeasurementScheduleRequest schedule : schedules) {
+            if (schedule.getName().startsWith(SESSION_PREFIX)) {
+                String property = getSessionAttributeName(schedule.getName());
+                // some attributes have no counterpart in the cluster manager
+                if (property.length() > 0) {
+                    properties.add(property);
+                }
+            }
         }
 
-        String property = metricName.substring(SESSION_PREFIX.length());
+        Map<String, EmsAttribute> ret = new HashMap<String, EmsAttribute>();
+        if (mBeans.size() > 0) { // TODO flag error if != 1 ?
+            EmsBean eBean = mBeans.get(0);
+            try {
+                for (EmsAttribute att : eBean.refreshAttributes(properties)) {
+                    ret.put(att.getName(), att);
+                }
+            } catch (RuntimeException e) {
+                // the bean might have gone with a redeploy
+                this.sessionMBeans = null;
+                throw e;
+            }
+        }
+        return ret;
+    }
 
+    private Double getSessionMetric(String metricName, Map<String, EmsAttribute> sessionAttributes) {
         Double ret = Double.NaN;
 
-        if (mBeans.size() > 0) { // TODO flag error if != 1 ?
-            EmsBean eBean = mBeans.get(0);
-            eBean.refreshAttributes();
+        EmsAttribute att = sessionAttributes.get(getSessionAttributeName(metricName));
+        if (att != null && att.getValue() instanceof Number) {
+            ret = ((Number) att.getValue()).doubleValue();
+        }
+        return ret;
+    }
 
-            if (isClustered) {
-                property = lookupClusteredAttributeName(property);
-            }
+    private String getSessionAttributeName(String metricName) {
+        String property = metricName.substring(SESSION_PREFIX.length());
+        if (this.sessionsClustered) {
+            property = lookupClusteredAttributeName(property);
+        }
+        return property;
+    }
 
-            EmsAttribute att = eBean.getAttribute(property);
-            if (att != null) {
-                Object o = att.getValue();
-                if (o instanceof Long) {
-                    Long l = (Long) o;
-                    ret = Double.valueOf(l);
-                } else {
-                    Integer i = (Integer) o;
-                    ret = Double.valueOf(i);
-                }
+    private List<EmsBean> getSessionMBeans() {
+        if (this.sessionMBeans == null) {
+            EmsConnection jmxConnection = getEmsConnection();
+            String sessionMBeanNames = SESSION_NAME_BASE_TEMPLATE.replace("%PATH%",
+                WarDiscoveryHelper.getContextPath(this.contextRoot));
+            sessionMBeanNames = sessionMBeanNames.replace("%HOST%", vhost);
+            ObjectNameQueryUtility queryUtility = new ObjectNameQueryUtility(sessionMBeanNames);
+            List<EmsBean> mBeans = jmxConnection.queryBeans(queryUtility.getTranslatedQuery());
+            boolean isClustered = false;
+
+            if (mBeans.size() == 0) {
+                // retry with the cluster manager TODO select the local vs cluster mode on discovery
+                sessionMBeanNames = CLUSTER_SESSION_NAME_BASE_TEMPLATE.replace("%PATH%",
+                    WarDiscoveryHelper.getContextPath(this.contextRoot));
+                sessionMBeanNames = sessionMBeanNames.replace("%HOST%", vhost);
+                queryUtility = new ObjectNameQueryUtility(sessionMBeanNames);
+                mBeans = jmxConnection.queryBeans(queryUtility.getTranslatedQuery());
+                if (mBeans.size() > 0)
+                    isClustered = true;
             }
 
+            this.sessionMBeans = mBeans;
+            this.sessionsClustered = isClustered;
         }
-        return ret;
+        return this.sessionMBeans;
     }
 
     private String lookupClusteredAttributeName(String property) {
@@ -257,70 +320,111 @@ public class WarComponent extends ApplicationComponent implements OperationFacet
         return property;
     }
 
-    private Double getServletMetric(String metricName) {
-        String servletMBeanNames = SERVLET_NAME_BASE_TEMPLATE + ",WebModule=//" + this.vhost
-            + WarDiscoveryHelper.getContextPath(this.contextRoot);
-        ObjectNameQueryUtility queryUtility = new ObjectNameQueryUtility(servletMBeanNames);
-        List<EmsBean> mBeans = getEmsConnection().queryBeans(queryUtility.getTranslatedQuery());
-
-        long min = Long.MAX_VALUE;
-        long max = 0;
-        long processingTime = 0;
-        int requestCount = 0;
-        int errorCount = 0;
-        Double result;
-
-        for (EmsBean mBean : mBeans) {
-            mBean.refreshAttributes();
-            if (metricName.equals(MIN_SERVLET_TIME)) {
-                EmsAttribute att = mBean.getAttribute("minTime");
-                Long l = (Long) att.getValue();
-                if (l < min)
-                    min = l;
+    /**
+     * Reads the statistics of all the servlets of the WAR, each servlet MBean with a single request.
+     */
+    private ServletStatistics getServletStatistics() {
+        ServletStatistics statistics = new ServletStatistics();
+        try {
+            for (EmsBean mBean : getServletMBeans()) {
+                statistics.add(mBean.refreshAttributes(SERVLET_ATTRIBUTES));
+            }
+        } catch (RuntimeException e) {
+            // some servlet might have gone with a redeploy
+            this.servletMBeans = null;
+            throw e;
+        }
+        return statistics;
+    }
+
+    private List<EmsBean> getServletMBeans() {
+        if (this.servletMBeans == null) {
+            String servletMBeanNames = SERVLET_NAME_BASE_TEMPLATE + ",WebModule=//" + this.vhost
+                + WarDiscoveryHelper.getContextPath(this.contextRoot);
+            ObjectNameQueryUtility queryUtility = new ObjectNameQueryUtility(servletMBeanNames);
+            this.servletMBeans = getEmsConnection().queryBeans(queryUtility.getTranslatedQuery());
+        }
+        return this.servletMBeans;
+    }
+
+    /**
+     * Forgets the resolved servlet and session MBeans if the web module has been started again since they were
+     * resolved, or if its start time can't be read.
+     */
+    private void checkRedeployed() {
+        Object startTime = null;
+        EmsBean webModule = this.jbossWebMBean;
+        if (webModule != null) {
+            try {
+                EmsAttribute att = webModule.getAttribute("startTime");
+                startTime = (att != null) ? att.refresh() : null;
+            } catch (Exception e) {
+                startTime = null;
+            }
+        }
+
+        if (startTime == null || !startTime.equals(this.mBeansStartTime)) {
+            this.servletMBeans = null;
+            this.sessionMBeans = null;
+        }
+        this.mBeansStartTime = startTime;
+    }
+
+    /**
+     * The statistics of the servlets of the WAR, folded together.
+     */
+    private static class ServletStatistics {
+        private long min = Long.MAX_VALUE;
+        private long max = 0;
+        private long processingTime = 0;
+        private long requestCount = 0;
+        private long errorCount = 0;
+
+        void add(List<EmsAttribute> attributes) {
+            for (EmsAttribute att : attributes) {
+                Object value = att.getValue();
+                if (!(value instanceof Number)) {
+                    continue;
+                }
+                long l = ((Number) value).longValue();
+                String name = att.getName();
+                if (name.equals("minTime")) {
+                    if (l < min)
+                        min = l;
+                } else if (name.equals("maxTime")) {
+                    if (l > max)
+                        max = l;
+                } else if (name.equals("processingTime")) {
+                    processingTime += l;
+                } else if (name.equals("requestCount")) {
+                    requestCount += l;
+                } else if (name.equals("errorCount")) {
+                    errorCount += l;
+                }
+            }
+        }
+
+        Double getValue(String metricName) {
+            Double result;
+            if (metricName.equals(AVG_SERVLET_TIME)) {
+                result = (requestCount > 0) ? ((double) processingTime / (double) requestCount) : Double.NaN;
+            } else if (metricName.equals(MIN_SERVLET_TIME)) {
+                result = (min != Long.MAX_VALUE) ? (double) min : Double.NaN;
             } else if (metricName.equals(MAX_SERVLET_TIME)) {
-                EmsAttribute att = mBean.getAttribute("maxTime");
-                Long l = (Long) att.getValue();
-                if (l > max)
-                    max = l;
-            } else if (metricName.equals(AVG_SERVLET_TIME)) {
-                EmsAttribute att = mBean.getAttribute("processingTime");
-                Long l = (Long) att.getValue();
-                processingTime += l;
-                att = mBean.getAttribute("requestCount");
-                Integer i = (Integer) att.getValue();
-                requestCount += i;
-            } else if (metricName.equals(NUM_SERVLET_REQUESTS)) {
-                EmsAttribute att = mBean.getAttribute("requestCount");
-                Integer i = (Integer) att.getValue();
-                requestCount += i;
+                result = (max != 0) ? (double) max : Double.NaN;
             } else if (metricName.equals(NUM_SERVLET_ERRORS)) {
-                EmsAttribute att = mBean.getAttribute("errorCount");
-                Integer i = (Integer) att.getValue();
-                errorCount += i;
+                result = (double) errorCount;
+            } else if (metricName.equals(NUM_SERVLET_REQUESTS)) {
+                result = (double) requestCount;
             } else if (metricName.equals(TOTAL_TIME)) {
-                EmsAttribute att = mBean.getAttribute("processingTime");
-                Long l = (Long) att.getValue();
-                processingTime += l;
+                result = (double) processingTime;
+            } else {
+                // fallback
+                result = Double.NaN;
             }
-        }
-        if (metricName.equals(AVG_SERVLET_TIME)) {
-            result = (requestCount > 0) ? ((double) processingTime / (double) requestCount) : Double.NaN;
-        } else if (metricName.equals(MIN_SERVLET_TIME)) {
-            result = (min != Long.MAX_VALUE) ? (double) min : Double.NaN;
-        } else if (metricName.equals(MAX_SERVLET_TIME)) {
-            result = (max != 0) ? (double) max : Double.NaN;
-        } else if (metricName.equals(NUM_SERVLET_ERRORS)) {
-            result = (double) errorCount;
-        } else if (metricName.equals(NUM_SERVLET_REQUESTS)) {
-            result = (double) requestCount;
-        } else if (metricName.equals(TOTAL_TIME)) {
-            result = (double) processingTime;
-        } else {
-            // fallback
-            result = Double.NaN;
-        }
 
-        return result;
+            return result;
+        }
     }
 
     @Override
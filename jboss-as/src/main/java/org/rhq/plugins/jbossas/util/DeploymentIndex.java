@@ -0,0 +1,240 @@
+/*
+ * Jopr Management Platform
+ * Copyright (C) 2005-2008 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.rhq.plugins.jbossas.util;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.mc4j.ems.connection.EmsConnection;
+
+/**
+ * The deployments listed by the MainDeployer of a JBoss AS instance, shared by all the discovery and resource
+ * components asking for them.
+ * <p/>
+ * Listing the deployments serializes the DeploymentInfo of every deployment in the server, which is expensive on
+ * servers with a lot of deployments. The index lists them at most once per window, so that the discovery of all the
+ * child resource types during a discovery run is answered from a single listing, and keeps only the few fields
+ * needed, indexed by the deployment short names and by the object names of the MBeans deployed by them.
+ * <p/>
+ * The index is listed again once the connection changes and should be invalidated after deploying or undeploying
+ * through the MainDeployer.
+ */
+public class DeploymentIndex {
+    private static final Log log = LogFactory.getLog(DeploymentIndex.class);
+
+    private static final String WINDOW_SYSPROP = "rhq.jbossas.deployment-index-window";
+
+    static final long WINDOW = Long.getLong(WINDOW_SYSPROP, 60 * 1000L);
+
+    private EmsConnection connection;
+    private long timestamp;
+    private List<Deployment> deployments;
+    private Map<String, List<Deployment>> deploymentsByShortName;
+    private Map<String, Deployment> deploymentsByObjectName;
+
+    /**
+     * The fields of a DeploymentInfo.
+     */
+    public static class Deployment {
+        private final String shortName;
+        private final String url;
+        private final String watch;
+        private final String deployedObject;
+        private final List<String> mbeans;
+
+        Deployment(String shortName, String url, String watch, String deployedObject, List<String> mbeans) {
+            this.shortName = shortName;
+            this.url = url;
+            this.watch = watch;
+            this.deployedObject = deployedObject;
+            this.mbeans = mbeans;
+        }
+
+        /**
+         * @return the short name, e.g. "jmx-console.war"
+         */
+        public String getShortName() {
+            return shortName;
+        }
+
+        /**
+         * @return the URL of the deployment
+         */
+        public String getUrl() {
+            return url;
+        }
+
+        /**
+         * @return the URL of the file watched for changes of the deployment, e.g. its descriptor, or null
+         */
+        public String getWatch() {
+            return watch;
+        }
+
+        /**
+         * @return the canonical object name of the deployed object or null
+         */
+        public String getDeployedObject() {
+            return deployedObject;
+        }
+
+        /**
+         * @return the canonical object names of the MBeans deployed by the deployment
+         */
+        public List<String> getMBeans() {
+            return mbeans;
+        }
+    }
+
+    /**
+     * @param connection the connection to the server
+     * @return all the deployments in the order the MainDeployer listed them
+     * @throws Exception if the deployments couldn't be listed
+     */
+    public synchronized List<Deployment> getDeployments(EmsConnection connection) throws Exception {
+        load(connection);
+        return deployments;
+    }
+
+    /**
+     * @param connection the connection to the server
+     * @param shortName the short name of the deployments, e.g. "jmx-console.war"
+     * @return the deployments with the short name, possibly empty
+     * @throws Exception if the deployments couldn't be listed
+     */
+    public synchronized List<Deployment> getDeploymentsByShortName(EmsConnection connection, String shortName)
+        throws Exception {
+        load(connection);
+        List<Deployment> ret = deploymentsByShortName.get(shortName);
+        return ret == null ? Collections.<Deployment> emptyList() : ret;
+    }
+
+    /**
+     * @param connection the connection to the server
+     * @param objectName the object name of an MBean
+     * @return the first deployment that deployed the MBean or null if there is none
+     * @throws Exception if the deployments couldn't be listed
+     */
+    public synchronized Deployment getDeploymentByObjectName(EmsConnection connection, String objectName)
+        throws Exception {
+        load(connection);
+        return deploymentsByObjectName.get(canonicalize(objectName));
+    }
+
+    /**
+     * Makes the next query list the deployments again.
+     */
+    public synchronized void invalidate() {
+        deployments = null;
+        deploymentsByShortName = null;
+        deploymentsByObjectName = null;
+        connection = null;
+    }
+
+    private void load(EmsConnection connection) throws Exception {
+        long now = System.currentTimeMillis();
+        if (deployments != null && connection == this.connection && now - timestamp < WINDOW && now >= timestamp) {
+            return;
+        }
+
+        invalidate();
+
+        // NOTE: This is an expensive operation, since it returns a bunch of large objects.
+        Collection<?> deploymentInfos = DeploymentUtility.getDeploymentInformations(connection);
+
+        List<Deployment> newDeployments = new ArrayList<Deployment>(deploymentInfos.size());
+        Map<String, List<Deployment>> newDeploymentsByShortName = new HashMap<String, List<Deployment>>();
+        Map<String, Deployment> newDeploymentsByObjectName = new HashMap<String, Deployment>();
+
+        for (Object deploymentInfo : deploymentInfos) {
+            Deployment deployment = toDeployment(deploymentInfo);
+            newDeployments.add(deployment);
+
+            if (deployment.shortName != null) {
+                List<Deployment> sameName = newDeploymentsByShortName.get(deployment.shortName);
+                if (sameName == null) {
+                    sameName = new ArrayList<Deployment>(1);
+                    newDeploymentsByShortName.put(deployment.shortName, sameName);
+                }
+                sameName.add(deployment);
+            }
+
+            for (String mbean : deployment.mbeans) {
+                if (!newDeploymentsByObjectName.containsKey(mbean)) {
+                    newDeploymentsByObjectName.put(mbean, deployment);
+                }
+            }
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("Listed " + newDeployments.size() + " deployments.");
+        }
+
+        this.deployments = newDeployments;
+        this.deploymentsByShortName = newDeploymentsByShortName;
+        this.deploymentsByObjectName = newDeploymentsByObjectName;
+        this.connection = connection;
+        this.timestamp = now;
+    }
+
+    private static Deployment toDeployment(Object deploymentInfo) {
+        String shortName = DeploymentUtility.getFieldValue(deploymentInfo, "shortName", String.class);
+        URL url = DeploymentUtility.getFieldValue(deploymentInfo, "url", URL.class);
+        URL watch = DeploymentUtility.getFieldValue(deploymentInfo, "watch", URL.class);
+        ObjectName deployedObject = DeploymentUtility.getFieldValue(deploymentInfo, "deployedObject",
+            ObjectName.class);
+
+        // NOTE: The object names were loaded by the EMS classloader, so only use their string form.
+        List<?> mbeanNames = DeploymentUtility.getFieldValue(deploymentInfo, "mbeans", List.class);
+        List<String> mbeans;
+        if (mbeanNames == null || mbeanNames.isEmpty()) {
+            mbeans = Collections.emptyList();
+        } else {
+            mbeans = new ArrayList<String>(mbeanNames.size());
+            for (Object mbeanName : mbeanNames) {
+                mbeans.add(canonicalize(mbeanName.toString()));
+            }
+        }
+
+        return new Deployment(shortName, url == null ? null : url.toString(), watch == null ? null : watch.toString(),
+            deployedObject == null ? null : deployedObject.getCanonicalName(), mbeans);
+    }
+
+    private static String canonicalize(String objectName) {
+        try {
+            return ObjectName.getInstance(objectName).getCanonicalName();
+        } catch (MalformedObjectNameException e) {
+            return objectName;
+        }
+    }
+}
@@ -25,12 +25,9 @@ package org.rhq.plugins.jbossas.util;
 import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Field;
-import java.lang.reflect.Method;
-import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.HashSet;
@@ -38,9 +35,6 @@ import java.util.Set;
 
 import javax.management.ObjectName;
 
-import bsh.EvalError;
-import bsh.Interpreter;
-
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.mc4j.ems.connection.EmsConnection;
@@ -99,72 +93,29 @@ public class DeploymentUtility {
      * This will attempt to find the deployment descriptor file where the ObjectName MBean was deployed.
      *
      * @param  connection the connection to the JBoss instance
+     * @param deploymentIndex the index of the deployments of the JBoss instance
      * @param objectName The objectname to look for
      * @return the path to the file where the MBean was deployed, or <code>null</code> if it could not be found
      */
-    public static File getDescriptorFile(EmsConnection connection, String objectName) {
+    public static File getDescriptorFile(EmsConnection connection, DeploymentIndex deploymentIndex, String objectName) {
         File retDescriptorFile = null;
 
-        // will contain information on all deployments
-        Collection deployed;
+        // find out which deployment was responsible for deploying our MBean (identified by objectName)
+        DeploymentIndex.Deployment deployment;
         try {
-            deployed = getDeploymentInformations(connection);
+            deployment = deploymentIndex.getDeploymentByObjectName(connection, objectName);
         }
         catch (Exception e) {
             return null;
         }
 
-/* The next code block is already executed within getDeploymentInformations()
-   so no point in repeating here
-        try {
-            EmsOperation operation = getListDeployedOperation(connection);
-
-            if (operation == null) {
-                throw new UnsupportedOperationException(
-                    "The JBossAS instance is unsupported; it doesn't have a listDeployed operation");
-            }
-
-            deployed = (Collection) operation.invoke(new Object[0]);
-        } catch (Exception e) {
-            log.warn("Cannot determine the descriptor file name for service [" + objectName + "]. Cause: " + e);
-
-            return null;
-        }
-*/
-
-        // ask our connection object to create an ObjectName for us as a java.lang.Object - we don't want to import ObjectName ourselves
-        Object ourObjectName = connection.buildObjectName(objectName);
-
-        // used by our BSH script to see if the current deployment's list of object names contains our object name
-        String testScriptObjectNameVariable = "ourObjectName";
-        String testScriptContainsOurObjectName = "sdi.mbeans.contains(" + testScriptObjectNameVariable + ")";
-
-        // find out which deployment was responsible for deploying our MBean (identified by objectName)
-        Interpreter i = new Interpreter();
-        for (Iterator it = deployed.iterator(); it.hasNext() && (retDescriptorFile == null);) {
-            Object sdi = it.next();
-            try {
-                i.set("sdi", sdi);
-
-                // this is the deployment descriptor file that we are currently examining;
-                // this is what will be returned if the MBean was configured in this file.
-                String file = i.eval("sdi.watch").toString();
-
-                if (file.startsWith("file:/")) {
-                    file = file.substring(5);
-                }
-
-                // get the collection of MBeans that were deployed from the current deployment and
-                // see if our MBean object name is among them
-                i.set(testScriptObjectNameVariable, ourObjectName);
-                Boolean b = (Boolean) i.eval(testScriptContainsOurObjectName);
-                if (b) {
-                    retDescriptorFile = new File(file); // found it! this is the file where the MBean was configured/deployed
-                    break;
-                }
-            } catch (EvalError evalError) {
-                log.warn("Failed to determine if a deployment contains our mbean", evalError);
+        // this is the deployment descriptor file where the MBean was configured/deployed
+        if (deployment != null && deployment.getWatch() != null) {
+            String file = deployment.getWatch();
+            if (file.startsWith("file:/")) {
+                file = file.substring(5);
             }
+            retDescriptorFile = new File(file);
         }
 
         log.debug("Descriptor file for [" + objectName + "] is [" + retDescriptorFile + " ].");
@@ -173,89 +124,88 @@ public class DeploymentUtility {
     }
 
     /**
-     * Retrieves all the discovery information for a War resources. We are retrieving all the information
-     * so that there is only ever one call to the MBeanServer to get the deployed mbeans, therefore saving
-     * some performance if it did this for each and every war resource one at a time.
+     * Retrieves all the discovery information for a War resources. The deployments are looked up in the
+     * deployment index, so that the MBeanServer is asked for the deployed mbeans at most once for all
+     * the war resources, and all the other resources, of the JBoss instance.
      *
      * @param connection EmsConnection to get the mbean information
+     * @param deploymentIndex the index of the deployments of the JBoss instance
      * @param jbossManMBeanNames Name of the main jboss.management mbeans for a collection of wars.
      * @return map holds all the war deployment information for the objects passed in the objectNames collection
      */
     public static Map<String, List<WarDeploymentInformation>> getWarDeploymentInformation(EmsConnection connection,
-        List<String> jbossManMBeanNames) {
+        DeploymentIndex deploymentIndex, List<String> jbossManMBeanNames) {
         // We need a list of informations, as one jsr77 deployment can end up in multiple web apps in different vhosts
         HashMap<String, List<WarDeploymentInformation>> retDeploymentInformationMap = new HashMap<String, List<WarDeploymentInformation>>();
 
-        // will contain information on all deployments
-        Collection deploymentInfos;
-        try {
-            // NOTE: This is an expensive operation, since it returns a bunch of large objects.
-            deploymentInfos = getDeploymentInformations(connection);
-        }
-        catch (Exception e) {
-            return null;
-        }
-
         String separator = System.getProperty("file.separator");
         boolean isOnWin = separator.equals("\\");
 
-        // Loop through the deployment infos, and find the deployment infos corresponding to each of the
-        // jboss.management/JSR77 MBean names that were passed into this method. From the deployment infos,
-        // we can figure out the vhost(s) and context root for each WAR.
-        for (Object deploymentInfo : deploymentInfos) {
+        // Find the deployment infos corresponding to each of the jboss.management/JSR77 MBean names that were
+        // passed into this method. From the deployment infos, we can figure out the vhost(s) and context root
+        // for each WAR.
+        for (String jbossManMBeanName : jbossManMBeanNames) {
             try {
+                ObjectName jbossManObjectName = new ObjectName(jbossManMBeanName);
+                // e.g. "jmx-console.war"
+                String jbossManWarName = jbossManObjectName.getKeyProperty("name");
+                if (jbossManWarName == null) {
+                    continue;
+                }
+
+                List<DeploymentIndex.Deployment> deployments;
+                try {
+                    deployments = deploymentIndex.getDeploymentsByShortName(connection, jbossManWarName);
+                }
+                catch (Exception e) {
+                    return null;
+                }
+
                 // NOTE: There may be more than one jboss.web MBean,
                 //       e.g. "jboss.web:J2EEApplication=none,J2EEServer=none,j2eeType=WebModule,name=//localhost/jmx-console",
                 //       associated with a given WAR deployment, in which case, the "deployedObject" field will be
-                //       arbitrarily set to the name of one of the jboss.web MBeans.
-                ObjectName jbossWebObjectName = getFieldValue(deploymentInfo, "deployedObject", ObjectName.class);
-                if (jbossWebObjectName != null) {
-                    // e.g. "jmx-console.war"
-                    String shortName = getFieldValue(deploymentInfo, "shortName", String.class);
-
-                    for (String jbossManMBeanName : jbossManMBeanNames) {
-                        ObjectName jbossManObjectName = new ObjectName(jbossManMBeanName);
-                        String jbossManWarName = jbossManObjectName.getKeyProperty("name");
-
-                        if (shortName.equals(jbossManWarName)) {
-                            log.debug("Found DeploymentInfo for WAR " + shortName + ".");
-                            // The only reliable way to determine the vhosts associated with the WAR is to use
-                            // the "mbeans" field, whose value is a list of all the Servlet MBeans,
-                            // .e.g. "jboss.web:J2EEApplication=none,J2EEServer=none,WebModule=//localhost/jmx-console,j2eeType=Servlet,name=default",
-                            // corresponding to the WAR (one per servlet per vhost).
-                            List servletObjectNames = getFieldValue(deploymentInfo, "mbeans", List.class);
-                            Set<String> webModuleNames = new HashSet();
-                            for (Object servletObjectName : servletObjectNames) {
-                                // e.g. Figure out the web module name, e.g. "//localhost/jmx-console".
-                                // NOTE: We must use reflection when working with the returned ObjectNames, since EMS
-                                //       loaded them using a different classloader. Attempting to access them directly
-                                //       would cause ClassCastExceptions.
-                                Class<? extends Object> objectNameClass = servletObjectName.getClass();
-                                Method getKeyPropertyMethod = objectNameClass.getMethod("getKeyProperty", String.class);
-                                String webModuleName = (String)getKeyPropertyMethod.invoke(servletObjectName, "WebModule");
-                                webModuleNames.add(webModuleName);
-                            }
-                            log.debug("Found " + webModuleNames.size() + " Web modules for WAR " + shortName + ": "
-                                    + webModuleNames);
-                            String path = getPath(isOnWin, deploymentInfo);
-                            List<WarDeploymentInformation> infos = new ArrayList<WarDeploymentInformation>();
-                            for (String webModuleName : webModuleNames) {
-                                WebModule webModule = parseWebModuleName(webModuleName);
-                                WarDeploymentInformation deploymentInformation = new WarDeploymentInformation();
-                                deploymentInformation.setVHost(webModule.vhost);
-                                deploymentInformation.setFileName(path);
-                                deploymentInformation.setContextRoot(webModule.contextRoot);
-                                String jbossWebMBeanName = String.format(JBOSS_WEB_MBEAN_NAME_TEMPLATE, webModuleName);
-                                jbossWebObjectName = ObjectName.getInstance(jbossWebMBeanName);
-                                jbossWebMBeanName = jbossWebObjectName.getCanonicalName();
-                                deploymentInformation.setJbossWebModuleMBeanObjectName(jbossWebMBeanName);
-                                infos.add(deploymentInformation);
-                            }
-
-                            retDeploymentInformationMap.put(jbossManMBeanName, infos);
-                        }
+                //       arbitrarily set to the name of one of the jboss.web MBeans. Deployments without any are not
+                //       web modules. Should there be several WAR deployments with the name, the last one wins.
+                DeploymentIndex.Deployment deployment = null;
+                for (DeploymentIndex.Deployment candidate : deployments) {
+                    if (candidate.getDeployedObject() != null) {
+                        deployment = candidate;
                     }
                 }
+                if (deployment == null) {
+                    continue;
+                }
+
+                String shortName = deployment.getShortName();
+                log.debug("Found DeploymentInfo for WAR " + shortName + ".");
+                // The only reliable way to determine the vhosts associated with the WAR is to use
+                // the "mbeans" field, whose value is a list of all the Servlet MBeans,
+                // .e.g. "jboss.web:J2EEApplication=none,J2EEServer=none,WebModule=//localhost/jmx-console,j2eeType=Servlet,name=default",
+                // corresponding to the WAR (one per servlet per vhost).
+                Set<String> webModuleNames = new HashSet<String>();
+                for (String servletObjectName : deployment.getMBeans()) {
+                    // e.g. Figure out the web module name, e.g. "//localhost/jmx-console".
+                    String webModuleName = new ObjectName(servletObjectName).getKeyProperty("WebModule");
+                    webModuleNames.add(webModuleName);
+                }
+                log.debug("Found " + webModuleNames.size() + " Web modules for WAR " + shortName + ": "
+                        + webModuleNames);
+                String path = getPath(isOnWin, deployment.getUrl());
+                List<WarDeploymentInformation> infos = new ArrayList<WarDeploymentInformation>();
+                for (String webModuleName : webModuleNames) {
+                    WebModule webModule = parseWebModuleName(webModuleName);
+                    WarDeploymentInformation deploymentInformation = new WarDeploymentInformation();
+                    deploymentInformation.setVHost(webModule.vhost);
+                    deploymentInformation.setFileName(path);
+                    deploymentInformation.setContextRoot(webModule.contextRoot);
+                    String jbossWebMBeanName = String.format(JBOSS_WEB_MBEAN_NAME_TEMPLATE, webModuleName);
+                    ObjectName jbossWebObjectName = ObjectName.getInstance(jbossWebMBeanName);
+                    jbossWebMBeanName = jbossWebObjectName.getCanonicalName();
+                    deploymentInformation.setJbossWebModuleMBeanObjectName(jbossWebMBeanName);
+                    infos.add(deploymentInformation);
+                }
+
+                retDeploymentInformationMap.put(jbossManMBeanName, infos);
             } catch (Exception evalError) {
                 log.warn("Failed to determine if a deployment contains our MBean", evalError);
             }
@@ -263,9 +213,8 @@ public class DeploymentUtility {
         return retDeploymentInformationMap;
     }
 
-    private static String getPath(boolean onWin, Object deploymentInfo) throws IOException {
+    private static String getPath(boolean onWin, String url) throws IOException {
         String path;
-        String url = getFieldValue(deploymentInfo, "url", URL.class).toString();
         if (url.startsWith("file:/")) {
            if (onWin) {
               path = url.substring(6);
@@ -317,21 +266,21 @@ public class DeploymentUtility {
     /**
      * Return the path where the passed objectnames are deployed
      * @param connection
+     * @param deploymentIndex the index of the deployments of the JBoss instance
      * @param fileNames The objectNames of the EAR files we are interested in
      * @return a Map with objectname as key and path as value. This map may be empty on error.
      */
-    public static Map<String,String> getEarDeploymentPath(EmsConnection connection, List<String> fileNames) {
+    public static Map<String,String> getEarDeploymentPath(EmsConnection connection, DeploymentIndex deploymentIndex,
+        List<String> fileNames) {
 
-        Collection deploymentInfos =null;
         String separator = System.getProperty("file.separator");
         boolean isOnWin = separator.equals("\\");
         Map<String,String> results = new HashMap<String,String>(fileNames.size());
 
         try {
             // Get the list of deployed modules
-            deploymentInfos = getDeploymentInformations(connection);
-            for (Object sdi : deploymentInfos) {
-                String file = getFieldValue(sdi, "url", URL.class).toString();
+            for (DeploymentIndex.Deployment deployment : deploymentIndex.getDeployments(connection)) {
+                String file = deployment.getUrl();
 
                 // loop over the input, find the matchin entry and add to the results.
                 for (String earName : fileNames) {
@@ -393,7 +342,7 @@ public class DeploymentUtility {
      * @return Collection of DeploymentInfo
      * @throws Exception If the listDeployed() or listDeployedModuls() ops can not be found.
      */
-    private static Collection getDeploymentInformations(EmsConnection connection) throws Exception {
+    static Collection getDeploymentInformations(EmsConnection connection) throws Exception {
         Collection deploymentInfos = null;
         EmsOperation operation = null;
         try {
@@ -424,7 +373,7 @@ public class DeploymentUtility {
         return deploymentInfos;
     }
 
-    private static <T> T getFieldValue(Object target, String name, Class<T> T) {
+    static <T> T getFieldValue(Object target, String name, Class<T> T) {
 
         if (target == null)
             return null;
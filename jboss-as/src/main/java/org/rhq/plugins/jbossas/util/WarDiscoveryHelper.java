@@ -99,7 +99,7 @@ public class WarDiscoveryHelper {
 
         // Get the list of deployed modules.
         Map<String, List<WarDeploymentInformation>> deploymentInformations = DeploymentUtility
-            .getWarDeploymentInformation(jmxConnection, objectNames);
+            .getWarDeploymentInformation(jmxConnection, parentJBossASComponent.getDeploymentIndex(), objectNames);
 
         Set<DiscoveredResourceDetails> resultingResources = new HashSet<DiscoveredResourceDetails>();
 
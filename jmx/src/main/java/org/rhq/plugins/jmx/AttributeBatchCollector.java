@@ -0,0 +1,264 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2012 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.rhq.plugins.jmx;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.mc4j.ems.connection.bean.EmsBean;
+import org.mc4j.ems.connection.bean.attribute.EmsAttribute;
+
+/**
+ * Coordinates the attribute refreshes of the MBean components below one {@link JMXServerComponent}.
+ *
+ * Sibling components usually collect their metrics in the same window. When the first of them asks for its
+ * attributes, the attributes of all other components expected to collect in the same window are refreshed in
+ * parallel, with bounded concurrency, over the shared connection. When those components then ask for their
+ * attributes, they get the prefetched ones instead of each doing its own remote round trip in turn.
+ *
+ * What a component will ask for and when is learned from its previous collections, so nothing is prefetched for an
+ * attribute set before it has been collected twice. Prefetched values read more than one window before they are
+ * asked for are dropped and read again, and the refreshed attributes carry the time they were actually read, which
+ * should be used as the collection time of the values.
+ *
+ * The window can be set in milliseconds with the <code>rhq.jmxplugin.batch-window</code> system property, a value
+ * of 0 disables the prefetching. <code>rhq.jmxplugin.batch-concurrency</code> sets the number of parallel requests.
+ * Both are read when the collector is created.
+ */
+public class AttributeBatchCollector {
+
+    private static final Log log = LogFactory.getLog(AttributeBatchCollector.class);
+
+    /** Attribute sets not requested for this long are forgotten, if no interval is known yet */
+    private static final long MAX_IDLE = 60L * 60L * 1000L;
+
+    private static final AtomicInteger threadCounter = new AtomicInteger();
+
+    private final long window = Long.getLong("rhq.jmxplugin.batch-window", 10000L);
+    private final int concurrency = Math.max(1, Integer.getInteger("rhq.jmxplugin.batch-concurrency", 4));
+
+    private final Map<String, Interest> interests = new HashMap<String, Interest>();
+    private ThreadPoolExecutor executor;
+
+    /**
+     * Attributes as returned by {@link EmsBean#refreshAttributes(List)} with the time they were read
+     */
+    public static class RefreshedAttributes {
+        private final List<EmsAttribute> attributes;
+        private final long timestamp;
+
+        RefreshedAttributes(List<EmsAttribute> attributes, long timestamp) {
+            this.attributes = attributes;
+            this.timestamp = timestamp;
+        }
+
+        public List<EmsAttribute> getAttributes() {
+            return attributes;
+        }
+
+        /**
+         * @return the time in ms the attributes were read
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+    }
+
+    /**
+     * Refreshes the given attributes of the bean, or returns them from a prefetch if one has been done for this
+     * window and was read at most one window ago. Either way the returned attributes are what
+     * {@link EmsBean#refreshAttributes(List)} returns, with the time they were read.
+     *
+     * @param bean the bean to read from
+     * @param attributeNames the names of the attributes to read
+     * @return the refreshed attributes
+     */
+    public RefreshedAttributes refreshAttributes(EmsBean bean, List<String> attributeNames) {
+        if (window <= 0 || attributeNames.isEmpty()) {
+            return read(bean, attributeNames);
+        }
+
+        long now = System.currentTimeMillis();
+        Future<RefreshedAttributes> prefetch;
+        synchronized (this) {
+            String key = bean.getBeanName().getCanonicalName() + attributeNames;
+            Interest interest = interests.get(key);
+            if (interest == null) {
+                interest = new Interest(bean, new ArrayList<String>(attributeNames), now);
+                interests.put(key, interest);
+            } else {
+                interest.requested(bean, now);
+            }
+
+            prefetch = interest.takePrefetch(now);
+            if (prefetch == null) {
+                // First one of this window, get the others going while we read our own attributes
+                prefetchDue(interest, now);
+            }
+        }
+
+        if (prefetch != null) {
+            try {
+                RefreshedAttributes prefetched = prefetch.get(window, TimeUnit.MILLISECONDS);
+                if (System.currentTimeMillis() - prefetched.getTimestamp() <= window) {
+                    return prefetched;
+                }
+                log.debug("Prefetch of attributes " + attributeNames + " of " + bean.getBeanName() + " is outdated");
+            } catch (TimeoutException e) {
+                prefetch.cancel(false);
+                log.debug("Prefetch of attributes " + attributeNames + " of " + bean.getBeanName() + " timed out");
+            } catch (ExecutionException e) {
+                log.debug("Prefetch of attributes " + attributeNames + " of " + bean.getBeanName() + " failed: "
+                    + e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return read(bean, attributeNames);
+    }
+
+    private static RefreshedAttributes read(EmsBean bean, List<String> attributeNames) {
+        List<EmsAttribute> attributes = bean.refreshAttributes(attributeNames);
+        return new RefreshedAttributes(attributes, System.currentTimeMillis());
+    }
+
+    /**
+     * Forgets all attribute sets and stops the prefetching threads. The collector can still be used afterwards.
+     */
+    public synchronized void shutdown() {
+        interests.clear();
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    private void prefetchDue(Interest requester, long now) {
+        for (Iterator<Interest> iterator = interests.values().iterator(); iterator.hasNext();) {
+            final Interest interest = iterator.next();
+            if (interest == requester) {
+                continue;
+            }
+            if (interest.isIdle(now)) {
+                iterator.remove();
+            } else if (interest.hasPrefetch(now)) {
+                continue;
+            } else if (interest.isDue(now)) {
+                final EmsBean bean = interest.bean;
+                interest.prefetch = getExecutor().submit(new Callable<RefreshedAttributes>() {
+                    public RefreshedAttributes call() throws Exception {
+                        return read(bean, interest.attributeNames);
+                    }
+                });
+                interest.prefetchTime = now;
+            }
+        }
+    }
+
+    private ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = new ThreadPoolExecutor(concurrency, concurrency, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "AttributeBatchCollector-"
+                            + threadCounter.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            executor.allowCoreThreadTimeOut(true);
+        }
+        return executor;
+    }
+
+    /**
+     * An attribute set of a bean some component collects, with the observed collection interval
+     */
+    private class Interest {
+        EmsBean bean;
+        final List<String> attributeNames;
+        long lastRequest;
+        long interval;
+        Future<RefreshedAttributes> prefetch;
+        long prefetchTime;
+
+        Interest(EmsBean bean, List<String> attributeNames, long now) {
+            this.bean = bean;
+            this.attributeNames = Collections.unmodifiableList(attributeNames);
+            this.lastRequest = now;
+        }
+
+        void requested(EmsBean bean, long now) {
+            // the bean changes when the connection has been re-established
+            this.bean = bean;
+            this.interval = now - lastRequest;
+            this.lastRequest = now;
+        }
+
+        boolean isDue(long now) {
+            return interval > 0 && Math.abs(lastRequest + interval - now) <= window;
+        }
+
+        boolean isIdle(long now) {
+            long idle = now - lastRequest;
+            return (interval > 0) ? idle > 2 * interval + window : idle > MAX_IDLE;
+        }
+
+        /**
+         * @return true if a prefetch for the current window is pending or done; ones not taken within two windows
+         * belong to a window that has passed and are dropped
+         */
+        boolean hasPrefetch(long now) {
+            if (prefetch != null && now - prefetchTime > 2 * window) {
+                prefetch.cancel(false);
+                prefetch = null;
+            }
+            return prefetch != null;
+        }
+
+        /**
+         * @return the prefetch for the current window, or null if there is none or it's too old to be used
+         */
+        Future<RefreshedAttributes> takePrefetch(long now) {
+            Future<RefreshedAttributes> result = hasPrefetch(now) ? prefetch : null;
+            prefetch = null;
+            return result;
+        }
+    }
+}
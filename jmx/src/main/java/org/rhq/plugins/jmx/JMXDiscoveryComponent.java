@@ -36,6 +36,17 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.management.MBeanServerConnection;
 import javax.management.openmbean.CompositeData;
@@ -107,6 +118,9 @@ public class JMXDiscoveryComponent implements ResourceDiscoveryComponent, Manual
     public static final String SYSPROP_RHQ_RESOURCE_KEY = "org.rhq.resourceKey";
     private static final String SYSPROP_JAVA_VERSION = "java.version";
 
+    private static final String SYSPROP_RHQ_JMXPLUGIN_DISCOVERY_PARALLELISM = "rhq.jmxplugin.discovery-parallelism";
+    private static final String SYSPROP_RHQ_JMXPLUGIN_DISCOVERY_TIMEOUT = "rhq.jmxplugin.discovery-timeout";
+
     /*
      * Ignore certain java processes that are managed by their own plugin. For example, the Tomcat plugin will handle
      * Tomcat processes configured for JMX management.
@@ -117,6 +131,23 @@ public class JMXDiscoveryComponent implements ResourceDiscoveryComponent, Manual
         "catalina.startup.Bootstrap"          // Tomcat
     };
 
+    /**
+     * Results of the expensive probes of the JVMs seen by the last scan, by {@link #getProcessKey(ProcessInfo)}
+     */
+    private final ConcurrentMap<String, ProbeResult> probeCache = new ConcurrentHashMap<String, ProbeResult>();
+
+    /**
+     * Number of JVM processes probed in parallel, can be set with the rhq.jmxplugin.discovery-parallelism sysprop.
+     */
+    private final int probeParallelism = Math.max(1,
+        Integer.getInteger(SYSPROP_RHQ_JMXPLUGIN_DISCOVERY_PARALLELISM, 4));
+
+    /**
+     * Time in ms the discovery of a single JVM process may take, can be set with the rhq.jmxplugin.discovery-timeout
+     * sysprop.
+     */
+    private final long probeTimeout = Long.getLong(SYSPROP_RHQ_JMXPLUGIN_DISCOVERY_TIMEOUT, 60000L);
+
     @Override
     public Set<DiscoveredResourceDetails> discoverResources(ResourceDiscoveryContext context) {
         Set<DiscoveredResourceDetails> discoveredResources = new LinkedHashSet<DiscoveredResourceDetails>();
@@ -126,30 +157,17 @@ public class JMXDiscoveryComponent implements ResourceDiscoveryComponent, Manual
         // discovered by other plugins.
         List<ProcessScanResult> nonExcludedProcesses = getNonExcludedJavaProcesses(context);
 
-        for (ProcessScanResult process : nonExcludedProcesses) {
-            try {
-                ProcessInfo processInfo = process.getProcessInfo();
-                DiscoveredResourceDetails details = discoverResourceDetails(context, processInfo);
-                if (details != null) {
-                    //detect discovered jmx resources that are erroneously using the same key
-                    if (discoveredResources.contains(details)) {
-                        List<DiscoveredResourceDetails> duplicates = duplicatesByKey.get(details.getResourceKey());
-                        if (duplicates == null) {
-                            duplicates = new ArrayList<DiscoveredResourceDetails>();
-                            duplicatesByKey.put(details.getResourceKey(), duplicates);
-                        }
-                        duplicates.add(details);
-                    }
-                    discoveredResources.add(details);
-                }
-            } catch (RuntimeException re) {
-                // Don't let a runtime exception for a particular ProcessInfo cause the entire discovery scan to fail.
-                if (log.isDebugEnabled()) {
-                    log.debug("Error when trying to discover JVM process [" + process + "].", re);
-                } else {
-                    log.warn("Error when trying to discover JVM process [" + process + "] (enable DEBUG for stack trace): " + re);
+        for (DiscoveredResourceDetails details : discoverResourceDetails(context, nonExcludedProcesses)) {
+            //detect discovered jmx resources that are erroneously using the same key
+            if (discoveredResources.contains(details)) {
+                List<DiscoveredResourceDetails> duplicates = duplicatesByKey.get(details.getResourceKey());
+                if (duplicates == null) {
+                    duplicates = new ArrayList<DiscoveredResourceDetails>();
+                    duplicatesByKey.put(details.getResourceKey(), duplicates);
                 }
+                duplicates.add(details);
             }
+            discoveredResources.add(details);
         }
 
         //Log the erroneous collisions and take them out of the discoveredResource list.
@@ -165,6 +183,111 @@ public class JMXDiscoveryComponent implements ResourceDiscoveryComponent, Manual
         return discoveredResources;
     }
 
+    /**
+     * Discovers the details of the passed processes. The probes of the processes (attaching to them, connecting to
+     * them to read their version) run in parallel on up to {@link #probeParallelism} threads. The deadlines are
+     * measured from the start of the scan: the first round of probes, one per thread, must finish within
+     * {@link #probeTimeout} milliseconds, the second round within twice that and so on. The probes still running at
+     * their deadline are cancelled, so a scan takes at most {@code probeTimeout * ceil(processes / threads)}
+     * milliseconds however many of the processes hang.
+     *
+     * @return the details of the processes that could be discovered, in the order of the passed processes
+     */
+    private List<DiscoveredResourceDetails> discoverResourceDetails(final ResourceDiscoveryContext context,
+        List<ProcessScanResult> processes) {
+        List<DiscoveredResourceDetails> result = new ArrayList<DiscoveredResourceDetails>(processes.size());
+
+        // Forget about JVMs that are gone
+        Set<String> processKeys = new HashSet<String>();
+        for (ProcessScanResult process : processes) {
+            processKeys.add(getProcessKey(process.getProcessInfo()));
+        }
+        probeCache.keySet().retainAll(processKeys);
+
+        if (processes.isEmpty()) {
+            return result;
+        }
+
+        // The threads inherit the context classloader of the discovery thread
+        int threads = Math.min(probeParallelism, processes.size());
+        ExecutorService executor = Executors.newFixedThreadPool(threads,
+            new ThreadFactory() {
+                private final AtomicInteger threadCounter = new AtomicInteger();
+
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "JMXDiscoveryComponent-" + threadCounter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        try {
+            List<Future<DiscoveredResourceDetails>> futures = new ArrayList<Future<DiscoveredResourceDetails>>(
+                processes.size());
+            for (final ProcessScanResult process : processes) {
+                futures.add(executor.submit(new Callable<DiscoveredResourceDetails>() {
+                    public DiscoveredResourceDetails call() throws Exception {
+                        return discoverResourceDetails(context, process.getProcessInfo());
+                    }
+                }));
+            }
+
+            long start = System.currentTimeMillis();
+            for (int i = 0; i < processes.size(); i++) {
+                ProcessScanResult process = processes.get(i);
+                Future<DiscoveredResourceDetails> future = futures.get(i);
+                try {
+                    long deadline = start + probeTimeout * (i / threads + 1);
+                    long remaining = Math.max(0L, deadline - System.currentTimeMillis());
+                    DiscoveredResourceDetails details = future.get(remaining, TimeUnit.MILLISECONDS);
+                    if (details != null) {
+                        result.add(details);
+                    }
+                } catch (TimeoutException e) {
+                    future.cancel(true);
+                    log.warn("Discovery of JVM process [" + process + "] did not finish within " + probeTimeout
+                        + " ms - it will be retried during the next discovery scan.");
+                } catch (ExecutionException e) {
+                    // Don't let an exception for a particular ProcessInfo cause the entire discovery scan to fail.
+                    Throwable cause = e.getCause();
+                    if (log.isDebugEnabled()) {
+                        log.debug("Error when trying to discover JVM process [" + process + "].", cause);
+                    } else {
+                        log.warn("Error when trying to discover JVM process [" + process
+                            + "] (enable DEBUG for stack trace): " + cause);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return result;
+    }
+
+    /**
+     * Identifies a JVM process. The command line is part of the key, so a new process reusing the pid of a
+     * terminated one is not mistaken for it.
+     */
+    private static String getProcessKey(ProcessInfo process) {
+        return process.getPid() + " " + Arrays.toString(process.getCommandLine());
+    }
+
+    private ProbeResult getProbeResult(ProcessInfo process) {
+        String key = getProcessKey(process);
+        ProbeResult probeResult = probeCache.get(key);
+        if (probeResult == null) {
+            probeResult = new ProbeResult();
+            ProbeResult existing = probeCache.putIfAbsent(key, probeResult);
+            if (existing != null) {
+                probeResult = existing;
+            }
+        }
+        return probeResult;
+    }
+
     private List<ProcessScanResult> getNonExcludedJavaProcesses(ResourceDiscoveryContext context) {
         // This is the list of all currently running java processes.
         List<ProcessScanResult> javaProcesses = context.getAutoDiscoveredProcesses();
@@ -390,6 +513,13 @@ public class JMXDiscoveryComponent implements ResourceDiscoveryComponent, Manual
         return pid;
     }
 
+    /**
+     * Discovers the details of a single JVM process. This is called concurrently for several processes from the
+     * threads of the discovery scan, so overriding implementations must be thread-safe. The call is interrupted if it
+     * does not finish before the deadline of the scan.
+     *
+     * @return the details of the process or null if it is not a JMX server to report
+     */
     protected DiscoveredResourceDetails discoverResourceDetails(ResourceDiscoveryContext context, ProcessInfo process) {
         Integer jmxRemotingPort = getJmxRemotingPort(process);
         JMXServiceURL jmxServiceURL = null;
@@ -410,7 +540,7 @@ public class JMXDiscoveryComponent implements ResourceDiscoveryComponent, Manual
                 // Note, this will only work if the remote JVM is Java 6 or later, and maybe some 64 bit Java 5 - see
                 // JBNADM-3332. Also, the RHQ Agent will have to be running on a JDK, not a JRE, so that we can access
                 // the JDK's tools.jar, which contains the Sun JVM Attach API classes.
-                jmxServiceURL = JvmUtility.extractJMXServiceURL(process);
+                jmxServiceURL = getAttachServiceURL(process);
                 if (jmxServiceURL == null) {
                     return null;
                 }
@@ -428,7 +558,7 @@ public class JMXDiscoveryComponent implements ResourceDiscoveryComponent, Manual
             return null;
         }
         String name = buildResourceName(key);
-        String version = getJavaVersion(process, jmxServiceURL);
+        String version = getCachedJavaVersion(process, jmxServiceURL);
         String description = "JVM, monitored via " + ((jmxRemotingPort != null) ? "JMX Remoting" : "Sun JVM Attach API");
 
         Configuration pluginConfig = context.getDefaultPluginConfiguration();
@@ -463,6 +593,28 @@ public class JMXDiscoveryComponent implements ResourceDiscoveryComponent, Manual
         return key;
     }
 
+    private JMXServiceURL getAttachServiceURL(ProcessInfo process) {
+        ProbeResult probeResult = getProbeResult(process);
+        JMXServiceURL jmxServiceURL = probeResult.attachServiceURL;
+        if (jmxServiceURL == null) {
+            jmxServiceURL = JvmUtility.extractJMXServiceURL(process);
+            probeResult.attachServiceURL = jmxServiceURL;
+        }
+        return jmxServiceURL;
+    }
+
+    private String getCachedJavaVersion(ProcessInfo process, JMXServiceURL jmxServiceURL) {
+        ProbeResult probeResult = getProbeResult(process);
+        String version = probeResult.javaVersion;
+        if (version == null || jmxServiceURL == null || !jmxServiceURL.equals(probeResult.versionServiceURL)) {
+            version = getJavaVersion(process, jmxServiceURL);
+            // failed probes are not remembered, so they are retried by the next scan
+            probeResult.versionServiceURL = jmxServiceURL;
+            probeResult.javaVersion = version;
+        }
+        return version;
+    }
+
     protected String getJavaVersion(ProcessInfo process, JMXServiceURL jmxServiceURL) {
         JMXConnector jmxConnector = null;
         try {
@@ -578,4 +730,9 @@ public class JMXDiscoveryComponent implements ResourceDiscoveryComponent, Manual
         return null;
     }
 
+    private static class ProbeResult {
+        volatile JMXServiceURL attachServiceURL;
+        volatile JMXServiceURL versionServiceURL;
+        volatile String javaVersion;
+    }
 }
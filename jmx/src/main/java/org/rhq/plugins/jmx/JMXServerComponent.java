@@ -53,6 +53,8 @@ public class JMXServerComponent<T extends ResourceComponent<?>> implements JMXCo
 
     private volatile EmsConnection connection;
     private volatile ConnectionProvider connectionProvider;
+    private final AttributeBatchCollector attributeBatchCollector = new AttributeBatchCollector();
+    private final ObjectNameIndex objectNameIndex = new ObjectNameIndex();
 
     /**
      * The context of a component that is started. Note, other classes should use #getResourceContext(), rather than
@@ -94,6 +96,8 @@ public class JMXServerComponent<T extends ResourceComponent<?>> implements JMXCo
     }
 
     public void stop() {
+        attributeBatchCollector.shutdown();
+        objectNameIndex.close();
         if (connection != null) {
             try {
                 connection.close();
@@ -110,6 +114,20 @@ public class JMXServerComponent<T extends ResourceComponent<?>> implements JMXCo
         return this.connection;
     }
 
+    /**
+     * @return the collector that batches the attribute refreshes of the MBean components of this server
+     */
+    public AttributeBatchCollector getAttributeBatchCollector() {
+        return this.attributeBatchCollector;
+    }
+
+    /**
+     * @return the index of the MBean names of this server, used by the discovery of its MBean resources
+     */
+    public ObjectNameIndex getObjectNameIndex() {
+        return this.objectNameIndex;
+    }
+
     public AvailabilityType getAvailability() {
         this.reconnectIfDisconnected();
 
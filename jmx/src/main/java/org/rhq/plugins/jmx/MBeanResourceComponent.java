@@ -34,6 +34,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -89,6 +91,18 @@ public class MBeanResourceComponent<T extends JMXComponent<?>> implements Measur
     private static final Pattern PROPERTY_PATTERN = Pattern.compile("^\\{(?:\\{([^\\}]*)\\})?([^\\}]*)\\}$");
     private static final Pattern TEMPLATE_PATTERN = Pattern.compile("%([^%]+)%");
 
+    /**
+     * Parsed metric names, shared by all components as the same names are used by all resources of a type.
+     * Bounded to protect against plugins generating metric names on the fly.
+     */
+    private static final ConcurrentMap<String, MetricName> METRIC_NAMES = new ConcurrentHashMap<String, MetricName>();
+    private static final int MAX_METRIC_NAMES = 20000;
+
+    /**
+     * Bean names resolved from templates, valid as long as the resource context does not change
+     */
+    private final Map<String, String> resolvedBeanNames = new ConcurrentHashMap<String, String>();
+
     // these two should be private - subclasses need to override the getter/setter/load methods to affect these
     /**
      * @deprecated do not use this - use {@link #getEmsBean()} instead
@@ -159,6 +173,8 @@ public class MBeanResourceComponent<T extends JMXComponent<?>> implements Measur
 
     protected void setResourceContext(ResourceContext<T> resourceContext) {
         this.resourceContext = resourceContext;
+        // a new context comes with a new plugin configuration
+        this.resolvedBeanNames.clear();
     }
 
     /**
@@ -266,13 +282,13 @@ public class MBeanResourceComponent<T extends JMXComponent<?>> implements Measur
         Set<MeasurementScheduleRequest> defaultBeanRequests = new HashSet<MeasurementScheduleRequest>();
         Map<String, Set<MeasurementScheduleRequest>> beansMap = new HashMap<String, Set<MeasurementScheduleRequest>>();
         for (MeasurementScheduleRequest request : requests) {
-            Matcher m = PROPERTY_PATTERN.matcher(request.getName());
-            if (m.matches() && (m.group(1) != null)) {
+            String beanTemplate = getMetricName(request.getName()).beanTemplate;
+            if (beanTemplate != null) {
                 // Custom bean
-                Set<MeasurementScheduleRequest> props = beansMap.get(m.group(1));
+                Set<MeasurementScheduleRequest> props = beansMap.get(beanTemplate);
                 if (props == null) {
                     props = new HashSet<MeasurementScheduleRequest>();
-                    beansMap.put(m.group(1), props);
+                    beansMap.put(beanTemplate, props);
                 }
 
                 props.add(request);
@@ -284,67 +300,93 @@ public class MBeanResourceComponent<T extends JMXComponent<?>> implements Measur
         // First do the default properties against this component's main bean
         getBeanProperties(report, bean, defaultBeanRequests);
 
-        for (String beanNameTemplate : beansMap.keySet()) {
-            String transformedbeanName = transformBeanName(beanNameTemplate);
+        for (Map.Entry<String, Set<MeasurementScheduleRequest>> entry : beansMap.entrySet()) {
+            String transformedbeanName = resolveBeanName(entry.getKey());
             EmsBean otherBean = getEmsConnection().getBean(transformedbeanName);
             if (otherBean == null) {
                 log.info("Unable to retrieve associated MBean: " + transformedbeanName);
             } else {
-                getBeanProperties(report, otherBean, beansMap.get(beanNameTemplate));
+                getBeanProperties(report, otherBean, entry.getValue());
             }
         }
     }
 
+    /**
+     * Resolves the bean name template via {@link #transformBeanName(String)}. As the result only depends on the
+     * plugin configuration, it is remembered until the resource context (and with it the plugin configuration)
+     * changes.
+     */
+    private String resolveBeanName(String beanTemplate) {
+        String beanName = resolvedBeanNames.get(beanTemplate);
+        if (beanName == null) {
+            beanName = transformBeanName(beanTemplate);
+            resolvedBeanNames.put(beanTemplate, beanName);
+        }
+        return beanName;
+    }
+
     protected String transformBeanName(String beanTemplate) {
         Matcher m = TEMPLATE_PATTERN.matcher(beanTemplate);
+        if (!m.find()) {
+            return beanTemplate;
+        }
 
-        while (m.find()) {
+        Configuration pluginConfig = resourceContext.getPluginConfiguration();
+        StringBuilder beanName = new StringBuilder(beanTemplate.length() + 32);
+        int last = 0;
+        do {
             String propName = m.group(1);
+            String replacementValue = pluginConfig.getSimpleValue(propName, null);
+            beanName.append(beanTemplate, last, m.start());
+            if (replacementValue != null) {
+                beanName.append(replacementValue);
+            } else {
+                log.debug("No plugin configuration property [" + propName + "] to resolve bean name template ["
+                    + beanTemplate + "]");
+                beanName.append(m.group());
+            }
+            last = m.end();
+        } while (m.find());
+        beanName.append(beanTemplate, last, beanTemplate.length());
 
-            String replacementValue = resourceContext.getPluginConfiguration().getSimpleValue(propName, null);
-            beanTemplate = beanTemplate.replaceAll("%" + propName + "%", replacementValue);
-
-            m = TEMPLATE_PATTERN.matcher(beanTemplate);
-        }
-
-        return beanTemplate;
+        return beanName.toString();
     }
 
     protected void getBeanProperties(MeasurementReport report, EmsBean thisBean,
         Set<MeasurementScheduleRequest> requests) {
-        List<String> props = new ArrayList<String>();
-        for (MeasurementScheduleRequest request : requests) {
-            Matcher m = PROPERTY_PATTERN.matcher(request.getName());
-            if (m.matches()) {
+        int size = requests.size();
+        MeasurementScheduleRequest[] requestArray = requests.toArray(new MeasurementScheduleRequest[size]);
+        MetricName[] metricNames = new MetricName[size];
+        String[] attributeNames = new String[size];
+        List<String> props = new ArrayList<String>(size);
+        for (int i = 0; i < size; i++) {
+            String name = requestArray[i].getName();
+            metricNames[i] = getMetricName(name);
+            if (metricNames[i].property != null) {
                 // Complex property
-                props.add(getAttributeName(m.group(2)));
+                attributeNames[i] = getAttributeName(metricNames[i].property);
             } else {
                 // Simple property
-                props.add(request.getName());
+                attributeNames[i] = name;
             }
+            props.add(attributeNames[i]);
         }
 
-        List<EmsAttribute> refreshedAttributes = thisBean.refreshAttributes(props);
-
-        for (MeasurementScheduleRequest request : requests) {
-            Matcher m = PROPERTY_PATTERN.matcher(request.getName());
-            String fullProperty = null;
-            String attributeName;
-            if (m.matches()) {
-                // Complex property
-                fullProperty = m.group(2);
-                attributeName = getAttributeName(fullProperty);
-            } else {
-                attributeName = request.getName();
-            }
+        AttributeBatchCollector.RefreshedAttributes refreshed = refreshAttributes(thisBean, props);
+        // prefetched values may have been read a while ago, report them at the time they were read
+        long collectionTime = refreshed.getTimestamp();
+        List<EmsAttribute> refreshedAttributes = refreshed.getAttributes();
+        Map<String, EmsAttribute> attributesByName = new HashMap<String, EmsAttribute>(
+            refreshedAttributes.size() * 2);
+        for (EmsAttribute refreshedAttribute : refreshedAttributes) {
+            attributesByName.put(refreshedAttribute.getName(), refreshedAttribute);
+        }
 
-            EmsAttribute attribute = null;
-            for (EmsAttribute refreshedAttribute : refreshedAttributes) {
-                if (attributeName.equals(refreshedAttribute.getName())) {
-                    attribute = refreshedAttribute;
-                }
-            }
+        for (int i = 0; i < size; i++) {
+            MeasurementScheduleRequest request = requestArray[i];
+            String fullProperty = metricNames[i].property;
 
+            EmsAttribute attribute = attributesByName.get(attributeNames[i]);
             if (attribute == null) {
                 log.debug("Unable to collect measurement, attribute [" + request.getName() + "] not found on ["
                     + this.resourceContext.getResourceKey() + "]");
@@ -357,7 +399,7 @@ public class MBeanResourceComponent<T extends JMXComponent<?>> implements Measur
                 }
 
                 if ((request.getDataType() == DataType.MEASUREMENT) && (value instanceof Number)) {
-                    report.addData(new MeasurementDataNumeric(request, ((Number) value).doubleValue()));
+                    report.addData(new MeasurementDataNumeric(collectionTime, request, ((Number) value).doubleValue()));
                 } else if (request.getDataType() == DataType.TRAIT) {
                     String displayValue = null;
                     if ((value != null) && value.getClass().isArray()) {
@@ -366,12 +408,40 @@ public class MBeanResourceComponent<T extends JMXComponent<?>> implements Measur
                         displayValue = String.valueOf(value);
                     }
 
-                    report.addData(new MeasurementDataTrait(request, displayValue));
+                    report.addData(new MeasurementDataTrait(collectionTime, request, displayValue));
                 }
             }
         }
     }
 
+    private AttributeBatchCollector.RefreshedAttributes refreshAttributes(EmsBean thisBean,
+        List<String> attributeNames) {
+        AttributeBatchCollector batchCollector = getAttributeBatchCollector();
+        if (batchCollector != null) {
+            return batchCollector.refreshAttributes(thisBean, attributeNames);
+        }
+        List<EmsAttribute> attributes = thisBean.refreshAttributes(attributeNames);
+        return new AttributeBatchCollector.RefreshedAttributes(attributes, System.currentTimeMillis());
+    }
+
+    /**
+     * Gets the collector batching attribute refreshes for the JMX server this resource belongs to.
+     *
+     * @return the collector or null if the resource is not below a {@link JMXServerComponent}
+     */
+    protected AttributeBatchCollector getAttributeBatchCollector() {
+        if (this.resourceContext == null) {
+            return null;
+        }
+        Object parent = this.resourceContext.getParentResourceComponent();
+        if (parent instanceof JMXServerComponent) {
+            return ((JMXServerComponent<?>) parent).getAttributeBatchCollector();
+        } else if (parent instanceof MBeanResourceComponent) {
+            return ((MBeanResourceComponent<?>) parent).getAttributeBatchCollector();
+        }
+        return null;
+    }
+
     protected Object lookupAttributeProperty(Object value, String property) {
         String[] ps = property.split("\\.", 2);
 
@@ -430,6 +500,38 @@ public class MBeanResourceComponent<T extends JMXComponent<?>> implements Measur
         }
     }
 
+    private static MetricName getMetricName(String name) {
+        MetricName metricName = METRIC_NAMES.get(name);
+        if (metricName == null) {
+            metricName = new MetricName(name);
+            if (METRIC_NAMES.size() < MAX_METRIC_NAMES) {
+                METRIC_NAMES.put(name, metricName);
+            }
+        }
+        return metricName;
+    }
+
+    /**
+     * A metric name split up according to the {{beanTemplate}attribute.subProperty} syntax
+     */
+    private static final class MetricName {
+        /** Template of the bean to read from or null for the component's bean */
+        final String beanTemplate;
+        /** Attribute with optional sub property path, or null if the name is a simple attribute name */
+        final String property;
+
+        MetricName(String name) {
+            Matcher m = PROPERTY_PATTERN.matcher(name);
+            if (m.matches()) {
+                beanTemplate = m.group(1);
+                property = m.group(2);
+            } else {
+                beanTemplate = null;
+                property = null;
+            }
+        }
+    }
+
     /**
      * This default setup of configuration properties can map to mbean attributes
      *
@@ -22,11 +22,14 @@
  */
 package org.rhq.plugins.jmx;
 
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import javax.management.ObjectName;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.mc4j.ems.connection.EmsConnection;
@@ -36,6 +39,7 @@ import org.rhq.core.domain.configuration.Configuration;
 import org.rhq.core.domain.configuration.PropertySimple;
 import org.rhq.core.domain.resource.ResourceType;
 import org.rhq.core.pluginapi.inventory.DiscoveredResourceDetails;
+import org.rhq.core.pluginapi.inventory.ResourceContext;
 import org.rhq.core.pluginapi.inventory.ResourceDiscoveryComponent;
 import org.rhq.core.pluginapi.inventory.ResourceDiscoveryContext;
 import org.rhq.plugins.jmx.util.ObjectNameQueryUtility;
@@ -138,6 +142,8 @@ public class MBeanResourceDiscoveryComponent<T extends JMXComponent<?>> implemen
                 + "] returned a null connection - cannot discover MBeans without a connection");
         }
 
+        ObjectNameIndex objectNameIndex = getObjectNameIndex(parentResourceComponent);
+
         Set<DiscoveredResourceDetails> services = new HashSet<DiscoveredResourceDetails>();
         String templates[] = objectNameQueryTemplateOrig.split("\\|");
         for (String objectNameQueryTemplate : templates) {
@@ -146,7 +152,7 @@ public class MBeanResourceDiscoveryComponent<T extends JMXComponent<?>> implemen
                 (this.discoveryContext != null) ? this.discoveryContext.getParentResourceContext()
                     .getPluginConfiguration() : null);
 
-            List<EmsBean> beans = connection.queryBeans(queryUtility.getTranslatedQuery());
+            List<EmsBean> beans = queryBeans(connection, objectNameIndex, queryUtility.getTranslatedQuery());
             if (log.isDebugEnabled()) {
                 log.debug("Found [" + beans.size() + "] mbeans for query [" + queryUtility.getTranslatedQuery() + "].");
             }
@@ -204,6 +210,44 @@ public class MBeanResourceDiscoveryComponent<T extends JMXComponent<?>> implemen
         return services;
     }
 
+    /**
+     * Queries the beans matching the query. If the JMX server keeps an index of its MBean names, the names are taken
+     * from the index and only beans EMS does not know yet are queried from the server.
+     */
+    private List<EmsBean> queryBeans(EmsConnection connection, ObjectNameIndex objectNameIndex, String query) {
+        List<ObjectName> names = (objectNameIndex != null) ? objectNameIndex.queryNames(connection, query) : null;
+        if (names == null) {
+            return connection.queryBeans(query);
+        }
+
+        List<EmsBean> beans = new ArrayList<EmsBean>(names.size());
+        for (ObjectName name : names) {
+            String objectName = name.getCanonicalName();
+            EmsBean bean = connection.getBean(objectName);
+            if (bean == null) {
+                // registered after EMS loaded its beans
+                List<EmsBean> found = connection.queryBeans(objectName);
+                bean = found.isEmpty() ? null : found.get(0);
+            }
+            if (bean != null) {
+                beans.add(bean);
+            }
+        }
+        return beans;
+    }
+
+    private static ObjectNameIndex getObjectNameIndex(JMXComponent<?> component) {
+        while (component instanceof MBeanResourceComponent) {
+            ResourceContext<?> context = ((MBeanResourceComponent<?>) component).getResourceContext();
+            Object parent = (context != null) ? context.getParentResourceComponent() : null;
+            component = (parent instanceof JMXComponent) ? (JMXComponent<?>) parent : null;
+        }
+        if (component instanceof JMXServerComponent) {
+            return ((JMXServerComponent<?>) component).getObjectNameIndex();
+        }
+        return null;
+    }
+
     /**
      * Loads the bean with the given object name.
      *
@@ -0,0 +1,281 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2012 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.rhq.plugins.jmx;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.management.MBeanServerConnection;
+import javax.management.MBeanServerDelegate;
+import javax.management.MBeanServerNotification;
+import javax.management.MalformedObjectNameException;
+import javax.management.Notification;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.mc4j.ems.connection.EmsConnection;
+
+/**
+ * A local index of the names of all MBeans registered in an MBeanServer, used to answer discovery queries without
+ * querying the server each time.
+ *
+ * The index is loaded once and then kept up to date with the registration and unregistration notifications of the
+ * server's <code>JMImplementation:type=MBeanServerDelegate</code>. As notifications can get lost on remote
+ * connections, the index is fully reloaded every <code>rhq.jmxplugin.index-resync</code> milliseconds (default 30
+ * minutes). Setting <code>rhq.jmxplugin.incremental-discovery</code> to false disables the index.
+ *
+ * If the server does not support the notifications, {@link #queryNames(MBeanServerConnection, String)} returns null
+ * and the caller is expected to query the server as before.
+ */
+public class ObjectNameIndex {
+
+    private static final Log log = LogFactory.getLog(ObjectNameIndex.class);
+
+    private static final boolean ENABLED = Boolean.valueOf(System.getProperty("rhq.jmxplugin.incremental-discovery",
+        "true"));
+    private static final long RESYNC_INTERVAL = Long.getLong("rhq.jmxplugin.index-resync", 30L * 60L * 1000L);
+
+    private final NotificationListener listener = new NotificationListener() {
+        public void handleNotification(Notification notification, Object handback) {
+            ObjectNameIndex.this.handleNotification(notification);
+        }
+    };
+
+    /** Names by domain, guarded by itself */
+    private final Map<String, Set<ObjectName>> namesByDomain = new HashMap<String, Set<ObjectName>>();
+    /** Notifications received while loading, applied after the load; null when not loading */
+    private List<Notification> pendingNotifications;
+
+    private MBeanServerConnection server;
+    private long lastSync;
+    private long failedAt;
+
+    private EmsConnection emsConnection;
+    private MBeanServerConnection emsServer;
+
+    /**
+     * Same as {@link #queryNames(MBeanServerConnection, String)} for the MBeanServer behind an EMS connection.
+     */
+    public synchronized List<ObjectName> queryNames(EmsConnection connection, String query) {
+        if (!ENABLED) {
+            return null;
+        }
+        if (connection != emsConnection) {
+            emsConnection = connection;
+            emsServer = null;
+        }
+        if (emsServer == null) {
+            try {
+                emsServer = connection.getConnectionProvider().getMBeanServer();
+            } catch (RuntimeException e) {
+                log.debug("No MBeanServer available to index: " + e);
+                return null;
+            }
+        }
+        return queryNames(emsServer, query);
+    }
+
+    /**
+     * Finds the names matching the query in the index of the passed server. The index is built on first use and
+     * rebuilt when another server is passed.
+     *
+     * @param server the server to query
+     * @param query an object name or object name pattern
+     * @return the matching names or null if the index is not available for the server
+     */
+    public synchronized List<ObjectName> queryNames(MBeanServerConnection server, String query) {
+        if (!ENABLED || server == null) {
+            return null;
+        }
+        ObjectName pattern;
+        try {
+            pattern = new ObjectName(query);
+        } catch (MalformedObjectNameException e) {
+            return null;
+        }
+
+        long now = System.currentTimeMillis();
+        if (server != this.server) {
+            reset();
+            this.server = server;
+            this.failedAt = 0;
+        }
+        if (lastSync == 0) {
+            if (failedAt != 0 && now - failedAt < RESYNC_INTERVAL) {
+                return null;
+            }
+            try {
+                server.addNotificationListener(MBeanServerDelegate.DELEGATE_NAME, listener, null, null);
+                load(server);
+            } catch (Exception e) {
+                log.debug("Unable to index MBean names, falling back to querying the server: " + e);
+                unsubscribe();
+                failedAt = now;
+                return null;
+            }
+        } else if (now - lastSync > RESYNC_INTERVAL) {
+            try {
+                load(server);
+            } catch (Exception e) {
+                log.debug("Unable to resync MBean names, falling back to querying the server: " + e);
+                reset();
+                this.server = server;
+                failedAt = now;
+                return null;
+            }
+        }
+
+        return match(pattern);
+    }
+
+    /**
+     * Stops listening for registrations and forgets all names.
+     */
+    public synchronized void close() {
+        reset();
+        emsConnection = null;
+        emsServer = null;
+    }
+
+    private void reset() {
+        unsubscribe();
+        synchronized (namesByDomain) {
+            namesByDomain.clear();
+            pendingNotifications = null;
+        }
+        server = null;
+        lastSync = 0;
+    }
+
+    private void unsubscribe() {
+        if (server != null) {
+            try {
+                server.removeNotificationListener(MBeanServerDelegate.DELEGATE_NAME, listener);
+            } catch (Exception ignore) {
+                // not registered or connection gone
+            }
+        }
+    }
+
+    private void load(MBeanServerConnection server) throws Exception {
+        synchronized (namesByDomain) {
+            pendingNotifications = new ArrayList<Notification>();
+        }
+        try {
+            Set<ObjectName> names = server.queryNames(null, null);
+            synchronized (namesByDomain) {
+                namesByDomain.clear();
+                for (ObjectName name : names) {
+                    add(name);
+                }
+                // (un)registrations that happened while the query was running
+                for (Notification notification : pendingNotifications) {
+                    apply((MBeanServerNotification) notification);
+                }
+            }
+            lastSync = System.currentTimeMillis();
+            if (log.isDebugEnabled()) {
+                log.debug("Indexed " + names.size() + " MBean names");
+            }
+        } finally {
+            synchronized (namesByDomain) {
+                pendingNotifications = null;
+            }
+        }
+    }
+
+    private void handleNotification(Notification notification) {
+        if (!(notification instanceof MBeanServerNotification)) {
+            return;
+        }
+        synchronized (namesByDomain) {
+            if (pendingNotifications != null) {
+                pendingNotifications.add(notification);
+            } else {
+                apply((MBeanServerNotification) notification);
+            }
+        }
+    }
+
+    private void apply(MBeanServerNotification notification) {
+        ObjectName name = notification.getMBeanName();
+        if (MBeanServerNotification.REGISTRATION_NOTIFICATION.equals(notification.getType())) {
+            add(name);
+        } else if (MBeanServerNotification.UNREGISTRATION_NOTIFICATION.equals(notification.getType())) {
+            Set<ObjectName> names = namesByDomain.get(name.getDomain());
+            if (names != null) {
+                names.remove(name);
+                if (names.isEmpty()) {
+                    namesByDomain.remove(name.getDomain());
+                }
+            }
+        }
+    }
+
+    private void add(ObjectName name) {
+        Set<ObjectName> names = namesByDomain.get(name.getDomain());
+        if (names == null) {
+            names = new HashSet<ObjectName>();
+            namesByDomain.put(name.getDomain(), names);
+        }
+        names.add(name);
+    }
+
+    private List<ObjectName> match(ObjectName pattern) {
+        List<ObjectName> result = new ArrayList<ObjectName>();
+        synchronized (namesByDomain) {
+            if (!pattern.isDomainPattern()) {
+                Set<ObjectName> names = namesByDomain.get(pattern.getDomain());
+                if (names != null) {
+                    addMatches(pattern, names, result);
+                }
+            } else {
+                for (Set<ObjectName> names : namesByDomain.values()) {
+                    addMatches(pattern, names, result);
+                }
+            }
+        }
+        return result;
+    }
+
+    private void addMatches(ObjectName pattern, Set<ObjectName> names, List<ObjectName> result) {
+        if (!pattern.isPattern()) {
+            if (names.contains(pattern)) {
+                result.add(pattern);
+            }
+            return;
+        }
+        for (ObjectName name : names) {
+            if (pattern.apply(name)) {
+                result.add(name);
+            }
+        }
+    }
+}
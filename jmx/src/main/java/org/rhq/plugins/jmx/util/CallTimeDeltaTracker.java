@@ -0,0 +1,130 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2012 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.rhq.plugins.jmx.util;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.rhq.core.domain.measurement.calltime.CallTimeData;
+
+/**
+ * Turns the call-time statistics a managed resource accumulates since its last reset into the call-time data
+ * reported for a single collection.
+ * <p/>
+ * Statistics that haven't been reset since the previous collection are reported for the time span beginning at
+ * the end of the previous collection, with the count and total of the previous collection subtracted. It isn't
+ * possible to figure out the minimum and maximum for that time span, so they are reported as they are. Statistics
+ * that have been reset, that weren't collected the previous time or that have no new calls are reported since
+ * their last reset; when the server sees data with the same begin time as previously persisted data, it replaces
+ * the previous data with it.
+ * <p/>
+ * Only the begin and end times, count and total of each name collected the previous time are kept, in primitive
+ * arrays indexed by the order the names were first seen in. Use a tracker per schedule. Not thread-safe.
+ */
+public class CallTimeDeltaTracker {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final Map<String, Integer> indexes = new HashMap<String, Integer>();
+
+    private long[] beginTimes = new long[INITIAL_CAPACITY];
+    private long[] endTimes = new long[INITIAL_CAPACITY];
+    private long[] counts = new long[INITIAL_CAPACITY];
+    private long[] totals = new long[INITIAL_CAPACITY];
+    private int[] collections = new int[INITIAL_CAPACITY];
+
+    // starts at 1 so that the zeroed collections of the new names don't count as the previous collection
+    private int collection = 1;
+
+    /**
+     * Starts a new collection. The statistics not added during the previous collection are forgotten.
+     */
+    public void startCollection() {
+        collection++;
+    }
+
+    /**
+     * Adds the adjusted statistics of the name to the call-time data and remembers the raw ones for the next
+     * collection.
+     *
+     * @param callTimeData the call-time data to add the adjusted statistics to
+     * @param name the call destination, e.g. the method name
+     * @param lastResetTime the time the statistics have been accumulated since
+     * @param collectionTime the time the statistics were read
+     * @param minimum the minimum since the last reset
+     * @param maximum the maximum since the last reset
+     * @param total the total since the last reset
+     * @param count the count since the last reset
+     * @throws IllegalArgumentException if the call-time data rejects the statistics, in which case they aren't
+     *             remembered either
+     */
+    public void add(CallTimeData callTimeData, String name, long lastResetTime, long collectionTime, long minimum,
+        long maximum, long total, long count) {
+        int index = indexOf(name);
+
+        long beginTime = lastResetTime;
+        long adjustedCount = count;
+        long adjustedTotal = total;
+        boolean supercedesPrevious = collections[index] == collection - 1 && beginTimes[index] == lastResetTime;
+        if (supercedesPrevious && count > counts[index]) {
+            // There have been new calls since the last time we collected data for this name.
+            beginTime = endTimes[index];
+            adjustedCount = count - counts[index];
+            adjustedTotal = total - totals[index];
+        }
+
+        // forget the previous values, should the data be rejected
+        collections[index] = 0;
+
+        callTimeData.addAggregatedCallData(name, new Date(beginTime), new Date(collectionTime), minimum, maximum,
+            adjustedTotal, adjustedCount);
+
+        beginTimes[index] = lastResetTime;
+        endTimes[index] = collectionTime;
+        counts[index] = count;
+        totals[index] = total;
+        collections[index] = collection;
+    }
+
+    private int indexOf(String name) {
+        Integer index = indexes.get(name);
+        if (index != null) {
+            return index;
+        }
+
+        int ret = indexes.size();
+        if (ret == collections.length) {
+            int capacity = ret * 2;
+            beginTimes = Arrays.copyOf(beginTimes, capacity);
+            endTimes = Arrays.copyOf(endTimes, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+            totals = Arrays.copyOf(totals, capacity);
+            collections = Arrays.copyOf(collections, capacity);
+        }
+        indexes.put(name, ret);
+
+        return ret;
+    }
+}
@@ -0,0 +1,414 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2012 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.rhq.plugins.jmx.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.rhq.core.domain.measurement.calltime.CallTimeData;
+import org.rhq.core.pluginapi.util.ResponseTimeConfiguration;
+import org.rhq.core.pluginapi.util.ResponseTimeLogParser;
+
+/**
+ * Reads a response-time log on behalf of all the web application resources collecting their response times from it.
+ * <p/>
+ * Several web applications can be configured with the same log. Instead of each of them reading and parsing the
+ * whole log with their own {@link ResponseTimeLogParser}, the log is read once, from where the last read stopped, by
+ * whichever subscriber collects first. Each line is parsed once and routed to the subscribers whose context root the
+ * URL falls under, the longest matching context root winning. Lines under none of the context roots go to every
+ * subscriber, as they would have with a parser per resource. The subscribers pick up their lines when they collect
+ * and apply their own excludes and transforms to them.
+ * <p/>
+ * The logs are keyed by their canonical paths, so the classes of the plugins depending on this plugin share them
+ * too. Like the {@link ResponseTimeLogParser}, the tailer clears the log once it has read all of its lines. A log
+ * that can't be written is tailed instead; if it got shorter or its first bytes changed, it is read from its
+ * beginning again, as it has been truncated or rotated.
+ */
+public class ResponseTimeLogTailer {
+
+    private static final Log log = LogFactory.getLog(ResponseTimeLogTailer.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** The number of bytes at the beginning of the log compared to detect rotations */
+    private static final int HEAD_SIZE = 128;
+
+    /** The number of lines kept for a subscriber that doesn't collect */
+    private static final int MAX_PENDING = Integer.getInteger("rhq.jmxplugin.rt-log-max-pending", 100000);
+
+    private static final Map<String, ResponseTimeLogTailer> tailers = new HashMap<String, ResponseTimeLogTailer>();
+
+    private final String path;
+    private final File logFile;
+    private final LineParser lineParser;
+    private final List<Subscription> subscriptions = new ArrayList<Subscription>();
+
+    /** The offset of the first line not read yet */
+    private long cursor;
+    private byte[] head;
+
+    private ResponseTimeLogTailer(String path, File logFile) {
+        this.path = path;
+        this.logFile = logFile;
+        this.lineParser = new LineParser(logFile);
+    }
+
+    /**
+     * Subscribes to the lines of the response-time log of the configuration.
+     *
+     * @param responseTimeConfig the configuration of the log, the excludes and the transforms
+     * @param contextRoot the context root of the web application or null to receive all the lines of the log
+     * @return the subscription or null if no log is configured
+     */
+    public static Subscription subscribe(ResponseTimeConfiguration responseTimeConfig, String contextRoot) {
+        File logFile = responseTimeConfig.getLogFile();
+        if (logFile == null) {
+            return null;
+        }
+
+        String path;
+        try {
+            path = logFile.getCanonicalPath();
+        } catch (IOException e) {
+            path = logFile.getAbsolutePath();
+        }
+
+        Subscription subscription = new Subscription(responseTimeConfig, normalizeContextRoot(contextRoot));
+        synchronized (tailers) {
+            ResponseTimeLogTailer tailer = tailers.get(path);
+            if (tailer == null) {
+                tailer = new ResponseTimeLogTailer(path, new File(path));
+                tailers.put(path, tailer);
+            }
+            subscription.tailer = tailer;
+            synchronized (tailer) {
+                tailer.subscriptions.add(subscription);
+            }
+        }
+        return subscription;
+    }
+
+    /**
+     * A web application's view of a response-time log.
+     */
+    public static class Subscription {
+        private final LineParser filter;
+        private final String contextRoot;
+        private ResponseTimeLogTailer tailer;
+        private List<LogLine> pending = new ArrayList<LogLine>();
+        private int dropped;
+
+        private Subscription(ResponseTimeConfiguration responseTimeConfig, String contextRoot) {
+            this.filter = new LineParser(responseTimeConfig.getLogFile());
+            this.filter.setExcludes(responseTimeConfig.getExcludes());
+            this.filter.setTransforms(responseTimeConfig.getTransforms());
+            this.contextRoot = contextRoot;
+        }
+
+        /**
+         * Adds the calls logged since the last collection of this subscriber to the call-time data.
+         *
+         * @param callTimeData the data to add the calls to
+         * @throws IOException if the log could not be read
+         */
+        public void parseLog(CallTimeData callTimeData) throws IOException {
+            List<LogLine> lines = tailer.take(this);
+            for (LogLine line : lines) {
+                if (filter.isExcludedUrl(line.url)) {
+                    continue;
+                }
+                try {
+                    callTimeData.addCallData(filter.transformUrl(line.url), new Date(line.startTime), line.duration);
+                } catch (IllegalArgumentException e) {
+                    // if any issue with the data, log them and continue processing the rest of the report
+                    log.error(e);
+                }
+            }
+        }
+
+        /**
+         * Stops routing the lines of the log to this subscriber.
+         */
+        public void unsubscribe() {
+            synchronized (tailers) {
+                synchronized (tailer) {
+                    tailer.subscriptions.remove(this);
+                    if (tailer.subscriptions.isEmpty()) {
+                        tailers.remove(tailer.path);
+                    }
+                }
+            }
+        }
+
+        private boolean matches(String url) {
+            if (!url.startsWith(contextRoot)) {
+                return false;
+            }
+            if (url.length() == contextRoot.length() || contextRoot.endsWith("/")) {
+                return true;
+            }
+            char next = url.charAt(contextRoot.length());
+            return next == '/' || next == '?' || next == ';';
+        }
+
+        private void add(LogLine line) {
+            if (pending.size() < MAX_PENDING) {
+                pending.add(line);
+            } else {
+                dropped++;
+            }
+        }
+    }
+
+    private synchronized List<LogLine> take(Subscription subscription) throws IOException {
+        read();
+
+        List<LogLine> ret = subscription.pending;
+        subscription.pending = new ArrayList<LogLine>();
+        if (subscription.dropped > 0) {
+            log.warn("Dropped " + subscription.dropped + " lines of response-time log [" + path
+                + "] not collected in time.");
+            subscription.dropped = 0;
+        }
+        return ret;
+    }
+
+    /**
+     * Reads the lines appended to the log since the last read and routes them to the subscribers.
+     */
+    private void read() throws IOException {
+        if (!logFile.exists()) {
+            if (log.isDebugEnabled()) {
+                log.debug("Response-time log file '" + logFile + "' does not exist.");
+            }
+            cursor = 0;
+            head = null;
+            return;
+        }
+
+        RandomAccessFile file;
+        boolean writable = true;
+        try {
+            file = new RandomAccessFile(logFile, "rw");
+        } catch (FileNotFoundException e) {
+            // not writable by the agent, the log can only be tailed
+            file = new RandomAccessFile(logFile, "r");
+            writable = false;
+        }
+        try {
+            FileChannel channel = file.getChannel();
+            long size = channel.size();
+
+            byte[] currentHead = readHead(channel, size);
+            if (size < cursor || !startsWith(currentHead, head)) {
+                log.debug("Response-time log file '" + logFile + "' has been truncated or rotated.");
+                cursor = 0;
+            }
+            head = currentHead;
+
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            ByteArrayOutputStream partial = new ByteArrayOutputStream();
+            long position = cursor;
+            while (position < size) {
+                buffer.clear();
+                int read = channel.read(buffer, position);
+                if (read <= 0) {
+                    break;
+                }
+
+                byte[] bytes = buffer.array();
+                int start = 0;
+                for (int i = 0; i < read; i++) {
+                    if (bytes[i] == '\n') {
+                        partial.write(bytes, start, i - start);
+                        dispatch(partial);
+                        partial.reset();
+                        start = i + 1;
+                        // a line is only consumed once it is complete
+                        cursor = position + start;
+                    }
+                }
+                partial.write(bytes, start, read - start);
+                position += read;
+            }
+
+            // Clear the log, so that it doesn't grow forever and the lines aren't read again once the agent
+            // restarts. Only done if all the lines read were complete and no new ones have been appended, so that
+            // the beginning of a line being written isn't lost.
+            if (writable && cursor > 0 && cursor == position && channel.size() == position) {
+                channel.truncate(0);
+                cursor = 0;
+                head = null;
+            }
+        } finally {
+            file.close();
+        }
+    }
+
+    private void dispatch(ByteArrayOutputStream bytes) throws UnsupportedEncodingException {
+        String line = bytes.toString("UTF-8");
+        if (line.endsWith("\r")) {
+            line = line.substring(0, line.length() - 1);
+        }
+        if (line.length() == 0) {
+            return;
+        }
+
+        LogLine logLine = lineParser.parse(line);
+        if (logLine == null) {
+            return;
+        }
+
+        // The URL should always begin with a slash. If it doesn't, skip the entry,
+        // so we don't end up with bogus data in the DB.
+        if (logLine.url.length() == 0 || logLine.url.charAt(0) != '/') {
+            return;
+        }
+
+        // Only collect stats for successful (2xx or 3xx) requests...
+        if ((logLine.statusCode != null) && ((logLine.statusCode < 200) || (logLine.statusCode >= 400))) {
+            return;
+        }
+
+        int longest = -1;
+        for (Subscription subscription : subscriptions) {
+            if (subscription.contextRoot != null && subscription.contextRoot.length() > longest
+                && subscription.matches(logLine.url)) {
+                longest = subscription.contextRoot.length();
+            }
+        }
+
+        for (Subscription subscription : subscriptions) {
+            if (subscription.contextRoot == null || longest == -1
+                || (subscription.contextRoot.length() == longest && subscription.matches(logLine.url))) {
+                subscription.add(logLine);
+            }
+        }
+    }
+
+    private static byte[] readHead(FileChannel channel, long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(HEAD_SIZE, size));
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, buffer.position()) <= 0) {
+                break;
+            }
+        }
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    /**
+     * @return true if the current head of the log starts with the head seen before or none has been seen before
+     */
+    private static boolean startsWith(byte[] currentHead, byte[] previousHead) {
+        if (previousHead == null) {
+            return true;
+        }
+        if (currentHead.length < previousHead.length) {
+            return false;
+        }
+        for (int i = 0; i < previousHead.length; i++) {
+            if (currentHead[i] != previousHead[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String normalizeContextRoot(String contextRoot) {
+        if (contextRoot == null) {
+            return null;
+        }
+        String ret = contextRoot.trim();
+        if (!ret.startsWith("/")) {
+            ret = "/" + ret;
+        }
+        while (ret.length() > 1 && ret.endsWith("/")) {
+            ret = ret.substring(0, ret.length() - 1);
+        }
+        return ret;
+    }
+
+    /**
+     * A parsed line of the log.
+     */
+    private static class LogLine {
+        final String url;
+        final long startTime;
+        final long duration;
+        final Integer statusCode;
+
+        LogLine(String url, long startTime, long duration, Integer statusCode) {
+            this.url = url;
+            this.startTime = startTime;
+            this.duration = duration;
+            this.statusCode = statusCode;
+        }
+    }
+
+    /**
+     * Gives access to the line format, the excludes and the transforms of the {@link ResponseTimeLogParser}. Its
+     * own reading of the log is not used.
+     */
+    private static class LineParser extends ResponseTimeLogParser {
+
+        LineParser(File logFile) {
+            super(logFile);
+        }
+
+        LogLine parse(String line) {
+            try {
+                LogEntry logEntry = parseLine(line);
+                return new LogLine(logEntry.getUrl(), logEntry.getStartTime(), logEntry.getDuration(),
+                    logEntry.getStatusCode());
+            } catch (Exception e) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Problem parsing line [" + line + "] - cause: " + e);
+                }
+                return null;
+            }
+        }
+
+        boolean isExcludedUrl(String url) {
+            return isExcluded(url);
+        }
+
+        String transformUrl(String url) {
+            return applyTransforms(url);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2012 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.rhq.plugins.jmx.util;
+
+import java.lang.ref.SoftReference;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Reads a fixed set of public fields or no-arg methods of statistics objects whose classes can't be linked against,
+ * e.g. because they come from the classloader of the managed server.
+ * <p/>
+ * The fields or methods are looked up once per class of the statistics objects instead of on every read. As the
+ * fields and methods reference their class, the classes are only weakly and the looked up fields or methods only
+ * softly referenced so that the accessor doesn't keep their classloaders alive. The lookups survive ordinary garbage
+ * collections, they are only dropped when memory runs low or they have not been used for a while, and are looked up
+ * again then. Thread-safe.
+ */
+public class StatisticsAccessor {
+
+    private final String[] names;
+    private final boolean methods;
+    private final Map<Class<?>, SoftReference<AccessibleObject[]>> accessors =
+        new WeakHashMap<Class<?>, SoftReference<AccessibleObject[]>>();
+
+    private StatisticsAccessor(boolean methods, String... names) {
+        this.methods = methods;
+        this.names = names;
+    }
+
+    /**
+     * @param names the names of the public fields to read
+     * @return the accessor reading the fields, the index of the value to read is the index of the field name
+     */
+    public static StatisticsAccessor forFields(String... names) {
+        return new StatisticsAccessor(false, names);
+    }
+
+    /**
+     * @param names the names of the public no-arg methods to invoke
+     * @return the accessor invoking the methods, the index of the value to read is the index of the method name
+     */
+    public static StatisticsAccessor forMethods(String... names) {
+        return new StatisticsAccessor(true, names);
+    }
+
+    /**
+     * @param statistics the object to read the value from
+     * @param index the index of the field or method name
+     * @return the value of the field or the return value of the method
+     * @throws Exception if the class doesn't have the field or method or the read fails
+     */
+    public Object get(Object statistics, int index) throws Exception {
+        AccessibleObject accessor = getAccessors(statistics.getClass())[index];
+        if (methods) {
+            return ((Method) accessor).invoke(statistics);
+        } else {
+            return ((Field) accessor).get(statistics);
+        }
+    }
+
+    /**
+     * Same as {@link #get(Object, int)} for values that are numbers.
+     */
+    public long getLong(Object statistics, int index) throws Exception {
+        return ((Number) get(statistics, index)).longValue();
+    }
+
+    AccessibleObject[] getAccessors(Class<?> clazz) throws Exception {
+        synchronized (accessors) {
+            SoftReference<AccessibleObject[]> ref = accessors.get(clazz);
+            AccessibleObject[] ret = (ref == null) ? null : ref.get();
+            if (ret == null) {
+                ret = new AccessibleObject[names.length];
+                for (int i = 0; i < names.length; ++i) {
+                    ret[i] = methods ? clazz.getMethod(names[i]) : clazz.getField(names[i]);
+                }
+                accessors.put(clazz, new SoftReference<AccessibleObject[]>(ret));
+            }
+            return ret;
+        }
+    }
+}
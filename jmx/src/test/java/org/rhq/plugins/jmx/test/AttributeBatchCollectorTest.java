@@ -0,0 +1,159 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2013 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.rhq.plugins.jmx.test;
+
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.mc4j.ems.connection.bean.EmsBean;
+import org.mc4j.ems.connection.bean.EmsBeanName;
+import org.mc4j.ems.connection.bean.attribute.EmsAttribute;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import org.rhq.plugins.jmx.AttributeBatchCollector;
+
+/**
+ * Tests the prefetching of the {@link AttributeBatchCollector} for components collecting in the same window
+ */
+public class AttributeBatchCollectorTest {
+
+    private static final long WINDOW = 200;
+    private static final long INTERVAL = 2 * WINDOW;
+
+    private static final List<String> ATTRIBUTES = Collections.singletonList("Value");
+
+    /**
+     * Records the threads the attributes of the bean were read by
+     */
+    private static class Reads implements Answer<List<EmsAttribute>> {
+        final List<String> threads = Collections.synchronizedList(new ArrayList<String>());
+
+        public List<EmsAttribute> answer(InvocationOnMock invocation) {
+            threads.add(Thread.currentThread().getName());
+            return Collections.emptyList();
+        }
+    }
+
+    private AttributeBatchCollector collector;
+
+    @AfterMethod
+    public void shutdown() {
+        if (collector != null) {
+            collector.shutdown();
+        }
+        System.clearProperty("rhq.jmxplugin.batch-window");
+    }
+
+    @Test
+    public void testPrefetchForSiblingInSameWindow() throws Exception {
+        collector = createCollector(WINDOW);
+        Reads readsA = new Reads();
+        Reads readsB = new Reads();
+        EmsBean a = createBean("test:name=a", readsA);
+        EmsBean b = createBean("test:name=b", readsB);
+
+        // learn the intervals
+        for (int i = 0; i < 2; i++) {
+            collector.refreshAttributes(a, ATTRIBUTES);
+            collector.refreshAttributes(b, ATTRIBUTES);
+            Thread.sleep(INTERVAL);
+        }
+        assert readsB.threads.size() == 2 : readsB.threads;
+
+        // a is first in this window and gets b prefetched
+        long start = System.currentTimeMillis();
+        collector.refreshAttributes(a, ATTRIBUTES);
+        AttributeBatchCollector.RefreshedAttributes refreshed = collector.refreshAttributes(b, ATTRIBUTES);
+
+        assert readsA.threads.size() == 3 : readsA.threads;
+        assert readsB.threads.size() == 3 : readsB.threads;
+        assert readsB.threads.get(2).startsWith("AttributeBatchCollector-") : readsB.threads;
+        assert refreshed.getTimestamp() >= start && refreshed.getTimestamp() <= System.currentTimeMillis();
+    }
+
+    @Test
+    public void testOutdatedPrefetchIsReadAgain() throws Exception {
+        collector = createCollector(WINDOW);
+        Reads readsA = new Reads();
+        Reads readsB = new Reads();
+        EmsBean a = createBean("test:name=a", readsA);
+        EmsBean b = createBean("test:name=b", readsB);
+
+        for (int i = 0; i < 2; i++) {
+            collector.refreshAttributes(a, ATTRIBUTES);
+            collector.refreshAttributes(b, ATTRIBUTES);
+            Thread.sleep(INTERVAL);
+        }
+
+        collector.refreshAttributes(a, ATTRIBUTES);
+        // b comes late, the prefetched values are more than a window old by then
+        Thread.sleep(WINDOW + WINDOW / 2);
+        long start = System.currentTimeMillis();
+        AttributeBatchCollector.RefreshedAttributes refreshed = collector.refreshAttributes(b, ATTRIBUTES);
+
+        assert readsB.threads.size() == 4 : readsB.threads;
+        assert !readsB.threads.get(3).startsWith("AttributeBatchCollector-") : readsB.threads;
+        assert refreshed.getTimestamp() >= start;
+    }
+
+    @Test
+    public void testNoPrefetchWithoutWindow() throws Exception {
+        collector = createCollector(0);
+        Reads readsA = new Reads();
+        Reads readsB = new Reads();
+        EmsBean a = createBean("test:name=a", readsA);
+        EmsBean b = createBean("test:name=b", readsB);
+
+        for (int i = 0; i < 3; i++) {
+            collector.refreshAttributes(a, ATTRIBUTES);
+            collector.refreshAttributes(b, ATTRIBUTES);
+            Thread.sleep(WINDOW);
+        }
+
+        String thread = Thread.currentThread().getName();
+        assert readsB.threads.equals(Collections.nCopies(3, thread)) : readsB.threads;
+    }
+
+    private static AttributeBatchCollector createCollector(long window) {
+        System.setProperty("rhq.jmxplugin.batch-window", String.valueOf(window));
+        return new AttributeBatchCollector();
+    }
+
+    private static EmsBean createBean(String name, Reads reads) {
+        EmsBeanName beanName = mock(EmsBeanName.class);
+        when(beanName.getCanonicalName()).thenReturn(name);
+
+        EmsBean bean = mock(EmsBean.class);
+        when(bean.getBeanName()).thenReturn(beanName);
+        when(bean.refreshAttributes(anyListOf(String.class))).thenAnswer(reads);
+        return bean;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2013 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.rhq.plugins.jmx.test;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.measurement.DataType;
+import org.rhq.core.domain.measurement.MeasurementScheduleRequest;
+import org.rhq.core.domain.measurement.calltime.CallTimeData;
+import org.rhq.core.domain.measurement.calltime.CallTimeDataValue;
+import org.rhq.plugins.jmx.util.CallTimeDeltaTracker;
+
+/**
+ * Tests the deltas the {@link CallTimeDeltaTracker} reports between collections
+ */
+public class CallTimeDeltaTrackerTest {
+
+    private static final MeasurementScheduleRequest REQUEST = new MeasurementScheduleRequest(1, "MethodInvocationTime",
+        60000L, true, DataType.CALLTIME);
+
+    private CallTimeDeltaTracker tracker;
+
+    @BeforeMethod
+    public void createTracker() {
+        tracker = new CallTimeDeltaTracker();
+    }
+
+    @Test
+    public void testDeltaSincePreviousCollection() {
+        collect("foo", 1000, 2000, 10, 5);
+        CallTimeDataValue value = collect("foo", 1000, 3000, 30, 8);
+
+        assertValue(value, 2000, 3000, 20, 3);
+    }
+
+    @Test
+    public void testNewMethod() {
+        collect("foo", 1000, 2000, 10, 5);
+        tracker.startCollection();
+        CallTimeData data = new CallTimeData(REQUEST);
+        tracker.add(data, "foo", 1000, 3000, 1, 10, 30, 8);
+        tracker.add(data, "bar", 1000, 3000, 1, 10, 7, 2);
+
+        assertValue(data.getValues().get("foo"), 2000, 3000, 20, 3);
+        // never seen before, reported since the last reset
+        assertValue(data.getValues().get("bar"), 1000, 3000, 7, 2);
+    }
+
+    @Test
+    public void testReset() {
+        collect("foo", 1000, 2000, 10, 5);
+        CallTimeDataValue value = collect("foo", 2500, 3000, 4, 2);
+
+        assertValue(value, 2500, 3000, 4, 2);
+    }
+
+    @Test
+    public void testNoNewCalls() {
+        collect("foo", 1000, 2000, 10, 5);
+        CallTimeDataValue value = collect("foo", 1000, 3000, 10, 5);
+
+        // replaces the data persisted for the same begin time
+        assertValue(value, 1000, 3000, 10, 5);
+
+        value = collect("foo", 1000, 4000, 12, 6);
+        assertValue(value, 3000, 4000, 2, 1);
+    }
+
+    @Test
+    public void testNotCollectedPreviousTime() {
+        collect("foo", 1000, 2000, 10, 5);
+        tracker.startCollection();
+        CallTimeDataValue value = collect("foo", 1000, 4000, 30, 8);
+
+        assertValue(value, 1000, 4000, 30, 8);
+    }
+
+    @Test
+    public void testRejectedValueIsForgotten() {
+        collect("foo", 1000, 2000, 10, 5);
+
+        // the clock went back, the delta would end before it begins
+        tracker.startCollection();
+        try {
+            tracker.add(new CallTimeData(REQUEST), "foo", 1000, 1500, 1, 10, 30, 8);
+            assert false : "The call-time data should have rejected the values";
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        CallTimeDataValue value = collect("foo", 1000, 3000, 30, 8);
+        assertValue(value, 1000, 3000, 30, 8);
+    }
+
+    private CallTimeDataValue collect(String name, long lastResetTime, long collectionTime, long total, long count) {
+        tracker.startCollection();
+        CallTimeData data = new CallTimeData(REQUEST);
+        tracker.add(data, name, lastResetTime, collectionTime, 1, 10, total, count);
+        return data.getValues().get(name);
+    }
+
+    private static void assertValue(CallTimeDataValue value, long beginTime, long endTime, double total, long count) {
+        assert value != null;
+        assert value.getBeginTime() == beginTime : value;
+        assert value.getEndTime() == endTime : value;
+        assert value.getTotal() == total : value;
+        assert value.getCount() == count : value;
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2013 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.rhq.plugins.jmx.test;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.resource.ResourceCategory;
+import org.rhq.core.domain.resource.ResourceType;
+import org.rhq.core.pluginapi.inventory.DiscoveredResourceDetails;
+import org.rhq.core.pluginapi.inventory.ProcessScanResult;
+import org.rhq.core.pluginapi.inventory.ResourceDiscoveryContext;
+import org.rhq.core.system.ProcessInfo;
+import org.rhq.plugins.jmx.JMXDiscoveryComponent;
+
+/**
+ * Tests that slow probes of the {@link JMXDiscoveryComponent} do not hold up the discovery scan
+ */
+public class JMXDiscoveryComponentTest {
+
+    private static final long TIMEOUT = 500;
+
+    /**
+     * Probes are slow for the processes whose pid is negative
+     */
+    private static class SlowProbeDiscoveryComponent extends JMXDiscoveryComponent {
+        @Override
+        protected DiscoveredResourceDetails discoverResourceDetails(ResourceDiscoveryContext context,
+            ProcessInfo process) {
+            if (process.getPid() < 0) {
+                try {
+                    Thread.sleep(TIMEOUT * 20);
+                } catch (InterruptedException e) {
+                    return null;
+                }
+            }
+            return new DiscoveredResourceDetails(context.getResourceType(), String.valueOf(process.getPid()),
+                "JVM " + process.getPid(), null, null, null, process);
+        }
+    }
+
+    @BeforeMethod
+    public void setSystemProperties() {
+        System.setProperty("rhq.jmxplugin.discovery-parallelism", "4");
+        System.setProperty("rhq.jmxplugin.discovery-timeout", String.valueOf(TIMEOUT));
+    }
+
+    @AfterMethod
+    public void clearSystemProperties() {
+        System.clearProperty("rhq.jmxplugin.discovery-parallelism");
+        System.clearProperty("rhq.jmxplugin.discovery-timeout");
+    }
+
+    @Test
+    public void testSlowProbesShareTheDeadline() throws Exception {
+        ResourceDiscoveryContext<?> context = createContext(-1, -2, 3, -4, 5);
+        JMXDiscoveryComponent component = new SlowProbeDiscoveryComponent();
+
+        long start = System.currentTimeMillis();
+        Set<DiscoveredResourceDetails> details = component.discoverResources(context);
+        long duration = System.currentTimeMillis() - start;
+
+        // the 3 slow probes would take 3 timeouts if waited for one after another
+        assert duration < 2 * TIMEOUT : "Discovery took " + duration + " ms";
+
+        Set<String> keys = new HashSet<String>();
+        for (DiscoveredResourceDetails d : details) {
+            keys.add(d.getResourceKey());
+        }
+        assert keys.size() == 2 && keys.contains("3") && keys.contains("5") : keys;
+    }
+
+    @Test
+    public void testDeadlineCoversQueuedProbes() throws Exception {
+        System.setProperty("rhq.jmxplugin.discovery-parallelism", "1");
+        ResourceDiscoveryContext<?> context = createContext(-1, 2, 3);
+        JMXDiscoveryComponent component = new SlowProbeDiscoveryComponent();
+
+        // the probes queued behind the slow one still get their time once it is cancelled
+        long start = System.currentTimeMillis();
+        Set<DiscoveredResourceDetails> details = component.discoverResources(context);
+        long duration = System.currentTimeMillis() - start;
+
+        assert duration < 2 * TIMEOUT : "Discovery took " + duration + " ms";
+        assert details.size() == 2 : details;
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private static ResourceDiscoveryContext<?> createContext(long... pids) {
+        List<ProcessScanResult> processes = new ArrayList<ProcessScanResult>();
+        for (long pid : pids) {
+            ProcessInfo process = mock(ProcessInfo.class);
+            when(process.getPid()).thenReturn(pid);
+            when(process.getCommandLine()).thenReturn(new String[] { "java", "-Dpid=" + pid, "Main" });
+            processes.add(new ProcessScanResult(null, process));
+        }
+
+        ResourceDiscoveryContext context = mock(ResourceDiscoveryContext.class);
+        when(context.getAutoDiscoveredProcesses()).thenReturn(processes);
+        when(context.getResourceType()).thenReturn(
+            new ResourceType("JMX Server", "JMX", ResourceCategory.SERVER, null));
+        return context;
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2013 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.rhq.plugins.jmx.test;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.testng.annotations.Test;
+
+import org.rhq.plugins.jmx.ObjectNameIndex;
+
+/**
+ * Tests the {@link ObjectNameIndex} against the platform MBeanServer
+ */
+public class ObjectNameIndexTest {
+
+    public interface DummyMBean {
+        int getValue();
+    }
+
+    public static class Dummy implements DummyMBean {
+        public int getValue() {
+            return 42;
+        }
+    }
+
+    @Test
+    public void testQueries() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectNameIndex index = new ObjectNameIndex();
+        try {
+            assert index.queryNames(server, "java.lang:type=Runtime").size() == 1;
+            assert index.queryNames(server, "java.lang:type=Runtime").get(0).equals(
+                new ObjectName("java.lang:type=Runtime"));
+            assert index.queryNames(server, "java.lang:*").size() == server.queryNames(
+                new ObjectName("java.lang:*"), null).size();
+            assert index.queryNames(server, "java.lang:type=MemoryPool,*").size() == server.queryNames(
+                new ObjectName("java.lang:type=MemoryPool,*"), null).size();
+            assert index.queryNames(server, "java.*:type=Runtime,*").size() == 1;
+            assert index.queryNames(server, "nonexistent:*").isEmpty();
+            assert index.queryNames(server, "not a valid name") == null;
+        } finally {
+            index.close();
+        }
+    }
+
+    @Test
+    public void testRegistrationsAreTracked() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("rhq.test:type=Dummy,name=one");
+        ObjectNameIndex index = new ObjectNameIndex();
+        try {
+            assert index.queryNames(server, "rhq.test:type=Dummy,*").isEmpty();
+
+            server.registerMBean(new Dummy(), name);
+            List<ObjectName> names = index.queryNames(server, "rhq.test:type=Dummy,*");
+            assert names.size() == 1 : names;
+            assert names.get(0).equals(name);
+
+            server.unregisterMBean(name);
+            assert index.queryNames(server, "rhq.test:type=Dummy,*").isEmpty();
+        } finally {
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            index.close();
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2013 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.rhq.plugins.jmx.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.configuration.Configuration;
+import org.rhq.core.domain.configuration.PropertySimple;
+import org.rhq.core.domain.measurement.DataType;
+import org.rhq.core.domain.measurement.MeasurementScheduleRequest;
+import org.rhq.core.domain.measurement.calltime.CallTimeData;
+import org.rhq.core.domain.measurement.calltime.CallTimeDataValue;
+import org.rhq.core.pluginapi.util.ResponseTimeConfiguration;
+import org.rhq.plugins.jmx.util.ResponseTimeLogTailer;
+
+/**
+ * Tests the routing of the lines of a response-time log to the subscribers and the handling of partial lines,
+ * truncated and rotated logs.
+ */
+@Test
+public class ResponseTimeLogTailerTest {
+
+    private File logFile;
+
+    @BeforeMethod
+    public void createLog() throws IOException {
+        logFile = File.createTempFile("rhq-rt-test", "_rt.log");
+    }
+
+    @AfterMethod
+    public void deleteLog() {
+        logFile.delete();
+    }
+
+    public void testRouting() throws Exception {
+        ResponseTimeLogTailer.Subscription app = subscribe("/app");
+        ResponseTimeLogTailer.Subscription nested = subscribe("/app/nested");
+        ResponseTimeLogTailer.Subscription other = subscribe("/other");
+        try {
+            append("/app/index.jsp 1000 10 200\n" //
+                + "/app/nested/index.jsp 1000 20 200\n" //
+                + "/application/index.jsp 1000 30 200\n" //
+                + "/app/error.jsp 1000 40 500\n");
+
+            CallTimeData appData = collect(app);
+            CallTimeData nestedData = collect(nested);
+            CallTimeData otherData = collect(other);
+
+            // the longest context root wins
+            assertCount(appData, "/app/index.jsp", 1);
+            assertCount(nestedData, "/app/nested/index.jsp", 1);
+            assert !appData.getValues().containsKey("/app/nested/index.jsp");
+            assert !otherData.getValues().containsKey("/app/index.jsp");
+
+            // lines under none of the context roots go to everyone
+            assertCount(appData, "/application/index.jsp", 1);
+            assertCount(nestedData, "/application/index.jsp", 1);
+            assertCount(otherData, "/application/index.jsp", 1);
+
+            // failed requests are skipped
+            assert !appData.getValues().containsKey("/app/error.jsp");
+
+            // the lines are only handed out once
+            assert collect(app).getValues().isEmpty();
+        } finally {
+            app.unsubscribe();
+            nested.unsubscribe();
+            other.unsubscribe();
+        }
+    }
+
+    public void testPartialLine() throws Exception {
+        ResponseTimeLogTailer.Subscription app = subscribe("/app");
+        try {
+            append("/app/a.jsp 1000 10 200\r\n/app/b.jsp 1000 20");
+
+            CallTimeData data = collect(app);
+            assertCount(data, "/app/a.jsp", 1);
+            assert !data.getValues().containsKey("/app/b.jsp");
+            // the log isn't cleared while a line is being written
+            assert logFile.length() > 0;
+
+            append(" 200\n");
+            data = collect(app);
+            assertCount(data, "/app/b.jsp", 1);
+            assert !data.getValues().containsKey("/app/a.jsp");
+        } finally {
+            app.unsubscribe();
+        }
+    }
+
+    public void testLogClearedAfterRead() throws Exception {
+        ResponseTimeLogTailer.Subscription app = subscribe("/app");
+        try {
+            append("/app/a.jsp 1000 10 200\n");
+            assertCount(collect(app), "/app/a.jsp", 1);
+            assert logFile.length() == 0 : "The log should have been cleared";
+
+            append("/app/b.jsp 1000 10 200\n");
+            CallTimeData data = collect(app);
+            assertCount(data, "/app/b.jsp", 1);
+            assert !data.getValues().containsKey("/app/a.jsp");
+        } finally {
+            app.unsubscribe();
+        }
+    }
+
+    public void testTruncatedAndRotatedLog() throws Exception {
+        ResponseTimeLogTailer.Subscription app = subscribe("/app");
+        try {
+            // the partial line keeps the tailer from clearing the log
+            append("/app/a.jsp 1000 10 200\n/app/b.jsp 1000 10 200\n/app/c.jsp");
+            CallTimeData data = collect(app);
+            assertCount(data, "/app/a.jsp", 1);
+            assertCount(data, "/app/b.jsp", 1);
+
+            // truncated by someone else
+            write("/app/d.jsp 1000 10 200\n/app/e.jsp");
+            data = collect(app);
+            assertCount(data, "/app/d.jsp", 1);
+            assert data.getValues().size() == 1 : data.getValues();
+
+            // rotated to a longer log with other lines
+            write("/app/rotated.jsp 1000 10 200\n/app/f.jsp 1000 10 200\n/app/g.jsp 1000 10 200\n/app/h.jsp");
+            data = collect(app);
+            assertCount(data, "/app/rotated.jsp", 1);
+            assertCount(data, "/app/f.jsp", 1);
+            assertCount(data, "/app/g.jsp", 1);
+        } finally {
+            app.unsubscribe();
+        }
+    }
+
+    private ResponseTimeLogTailer.Subscription subscribe(String contextRoot) {
+        Configuration pluginConfig = new Configuration();
+        pluginConfig.put(new PropertySimple(ResponseTimeConfiguration.RESPONSE_TIME_LOG_FILE_CONFIG_PROP, logFile
+            .getAbsolutePath()));
+        return ResponseTimeLogTailer.subscribe(new ResponseTimeConfiguration(pluginConfig), contextRoot);
+    }
+
+    private static CallTimeData collect(ResponseTimeLogTailer.Subscription subscription) throws IOException {
+        CallTimeData data = new CallTimeData(new MeasurementScheduleRequest(1, "ResponseTime", 60000, true,
+            DataType.CALLTIME));
+        subscription.parseLog(data);
+        return data;
+    }
+
+    private static void assertCount(CallTimeData data, String url, long count) {
+        CallTimeDataValue value = data.getValues().get(url);
+        assert value != null : url + " not found in " + data.getValues().keySet();
+        assert value.getCount() == count : url + " was called " + value.getCount() + " times";
+    }
+
+    private void append(String lines) throws IOException {
+        FileOutputStream out = new FileOutputStream(logFile, true);
+        try {
+            out.write(lines.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    private void write(String lines) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(logFile, "rw");
+        try {
+            file.setLength(0);
+            file.write(lines.getBytes("UTF-8"));
+        } finally {
+            file.close();
+        }
+    }
+}
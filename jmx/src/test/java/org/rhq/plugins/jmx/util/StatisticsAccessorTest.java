@@ -0,0 +1,75 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2013 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.rhq.plugins.jmx.util;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.AccessibleObject;
+
+import org.testng.annotations.Test;
+
+/**
+ * Tests that the {@link StatisticsAccessor} looks the fields and methods up once per class
+ */
+public class StatisticsAccessorTest {
+
+    public static class Statistics {
+        public long count = 3;
+
+        public long getTotal() {
+            return 42;
+        }
+    }
+
+    @Test
+    public void testFieldsLookedUpOnce() throws Exception {
+        StatisticsAccessor accessor = StatisticsAccessor.forFields("count");
+        Statistics statistics = new Statistics();
+
+        assert accessor.getLong(statistics, 0) == 3;
+        AccessibleObject[] first = accessor.getAccessors(Statistics.class);
+        assert accessor.getLong(statistics, 0) == 3;
+        assert accessor.getAccessors(Statistics.class) == first;
+    }
+
+    @Test
+    public void testLookupsSurviveGarbageCollection() throws Exception {
+        StatisticsAccessor accessor = StatisticsAccessor.forMethods("getTotal");
+        Statistics statistics = new Statistics();
+
+        assert accessor.getLong(statistics, 0) == 42;
+        // nothing but the accessor itself holds on to the lookups
+        WeakReference<AccessibleObject[]> first = new WeakReference<AccessibleObject[]>(
+            accessor.getAccessors(Statistics.class));
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+
+        assert accessor.getLong(statistics, 0) == 42;
+        assert first.get() != null && accessor.getAccessors(Statistics.class) == first.get();
+    }
+
+    @Test(expectedExceptions = NoSuchFieldException.class)
+    public void testMissingField() throws Exception {
+        StatisticsAccessor.forFields("missing").get(new Statistics(), 0);
+    }
+}
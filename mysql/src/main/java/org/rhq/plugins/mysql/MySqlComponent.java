@@ -23,7 +23,7 @@ import java.io.FileReader;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -45,6 +45,7 @@ import org.rhq.core.system.AggregateProcessInfo;
 import org.rhq.core.system.ProcessInfo;
 import org.rhq.plugins.database.DatabaseComponent;
 import org.rhq.plugins.database.DatabaseQueryUtility;
+import org.rhq.plugins.database.KeyedQuerySnapshot;
 
 /**
  * @author Greg Hinkle
@@ -60,6 +61,32 @@ public class MySqlComponent implements DatabaseComponent<ResourceComponent<?>>,
     private Map<String, String> globalStatusValues = new HashMap<String, String>();
     private Map<String, String> globalVariables = new HashMap<String, String>();
 
+    static final String PROCESSLIST_QUERY = "select User, Host, count(*) as total, "
+        + "sum(case when length(State) > 1 then 1 else 0 end) as active from information_schema.processlist "
+        + "group by User, Host";
+
+    /**
+     * The time the process list and the table status are reused for.
+     */
+    static final long SNAPSHOT_WINDOW = Long.getLong("rhq.mysql.snapshot-window", 15 * 1000L);
+
+    private final PooledQuerySnapshot connectionCounts = new PooledQuerySnapshot(this, PROCESSLIST_QUERY, "User");
+
+    /**
+     * The number of connections of a user from a host.
+     */
+    static class ConnectionCount {
+        final String host;
+        final int total;
+        final int active;
+
+        ConnectionCount(String host, int total, int active) {
+            this.host = host;
+            this.total = total;
+            this.active = active;
+        }
+    }
+
     public void start(ResourceContext resourceContext) throws InvalidPluginConfigurationException, Exception {
         this.resourceContext = resourceContext;
         info = MySqlDiscoveryComponent.buildConnectionInfo(resourceContext.getPluginConfiguration());
@@ -73,6 +100,7 @@ public class MySqlComponent implements DatabaseComponent<ResourceComponent<?>>,
     }
 
     public void stop() {
+        connectionCounts.clear();
         MySqlConnectionManager.getConnectionManager().closeConnection(info);
     }
 
@@ -81,11 +109,12 @@ public class MySqlComponent implements DatabaseComponent<ResourceComponent<?>>,
             log.debug("Doing an availability check on " + info.buildURL());
         }
 
-        Connection conn = getConnection();
         AvailabilityType result = AvailabilityType.DOWN;
+        MySqlConnectionPool.PooledConnection conn = borrowConnection();
         if (conn != null) {
             // the connection must be OK as the validity check will have worked
             result = AvailabilityType.UP;
+            releaseConnection(conn);
         }
         if (log.isDebugEnabled()) {
             log.debug("Availability check on " + info.buildURL() + " gives " + result);
@@ -95,25 +124,25 @@ public class MySqlComponent implements DatabaseComponent<ResourceComponent<?>>,
     }
 
     public void getValues(MeasurementReport report, Set<MeasurementScheduleRequest> metrics) throws Exception {
-        Connection conn = getConnection();
+        MySqlConnectionPool.PooledConnection conn = borrowConnection();
         if (conn != null) {
             ResultSet rs = null;
-            Statement stmt = null;
             try {
-                stmt = conn.createStatement();
-                rs = stmt.executeQuery("SHOW GLOBAL STATUS");
+                rs = conn.prepareStatement("SHOW GLOBAL STATUS").executeQuery();
                 while (rs.next()) {
                     globalStatusValues.put(rs.getString(1), rs.getString(2));
                 }
 
                 rs.close();
-                rs = stmt.executeQuery("select * from information_schema.global_variables");
+                rs = conn.prepareStatement("select * from information_schema.global_variables").executeQuery();
                 while (rs.next()) {
                     globalVariables.put(rs.getString(1), rs.getString(2));
                 }
             } catch (SQLException sqle) {
+                conn.setBroken();
             } finally {
-                DatabaseQueryUtility.close(stmt, rs);
+                DatabaseQueryUtility.close(null, rs);
+                releaseConnection(conn);
             }
         }
 
@@ -170,6 +199,47 @@ public class MySqlComponent implements DatabaseComponent<ResourceComponent<?>>,
         }
     }
 
+    /**
+     * Returns the connections of the user from the snapshot of the process list shared by all the user components.
+     *
+     * @param user the name of the user
+     * @return the connection counts grouped by the host the connections are made from
+     * @throws SQLException if the snapshot could not be loaded
+     */
+    List<ConnectionCount> getConnectionCounts(String user) throws SQLException {
+        List<Map<String, Object>> rows = connectionCounts.getRows(this, user);
+        List<ConnectionCount> counts = new ArrayList<ConnectionCount>(rows.size());
+        for (Map<String, Object> row : rows) {
+            counts.add(new ConnectionCount(KeyedQuerySnapshot.getString(row, "Host"), getInt(row, "total"), getInt(
+                row, "active")));
+        }
+        return counts;
+    }
+
+    private static int getInt(Map<String, Object> row, String column) {
+        Double value = KeyedQuerySnapshot.getDouble(row, column);
+        return value == null ? 0 : value.intValue();
+    }
+
+    /**
+     * Borrows a connection from the pool of this server for the duration of a measurement or an availability check.
+     * Each borrowed connection must be handed back using {@link #releaseConnection(MySqlConnectionPool.PooledConnection)}.
+     *
+     * @return the connection or null if it could not be obtained
+     */
+    MySqlConnectionPool.PooledConnection borrowConnection() {
+        try {
+            return MySqlConnectionManager.getConnectionManager().borrowConnection(info);
+        } catch (SQLException ex) {
+            log.warn("Unable to obtain database connection ", ex);
+            return null;
+        }
+    }
+
+    void releaseConnection(MySqlConnectionPool.PooledConnection connection) {
+        MySqlConnectionManager.getConnectionManager().releaseConnection(info, connection);
+    }
+
     @Override
     public void removeConnection() {
         MySqlConnectionManager.getConnectionManager().closeConnection(info);
@@ -23,25 +23,31 @@ import java.sql.Connection;
 import java.sql.Driver;
 import java.sql.DriverManager;
 import java.sql.SQLException;
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import org.rhq.plugins.database.DatabaseQueryUtility;
+
 /**
  * A class to manage the connections to MySQL
- * This class keeps a cache of connections to MySQL and reuses them on demand
- * We assume single threaded access to the Connection in the agent
- * this will need to be reworked if that assumption is not correct
+ * This class keeps a pool of connections per MySQL server. The measurements and availability checks
+ * borrow a connection from the pool for the duration of their queries, so that components collecting
+ * concurrently never share a connection.
+ * The connection handed out by {@link #getConnection(MySqlConnectionInfo)} is kept outside of the pool
+ * for the callers of {@link org.rhq.plugins.database.DatabaseComponent#getConnection()}.
  * @author Steve Millidge (C2B2 Consulting Limited)
  */
 class MySqlConnectionManager {
 
-    private HashMap<MySqlConnectionInfo, Connection> connections;
+    private final ConcurrentMap<MySqlConnectionInfo, MySqlConnectionPool> pools = new ConcurrentHashMap<MySqlConnectionInfo, MySqlConnectionPool>();
+    private final ConcurrentMap<MySqlConnectionInfo, SharedConnection> connections = new ConcurrentHashMap<MySqlConnectionInfo, SharedConnection>();
     private static MySqlConnectionManager singleton;
     private Log logger = LogFactory.getLog(MySqlConnectionManager.class);
 
     private MySqlConnectionManager() {
-        connections = new HashMap<MySqlConnectionInfo,Connection>();
         try {
             Class.forName("com.mysql.jdbc.Driver").newInstance();
         } catch (Exception ex) {
@@ -49,7 +55,7 @@ class MySqlConnectionManager {
         }
     }
 
-    static MySqlConnectionManager getConnectionManager() {
+    static synchronized MySqlConnectionManager getConnectionManager() {
         if (singleton == null) {
             singleton = new MySqlConnectionManager();
         }
@@ -57,16 +63,28 @@ class MySqlConnectionManager {
     }
 
     public void shutdown() {
+        for (MySqlConnectionPool pool : pools.values()) {
+            pool.close();
+        }
+        pools.clear();
+
         Driver driver = null;
-        for (Connection conn : connections.values()) {
-            try {
-                if (driver == null) {
-                    String driverName = conn.getMetaData().getDriverName();
-                    driver = DriverManager.getDriver(driverName);
+        for (SharedConnection shared : connections.values()) {
+            synchronized (shared) {
+                if (shared.connection == null) {
+                    continue;
                 }
-                conn.close();
-            }catch(SQLException e) { logger.info("Problem closing connection on Shutdown ignoring...");}
+                try {
+                    if (driver == null) {
+                        String driverName = shared.connection.getMetaData().getDriverName();
+                        driver = DriverManager.getDriver(driverName);
+                    }
+                    DatabaseQueryUtility.closeConnection(shared.connection);
+                }catch(SQLException e) { logger.info("Problem closing connection on Shutdown ignoring...");}
+                shared.connection = null;
+            }
         }
+        connections.clear();
         // deregister driver as well
         if (driver != null) {
             try {
@@ -78,47 +96,100 @@ class MySqlConnectionManager {
     }
 
     void closeConnection(MySqlConnectionInfo info) {
-        Connection conn = connections.get(info);
-        if (conn != null) {
-            try {
-                if (logger.isDebugEnabled()) {
-                    logger.debug("Closing Connection to " + info.buildURL());
+        MySqlConnectionPool pool = pools.remove(info);
+        if (pool != null) {
+            pool.close();
+        }
+
+        SharedConnection shared = connections.remove(info);
+        if (shared != null) {
+            synchronized (shared) {
+                if (shared.connection != null) {
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("Closing Connection to " + info.buildURL());
+                    }
+                    DatabaseQueryUtility.closeConnection(shared.connection);
+                    shared.connection = null;
                 }
-                conn.close();
-            } catch (SQLException e) {
-                logger.warn("Problem closing connection to " + info.buildURL() + " on close");
             }
         }
-        connections.remove(info);
+    }
+
+    /**
+     * Borrows a connection from the pool of the server. The connection must be handed back using
+     * {@link #releaseConnection(MySqlConnectionInfo, MySqlConnectionPool.PooledConnection)} once the caller
+     * is done with it.
+     */
+    MySqlConnectionPool.PooledConnection borrowConnection(MySqlConnectionInfo info) throws SQLException {
+        return getPool(info).borrow();
+    }
+
+    void releaseConnection(MySqlConnectionInfo info, MySqlConnectionPool.PooledConnection connection) {
+        MySqlConnectionPool pool = pools.get(info);
+        if (pool != null) {
+            pool.release(connection);
+        } else if (connection != null) {
+            // the pool has been closed in the meantime
+            connection.close();
+        }
     }
 
     Connection getConnection (MySqlConnectionInfo info) throws SQLException {
-       Connection conn = connections.get(info);
-       String url = info.buildURL();
-       if (conn == null) {
-            if (logger.isInfoEnabled()) {
-                logger.info("Attemping connection to " + url);
-            }
-            conn = DriverManager.getConnection(url,info.getUser(), info.getPassword());
-            if (logger.isInfoEnabled()) {
-                logger.info("Successfully connected to " + url);
+        SharedConnection shared = connections.get(info);
+        if (shared == null) {
+            shared = new SharedConnection();
+            SharedConnection existing = connections.putIfAbsent(info, shared);
+            if (existing != null) {
+                shared = existing;
             }
-            connections.put(info, conn);
-        } else {
-            if (logger.isDebugEnabled()) {
-                logger.debug("Reusing existing connection to " + url);
+        }
+
+        synchronized (shared) {
+            Connection conn = shared.connection;
+            String url = info.buildURL();
+            if (conn == null) {
+                if (logger.isInfoEnabled()) {
+                    logger.info("Attemping connection to " + url);
+                }
+                conn = DriverManager.getConnection(url,info.getUser(), info.getPassword());
+                if (logger.isInfoEnabled()) {
+                    logger.info("Successfully connected to " + url);
+                }
+            } else {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Reusing existing connection to " + url);
+                }
+
+                // check the validity of the connection if it hasn't been used for a while
+                long now = System.currentTimeMillis();
+                if (now - shared.lastValidated >= MySqlConnectionPool.VALIDATION_IDLE_TIME && !conn.isValid(0)) {
+                    // attempt a single reconnect here and now
+                    DatabaseQueryUtility.closeConnection(conn);
+                    conn = DriverManager.getConnection(url,info.getUser(), info.getPassword());
+                    logger.info("Refreshed a connection to " + url);
+                }
             }
+
+            shared.connection = conn;
+            shared.lastValidated = System.currentTimeMillis();
+            return conn;
         }
+    }
 
-        // check the validity of the connection
-        if (!conn.isValid(0)) {
-            // attempt a single reconnect here and now
-            conn.close();
-            conn = DriverManager.getConnection(url,info.getUser(), info.getPassword());
-            connections.put(info, conn);
-            logger.info("Refreshed a connection to " + url);
+    private MySqlConnectionPool getPool(MySqlConnectionInfo info) {
+        MySqlConnectionPool pool = pools.get(info);
+        if (pool == null) {
+            pool = new MySqlConnectionPool(info);
+            MySqlConnectionPool existing = pools.putIfAbsent(info, pool);
+            if (existing != null) {
+                pool = existing;
+            }
         }
-        return conn;
+        return pool;
     }
 
+    private static class SharedConnection {
+        Connection connection;
+        long lastValidated;
+    }
 }
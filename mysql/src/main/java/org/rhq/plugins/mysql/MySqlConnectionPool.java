@@ -0,0 +1,258 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2012 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.rhq.plugins.mysql;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A bounded pool of connections to a single MySQL server.
+ * Each connection is used by a single thread at a time - between {@link #borrow()} and {@link #release(PooledConnection)}.
+ * Connections are only validated when they are borrowed after having been idle for a while.
+ */
+class MySqlConnectionPool {
+
+    private static final String MAX_SIZE_SYSPROP = "rhq.mysql.pool.max-size";
+    private static final String VALIDATION_IDLE_TIME_SYSPROP = "rhq.mysql.pool.validation-idle-time";
+    private static final String BORROW_TIMEOUT_SYSPROP = "rhq.mysql.pool.borrow-timeout";
+
+    static final int MAX_SIZE = Integer.getInteger(MAX_SIZE_SYSPROP, 4);
+    static final long VALIDATION_IDLE_TIME = Long.getLong(VALIDATION_IDLE_TIME_SYSPROP, 30 * 1000L);
+    static final long BORROW_TIMEOUT = Long.getLong(BORROW_TIMEOUT_SYSPROP, 60 * 1000L);
+
+    private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+
+    private final Log log = LogFactory.getLog(MySqlConnectionPool.class);
+
+    private final MySqlConnectionInfo info;
+    private final LinkedList<PooledConnection> idle = new LinkedList<PooledConnection>();
+    private final List<PooledConnection> all = new ArrayList<PooledConnection>();
+    private boolean closed;
+
+    MySqlConnectionPool(MySqlConnectionInfo info) {
+        this.info = info;
+    }
+
+    /**
+     * A pooled connection together with the prepared statements cached on it.
+     */
+    static class PooledConnection {
+        private final Connection connection;
+        private final Map<String, PreparedStatement> statements = new HashMap<String, PreparedStatement>();
+        private long lastUsed;
+        private boolean broken;
+
+        private PooledConnection(Connection connection) {
+            this.connection = connection;
+            this.lastUsed = System.currentTimeMillis();
+        }
+
+        Connection getConnection() {
+            return connection;
+        }
+
+        /**
+         * Returns a prepared statement for the SQL, reusing the one prepared earlier on this connection.
+         * The statement must not be closed by the caller, only its result sets.
+         */
+        PreparedStatement prepareStatement(String sql) throws SQLException {
+            PreparedStatement statement = statements.get(sql);
+            if (statement == null) {
+                statement = connection.prepareStatement(sql);
+                statements.put(sql, statement);
+            }
+
+            return statement;
+        }
+
+        /**
+         * Marks the connection as unusable so that it is closed instead of being returned to the pool.
+         */
+        void setBroken() {
+            broken = true;
+        }
+
+        void close() {
+            for (PreparedStatement statement : statements.values()) {
+                try {
+                    statement.close();
+                } catch (SQLException e) {
+                    // ignore, we're closing the connection anyway
+                }
+            }
+            statements.clear();
+
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     * Borrows a connection from the pool, opening a new one if there is no idle connection and the pool is not full.
+     * Waits for a connection to be released if the pool is full.
+     *
+     * @return the connection which must be handed back using {@link #release(PooledConnection)}
+     * @throws SQLException if the connection cannot be opened or none became available in time
+     */
+    PooledConnection borrow() throws SQLException {
+        long deadline = System.currentTimeMillis() + BORROW_TIMEOUT;
+
+        while (true) {
+            PooledConnection candidate = null;
+            boolean create = false;
+
+            synchronized (this) {
+                if (closed) {
+                    throw new SQLException("Connection pool to " + info.buildURL() + " has been closed.");
+                }
+
+                if (!idle.isEmpty()) {
+                    candidate = idle.removeFirst();
+                } else if (all.size() < MAX_SIZE) {
+                    //reserve the slot so that we don't create more connections than allowed
+                    all.add(null);
+                    create = true;
+                } else {
+                    long wait = deadline - System.currentTimeMillis();
+                    if (wait <= 0) {
+                        throw new SQLException("Timed out waiting for a connection to " + info.buildURL() + ".");
+                    }
+
+                    try {
+                        wait(wait);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new SQLException("Interrupted while waiting for a connection to " + info.buildURL());
+                    }
+
+                    continue;
+                }
+            }
+
+            if (create) {
+                return open();
+            }
+
+            if (isValid(candidate)) {
+                return candidate;
+            }
+
+            discard(candidate);
+        }
+    }
+
+    /**
+     * Returns the connection to the pool, or closes it if it has been marked broken.
+     */
+    void release(PooledConnection connection) {
+        if (connection == null) {
+            return;
+        }
+
+        synchronized (this) {
+            if (!closed && !connection.broken && all.contains(connection)) {
+                connection.lastUsed = System.currentTimeMillis();
+                idle.addFirst(connection);
+                notifyAll();
+                return;
+            }
+        }
+
+        discard(connection);
+    }
+
+    /**
+     * Closes all the connections. Connections that are currently borrowed are closed when they are released.
+     */
+    void close() {
+        List<PooledConnection> toClose;
+        synchronized (this) {
+            closed = true;
+            toClose = new ArrayList<PooledConnection>(idle);
+            idle.clear();
+            all.removeAll(toClose);
+            notifyAll();
+        }
+
+        for (PooledConnection connection : toClose) {
+            connection.close();
+        }
+    }
+
+    private PooledConnection open() throws SQLException {
+        String url = info.buildURL();
+        PooledConnection connection = null;
+        try {
+            if (log.isDebugEnabled()) {
+                log.debug("Attemping connection to " + url);
+            }
+            connection = new PooledConnection(DriverManager.getConnection(url, info.getUser(), info.getPassword()));
+            if (log.isDebugEnabled()) {
+                log.debug("Successfully connected to " + url);
+            }
+            return connection;
+        } finally {
+            synchronized (this) {
+                all.remove(null);
+                if (connection != null) {
+                    all.add(connection);
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    private boolean isValid(PooledConnection connection) {
+        if (System.currentTimeMillis() - connection.lastUsed < VALIDATION_IDLE_TIME) {
+            return true;
+        }
+
+        try {
+            return connection.connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void discard(PooledConnection connection) {
+        synchronized (this) {
+            all.remove(connection);
+            notifyAll();
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("Closing connection to " + info.buildURL());
+        }
+        connection.close();
+    }
+}
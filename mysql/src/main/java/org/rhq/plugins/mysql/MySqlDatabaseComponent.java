@@ -20,10 +20,13 @@ package org.rhq.plugins.mysql;
 
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.Map;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.rhq.core.domain.configuration.Configuration;
@@ -48,6 +51,19 @@ public class MySqlDatabaseComponent implements DatabaseComponent, AvailabilityFa
     private String databaseName;
     private static Log log = LogFactory.getLog(MySqlDatabaseComponent.class);
 
+    /**
+     * The columns of <code>information_schema.TABLES</code> named like the columns of <code>SHOW TABLE STATUS</code>
+     * that the table metrics are named after.
+     */
+    static final String TABLE_STATUS_QUERY = "select TABLE_NAME as `Name`, ENGINE as `Engine`, VERSION as `Version`, "
+        + "ROW_FORMAT as `Row_format`, TABLE_ROWS as `Rows`, AVG_ROW_LENGTH as `Avg_row_length`, "
+        + "DATA_LENGTH as `Data_length`, MAX_DATA_LENGTH as `Max_data_length`, INDEX_LENGTH as `Index_length`, "
+        + "DATA_FREE as `Data_free`, cast(CREATE_TIME as char) as `Create_time`, TABLE_COLLATION as `Collation`, "
+        + "TABLE_COMMENT as `Comment`, CREATE_OPTIONS as `Create_options` "
+        + "from information_schema.TABLES where TABLE_SCHEMA = ?";
+
+    private PooledQuerySnapshot tableStatus;
+
     @Override
     public Connection getConnection() {
         return parent.getConnection();
@@ -58,17 +74,40 @@ public class MySqlDatabaseComponent implements DatabaseComponent, AvailabilityFa
         parent.removeConnection();
     }
 
+    MySqlConnectionPool.PooledConnection borrowConnection() {
+        return parent.borrowConnection();
+    }
+
+    void releaseConnection(MySqlConnectionPool.PooledConnection connection) {
+        parent.releaseConnection(connection);
+    }
+
     @Override
     public void start(ResourceContext rc) throws InvalidPluginConfigurationException, Exception {
         resourceContext = rc;
         databaseName = rc.getResourceKey();
         parent = (MySqlComponent)resourceContext.getParentResourceComponent();
+        tableStatus = new PooledQuerySnapshot(parent, TABLE_STATUS_QUERY, "Name", databaseName);
     }
 
     public String getName() { return databaseName; }
 
+    /**
+     * Returns the status of the table from the snapshot of all the tables in this database.
+     *
+     * @param tableName the name of the table
+     * @return the values keyed by the <code>SHOW TABLE STATUS</code> column names or null if there is no such table
+     * @throws SQLException if the snapshot could not be loaded
+     */
+    Map<String, Object> getTableStatus(String tableName) throws SQLException {
+        return tableStatus.getRow(this, tableName);
+    }
+
     @Override
     public void stop() {
+        if (tableStatus != null) {
+            tableStatus.clear();
+        }
     }
 
     @Override
@@ -78,24 +117,26 @@ public class MySqlDatabaseComponent implements DatabaseComponent, AvailabilityFa
         if (log.isDebugEnabled()) {
             log.debug("Availability check for " + databaseName);
         }
-        Connection conn = getConnection();
+        MySqlConnectionPool.PooledConnection conn = borrowConnection();
         if (conn != null) {
-            Statement statement = null;
             ResultSet resultSet = null;
             try {
-                statement = conn.createStatement();
-                resultSet = statement.executeQuery("SHOW DATABASES LIKE '" + databaseName + "'");
+                PreparedStatement statement = conn.prepareStatement("SHOW DATABASES LIKE ?");
+                statement.setString(1, databaseName);
+                resultSet = statement.executeQuery();
                 if (resultSet.next()) {
                     if (resultSet.getString(1).equalsIgnoreCase(databaseName)) {
                         result = AvailabilityType.UP;
                     }
                 }
             }catch(SQLException e) {
+                conn.setBroken();
                 if (log.isDebugEnabled()) {
                     log.debug("Got Exception when determining database availability",e);
                 }
             } finally {
-                DatabaseQueryUtility.close(statement, resultSet);
+                DatabaseQueryUtility.close(null, resultSet);
+                releaseConnection(conn);
             }
         }
         return result;
@@ -19,9 +19,8 @@
 package org.rhq.plugins.mysql;
 
 import java.sql.Connection;
-import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
+import java.util.Map;
 import java.util.Set;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -34,7 +33,7 @@ import org.rhq.core.pluginapi.inventory.InvalidPluginConfigurationException;
 import org.rhq.core.pluginapi.inventory.ResourceContext;
 import org.rhq.core.pluginapi.measurement.MeasurementFacet;
 import org.rhq.plugins.database.DatabaseComponent;
-import org.rhq.plugins.database.DatabaseQueryUtility;
+import org.rhq.plugins.database.KeyedQuerySnapshot;
 
 /**
  *
@@ -44,7 +43,6 @@ public class MySqlTableComponent implements DatabaseComponent, MeasurementFacet
 
     private String tableName;
     private MySqlDatabaseComponent parent;
-    private String databaseName;
     private Log log = LogFactory.getLog(this.getClass());
 
     @Override
@@ -61,7 +59,6 @@ public class MySqlTableComponent implements DatabaseComponent, MeasurementFacet
     public void start(ResourceContext rc) throws InvalidPluginConfigurationException, Exception {
         tableName = rc.getResourceKey();
         parent = (MySqlDatabaseComponent)rc.getParentResourceComponent();
-        databaseName = parent.getName();
     }
 
     @Override
@@ -71,57 +68,40 @@ public class MySqlTableComponent implements DatabaseComponent, MeasurementFacet
     @Override
     public AvailabilityType getAvailability() {
         AvailabilityType result = AvailabilityType.DOWN;
-        Connection conn = parent.getConnection();
-        if (conn != null) {
-            Statement stmt = null;
-            ResultSet rs = null;
-            try {
-                stmt = conn.createStatement();
-                rs = stmt.executeQuery("show tables from " + databaseName + " like '" + tableName + "'");
-                if (rs.first()) {
-                    result = AvailabilityType.UP;
-                }
-            }catch (SQLException se) {
-                // ignore as unablailable if we can't execute the query
-            }finally {
-                DatabaseQueryUtility.close(stmt, rs);
+        try {
+            if (parent.getTableStatus(tableName) != null) {
+                result = AvailabilityType.UP;
             }
+        }catch (SQLException se) {
+            // ignore as unablailable if we can't execute the query
         }
         return result;
     }
 
     @Override
     public void getValues(MeasurementReport mr, Set<MeasurementScheduleRequest> set) throws Exception {
-        Connection conn = parent.getConnection();
-        if (conn != null ) {
-            Statement stmt = null;
-            ResultSet rs = null;
-            try {
-                stmt = conn.createStatement();
-                rs = stmt.executeQuery("show table status from " + databaseName+ " like '" + tableName + "'");
-                if (rs.next()) {
-                    for (MeasurementScheduleRequest request : set) {
-                        String value = rs.getString(request.getName());
-                        if (value == null) {value = "0";}
-                        switch (request.getDataType()) {
-                            case MEASUREMENT: {
-                                mr.addData(new MeasurementDataNumeric(request, Double.valueOf(value)));
-                                break;
-                            } case TRAIT: {
-                                mr.addData(new MeasurementDataTrait(request, value));
-                                break;
-                            } default: {
-                                break;
-                            }
+        try {
+            Map<String, Object> status = parent.getTableStatus(tableName);
+            if (status != null) {
+                for (MeasurementScheduleRequest request : set) {
+                    String value = KeyedQuerySnapshot.getString(status, request.getName());
+                    if (value == null) {value = "0";}
+                    switch (request.getDataType()) {
+                        case MEASUREMENT: {
+                            mr.addData(new MeasurementDataNumeric(request, Double.valueOf(value)));
+                            break;
+                        } case TRAIT: {
+                            mr.addData(new MeasurementDataTrait(request, value));
+                            break;
+                        } default: {
+                            break;
                         }
                     }
                 }
-            } catch(Exception se) {
-                if (log.isInfoEnabled()) {
-                    log.info("Unable to measure table statistics", se);
-                }
-            }finally {
-                DatabaseQueryUtility.close(stmt, rs);
+            }
+        } catch(Exception se) {
+            if (log.isInfoEnabled()) {
+                log.info("Unable to measure table statistics", se);
             }
         }
     }
@@ -23,7 +23,6 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.util.Set;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -73,28 +72,17 @@ public class MySqlUserComponent implements MeasurementFacet, DatabaseComponent {
 
 
     public void getValues(MeasurementReport mr, Set<MeasurementScheduleRequest> requests) throws Exception {
-        Connection conn = getConnection();
-        ResultSet rs = null;
-        Statement stmt = null;
         int activeConnections = 0;
         int totalConnections = 0;
         try {
-            stmt = conn.createStatement();
-            rs = stmt.executeQuery("select User,Host,State from information_schema.processlist where User='"+userName+"'");
-            while(rs.next()) {
-                String hostVal = rs.getString(2);
-                String state = rs.getString(3);
-                if (hostVal.startsWith(host)) {
-                    if (state.length() > 1) {
-                        activeConnections ++;
-                    }
-                    totalConnections++;
+            for (MySqlComponent.ConnectionCount count : parent.getConnectionCounts(userName)) {
+                if (count.host != null && count.host.startsWith(host)) {
+                    activeConnections += count.active;
+                    totalConnections += count.total;
                 }
             }
         }catch(SQLException sqle) {
 
-        } finally {
-           DatabaseQueryUtility.close(stmt, rs);
         }
 
         for (MeasurementScheduleRequest request : requests) {
@@ -108,19 +96,24 @@ public class MySqlUserComponent implements MeasurementFacet, DatabaseComponent {
 
     public AvailabilityType getAvailability() {
         AvailabilityType result = AvailabilityType.DOWN;
-        Connection conn = getConnection();
+        MySqlConnectionPool.PooledConnection conn = parent.borrowConnection();
+        if (conn == null) {
+            return result;
+        }
         ResultSet rs = null;
-        Statement stmt = null;
         try {
-            stmt = conn.createStatement();
-            rs = stmt.executeQuery("select User from mysql.user where User='"+userName+"' and Host='" + host +"'");
+            PreparedStatement stmt = conn.prepareStatement("select User from mysql.user where User=? and Host=?");
+            stmt.setString(1, userName);
+            stmt.setString(2, host);
+            rs = stmt.executeQuery();
             if (rs.first()) {
                 result = AvailabilityType.UP;
             }
         }catch(SQLException sqle) {
-
+            conn.setBroken();
         } finally {
-           DatabaseQueryUtility.close(stmt, rs);
+           DatabaseQueryUtility.close(null, rs);
+           parent.releaseConnection(conn);
         }
         return result;
     }
@@ -0,0 +1,65 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2012 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.rhq.plugins.mysql;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+
+import org.rhq.plugins.database.DatabaseComponent;
+import org.rhq.plugins.database.KeyedQuerySnapshot;
+
+/**
+ * A {@link KeyedQuerySnapshot} running its query on a connection borrowed from the pool of the server rather than
+ * on the connection of the component it is read by.
+ */
+class PooledQuerySnapshot extends KeyedQuerySnapshot {
+
+    private final MySqlComponent server;
+
+    /**
+     * @param server the component of the server to borrow the connection from
+     * @param query the query returning all the rows
+     * @param keyColumn the label of the column identifying the rows
+     * @param parameters the parameters of the query
+     */
+    PooledQuerySnapshot(MySqlComponent server, String query, String keyColumn, Object... parameters) {
+        super(query, keyColumn, MySqlComponent.SNAPSHOT_WINDOW, parameters);
+        this.server = server;
+    }
+
+    @Override
+    protected Map<String, List<Map<String, Object>>> load(DatabaseComponent<?> databaseComponent)
+        throws SQLException {
+        MySqlConnectionPool.PooledConnection connection = server.borrowConnection();
+        if (connection == null) {
+            throw new SQLException("Could not obtain a connection to the server.");
+        }
+
+        try {
+            return load(connection.getConnection());
+        } catch (SQLException e) {
+            connection.setBroken();
+            throw e;
+        } finally {
+            server.releaseConnection(connection);
+        }
+    }
+}
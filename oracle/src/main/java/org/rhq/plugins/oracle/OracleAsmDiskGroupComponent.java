@@ -18,10 +18,9 @@
  */
 package org.rhq.plugins.oracle;
 
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.commons.logging.Log;
@@ -33,9 +32,8 @@ import org.rhq.core.domain.measurement.MeasurementDataTrait;
 import org.rhq.core.domain.measurement.MeasurementReport;
 import org.rhq.core.domain.measurement.MeasurementScheduleRequest;
 import org.rhq.core.pluginapi.measurement.MeasurementFacet;
-import org.rhq.core.util.jdbc.JDBCUtil;
 import org.rhq.plugins.database.AbstractDatabaseComponent;
-import org.rhq.plugins.database.DatabaseQueryUtility;
+import org.rhq.plugins.database.KeyedQuerySnapshot;
 
 /**
  * Oracle ASM Disk Group Component.
@@ -46,36 +44,19 @@ import org.rhq.plugins.database.DatabaseQueryUtility;
 public class OracleAsmDiskGroupComponent extends AbstractDatabaseComponent
 		implements MeasurementFacet {
 
-	private static final String SQL_AVAILABLE = "SELECT COUNT(*) FROM v$asm_diskgroup WHERE group_number = ? and STATE <> 'BROKEN'";
-
-	private static final String SQL_VALUES = "SELECT GROUP_NUMBER, " + "NAME, "
-			+ "SECTOR_SIZE sectorSize, " + "BLOCK_SIZE blockSize, "
-			+ "ALLOCATION_UNIT_SIZE allocationUnitSize, " + "STATE state, "
-			+ "TYPE type, " + "TOTAL_MB totalMb, " + "FREE_MB freeMb, "
-			+ "((TOTAL_MB-FREE_MB)/TOTAL_MB) usedPercent, "
-			+ "REQUIRED_MIRROR_FREE_MB requiredMirrorFreeMb, "
-			+ "USABLE_FILE_MB usableFileMb, " + "OFFLINE_DISKS offlineDisks, "
-			+ "COMPATIBILITY compatibility, "
-			+ "DATABASE_COMPATIBILITY databaseCompatibility "
-			+ "FROM v$asm_diskgroup WHERE group_number = ?";
-
 	private static Log log = LogFactory
 			.getLog(OracleAsmDiskGroupComponent.class);
 
 	public AvailabilityType getAvailability() {
-		PreparedStatement statement = null;
-		ResultSet resultSet = null;
 		try {
-			statement = getConnection().prepareStatement(SQL_AVAILABLE);
-			statement.setString(1, this.resourceContext.getResourceKey());
-			resultSet = statement.executeQuery();
-			if (resultSet.next() && (resultSet.getInt(1) == 1)) {
+			Map<String, Object> row = getServer().getAsmDiskGroup(
+					this.resourceContext.getResourceKey());
+			if (row != null
+					&& !"BROKEN".equals(KeyedQuerySnapshot.getString(row, "STATE"))) {
 				return AvailabilityType.UP;
 			}
 		} catch (SQLException e) {
 			log.debug("unable to query", e);
-		} finally {
-			JDBCUtil.safeClose(statement, resultSet);
 		}
 
 		return AvailabilityType.DOWN;
@@ -83,35 +64,37 @@ public class OracleAsmDiskGroupComponent extends AbstractDatabaseComponent
 
 	public void getValues(MeasurementReport report,
 			Set<MeasurementScheduleRequest> metrics) throws Exception {
-		PreparedStatement statement = null;
-		ResultSet resultSet = null;
+		Map<String, Object> row;
 		try {
-			statement = this.getConnection().prepareStatement(SQL_VALUES);
-			statement.setString(1, this.resourceContext.getResourceKey());
-			resultSet = statement.executeQuery();
-			if (resultSet.next()) {
-				for (MeasurementScheduleRequest request : metrics) {
-					String name = request.getName().toUpperCase(Locale.US);
-					if (request.getDataType().equals(DataType.TRAIT)) {
-						report.addData(new MeasurementDataTrait(request,
-								resultSet.getString(name)));
+			row = getServer().getAsmDiskGroup(
+					this.resourceContext.getResourceKey());
+		} catch (SQLException e) {
+			log.debug("Unable to read value", e);
+			return;
+		}
+
+		if (row != null) {
+			for (MeasurementScheduleRequest request : metrics) {
+				String name = request.getName().toUpperCase(Locale.US);
+				if (request.getDataType().equals(DataType.TRAIT)) {
+					report.addData(new MeasurementDataTrait(request,
+							KeyedQuerySnapshot.getString(row, name)));
+				} else {
+					Double value = KeyedQuerySnapshot.getDouble(row, name);
+					if (value != null) {
+						report.addData(new MeasurementDataNumeric(request, value));
 					} else {
-						try {
-							report.addData(new MeasurementDataNumeric(request,
-									resultSet.getDouble(name)));
-						} catch (SQLException e) {
-							// Ignoring metrics that cannot be read as a double
-							log.warn("Ignoring metric " + name
-									+ " as it cannot be read as a double");
-						}
+						// Ignoring metrics that cannot be read as a double
+						log.debug("Ignoring metric " + name
+								+ " as it cannot be read as a double");
 					}
 				}
 			}
-		} catch (SQLException e) {
-			log.debug("Unable to read value", e);
-			removeConnection();
-		} finally {
-			DatabaseQueryUtility.close(statement, resultSet);
 		}
 	}
-}
\ No newline at end of file
+
+	private OracleServerComponent getServer() {
+		return (OracleServerComponent) this.resourceContext
+				.getParentResourceComponent();
+	}
+}
@@ -18,8 +18,6 @@
  */
 package org.rhq.plugins.oracle;
 
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Locale;
 import java.util.Map;
@@ -32,9 +30,8 @@ import org.rhq.core.domain.measurement.MeasurementDataNumeric;
 import org.rhq.core.domain.measurement.MeasurementReport;
 import org.rhq.core.domain.measurement.MeasurementScheduleRequest;
 import org.rhq.core.pluginapi.measurement.MeasurementFacet;
-import org.rhq.core.util.jdbc.JDBCUtil;
 import org.rhq.plugins.database.AbstractDatabaseComponent;
-import org.rhq.plugins.database.DatabaseQueryUtility;
+import org.rhq.plugins.database.KeyedQuerySnapshot;
 
 /**
  * Oracle Flash Recovery Area Component.
@@ -43,41 +40,39 @@ import org.rhq.plugins.database.DatabaseQueryUtility;
  */
 public class OracleFlashRecoveryAreaComponent extends AbstractDatabaseComponent implements MeasurementFacet {
 
-    private static final String SQL_AVAILABLE = "SELECT COUNT(*) FROM v$recovery_file_dest WHERE name = ?";
-    private static final String SQL_VALUES =
-        "SELECT space_limit spaceLimit, space_used spaceUsed, space_reclaimable spaceReclaimable, number_of_files numberOfFiles, (space_used/space_limit) usedPercent " +
-        "FROM v$recovery_file_dest WHERE name = ?";
-
-
     private static Log log = LogFactory.getLog(OracleFlashRecoveryAreaComponent.class);
 
     public AvailabilityType getAvailability() {
-        PreparedStatement statement = null;
-        ResultSet resultSet = null;
         try {
-            statement = getConnection().prepareStatement(SQL_AVAILABLE);
-            statement.setString(1, this.resourceContext.getResourceKey());
-            resultSet = statement.executeQuery();
-            if (resultSet.next() && (resultSet.getInt(1) == 1)) {
+            Map<String, Object> row = getServer().getRecoveryArea(this.resourceContext.getResourceKey());
+            if (row != null) {
                 return AvailabilityType.UP;
             }
         } catch (SQLException e) {
             log.debug("unable to query", e);
-        } finally {
-            JDBCUtil.safeClose(statement, resultSet);
         }
 
         return AvailabilityType.DOWN;
     }
 
     public void getValues(MeasurementReport report, Set<MeasurementScheduleRequest> metrics) throws Exception {
-        Map<String, Double> values = DatabaseQueryUtility.getNumericQueryValues(this, SQL_VALUES,
-                this.resourceContext.getResourceKey());
+        Map<String, Object> row;
+        try {
+            row = getServer().getRecoveryArea(this.resourceContext.getResourceKey());
+        } catch (SQLException e) {
+            log.debug("Unable to read value", e);
+            return;
+        }
+
         for (MeasurementScheduleRequest request : metrics) {
-            Double d = values.get(request.getName().toUpperCase(Locale.US));
+            Double d = KeyedQuerySnapshot.getDouble(row, request.getName().toUpperCase(Locale.US));
             if (d != null) {
                 report.addData(new MeasurementDataNumeric(request, d));
             }
         }
     }
-}
\ No newline at end of file
+
+    private OracleServerComponent getServer() {
+        return (OracleServerComponent) this.resourceContext.getParentResourceComponent();
+    }
+}
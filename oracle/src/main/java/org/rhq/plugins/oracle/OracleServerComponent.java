@@ -36,9 +36,9 @@ import org.rhq.core.domain.measurement.MeasurementScheduleRequest;
 import org.rhq.core.pluginapi.inventory.InvalidPluginConfigurationException;
 import org.rhq.core.pluginapi.inventory.ResourceContext;
 import org.rhq.core.pluginapi.measurement.MeasurementFacet;
-import org.rhq.core.util.jdbc.JDBCUtil;
 import org.rhq.plugins.database.DatabaseComponent;
 import org.rhq.plugins.database.DatabaseQueryUtility;
+import org.rhq.plugins.database.KeyedQuerySnapshot;
 
 /**
  * @author Greg Hinkle
@@ -52,6 +52,47 @@ public class OracleServerComponent implements DatabaseComponent, MeasurementFace
 
     private boolean started;
 
+    private static final String SQL_TABLESPACES = "SELECT t.tablespace_name, m.used_space usedSpace, "
+        + "m.tablespace_size totalSize, (m.used_percent/100) usedPercent "
+        + "FROM dba_tablespaces t LEFT OUTER JOIN dba_tablespace_usage_metrics m "
+        + "ON m.tablespace_name = t.tablespace_name";
+
+    private static final String SQL_USERS = "SELECT u.username, NVL(s.active, 0) active, "
+        + "NVL(s.connections, 0) connections FROM dba_users u LEFT OUTER JOIN "
+        + "(SELECT username, SUM(DECODE(status, 'ACTIVE', 1, 0)) active, COUNT(1) connections "
+        + "FROM V$SESSION WHERE username IS NOT NULL GROUP BY username) s ON s.username = u.username";
+
+    private static final String SQL_ASM_DISK_GROUPS = "SELECT GROUP_NUMBER, " + "NAME, "
+        + "SECTOR_SIZE sectorSize, " + "BLOCK_SIZE blockSize, " + "ALLOCATION_UNIT_SIZE allocationUnitSize, "
+        + "STATE state, " + "TYPE type, " + "TOTAL_MB totalMb, " + "FREE_MB freeMb, "
+        + "DECODE(TOTAL_MB, 0, NULL, (TOTAL_MB-FREE_MB)/TOTAL_MB) usedPercent, "
+        + "REQUIRED_MIRROR_FREE_MB requiredMirrorFreeMb, " + "USABLE_FILE_MB usableFileMb, "
+        + "OFFLINE_DISKS offlineDisks, " + "COMPATIBILITY compatibility, "
+        + "DATABASE_COMPATIBILITY databaseCompatibility " + "FROM v$asm_diskgroup";
+
+    private static final String SQL_RECOVERY_AREAS = "SELECT name, space_limit spaceLimit, space_used spaceUsed, "
+        + "space_reclaimable spaceReclaimable, number_of_files numberOfFiles, "
+        + "DECODE(space_limit, 0, NULL, space_used/space_limit) usedPercent FROM v$recovery_file_dest";
+
+    /**
+     * The time the rows of the tablespaces, users, ASM disk groups and recovery areas are reused for.
+     */
+    static final long SNAPSHOT_WINDOW = Long.getLong("rhq.oracle.snapshot-window", 15 * 1000L);
+
+    /**
+     * The number of rows fetched per round trip when loading the snapshots.
+     */
+    static final int SNAPSHOT_FETCH_SIZE = Integer.getInteger("rhq.oracle.snapshot-fetch-size", 500);
+
+    private final KeyedQuerySnapshot tablespaces = new KeyedQuerySnapshot(SQL_TABLESPACES, "TABLESPACE_NAME",
+        SNAPSHOT_WINDOW, SNAPSHOT_FETCH_SIZE);
+    private final KeyedQuerySnapshot users = new KeyedQuerySnapshot(SQL_USERS, "USERNAME", SNAPSHOT_WINDOW,
+        SNAPSHOT_FETCH_SIZE);
+    private final KeyedQuerySnapshot asmDiskGroups = new KeyedQuerySnapshot(SQL_ASM_DISK_GROUPS, "GROUP_NUMBER",
+        SNAPSHOT_WINDOW, SNAPSHOT_FETCH_SIZE);
+    private final KeyedQuerySnapshot recoveryAreas = new KeyedQuerySnapshot(SQL_RECOVERY_AREAS, "NAME",
+        SNAPSHOT_WINDOW, SNAPSHOT_FETCH_SIZE);
+
     public void start(ResourceContext resourceContext) throws InvalidPluginConfigurationException, Exception {
         this.resourceContext = resourceContext;
         this.connection = buildConnection(resourceContext.getPluginConfiguration());
@@ -59,6 +100,10 @@ public class OracleServerComponent implements DatabaseComponent, MeasurementFace
     }
 
     public void stop() {
+        tablespaces.clear();
+        users.clear();
+        asmDiskGroups.clear();
+        recoveryAreas.clear();
         removeConnection();
         this.started = false;
     }
@@ -88,6 +133,34 @@ public class OracleServerComponent implements DatabaseComponent, MeasurementFace
         }
     }
 
+    /**
+     * @return the tablespace and its usage metrics or null if there is no such tablespace
+     */
+    Map<String, Object> getTablespace(String name) throws SQLException {
+        return tablespaces.getRow(this, name);
+    }
+
+    /**
+     * @return the user and the counts of its sessions or null if there is no such user
+     */
+    Map<String, Object> getUser(String name) throws SQLException {
+        return users.getRow(this, name);
+    }
+
+    /**
+     * @return the ASM disk group or null if there is no such group
+     */
+    Map<String, Object> getAsmDiskGroup(String groupNumber) throws SQLException {
+        return asmDiskGroups.getRow(this, groupNumber);
+    }
+
+    /**
+     * @return the flash recovery area or null if there is no such area
+     */
+    Map<String, Object> getRecoveryArea(String name) throws SQLException {
+        return recoveryAreas.getRow(this, name);
+    }
+
     public Connection getConnection() {
         try {
             if (this.connection == null || connection.isClosed()) {
@@ -100,7 +173,7 @@ public class OracleServerComponent implements DatabaseComponent, MeasurementFace
     }
 
     public void removeConnection() {
-        JDBCUtil.safeClose(connection);
+        DatabaseQueryUtility.closeConnection(connection);
         this.connection = null;
     }
 
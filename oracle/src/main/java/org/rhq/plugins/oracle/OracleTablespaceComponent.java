@@ -18,8 +18,6 @@
  */
 package org.rhq.plugins.oracle;
 
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Locale;
 import java.util.Map;
@@ -32,9 +30,8 @@ import org.rhq.core.domain.measurement.MeasurementDataNumeric;
 import org.rhq.core.domain.measurement.MeasurementReport;
 import org.rhq.core.domain.measurement.MeasurementScheduleRequest;
 import org.rhq.core.pluginapi.measurement.MeasurementFacet;
-import org.rhq.core.util.jdbc.JDBCUtil;
 import org.rhq.plugins.database.AbstractDatabaseComponent;
-import org.rhq.plugins.database.DatabaseQueryUtility;
+import org.rhq.plugins.database.KeyedQuerySnapshot;
 
 /**
  * Oracle Tablespace Component.
@@ -43,41 +40,39 @@ import org.rhq.plugins.database.DatabaseQueryUtility;
  */
 public class OracleTablespaceComponent extends AbstractDatabaseComponent implements MeasurementFacet {
 
-    private static final String SQL_AVAILABLE = "SELECT COUNT(*) FROM dba_tablespaces WHERE tablespace_name = ?";
-    private static final String SQL_VALUES =
-        "SELECT USED_SPACE usedSpace, TABLESPACE_SIZE totalSize, (USED_PERCENT/100) usedPercent " +
-        "FROM dba_tablespace_usage_metrics where tablespace_name = ?";
-
-
     private static Log log = LogFactory.getLog(OracleTablespaceComponent.class);
 
     public AvailabilityType getAvailability() {
-        PreparedStatement statement = null;
-        ResultSet resultSet = null;
         try {
-            statement = getConnection().prepareStatement(SQL_AVAILABLE);
-            statement.setString(1, this.resourceContext.getResourceKey());
-            resultSet = statement.executeQuery();
-            if (resultSet.next() && (resultSet.getInt(1) == 1)) {
+            Map<String, Object> row = getServer().getTablespace(this.resourceContext.getResourceKey());
+            if (row != null) {
                 return AvailabilityType.UP;
             }
         } catch (SQLException e) {
             log.debug("unable to query", e);
-        } finally {
-            JDBCUtil.safeClose(statement, resultSet);
         }
 
         return AvailabilityType.DOWN;
     }
 
     public void getValues(MeasurementReport report, Set<MeasurementScheduleRequest> metrics) throws Exception {
-        Map<String, Double> values = DatabaseQueryUtility.getNumericQueryValues(this, SQL_VALUES,
-                this.resourceContext.getResourceKey());
+        Map<String, Object> row;
+        try {
+            row = getServer().getTablespace(this.resourceContext.getResourceKey());
+        } catch (SQLException e) {
+            log.debug("Unable to read value", e);
+            return;
+        }
+
         for (MeasurementScheduleRequest request : metrics) {
-            Double d = values.get(request.getName().toUpperCase(Locale.US));
+            Double d = KeyedQuerySnapshot.getDouble(row, request.getName().toUpperCase(Locale.US));
             if (d != null) {
                 report.addData(new MeasurementDataNumeric(request, d));
             }
         }
     }
-}
\ No newline at end of file
+
+    private OracleServerComponent getServer() {
+        return (OracleServerComponent) this.resourceContext.getParentResourceComponent();
+    }
+}
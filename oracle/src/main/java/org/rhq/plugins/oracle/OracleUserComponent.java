@@ -18,8 +18,6 @@
  */
 package org.rhq.plugins.oracle;
 
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Locale;
 import java.util.Map;
@@ -32,50 +30,47 @@ import org.rhq.core.domain.measurement.MeasurementDataNumeric;
 import org.rhq.core.domain.measurement.MeasurementReport;
 import org.rhq.core.domain.measurement.MeasurementScheduleRequest;
 import org.rhq.core.pluginapi.measurement.MeasurementFacet;
-import org.rhq.core.util.jdbc.JDBCUtil;
 import org.rhq.plugins.database.AbstractDatabaseComponent;
-import org.rhq.plugins.database.DatabaseQueryUtility;
+import org.rhq.plugins.database.KeyedQuerySnapshot;
 
 /**
  * @author Greg Hinkle
  */
 public class OracleUserComponent extends AbstractDatabaseComponent implements MeasurementFacet {
 
-    private static final String SQL_USER = "SELECT COUNT(*) FROM DBA_USERS WHERE username = ?";
-    private static final String SESSIONS =
-        "SELECT SUM(DECODE(Status, 'ACTIVE', 1, 0)) active, COUNT(1) connections " +
-        "FROM V$SESSION where username = ?";
-
-
     private static Log log = LogFactory.getLog(OracleUserComponent.class);
 
     public AvailabilityType getAvailability() {
-        PreparedStatement statement = null;
-        ResultSet resultSet = null;
         try {
-            statement = getConnection().prepareStatement(SQL_USER);
-            statement.setString(1, this.resourceContext.getResourceKey());
-            resultSet = statement.executeQuery();
-            if (resultSet.next() && (resultSet.getInt(1) == 1)) {
+            Map<String, Object> row = getServer().getUser(this.resourceContext.getResourceKey());
+            if (row != null) {
                 return AvailabilityType.UP;
             }
         } catch (SQLException e) {
             log.debug("unable to query", e);
-        } finally {
-            JDBCUtil.safeClose(statement, resultSet);
         }
 
         return AvailabilityType.DOWN;
     }
 
     public void getValues(MeasurementReport report, Set<MeasurementScheduleRequest> metrics) throws Exception {
-        Map<String, Double> values = DatabaseQueryUtility.getNumericQueryValues(this, SESSIONS,
-                this.resourceContext.getResourceKey());
+        Map<String, Object> row;
+        try {
+            row = getServer().getUser(this.resourceContext.getResourceKey());
+        } catch (SQLException e) {
+            log.debug("Unable to read value", e);
+            return;
+        }
+
         for (MeasurementScheduleRequest request : metrics) {
-            Double d = values.get(request.getName().toUpperCase(Locale.US));
+            Double d = KeyedQuerySnapshot.getDouble(row, request.getName().toUpperCase(Locale.US));
             if (d != null) {
                 report.addData(new MeasurementDataNumeric(request, d));
             }
         }
     }
-}
\ No newline at end of file
+
+    private OracleServerComponent getServer() {
+        return (OracleServerComponent) this.resourceContext.getParentResourceComponent();
+    }
+}
@@ -19,11 +19,11 @@
 package org.rhq.plugins.postgres;
 
 import java.sql.Connection;
-import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.ResultSetMetaData;
+import java.util.Map;
 import java.util.Set;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -45,6 +45,8 @@ import org.rhq.core.pluginapi.operation.OperationFacet;
 import org.rhq.core.pluginapi.operation.OperationResult;
 import org.rhq.core.util.jdbc.JDBCUtil;
 import org.rhq.plugins.database.DatabaseComponent;
+import org.rhq.plugins.database.DatabaseQueryUtility;
+import org.rhq.plugins.database.KeyedQuerySnapshot;
 
 public class PostgresDatabaseComponent implements DatabaseComponent<PostgresServerComponent<?>>, MeasurementFacet,
     CreateChildResourceFacet, OperationFacet {
@@ -56,6 +58,11 @@ public class PostgresDatabaseComponent implements DatabaseComponent<PostgresServ
 
     private String databaseName;
 
+    private final KeyedQuerySnapshot tableStatistics = new KeyedQuerySnapshot(
+        PostgresTableComponent.PG_STAT_ALL_USER_TABLES_QUERY, "relname", PostgresServerComponent.SNAPSHOT_WINDOW);
+
+    private RowCountRefresher rowCountRefresher;
+
     public Connection getConnection() {
         this.databaseName = resourceContext.getPluginConfiguration().getSimple("databaseName").getStringValue();
         if (this.databaseName.equals(resourceContext.getParentResourceComponent().getResourceContext()
@@ -78,23 +85,27 @@ public class PostgresDatabaseComponent implements DatabaseComponent<PostgresServ
     }
 
     public void removeConnection() {
-        try {
-            if ((this.databaseConnection != null) && !this.databaseConnection.isClosed()) {
-                this.databaseConnection.close();
-            }
-        } catch (SQLException se) {
-            log.debug("Closing and removing postgres connection");
-        }
-
+        DatabaseQueryUtility.closeConnection(this.databaseConnection);
         this.databaseConnection = null;
     }
 
     public void start(ResourceContext<PostgresServerComponent<?>> context) {
         this.resourceContext = context;
+
+        Configuration config = context.getParentResourceComponent().getResourceContext().getPluginConfiguration()
+            .deepCopy();
+        config.put(new PropertySimple("db", context.getPluginConfiguration().getSimple("databaseName")
+            .getStringValue()));
+        this.rowCountRefresher = new RowCountRefresher(config);
     }
 
     public void stop() {
         this.resourceContext = null;
+        this.tableStatistics.clear();
+        if (this.rowCountRefresher != null) {
+            this.rowCountRefresher.stop();
+            this.rowCountRefresher = null;
+        }
     }
 
     public AvailabilityType getAvailability() {
@@ -106,35 +117,59 @@ public class PostgresDatabaseComponent implements DatabaseComponent<PostgresServ
     }
 
     public void getValues(MeasurementReport report, Set<MeasurementScheduleRequest> metrics) {
-        PreparedStatement statement = null;
         try {
-            statement = this.resourceContext.getParentResourceComponent().getConnection().prepareStatement(
-                "SELECT *, pg_database_size(datname) AS size FROM pg_stat_database where datname = ?");
-            statement.setString(1, this.resourceContext.getPluginConfiguration().getSimple("databaseName")
-                .getStringValue());
-            ResultSet results = statement.executeQuery();
-            try {
-                if (!results.next()) {
-                    throw new RuntimeException("Couldn't get the data"); // TODO Error handling system
-                }
+            Map<String, Object> results = this.resourceContext.getParentResourceComponent().getDatabaseStatistics(
+                this.resourceContext.getPluginConfiguration().getSimple("databaseName").getStringValue());
+            if (results == null) {
+                throw new RuntimeException("Couldn't get the data"); // TODO Error handling system
+            }
 
-                for (MeasurementScheduleRequest request : metrics) {
-                    // Only size expected
-                    double val = results.getDouble(request.getName());
+            for (MeasurementScheduleRequest request : metrics) {
+                // Only size expected
+                Double val = PostgresServerComponent.getStatistic(results, request.getName());
+                if (val != null) {
                     report.addData(new MeasurementDataNumeric(request, val));
                 }
-            } finally {
-                results.close();
             }
         } catch (SQLException e) {
             throw new RuntimeException(e);
-        } finally {
-            try {
-                if (statement != null) {
-                    statement.close();
-                }
-            } catch (SQLException e) {
-            }
+        }
+    }
+
+    /**
+     * Returns the statistics of given table. The statistics of all the tables in this database are read using
+     * a single query that is executed at most once per statistics snapshot window.
+     *
+     * @param tableName the name of the table
+     * @return the statistics of the table or null if there is no such table
+     * @throws SQLException if the query fails
+     */
+    Map<String, Object> getTableStatistics(String tableName) throws SQLException {
+        return tableStatistics.getRow(this, tableName);
+    }
+
+    /**
+     * Returns the last known exact row count of given table. The rows are counted in the background at most once
+     * per row count refresh interval.
+     *
+     * @param tableName the name of the table
+     * @return the row count or null if the table hasn't been counted yet
+     */
+    Double getRowCount(String tableName) {
+        RowCountRefresher refresher = this.rowCountRefresher;
+        return refresher == null ? null : refresher.getRowCount(tableName);
+    }
+
+    /**
+     * Forgets the cached data about given table.
+     *
+     * @param tableName the name of the table
+     */
+    void tableRemoved(String tableName) {
+        tableStatistics.clear();
+        RowCountRefresher refresher = this.rowCountRefresher;
+        if (refresher != null) {
+            refresher.remove(tableName);
         }
     }
 
@@ -63,6 +63,8 @@ import org.rhq.core.system.AggregateProcessInfo;
 import org.rhq.core.system.ProcessInfo;
 import org.rhq.core.util.jdbc.JDBCUtil;
 import org.rhq.plugins.database.DatabaseComponent;
+import org.rhq.plugins.database.DatabaseQueryUtility;
+import org.rhq.plugins.database.KeyedQuerySnapshot;
 import org.rhq.plugins.postgres.util.PostgresqlConfFile;
 
 /**
@@ -79,6 +81,14 @@ public class PostgresServerComponent<T extends ResourceComponent<?>> implements
 
     private AggregateProcessInfo aggregateProcessInfo;
 
+    /**
+     * The time the statistics of the databases and tables are reused for.
+     */
+    static final long SNAPSHOT_WINDOW = Long.getLong("rhq.postgres.stats-snapshot-window", 15 * 1000L);
+
+    private final KeyedQuerySnapshot databaseStatistics = new KeyedQuerySnapshot(
+        "SELECT *, pg_database_size(datname) AS size FROM pg_stat_database", "datname", SNAPSHOT_WINDOW);
+
     private ResourceContext resourceContext;
 
     static final String DEFAULT_CONFIG_FILE_NAME = "postgresql.conf";
@@ -91,7 +101,7 @@ public class PostgresServerComponent<T extends ResourceComponent<?>> implements
         this.resourceContext = context;
         Configuration config = context.getPluginConfiguration();
 
-        JDBCUtil.safeClose(this.connection); // just to be sure we don't leak a connection
+        DatabaseQueryUtility.closeConnection(this.connection); // just to be sure we don't leak a connection
         this.connection = PostgresDiscoveryComponent.buildConnection(config, true);
 
         ProcessInfo processInfo = resourceContext.getNativeProcess();
@@ -105,7 +115,8 @@ public class PostgresServerComponent<T extends ResourceComponent<?>> implements
 
     public void stop() {
         this.resourceContext = null;
-        JDBCUtil.safeClose(this.connection);
+        this.databaseStatistics.clear();
+        DatabaseQueryUtility.closeConnection(this.connection);
         this.connection = null;
     }
 
@@ -143,10 +154,39 @@ public class PostgresServerComponent<T extends ResourceComponent<?>> implements
     }
 
     public void removeConnection() {
-        JDBCUtil.safeClose(this.connection);
+        DatabaseQueryUtility.closeConnection(this.connection);
         this.connection = null;
     }
 
+    /**
+     * Returns the statistics of given database. The statistics of all the databases are read using a single query
+     * that is executed at most once per statistics snapshot window.
+     *
+     * @param databaseName the name of the database
+     * @return the statistics keyed by the column names of pg_stat_database (plus "size") or null if there is no
+     * such database
+     * @throws SQLException if the query fails
+     */
+    Map<String, Object> getDatabaseStatistics(String databaseName) throws SQLException {
+        return databaseStatistics.getRow(this, databaseName);
+    }
+
+    /**
+     * Returns the numeric value of a statistic read by {@link #getDatabaseStatistics(String)} or
+     * {@link PostgresDatabaseComponent#getTableStatistics(String)}.
+     *
+     * @return the value, 0 if it is NULL (e.g. the index scans of a table without indexes) or null if there is no
+     * such statistic
+     */
+    static Double getStatistic(Map<String, Object> statistics, String name) {
+        if (!statistics.containsKey(name)) {
+            return null;
+        }
+
+        Double value = KeyedQuerySnapshot.getDouble(statistics, name);
+        return value == null ? 0d : value;
+    }
+
     // TODO: Why are we only supporting this small subset of config file params? (ips, 10/4/07)
     private static final String[] CONFIG_FILE_PROPERTIES = { "port", "max_connections", "shared_buffers",
         "max_fsm_pages", "log_destination", "redirect_stderr", "stats_start_collector", "stats_block_level",
@@ -23,10 +23,14 @@ import java.sql.DatabaseMetaData;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.rhq.core.domain.configuration.Configuration;
 import org.rhq.core.domain.configuration.ConfigurationUpdateStatus;
 import org.rhq.core.domain.configuration.Property;
@@ -54,18 +58,23 @@ import org.rhq.plugins.database.DatabaseQueryUtility;
  */
 public class PostgresTableComponent implements DatabaseComponent<PostgresDatabaseComponent>, MeasurementFacet,
     ConfigurationFacet, DeleteResourceFacet, OperationFacet {
+    private static final Log log = LogFactory.getLog(PostgresTableComponent.class);
+
     private static final List<String> PG_STAT_USER_TABLE_STATS = Arrays.asList("seq_scan", "seq_tup_read", "idx_scan",
         "idx_tup_fetch", "n_tup_ins", "n_tup_upd", "n_tup_del", "table_size", "total_size");
 
-    public static final String PG_STAT_USER_TABLES_QUERY = "SELECT ts.*,  pg_relation_size(ts.relid) AS table_size, pg_total_relation_size(ts.relid) AS total_size, \n"
+    /**
+     * The statistics of all the user tables in the database, including the approximate row count.
+     */
+    public static final String PG_STAT_ALL_USER_TABLES_QUERY = "SELECT ts.*,  pg_relation_size(ts.relid) AS table_size, pg_total_relation_size(ts.relid) AS total_size, \n"
         + "  ios.heap_blks_read, ios.heap_blks_hit, ios.idx_blks_read, ios.idx_blks_hit, \n"
-        + "  ios.toast_blks_read, ios.toast_blks_hit, ios.tidx_blks_read, ios.tidx_blks_hit \n"
+        + "  ios.toast_blks_read, ios.toast_blks_hit, ios.tidx_blks_read, ios.tidx_blks_hit, \n"
+        + "  c.reltuples AS rows_approx \n"
         + "FROM pg_stat_user_tables ts LEFT JOIN pg_statio_user_tables ios on ts.relid = ios.relid \n"
-        + "WHERE ts.relname = ?";
+        + "  LEFT JOIN pg_class c on ts.relid = c.oid";
 
     // NOTE: You can't bind table names as parameters
     public static final String PG_COUNT_ROWS = "SELECT COUNT(*) FROM ";
-    public static final String PG_COUNT_ROWS_APPROX = "SELECT reltuples FROM pg_class WHERE relname = ? ";
 
     private ResourceContext<PostgresDatabaseComponent> resourceContext;
 
@@ -86,19 +95,30 @@ public class PostgresTableComponent implements DatabaseComponent<PostgresDatabas
     }
 
     public void getValues(MeasurementReport report, Set<MeasurementScheduleRequest> requests) {
-        this.resourceContext.getParentResourceComponent().getConnection();
+        PostgresDatabaseComponent database = this.resourceContext.getParentResourceComponent();
+        database.getConnection();
+
+        Map<String, Object> results;
+        try {
+            results = database.getTableStatistics(getTableName());
+        } catch (SQLException e) {
+            log.debug("Unable to read the statistics of table [" + getTableName() + "]", e);
+            database.removeConnection();
+            results = null;
+        }
+
+        if (results == null) {
+            results = Collections.emptyMap();
+        }
 
-        Map<String, Double> results = DatabaseQueryUtility.getNumericQueryValues(this, PG_STAT_USER_TABLES_QUERY,
-            getTableName());
         for (MeasurementScheduleRequest request : requests) {
             String metricName = request.getName();
             Double value;
             if (metricName.equals("rows")) {
-                value = DatabaseQueryUtility.getSingleNumericQueryValue(this, PG_COUNT_ROWS + getTableName());
-            } else if (metricName.equals("rows_approx")) {
-                value = DatabaseQueryUtility.getSingleNumericQueryValue(this, PG_COUNT_ROWS_APPROX, getTableName());
+                // the exact count scans the whole table, so it is only refreshed in the background
+                value = database.getRowCount(getTableName());
             } else {
-                value = results.get(metricName);
+                value = PostgresServerComponent.getStatistic(results, metricName);
             }
 
             if (value!=null) {
@@ -110,6 +130,7 @@ public class PostgresTableComponent implements DatabaseComponent<PostgresDatabas
 
     public void deleteResource() throws SQLException {
         DatabaseQueryUtility.executeUpdate(this, "DROP TABLE " + getTableName(), new Object[] {});
+        this.resourceContext.getParentResourceComponent().tableRemoved(getTableName());
     }
 
     public Configuration loadResourceConfiguration() throws Exception {
@@ -0,0 +1,193 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2012 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.plugins.postgres;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.rhq.core.domain.configuration.Configuration;
+import org.rhq.core.util.jdbc.JDBCUtil;
+
+/**
+ * Counts the rows of the tables of a database in the background. The exact row count requires a full scan of the
+ * table, so the tables are counted one at a time on a dedicated connection and the counts are refreshed at most once
+ * per refresh interval. The measurement collection only ever reads the last known count.
+ */
+class RowCountRefresher {
+
+    private static final Log log = LogFactory.getLog(RowCountRefresher.class);
+
+    private static final String INTERVAL_SYSPROP = "rhq.postgres.row-count-interval";
+    private static final long DEFAULT_INTERVAL = 60 * 60 * 1000L; //1 hour
+
+    private final Configuration connectionConfiguration;
+    private final long interval;
+    private final ConcurrentMap<String, RowCount> rowCounts = new ConcurrentHashMap<String, RowCount>();
+
+    private ExecutorService executor;
+    private Connection connection;
+
+    /**
+     * @param connectionConfiguration the plugin configuration to build the connection to the database from
+     */
+    RowCountRefresher(Configuration connectionConfiguration) {
+        this.connectionConfiguration = connectionConfiguration;
+        this.interval = getInterval();
+    }
+
+    /**
+     * Returns the last known row count of the table and schedules a recount if it is older than the refresh interval.
+     *
+     * @param tableName the table to count the rows of
+     * @return the row count or null if the table hasn't been counted yet
+     */
+    Double getRowCount(String tableName) {
+        RowCount count = rowCounts.get(tableName);
+        if (count == null) {
+            count = new RowCount();
+            RowCount existing = rowCounts.putIfAbsent(tableName, count);
+            if (existing != null) {
+                count = existing;
+            }
+        }
+
+        if (count.shouldRefresh(interval)) {
+            schedule(tableName, count);
+        }
+
+        return count.value;
+    }
+
+    /**
+     * Forgets the count of the table, e.g. after it has been dropped.
+     */
+    void remove(String tableName) {
+        rowCounts.remove(tableName);
+    }
+
+    synchronized void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+
+        rowCounts.clear();
+        closeConnection();
+    }
+
+    private synchronized void schedule(final String tableName, final RowCount count) {
+        if (executor == null) {
+            executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "Postgres row counter ["
+                        + connectionConfiguration.getSimpleValue("db", null) + "]");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+
+        executor.execute(new Runnable() {
+            public void run() {
+                try {
+                    count.value = count(tableName);
+                } catch (Exception e) {
+                    log.debug("Failed to count the rows of the table [" + tableName + "].", e);
+                    closeConnection();
+                } finally {
+                    count.finished();
+                }
+            }
+        });
+    }
+
+    private Double count(String tableName) throws SQLException {
+        Statement statement = null;
+        ResultSet resultSet = null;
+        try {
+            // NOTE: You can't bind table names as parameters
+            statement = getConnection().createStatement();
+            resultSet = statement.executeQuery(PostgresTableComponent.PG_COUNT_ROWS + tableName);
+            return resultSet.next() ? resultSet.getDouble(1) : null;
+        } finally {
+            JDBCUtil.safeClose(statement, resultSet);
+        }
+    }
+
+    private synchronized Connection getConnection() throws SQLException {
+        if (connection == null || connection.isClosed()) {
+            connection = PostgresDiscoveryComponent.buildConnection(connectionConfiguration, true);
+        }
+
+        if (connection == null) {
+            throw new SQLException("Could not connect to the database.");
+        }
+
+        return connection;
+    }
+
+    private synchronized void closeConnection() {
+        JDBCUtil.safeClose(connection);
+        connection = null;
+    }
+
+    private static long getInterval() {
+        String value = System.getProperty(INTERVAL_SYSPROP);
+        if (value != null) {
+            try {
+                return Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                log.warn("Invalid value of the " + INTERVAL_SYSPROP + " system property: " + value);
+            }
+        }
+
+        return DEFAULT_INTERVAL;
+    }
+
+    private static class RowCount {
+        volatile Double value;
+        private long lastRefresh;
+        private boolean refreshing;
+
+        synchronized boolean shouldRefresh(long interval) {
+            long now = System.currentTimeMillis();
+            if (refreshing || (lastRefresh != 0 && now - lastRefresh < interval && now >= lastRefresh)) {
+                return false;
+            }
+
+            refreshing = true;
+            lastRefresh = now;
+            return true;
+        }
+
+        synchronized void finished() {
+            refreshing = false;
+        }
+    }
+}
@@ -83,6 +83,7 @@ public class SambaShareComponent extends AugeasConfigurationComponent<SambaServe
             Augeas augeas = getAugeas();
             augeas.remove(rootPath);
             augeas.save();
+            invalidateCachedAugeas();
         } finally {
             close();
         }
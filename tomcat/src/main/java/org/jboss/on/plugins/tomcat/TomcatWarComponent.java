@@ -30,9 +30,13 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.commons.logging.Log;
@@ -69,13 +73,13 @@ import org.rhq.core.pluginapi.inventory.ResourceContext;
 import org.rhq.core.pluginapi.operation.OperationResult;
 import org.rhq.core.pluginapi.util.FileUtils;
 import org.rhq.core.pluginapi.util.ResponseTimeConfiguration;
-import org.rhq.core.pluginapi.util.ResponseTimeLogParser;
 import org.rhq.core.util.ZipUtil;
 import org.rhq.core.util.exception.ThrowableUtil;
 import org.rhq.core.util.file.ContentFileInfo;
 import org.rhq.core.util.file.JarContentFileInfo;
 import org.rhq.plugins.jmx.MBeanResourceComponent;
 import org.rhq.plugins.jmx.util.ObjectNameQueryUtility;
+import org.rhq.plugins.jmx.util.ResponseTimeLogTailer;
 
 /**
  * A resource component for managing a web application (WAR) deployed to a Tomcat server.
@@ -110,6 +114,9 @@ public class TomcatWarComponent extends MBeanResourceComponent<TomcatVHostCompon
     private static final String QUERY_TEMPLATE_SESSION = "Catalina:type=Manager,host=%HOST%,path=%PATH%";
     private static final String QUERY_TEMPLATE_HOST = "Catalina:type=Manager,path=%PATH%,host=%host%";
 
+    private static final List<String> SERVLET_ATTRIBUTES = Arrays.asList("minTime", "maxTime", "processingTime",
+        "requestCount", "errorCount");
+
     protected static final String PROPERTY_NAME = "name";
     protected static final String PROPERTY_CONTEXT_ROOT = "contextRoot";
     protected static final String PROPERTY_FILENAME = "filename";
@@ -135,7 +142,14 @@ public class TomcatWarComponent extends MBeanResourceComponent<TomcatVHostCompon
      */
     private static final String ARCHITECTURE = "noarch";
     private EmsBean webModuleMBean;
-    private ResponseTimeLogParser logParser;
+    private ResponseTimeLogTailer.Subscription responseTimeLog;
+
+    /**
+     * The servlet and session MBeans of the WAR, resolved again once the web module has been (re)started
+     */
+    private List<EmsBean> servletMBeans;
+    private List<EmsBean> sessionMBeans;
+    private Object mBeansStartTime;
 
     @Override
     public AvailabilityType getAvailability() {
@@ -177,25 +191,34 @@ public class TomcatWarComponent extends MBeanResourceComponent<TomcatVHostCompon
         this.webModuleMBean = getWebModuleMBean();
 
         ResponseTimeConfiguration responseTimeConfig = new ResponseTimeConfiguration(pluginConfig);
-        File logFile = responseTimeConfig.getLogFile();
-        if (logFile != null) {
-            this.logParser = new ResponseTimeLogParser(logFile);
-            this.logParser.setExcludes(responseTimeConfig.getExcludes());
-            this.logParser.setTransforms(responseTimeConfig.getTransforms());
+        this.responseTimeLog = ResponseTimeLogTailer.subscribe(responseTimeConfig,
+            pluginConfig.getSimpleValue(PROPERTY_CONTEXT_ROOT, null));
+    }
+
+    @Override
+    public void stop() {
+        if (this.responseTimeLog != null) {
+            this.responseTimeLog.unsubscribe();
+            this.responseTimeLog = null;
         }
+        super.stop();
     }
 
     @Override
     public void getValues(MeasurementReport report, Set<MeasurementScheduleRequest> schedules) {
+        // all the servlet and session metrics are answered from a single read of the beans
+        ServletStatistics servletStatistics = null;
+        Map<String, EmsAttribute> sessionAttributes = null;
+        boolean redeployChecked = false;
 
         for (MeasurementScheduleRequest schedule : schedules) {
             String metricName = schedule.getName();
             try {
                 if (metricName.equals(METRIC_RESPONSE_TIME)) {
-                    if (this.logParser != null) {
+                    if (this.responseTimeLog != null) {
                         try {
                             CallTimeData callTimeData = new CallTimeData(schedule);
-                            this.logParser.parseLog(callTimeData);
+                            this.responseTimeLog.parseLog(callTimeData);
                             report.addData(callTimeData);
                         } catch (Exception e) {
                             log.error("Failed to retrieve HTTP call-time data.", e);
@@ -207,11 +230,25 @@ public class TomcatWarComponent extends MBeanResourceComponent<TomcatVHostCompon
                         // TODO: Communicate this error back to the server for display in the GUI.
                     }
                 } else if (metricName.startsWith(METRIC_PREFIX_SERVLET)) {
-                    Double value = getServletMetric(metricName);
+                    if (!redeployChecked) {
+                        checkRedeployed();
+                        redeployChecked = true;
+                    }
+                    if (servletStatistics == null) {
+                        servletStatistics = getServletStatistics();
+                    }
+                    Double value = servletStatistics.getValue(metricName);
                     MeasurementDataNumeric metric = new MeasurementDataNumeric(schedule, value);
                     report.addData(metric);
                 } else if (metricName.startsWith(METRIC_PREFIX_SESSION)) {
-                    Double value = getSessionMetric(metricName);
+                    if (!redeployChecked) {
+                        checkRedeployed();
+                        redeployChecked = true;
+                    }
+                    if (sessionAttributes == null) {
+                        sessionAttributes = getSessionAttributes(schedules);
+                    }
+                    Double value = getSessionMetric(metricName, sessionAttributes);
                     MeasurementDataNumeric metric = new MeasurementDataNumeric(schedule, value);
                     report.addData(metric);
                 } else if (metricName.startsWith(METRIC_PREFIX_VHOST)) {
@@ -245,98 +282,163 @@ public class TomcatWarComponent extends MBeanResourceComponent<TomcatVHostCompon
         }
     }
 
-    private Double getSessionMetric(String metricName) {
-        EmsConnection jmxConnection = getEmsConnection();
-        String servletMBeanNames = QUERY_TEMPLATE_SESSION;
-        Configuration config = getResourceContext().getPluginConfiguration();
-        servletMBeanNames = servletMBeanNames.replace("%PATH%", config.getSimpleValue(PROPERTY_CONTEXT_ROOT, ""));
-        servletMBeanNames = servletMBeanNames.replace("%HOST%", config.getSimpleValue(PROPERTY_VHOST, ""));
-        ObjectNameQueryUtility queryUtility = new ObjectNameQueryUtility(servletMBeanNames);
-        List<EmsBean> mBeans = jmxConnection.queryBeans(queryUtility.getTranslatedQuery());
-        String property = metricName.substring(METRIC_PREFIX_SESSION.length());
-        Double ret = Double.NaN;
+    /**
+     * Reads the attributes of the session MBean needed by the session metrics among the schedules in one go.
+     */
+    private Map<String, EmsAttribute> getSessionAttributes(Set<MeasurementScheduleRequest> schedules) {
+        List<String> properties = new ArrayList<String>();
+        for (MeasurementScheduleRequest schedule : schedules) {
+            if (schedule.getName().startsWith(METRIC_PREFIX_SESSION)) {
+                properties.add(schedule.getName().substring(METRIC_PREFIX_SESSION.length()));
+            }
+        }
 
+        Map<String, EmsAttribute> ret = new HashMap<String, EmsAttribute>();
+        List<EmsBean> mBeans = getSessionMBeans();
         if (mBeans.size() > 0) { // TODO flag error if != 1 ?
             EmsBean eBean = mBeans.get(0);
-            eBean.refreshAttributes();
-            EmsAttribute att = eBean.getAttribute(property);
-            if (att != null) {
-                Integer i = (Integer) att.getValue();
-                ret = Double.valueOf(i);
+            try {
+                for (EmsAttribute att : eBean.refreshAttributes(properties)) {
+                    ret.put(att.getName(), att);
+                }
+            } catch (RuntimeException e) {
+                // the bean might have gone with a redeploy
+                this.sessionMBeans = null;
+                throw e;
             }
+        }
+        return ret;
+    }
 
+    private Double getSessionMetric(String metricName, Map<String, EmsAttribute> sessionAttributes) {
+        String property = metricName.substring(METRIC_PREFIX_SESSION.length());
+        Double ret = Double.NaN;
+
+        EmsAttribute att = sessionAttributes.get(property);
+        if (att != null && att.getValue() instanceof Number) {
+            ret = ((Number) att.getValue()).doubleValue();
         }
         return ret;
     }
 
-    private Double getServletMetric(String metricName) {
+    /**
+     * Reads the statistics of all the servlets of the WAR, each servlet MBean with a single request.
+     */
+    private ServletStatistics getServletStatistics() {
+        ServletStatistics statistics = new ServletStatistics();
+        try {
+            for (EmsBean mBean : getServletMBeans()) {
+                statistics.add(mBean.refreshAttributes(SERVLET_ATTRIBUTES));
+            }
+        } catch (RuntimeException e) {
+            // some servlet might have gone with a redeploy
+            this.servletMBeans = null;
+            throw e;
+        }
+        return statistics;
+    }
+
+    private List<EmsBean> getServletMBeans() {
+        if (this.servletMBeans == null) {
+            String servletMBeanNames = QUERY_TEMPLATE_SERVLET;
+            Configuration config = getResourceContext().getPluginConfiguration();
+            servletMBeanNames = servletMBeanNames.replace("%WEBMODULE%", config.getSimpleValue(PROPERTY_NAME, ""));
+            ObjectNameQueryUtility queryUtility = new ObjectNameQueryUtility(servletMBeanNames);
+            this.servletMBeans = getEmsConnection().queryBeans(queryUtility.getTranslatedQuery());
+        }
+        return this.servletMBeans;
+    }
 
-        EmsConnection jmxConnection = getEmsConnection();
+    private List<EmsBean> getSessionMBeans() {
+        if (this.sessionMBeans == null) {
+            String sessionMBeanNames = QUERY_TEMPLATE_SESSION;
+            Configuration config = getResourceContext().getPluginConfiguration();
+            sessionMBeanNames = sessionMBeanNames.replace("%PATH%", config.getSimpleValue(PROPERTY_CONTEXT_ROOT, ""));
+            sessionMBeanNames = sessionMBeanNames.replace("%HOST%", config.getSimpleValue(PROPERTY_VHOST, ""));
+            ObjectNameQueryUtility queryUtility = new ObjectNameQueryUtility(sessionMBeanNames);
+            this.sessionMBeans = getEmsConnection().queryBeans(queryUtility.getTranslatedQuery());
+        }
+        return this.sessionMBeans;
+    }
+
+    /**
+     * Forgets the resolved servlet and session MBeans if the web module has been started again since they were
+     * resolved, or if its start time can't be read.
+     */
+    private void checkRedeployed() {
+        Object startTime = null;
+        EmsBean webModule = this.webModuleMBean;
+        if (webModule != null) {
+            try {
+                EmsAttribute att = webModule.getAttribute("startTime");
+                startTime = (att != null) ? att.refresh() : null;
+            } catch (Exception e) {
+                startTime = null;
+            }
+        }
 
-        String servletMBeanNames = QUERY_TEMPLATE_SERVLET;
-        Configuration config = getResourceContext().getPluginConfiguration();
-        servletMBeanNames = servletMBeanNames.replace("%WEBMODULE%", config.getSimpleValue(PROPERTY_NAME, ""));
-        ObjectNameQueryUtility queryUtility = new ObjectNameQueryUtility(servletMBeanNames);
-        List<EmsBean> mBeans = jmxConnection.queryBeans(queryUtility.getTranslatedQuery());
+        if (startTime == null || !startTime.equals(this.mBeansStartTime)) {
+            this.servletMBeans = null;
+            this.sessionMBeans = null;
+        }
+        this.mBeansStartTime = startTime;
+    }
 
-        long min = Long.MAX_VALUE;
-        long max = 0;
-        long processingTime = 0;
-        int requestCount = 0;
-        int errorCount = 0;
-        Double result;
+    /**
+     * The statistics of the servlets of the WAR, folded together.
+     */
+    private static class ServletStatistics {
+        private long min = Long.MAX_VALUE;
+        private long max = 0;
+        private long processingTime = 0;
+        private long requestCount = 0;
+        private long errorCount = 0;
+
+        void add(List<EmsAttribute> attributes) {
+            for (EmsAttribute att : attributes) {
+                Object value = att.getValue();
+                if (!(value instanceof Number)) {
+                    continue;
+                }
+                long l = ((Number) value).longValue();
+                String name = att.getName();
+                if (name.equals("minTime")) {
+                    if (l < min)
+                        min = l;
+                } else if (name.equals("maxTime")) {
+                    if (l > max)
+                        max = l;
+                } else if (name.equals("processingTime")) {
+                    processingTime += l;
+                } else if (name.equals("requestCount")) {
+                    requestCount += l;
+                } else if (name.equals("errorCount")) {
+                    errorCount += l;
+                }
+            }
+        }
 
-        for (EmsBean mBean : mBeans) {
-            mBean.refreshAttributes();
-            if (metricName.equals(METRIC_MIN_SERVLET_TIME)) {
-                EmsAttribute att = mBean.getAttribute("minTime");
-                Long l = (Long) att.getValue();
-                if (l < min)
-                    min = l;
+        Double getValue(String metricName) {
+            Double result;
+            if (metricName.equals(METRIC_AVG_SERVLET_TIME)) {
+                result = (requestCount > 0) ? ((double) processingTime / (double) requestCount) : Double.NaN;
+            } else if (metricName.equals(METRIC_MIN_SERVLET_TIME)) {
+                result = (min != Long.MAX_VALUE) ? (double) min : Double.NaN;
             } else if (metricName.equals(METRIC_MAX_SERVLET_TIME)) {
-                EmsAttribute att = mBean.getAttribute("maxTime");
-                Long l = (Long) att.getValue();
-                if (l > max)
-                    max = l;
-            } else if (metricName.equals(METRIC_AVG_SERVLET_TIME)) {
-                EmsAttribute att = mBean.getAttribute("processingTime");
-                Long l = (Long) att.getValue();
-                processingTime += l;
-                att = mBean.getAttribute("requestCount");
-                Integer i = (Integer) att.getValue();
-                requestCount += i;
-            } else if (metricName.equals(METRIC_NUM_SERVLET_REQUESTS)) {
-                EmsAttribute att = mBean.getAttribute("requestCount");
-                Integer i = (Integer) att.getValue();
-                requestCount += i;
+                result = (max != 0) ? (double) max : Double.NaN;
             } else if (metricName.equals(METRIC_NUM_SERVLET_ERRORS)) {
-                EmsAttribute att = mBean.getAttribute("errorCount");
-                Integer i = (Integer) att.getValue();
-                errorCount += i;
+                result = (double) errorCount;
+            } else if (metricName.equals(METRIC_NUM_SERVLET_REQUESTS)) {
+                result = (double) requestCount;
             } else if (metricName.equals(METRIC_TOTAL_TIME)) {
-                EmsAttribute att = mBean.getAttribute("processingTime");
-                Long l = (Long) att.getValue();
-                processingTime += l;
+                result = (double) processingTime;
+            } else {
+                // fallback
+                result = Double.NaN;
             }
-        }
-        if (metricName.equals(METRIC_AVG_SERVLET_TIME)) {
-            result = (requestCount > 0) ? ((double) processingTime / (double) requestCount) : Double.NaN;
-        } else if (metricName.equals(METRIC_MIN_SERVLET_TIME)) {
-            result = (min != Long.MAX_VALUE) ? (double) min : Double.NaN;
-        } else if (metricName.equals(METRIC_MAX_SERVLET_TIME)) {
-            result = (max != 0) ? (double) max : Double.NaN;
-        } else if (metricName.equals(METRIC_NUM_SERVLET_ERRORS)) {
-            result = (double) errorCount;
-        } else if (metricName.equals(METRIC_NUM_SERVLET_REQUESTS)) {
-            result = (double) requestCount;
-        } else if (metricName.equals(METRIC_TOTAL_TIME)) {
-            result = (double) processingTime;
-        } else {
-            // fallback
-            result = Double.NaN;
-        }
 
-        return result;
+            return result;
+        }
     }
 
     @Override